@@ -13,6 +13,8 @@ import org.springframework.stereotype.Controller;
 import pl.orion.rover_controller_service.chassis.model.ChassisInboundPayload;
 import pl.orion.rover_controller_service.chassis.service.DriveModeManager;
 import pl.orion.rover_controller_service.config.MqttClient;
+import pl.orion.rover_controller_service.tracing.MqttTracing;
+import pl.orion.rover_controller_service.tracing.TraceContext;
 
 import java.nio.charset.StandardCharsets;
 import jakarta.annotation.PostConstruct;
@@ -21,10 +23,13 @@ import jakarta.annotation.PreDestroy;
 @Controller
 public class ChassisMqttController {
     private static final Logger logger = LoggerFactory.getLogger(ChassisMqttController.class);
+    private static final String RECEIVED_HOP = "controller-received";
+    private static final String PUBLISHED_HOP = "controller-published";
     
     private final Mqtt5AsyncClient mqttClient;
     private final DriveModeManager driveModeManager;
     private final ObjectMapper objectMapper;
+    private final MqttTracing tracing;
     
     @Value("${chassis.upstream.inbound:orion/topic/chassis/controller/inbound}")
     private String chassisInboundTopic;
@@ -33,10 +38,11 @@ public class ChassisMqttController {
     private String chassisOutboundTopic;
     
     public ChassisMqttController(MqttClient mqttClient, DriveModeManager driveModeManager, 
-                                @Qualifier("chassisObjectMapper") ObjectMapper objectMapper) {
+                                @Qualifier("chassisObjectMapper") ObjectMapper objectMapper, MqttTracing tracing) {
         this.mqttClient = mqttClient.getMqttClient();
         this.driveModeManager = driveModeManager;
         this.objectMapper = objectMapper;
+        this.tracing = tracing;
     }
     
     @PostConstruct
@@ -76,6 +82,7 @@ public class ChassisMqttController {
     
     private void handleInboundMessage(Mqtt5Publish publish) {
         try {
+            TraceContext trace = tracing.received(publish, RECEIVED_HOP);
             String payload = new String(publish.getPayloadAsBytes(), StandardCharsets.UTF_8);
             logger.trace("Received message on topic {}: {}", publish.getTopic(), payload);
             
@@ -89,21 +96,25 @@ public class ChassisMqttController {
             String outboundJson = objectMapper.writeValueAsString(outboundPayload);
             
             // Publish the outbound payload
-            publishOutboundMessage(outboundJson);
+            publishOutboundMessage(outboundJson, trace);
         } catch (Exception e) {
             logger.error("Error processing inbound chassis message: {}", e.getMessage(), e);
         }
     }
     
-    private void publishOutboundMessage(String payload) {
+    private void publishOutboundMessage(String payload, TraceContext trace) {
         logger.trace("Publishing outbound message to topic {}: {}", chassisOutboundTopic, payload);
         
-        mqttClient.publishWith()
+        var message = mqttClient.publishWith()
             .topic(chassisOutboundTopic)
             .qos(MqttQos.AT_LEAST_ONCE)
             .payload(payload.getBytes(StandardCharsets.UTF_8))
-            .qos(com.hivemq.client.mqtt.datatypes.MqttQos.AT_LEAST_ONCE)
-            .send()
+            .qos(com.hivemq.client.mqtt.datatypes.MqttQos.AT_LEAST_ONCE);
+        if (trace != null) {
+            // Carry the trace downstream so the gateway can record its hops
+            message = message.userProperties(tracing.hop(trace, PUBLISHED_HOP).toUserProperties());
+        }
+        message.send()
             .whenComplete((publishResult, throwable) -> {
                 if (throwable != null) {
                     logger.error("Failed to publish outbound chassis message: {}", throwable.getMessage(), throwable);
@@ -0,0 +1,54 @@
+package pl.orion.rover_controller_service.tracing;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.springframework.stereotype.Component;
+
+/**
+ * Records the time between consecutive hops of sampled traces into one HdrHistogram per hop pair.
+ */
+@Component
+public class HopLatencyRecorder {
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    public record HopLatency(long count, double p50Ms, double p99Ms, double p999Ms, double maxMs) {
+    }
+
+    private final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    /**
+     * Appends a hop to the trace and records its distance from the previous hop.
+     */
+    public TraceContext recordHop(TraceContext trace, String hop, long epochMicros) {
+        final var previous = trace.lastHop();
+        if (previous != null) {
+            // Clocks of different hosts may disagree, a hop can not take less than nothing
+            final long latencyMicros = Math.max(0, epochMicros - previous.epochMicros());
+            histograms.computeIfAbsent(previous.name() + " -> " + hop, key -> new ConcurrentHistogram(SIGNIFICANT_DIGITS))
+                .recordValue(latencyMicros);
+        }
+        return trace.withHop(hop, epochMicros);
+    }
+
+    public Map<String, HopLatency> getHopLatencies() {
+        final var latencies = new TreeMap<String, HopLatency>();
+        histograms.forEach((hop, histogram) -> {
+            final Histogram copy = histogram.copy();
+            latencies.put(hop, new HopLatency(
+                copy.getTotalCount(),
+                copy.getValueAtPercentile(50.0) / 1e3,
+                copy.getValueAtPercentile(99.0) / 1e3,
+                copy.getValueAtPercentile(99.9) / 1e3,
+                copy.getMaxValue() / 1e3));
+        });
+        return latencies;
+    }
+
+    public void reset() {
+        histograms.values().forEach(Histogram::reset);
+    }
+}
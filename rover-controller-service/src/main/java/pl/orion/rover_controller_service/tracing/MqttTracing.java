@@ -0,0 +1,43 @@
+package pl.orion.rover_controller_service.tracing;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5Publish;
+
+/**
+ * Continues traces started by ground control and samples new ones for untraced commands.
+ */
+@Component
+public class MqttTracing {
+    private final HopLatencyRecorder recorder;
+    private final double sampleRate;
+
+    public MqttTracing(HopLatencyRecorder recorder, @Value("${tracing.sample-rate:0.01}") double sampleRate) {
+        this.recorder = recorder;
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * @return trace of the message with the receive hop appended, or {@code null} if it is not sampled
+     */
+    public TraceContext received(Mqtt5Publish publish, String hop) {
+        final long nowMicros = TraceClock.nowMicros();
+        final var trace = TraceContext.fromUserProperties(publish.getUserProperties());
+        if (trace != null) {
+            return recorder.recordHop(trace, hop, nowMicros);
+        }
+        if (sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate) {
+            return new TraceContext(UUID.randomUUID().toString(), List.of()).withHop(hop, nowMicros);
+        }
+        return null;
+    }
+
+    public TraceContext hop(TraceContext trace, String hop) {
+        return recorder.recordHop(trace, hop, TraceClock.nowMicros());
+    }
+}
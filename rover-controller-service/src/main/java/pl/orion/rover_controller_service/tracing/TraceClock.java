@@ -0,0 +1,20 @@
+package pl.orion.rover_controller_service.tracing;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Epoch microseconds that never go backwards within the process. Anchored to the wall clock once at startup
+ * and advanced by {@link System#nanoTime()}, so hop timestamps of services on the same host are comparable
+ * while NTP slewing cannot produce negative in-process hops.
+ */
+public final class TraceClock {
+    private static final long ORIGIN_EPOCH_MICROS = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+    private static final long ORIGIN_NANOS = System.nanoTime();
+
+    private TraceClock() {
+    }
+
+    public static long nowMicros() {
+        return ORIGIN_EPOCH_MICROS + (System.nanoTime() - ORIGIN_NANOS) / 1000;
+    }
+}
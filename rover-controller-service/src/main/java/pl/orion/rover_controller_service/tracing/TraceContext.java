@@ -0,0 +1,77 @@
+package pl.orion.rover_controller_service.tracing;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.hivemq.client.mqtt.mqtt5.datatypes.Mqtt5UserProperties;
+import com.hivemq.client.mqtt.mqtt5.datatypes.Mqtt5UserPropertiesBuilder;
+import com.hivemq.client.mqtt.mqtt5.datatypes.Mqtt5UserProperty;
+
+/**
+ * Trace of a single command across services, carried in MQTT5 user properties: one {@code orion-trace-id}
+ * and one {@code orion-trace-hop} ({@code name@epochMicros}) per hop, in order. User properties may repeat
+ * and keep their order, so every service simply appends its hops. This is the reference of the wire format
+ * described under "Command tracing" in ARCHITECTURE.md, the uart-mqtt-gateway reads it on its own.
+ */
+public record TraceContext(String traceId, List<Hop> hops) {
+    public static final String TRACE_ID_PROPERTY = "orion-trace-id";
+    public static final String HOP_PROPERTY = "orion-trace-hop";
+
+    public record Hop(String name, long epochMicros) {
+    }
+
+    /**
+     * @return the trace carried by the message, or {@code null} if it was not sampled
+     */
+    public static TraceContext fromUserProperties(Mqtt5UserProperties userProperties) {
+        final List<? extends Mqtt5UserProperty> properties = userProperties.asList();
+        if (properties.isEmpty()) {
+            return null;
+        }
+        String traceId = null;
+        final var hops = new ArrayList<Hop>(properties.size());
+        for (Mqtt5UserProperty property : properties) {
+            final String name = property.getName().toString();
+            if (TRACE_ID_PROPERTY.equals(name)) {
+                traceId = property.getValue().toString();
+            } else if (HOP_PROPERTY.equals(name)) {
+                final Hop hop = parseHop(property.getValue().toString());
+                if (hop != null) {
+                    hops.add(hop);
+                }
+            }
+        }
+        return traceId != null ? new TraceContext(traceId, List.copyOf(hops)) : null;
+    }
+
+    public TraceContext withHop(String name, long epochMicros) {
+        final var extended = new ArrayList<Hop>(hops.size() + 1);
+        extended.addAll(hops);
+        extended.add(new Hop(name, epochMicros));
+        return new TraceContext(traceId, List.copyOf(extended));
+    }
+
+    public Hop lastHop() {
+        return hops.isEmpty() ? null : hops.get(hops.size() - 1);
+    }
+
+    public Mqtt5UserProperties toUserProperties() {
+        final Mqtt5UserPropertiesBuilder builder = Mqtt5UserProperties.builder().add(TRACE_ID_PROPERTY, traceId);
+        for (Hop hop : hops) {
+            builder.add(HOP_PROPERTY, hop.name() + "@" + hop.epochMicros());
+        }
+        return builder.build();
+    }
+
+    private static Hop parseHop(String value) {
+        final int separator = value.lastIndexOf('@');
+        if (separator <= 0) {
+            return null;
+        }
+        try {
+            return new Hop(value.substring(0, separator), Long.parseLong(value.substring(separator + 1)));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
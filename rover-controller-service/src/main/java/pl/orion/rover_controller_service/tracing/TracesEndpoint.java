@@ -0,0 +1,28 @@
+package pl.orion.rover_controller_service.tracing;
+
+import java.util.Map;
+
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+@Component
+@Endpoint(id = "traces")
+public class TracesEndpoint {
+    private final HopLatencyRecorder recorder;
+
+    public TracesEndpoint(HopLatencyRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    @ReadOperation
+    public Map<String, HopLatencyRecorder.HopLatency> hopLatencies() {
+        return recorder.getHopLatencies();
+    }
+
+    @DeleteOperation
+    public void reset() {
+        recorder.reset();
+    }
+}
@@ -0,0 +1,46 @@
+package pl.orion.rover_controller_service.tracing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5Publish;
+
+class MqttTracingTest {
+
+    private final HopLatencyRecorder recorder = new HopLatencyRecorder();
+
+    @Test
+    void continuesTraceStartedUpstream() {
+        final var tracing = new MqttTracing(recorder, 0.0);
+        final var upstream = new TraceContext("trace-1", List.of()).withHop("ground-control", TraceClock.nowMicros());
+
+        final var trace = tracing.received(publish(upstream), "controller-received");
+        final var published = tracing.hop(trace, "controller-published");
+
+        assertEquals("trace-1", published.traceId());
+        assertEquals(List.of("ground-control", "controller-received", "controller-published"),
+            published.hops().stream().map(TraceContext.Hop::name).toList());
+        assertEquals(1, recorder.getHopLatencies().get("ground-control -> controller-received").count());
+        assertEquals(1, recorder.getHopLatencies().get("controller-received -> controller-published").count());
+    }
+
+    @Test
+    void samplesUntracedCommandsAccordingToRate() {
+        final var untraced = Mqtt5Publish.builder().topic("orion/topic/chassis/controller/inbound").build();
+
+        assertNull(new MqttTracing(recorder, 0.0).received(untraced, "controller-received"));
+        assertNotNull(new MqttTracing(recorder, 1.0).received(untraced, "controller-received"));
+    }
+
+    private static Mqtt5Publish publish(TraceContext trace) {
+        return Mqtt5Publish.builder()
+            .topic("orion/topic/chassis/controller/inbound")
+            .userProperties(trace.toUserProperties())
+            .build();
+    }
+}
@@ -0,0 +1,56 @@
+package pl.orion.rover_controller_service.tracing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.hivemq.client.mqtt.mqtt5.datatypes.Mqtt5UserProperties;
+
+class TraceContextTest {
+
+    @Test
+    void userPropertiesFollowTheDocumentedWireFormat() {
+        final var trace = new TraceContext("trace-1", List.of())
+            .withHop("ground-control", 1_000)
+            .withHop("controller-received", 1_500);
+
+        assertEquals(Mqtt5UserProperties.builder()
+                .add("orion-trace-id", "trace-1")
+                .add("orion-trace-hop", "ground-control@1000")
+                .add("orion-trace-hop", "controller-received@1500")
+                .build(),
+            trace.toUserProperties());
+    }
+
+    @Test
+    void hopsAppendedUpstreamAreKeptInOrder() {
+        final var properties = Mqtt5UserProperties.builder()
+            .add("orion-trace-hop", "ground-control@1000")
+            .add("orion-trace-id", "trace-1")
+            .add("other", "value")
+            .add("orion-trace-hop", "web-socket@1200")
+            .build();
+
+        final var trace = TraceContext.fromUserProperties(properties);
+
+        assertEquals(List.of(new TraceContext.Hop("ground-control", 1_000), new TraceContext.Hop("web-socket", 1_200)),
+            trace.hops());
+        assertEquals("web-socket", trace.lastHop().name());
+    }
+
+    @Test
+    void hopNamesMayContainTheSeparator() {
+        final var trace = new TraceContext("trace-1", List.of()).withHop("ui@tablet", 1_000);
+
+        assertEquals(trace, TraceContext.fromUserProperties(trace.toUserProperties()));
+    }
+
+    @Test
+    void messagesWithoutTraceIdAreNotTraced() {
+        assertNull(TraceContext.fromUserProperties(Mqtt5UserProperties.of()));
+        assertNull(TraceContext.fromUserProperties(Mqtt5UserProperties.builder().add("orion-trace-hop", "a@1").build()));
+    }
+}
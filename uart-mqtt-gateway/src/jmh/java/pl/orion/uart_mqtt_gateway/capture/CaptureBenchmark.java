@@ -0,0 +1,61 @@
+package pl.orion.uart_mqtt_gateway.capture;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties;
+
+/**
+ * Cost the capture adds to every port read, segments rotate and are deleted as in the field.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CaptureBenchmark {
+
+    private Path directory;
+    private UartCapture capture;
+    private byte[] frame;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("capture-benchmark");
+        final var config = new UartMqttGatewayProperties.Serial.Capture();
+        config.setEnabled(true);
+        config.setDirectory(directory.toString());
+        config.setSegmentBytes(4 * 1024 * 1024);
+        config.setMaxBytes(16L * 1024 * 1024);
+        capture = new UartCapture(config, System::nanoTime, System::currentTimeMillis);
+        capture.start();
+        frame = "{\"eventType\":\"chassis\",\"payload\":{\"left\":120,\"right\":-40,\"durationMs\":1000}}\n\n"
+            .getBytes(StandardCharsets.UTF_8);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        capture.stop();
+        try (var files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public void received() {
+        capture.received("/dev/ttyUSB0", frame, 0, frame.length);
+    }
+}
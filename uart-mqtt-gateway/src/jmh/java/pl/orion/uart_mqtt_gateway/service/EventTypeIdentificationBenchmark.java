@@ -0,0 +1,54 @@
+package pl.orion.uart_mqtt_gateway.service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Compares the cost of finding {@code eventType} in a frame: the former per-frame
+ * {@code ObjectMapper} tree against the streaming {@link EventTypeSniffer}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EventTypeIdentificationBenchmark {
+
+    @Param({"100", "4096"})
+    private int frameSize;
+
+    private byte[] frame;
+
+    @Setup
+    public void setUp() {
+        final var prefix = "{\"eventType\":\"science\",\"payload\":{\"samples\":[";
+        final var suffix = "0]}}";
+        final var samples = new StringBuilder();
+        while (prefix.length() + samples.length() + suffix.length() < frameSize) {
+            samples.append("0,");
+        }
+        frame = (prefix + samples + suffix).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public String objectMapperTree() throws IOException {
+        final JsonNode jsonNode = new ObjectMapper().readTree(frame);
+        return jsonNode.has("eventType") ? jsonNode.get("eventType").asText() : null;
+    }
+
+    @Benchmark
+    public String streamingSniffer() throws IOException {
+        return EventTypeSniffer.sniff(frame);
+    }
+}
@@ -0,0 +1,79 @@
+package pl.orion.uart_mqtt_gateway.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5Publish;
+import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5PublishResult;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties;
+import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties.UartMqttMapping.MqttMapping.Publication;
+
+/**
+ * Gateway side of a publish: message building, QoS mapping and acknowledgement bookkeeping. The network client
+ * is replaced by one that acknowledges immediately.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MqttPublishBenchmark {
+
+    @Param({"0", "1"})
+    private int qos;
+
+    private MqttServiceImpl mqttService;
+    private Publication publication;
+    private byte[] frame;
+
+    @Setup
+    public void setUp() {
+        mqttService = new AcknowledgingMqttService(new UartMqttGatewayProperties());
+        publication = new Publication();
+        publication.setQos(qos);
+        frame = "{\"eventType\":\"chassis\",\"payload\":{\"left\":0.5,\"right\":0.5}}\n\n".getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public void publish() {
+        mqttService.publish("orion/topic/chassis/outbound", frame, publication);
+    }
+
+    static class AcknowledgingMqttService extends MqttServiceImpl {
+        // Shared, so the stub itself does not show up in the allocation profile
+        private static final CompletableFuture<Mqtt5PublishResult> ACKNOWLEDGED = CompletableFuture.completedFuture(
+            new Mqtt5PublishResult() {
+                private final Mqtt5Publish publish = Mqtt5Publish.builder().topic("orion/topic/chassis/outbound").build();
+
+                @Override
+                public Mqtt5Publish getPublish() {
+                    return publish;
+                }
+
+                @Override
+                public Optional<Throwable> getError() {
+                    return Optional.empty();
+                }
+            });
+
+        AcknowledgingMqttService(UartMqttGatewayProperties properties) {
+            super(properties, new SimpleMeterRegistry());
+        }
+
+        @Override
+        CompletableFuture<Mqtt5PublishResult> send(Mqtt5Publish publish) {
+            return ACKNOWLEDGED;
+        }
+    }
+}
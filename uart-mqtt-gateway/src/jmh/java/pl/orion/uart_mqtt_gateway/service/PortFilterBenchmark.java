@@ -0,0 +1,55 @@
+package pl.orion.uart_mqtt_gateway.service;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.fazecast.jSerialComm.SerialPort;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties;
+import pl.orion.uart_mqtt_gateway.tracing.HopLatencyRecorder;
+
+/**
+ * Port filtering done on every scan, against the port list of a typical Linux host.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PortFilterBenchmark {
+
+    private DeviceManagerServiceImpl deviceManagerService;
+    private SerialPort[] ports;
+
+    @Setup
+    public void setUp() {
+        final var serial = new UartMqttGatewayProperties.Serial();
+        serial.setAllowedPortNamePrefixes(List.of("/dev/ttyUSB", "regex:/dev/ttyACM[0-9]"));
+        final var properties = new UartMqttGatewayProperties();
+        properties.setSerial(serial);
+        // Only the filter is exercised, so the collaborators used for device handling are left out
+        deviceManagerService = new DeviceManagerServiceImpl(null, properties, null, new SimpleMeterRegistry(), new HopLatencyRecorder(), null, null);
+
+        ports = Stream.of(
+                IntStream.range(0, 32).mapToObj(i -> "/dev/ttyS" + i),
+                IntStream.range(0, 4).mapToObj(i -> "/dev/ttyUSB" + i),
+                IntStream.range(0, 4).mapToObj(i -> "/dev/ttyACM" + i))
+            .flatMap(paths -> paths)
+            .map(SerialPort::getCommPort)
+            .toArray(SerialPort[]::new);
+    }
+
+    @Benchmark
+    public List<SerialPort> filterAllowedPorts() {
+        return deviceManagerService.filterAllowedPorts(ports);
+    }
+}
@@ -0,0 +1,154 @@
+package pl.orion.uart_mqtt_gateway.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fazecast.jSerialComm.SerialPort;
+import com.fazecast.jSerialComm.SerialPortEvent;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties;
+import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties.UartMqttMapping.MqttMapping.Publication;
+import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties.UartMqttMapping.MqttMapping.Subscription;
+import pl.orion.uart_mqtt_gateway.spool.TelemetrySpool;
+import pl.orion.uart_mqtt_gateway.tracing.HopLatencyRecorder;
+
+/**
+ * The path every UART frame takes up to the MQTT client: {@code serialEvent} of an identified device, and the
+ * eventType lookup done for frames of a device that is still being identified.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SerialPathBenchmark {
+
+    @Param({"64", "1024"})
+    private int frameSize;
+
+    private final ScheduledExecutorService outboundTimer = Executors.newSingleThreadScheduledExecutor();
+    private final NoopMqttService mqttService = new NoopMqttService();
+    private DeviceHandler deviceHandler;
+    private SerialPortEvent dataReceived;
+    private byte[] frame;
+
+    @Setup
+    public void setUp() {
+        final var serialPort = SerialPort.getCommPort("/dev/null");
+        final var properties = properties();
+        deviceHandler = new DeviceHandler(serialPort, properties, mqttService, outboundTimer, new SimpleMeterRegistry(),
+            new HopLatencyRecorder(), new TopicIndexRegistry(properties, new ObjectMapper()), null, null, portPath -> {});
+
+        final var prefix = "{\"eventType\":\"chassis\",\"payload\":\"";
+        final var suffix = "\"}\n\n";
+        frame = (prefix + "x".repeat(Math.max(0, frameSize - prefix.length() - suffix.length())) + suffix)
+            .getBytes(StandardCharsets.UTF_8);
+        dataReceived = new SerialPortEvent(serialPort, SerialPort.LISTENING_EVENT_DATA_RECEIVED, frame);
+
+        // Identification happens once, the benchmarks measure the steady state afterwards
+        deviceHandler.serialEvent(dataReceived);
+    }
+
+    @TearDown
+    public void tearDown() {
+        deviceHandler.stop();
+        outboundTimer.shutdownNow();
+    }
+
+    @Benchmark
+    public Object serialEvent() {
+        deviceHandler.serialEvent(dataReceived);
+        return mqttService.lastPayload;
+    }
+
+    @Benchmark
+    public Object identifyEventType() throws IOException {
+        return deviceHandler.resolveMapping(frame, 0, frame.length);
+    }
+
+    private static UartMqttGatewayProperties properties() {
+        final var topics = new UartMqttGatewayProperties.UartMqttMapping.MqttMapping();
+        topics.setInbound("orion/topic/chassis/inbound");
+        topics.setOutbound("orion/topic/chassis/outbound");
+        final var mapping = new UartMqttGatewayProperties.UartMqttMapping();
+        mapping.setLabel("chassis-microcontroller");
+        mapping.setEventType("chassis");
+        mapping.setMqtt(topics);
+        final var serial = new UartMqttGatewayProperties.Serial();
+        serial.setDelimiter("\n\n");
+        final var properties = new UartMqttGatewayProperties();
+        properties.setSerial(serial);
+        properties.setUartMqttMapping(List.of(mapping));
+        return properties;
+    }
+
+    static class NoopMqttService implements MqttService {
+        volatile Object lastPayload;
+
+        @Override
+        public void connect() {
+        }
+
+        @Override
+        public void disconnect() {
+        }
+
+        @Override
+        public void publish(String topic, String payload) {
+            lastPayload = payload;
+        }
+
+        @Override
+        public void publish(String topic, byte[] payload) {
+            lastPayload = payload;
+        }
+
+        @Override
+        public void publish(String topic, ByteBuffer payload) {
+            lastPayload = payload;
+        }
+
+        @Override
+        public void publish(String topic, byte[] payload, Publication publication) {
+            lastPayload = payload;
+        }
+
+        @Override
+        public void subscribe(String topic, MqttMessageHandler handler) {
+        }
+
+        @Override
+        public void subscribe(String topic, Subscription subscription, MqttMessageHandler handler) {
+        }
+
+        @Override
+        public void unsubscribe(String topic) {
+        }
+
+        @Override
+        public Map<String, PublishAckStats.Snapshot> getPublishAckStats() {
+            return Map.of();
+        }
+
+        @Override
+        public Map<String, TelemetrySpool.TopicStats> getSpoolStats() {
+            return Map.of();
+        }
+    }
+}
@@ -8,8 +8,10 @@ import org.springframework.boot.ApplicationRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.ImportRuntimeHints;
 import org.springframework.scheduling.annotation.EnableScheduling;
 
+import pl.orion.uart_mqtt_gateway.config.NativeRuntimeHints;
 import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties;
 import pl.orion.uart_mqtt_gateway.service.MqttService;
 
@@ -17,6 +19,7 @@ import pl.orion.uart_mqtt_gateway.service.MqttService;
 @EnableScheduling
 @SpringBootApplication
 @EnableConfigurationProperties(UartMqttGatewayProperties.class)
+@ImportRuntimeHints(NativeRuntimeHints.class)
 @RequiredArgsConstructor
 public class UartMqttGatewayApplication implements ApplicationRunner {
 
@@ -0,0 +1,44 @@
+package pl.orion.uart_mqtt_gateway.actuator;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import lombok.RequiredArgsConstructor;
+import pl.orion.uart_mqtt_gateway.service.DeviceConnState;
+import pl.orion.uart_mqtt_gateway.service.DeviceManagerService;
+import pl.orion.uart_mqtt_gateway.service.OutboundLimiter;
+import pl.orion.uart_mqtt_gateway.service.SerialWriter;
+
+@Component
+@Endpoint(id = "devices")
+@RequiredArgsConstructor
+public class DevicesEndpoint {
+    private final DeviceManagerService deviceManagerService;
+
+    public record DeviceDescriptor(String eventType, String inboundTopic, String outboundTopic,
+                                   DeviceConnState state, long lastSerialMsgReceivedTimestamp,
+                                   long droppedFrames, OutboundLimiter.Stats outbound, SerialWriter.Stats writer) {
+    }
+
+    @ReadOperation
+    public Map<String, DeviceDescriptor> devices() {
+        final var devices = new TreeMap<String, DeviceDescriptor>();
+        deviceManagerService.getManagedDevices().forEach((portPath, device) -> {
+            final var topics = device.getMqttTopics();
+            devices.put(portPath, new DeviceDescriptor(
+                device.getEventType().getNow(null),
+                topics != null ? topics.getInbound() : null,
+                topics != null ? topics.getOutbound() : null,
+                device.getState(),
+                device.getLastSerialMsgReceivedTimestamp(),
+                device.getDroppedFrames(),
+                device.getOutboundStats(),
+                device.getWriterStats()));
+        });
+        return devices;
+    }
+}
@@ -0,0 +1,23 @@
+package pl.orion.uart_mqtt_gateway.actuator;
+
+import java.util.Map;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import lombok.RequiredArgsConstructor;
+import pl.orion.uart_mqtt_gateway.service.MqttService;
+import pl.orion.uart_mqtt_gateway.service.PublishAckStats;
+
+@Component
+@Endpoint(id = "mqtt")
+@RequiredArgsConstructor
+public class MqttEndpoint {
+    private final MqttService mqttService;
+
+    @ReadOperation
+    public Map<String, PublishAckStats.Snapshot> publishAcks() {
+        return mqttService.getPublishAckStats();
+    }
+}
@@ -0,0 +1,23 @@
+package pl.orion.uart_mqtt_gateway.actuator;
+
+import java.util.Map;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import lombok.RequiredArgsConstructor;
+import pl.orion.uart_mqtt_gateway.service.MqttService;
+import pl.orion.uart_mqtt_gateway.spool.TelemetrySpool;
+
+@Component
+@Endpoint(id = "spool")
+@RequiredArgsConstructor
+public class SpoolEndpoint {
+    private final MqttService mqttService;
+
+    @ReadOperation
+    public Map<String, TelemetrySpool.TopicStats> topics() {
+        return mqttService.getSpoolStats();
+    }
+}
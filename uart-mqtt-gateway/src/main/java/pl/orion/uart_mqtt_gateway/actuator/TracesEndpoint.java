@@ -0,0 +1,28 @@
+package pl.orion.uart_mqtt_gateway.actuator;
+
+import java.util.Map;
+
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import lombok.RequiredArgsConstructor;
+import pl.orion.uart_mqtt_gateway.tracing.HopLatencyRecorder;
+
+@Component
+@Endpoint(id = "traces")
+@RequiredArgsConstructor
+public class TracesEndpoint {
+    private final HopLatencyRecorder traceRecorder;
+
+    @ReadOperation
+    public Map<String, HopLatencyRecorder.HopLatency> hopLatencies() {
+        return traceRecorder.getHopLatencies();
+    }
+
+    @DeleteOperation
+    public void reset() {
+        traceRecorder.reset();
+    }
+}
@@ -1,12 +1,15 @@
 package pl.orion.uart_mqtt_gateway.actuator;
 
+import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.actuate.health.Health;
 import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
@@ -17,49 +20,131 @@ import lombok.extern.slf4j.Slf4j;
 import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties;
 import pl.orion.uart_mqtt_gateway.model.ErrorPayload;
 import pl.orion.uart_mqtt_gateway.service.MqttService;
+import pl.orion.uart_mqtt_gateway.service.TimeService;
 
-
+/**
+ * Health is recomputed only when a port's identification fails or succeeds, polling it just reads the cached snapshot.
+ * The error topic hears about failing ports when the set of failing ports changes, and again every reminder interval.
+ * Reports are published outside the health lock, a report overtaken by a newer one is dropped rather than sent late.
+ */
 @Slf4j
 @Component
 @RequiredArgsConstructor
 public class UartHealthIndicator implements HealthIndicator {
+    private static final Health UP = Health.up().build();
+    // Reminders are due on their own schedule, the tick only bounds how late they are sent
+    private static final long REMINDER_TICK_MS = 1000;
+
+    private record Report(long sequence, String failedDevices) {
+    }
+
     @Value("${spring.application.name}")
     private String appName;
     private final UartMqttGatewayProperties properties;
     private final MqttService mqttService;
+    private final ObjectMapper objectMapper;
 
-    private final Map<String, Integer> failureCounter = new ConcurrentHashMap<>();
+    // Guarded by this
+    private final Map<String, Integer> failureCounter = new HashMap<>();
+    private Set<String> reportedPorts = Set.of();
+    private String failedDevices = null;
+    private long nextReminderMillis;
+    private long reportSequence;
+
+    // Guarded by publishLock, a report overtaken by a newer one is not published
+    private final Object publishLock = new Object();
+    private long publishedSequence;
+
+    private volatile Health snapshot = UP;
 
     @Override
     public Health health() {
-        final var failedDevices = failureCounter.entrySet().stream()
-            .filter(entry -> entry.getValue() > 5)
-            .map(entry -> String.format("{port=%s, failures=%d}", entry.getKey(), entry.getValue()))
-            .collect(Collectors.joining(", "));
-        
-        if (failedDevices != null && !failedDevices.isEmpty()) {
-            log.error("Detected failures on the following devices [{}]", failedDevices);
-            sendErrorOntoMqttTopic(failedDevices);
-            return Health.down().withDetail("failedDevices", failedDevices).build();
-        }
-        return Health.up().build();
+        return snapshot;
     }
 
     public void registerUartDetectionFailure(String portPath) {
-        int failures = failureCounter.getOrDefault(portPath, 0);
-        failures++;
-        failureCounter.put(portPath, failures);
+        publish(recordFailure(portPath));
     }
 
     public void clearUartDetectionFailure(String portPath) {
-        failureCounter.remove(portPath);
+        publish(recordSuccess(portPath));
+    }
+
+    @Scheduled(fixedRate = REMINDER_TICK_MS, initialDelay = REMINDER_TICK_MS)
+    public void remindOfFailedDevices() {
+        publish(dueReminder());
+    }
+
+    private synchronized Report recordFailure(String portPath) {
+        final int failures = failureCounter.merge(portPath, 1, Integer::sum);
+        return failures > properties.getHealth().getFailureThreshold() ? updateSnapshot() : null;
+    }
+
+    private synchronized Report recordSuccess(String portPath) {
+        final Integer failures = failureCounter.remove(portPath);
+        return failures != null && failures > properties.getHealth().getFailureThreshold() ? updateSnapshot() : null;
+    }
+
+    private synchronized Report dueReminder() {
+        if (failedDevices == null || TimeService.getCurrentTimeMillis() - nextReminderMillis < 0) {
+            return null;
+        }
+        return report();
+    }
+
+    /**
+     * @return report to publish, if the set of failing ports changed
+     */
+    private Report updateSnapshot() {
+        final var failedPorts = new TreeMap<String, Integer>();
+        failureCounter.forEach((port, failures) -> {
+            if (failures > properties.getHealth().getFailureThreshold()) {
+                failedPorts.put(port, failures);
+            }
+        });
+
+        Report report = null;
+        if (failedPorts.isEmpty()) {
+            failedDevices = null;
+            snapshot = UP;
+            if (!reportedPorts.isEmpty()) {
+                log.info("All devices identified again");
+            }
+        } else {
+            failedDevices = failedPorts.entrySet().stream()
+                .map(entry -> String.format("{port=%s, failures=%d}", entry.getKey(), entry.getValue()))
+                .collect(Collectors.joining(", "));
+            snapshot = Health.down().withDetail("failedDevices", failedDevices).build();
+            if (!failedPorts.keySet().equals(reportedPorts)) {
+                report = report();
+            }
+        }
+        reportedPorts = Set.copyOf(failedPorts.keySet());
+        return report;
+    }
+
+    private Report report() {
+        log.error("Detected failures on the following devices [{}]", failedDevices);
+        nextReminderMillis = TimeService.getCurrentTimeMillis() + properties.getHealth().getErrorReminderIntervalMs();
+        return new Report(++reportSequence, failedDevices);
+    }
+
+    private void publish(Report report) {
+        if (report == null) {
+            return;
+        }
+        synchronized (publishLock) {
+            if (report.sequence() > publishedSequence) {
+                publishedSequence = report.sequence();
+                sendErrorOntoMqttTopic(report.failedDevices());
+            }
+        }
     }
 
     private void sendErrorOntoMqttTopic(final String errorMessage) {
         ErrorPayload errorPayload = new ErrorPayload(appName, "deviceConnectionError", errorMessage);
-        ObjectMapper mapper = new ObjectMapper();
         try {
-            mqttService.publish(properties.getErrorTopic(), mapper.writeValueAsString(errorPayload));
+            mqttService.publish(properties.getErrorTopic(), objectMapper.writeValueAsString(errorPayload));
         }
         catch (JsonProcessingException e) {
             log.error("Cannot serialize error payload={} due to={}", errorPayload, e.toString());
@@ -0,0 +1,29 @@
+package pl.orion.uart_mqtt_gateway.capture;
+
+public enum CaptureDirection {
+    // Binds a port ID to its path, the payload is the UTF-8 path
+    PORT(0),
+    // Read from the device
+    RX(1),
+    // Written to the device
+    TX(2);
+
+    private final byte code;
+
+    CaptureDirection(int code) {
+        this.code = (byte) code;
+    }
+
+    byte code() {
+        return code;
+    }
+
+    static CaptureDirection of(byte code) {
+        for (CaptureDirection direction : values()) {
+            if (direction.code == code) {
+                return direction;
+            }
+        }
+        throw new IllegalArgumentException("Unknown capture direction " + code);
+    }
+}
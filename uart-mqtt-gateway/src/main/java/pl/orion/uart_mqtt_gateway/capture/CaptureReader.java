@@ -0,0 +1,67 @@
+package pl.orion.uart_mqtt_gateway.capture;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Decodes capture segments, including the one the gateway is still appending to.
+ */
+public final class CaptureReader {
+
+    /**
+     * @param payload read-only view into the mapped segment, valid only during the callback
+     */
+    public record Record(Instant time, long timestampNanos, String port, CaptureDirection direction, ByteBuffer payload) {
+    }
+
+    @FunctionalInterface
+    public interface RecordListener {
+        void onRecord(Record record) throws IOException;
+    }
+
+    private CaptureReader() {
+    }
+
+    public static void read(Path segment, RecordListener listener) throws IOException {
+        final ByteBuffer buffer;
+        try (var channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.capacity() < CaptureSegment.HEADER_BYTES || buffer.getInt(0) != CaptureSegment.MAGIC) {
+            throw new IOException("Not a UART capture segment: " + segment);
+        }
+        if (buffer.getInt(Integer.BYTES) != CaptureSegment.VERSION) {
+            throw new IOException("Unsupported capture version " + buffer.getInt(Integer.BYTES) + ": " + segment);
+        }
+        final var created = Instant.ofEpochMilli(buffer.getLong(CaptureSegment.CREATED_MILLIS_OFFSET));
+        final long createdNanos = buffer.getLong(CaptureSegment.CREATED_NANOS_OFFSET);
+        final Map<Integer, String> ports = new HashMap<>();
+
+        int position = CaptureSegment.HEADER_BYTES;
+        while (position + CaptureSegment.RECORD_HEADER_BYTES <= buffer.capacity()) {
+            final int recordBytes = buffer.getInt(position);
+            if (recordBytes < CaptureSegment.RECORD_HEADER_BYTES || position + recordBytes > buffer.capacity()) {
+                break;
+            }
+            final long timestampNanos = buffer.getLong(position + CaptureSegment.TIMESTAMP_OFFSET);
+            final int portId = Short.toUnsignedInt(buffer.getShort(position + CaptureSegment.PORT_OFFSET));
+            final var direction = CaptureDirection.of(buffer.get(position + CaptureSegment.DIRECTION_OFFSET));
+            final var payload = buffer.slice(position + CaptureSegment.RECORD_HEADER_BYTES, recordBytes - CaptureSegment.RECORD_HEADER_BYTES)
+                .asReadOnlyBuffer();
+            if (direction == CaptureDirection.PORT) {
+                ports.put(portId, StandardCharsets.UTF_8.decode(payload).toString());
+            } else {
+                listener.onRecord(new Record(created.plusNanos(timestampNanos - createdNanos), timestampNanos,
+                    ports.getOrDefault(portId, "#" + portId), direction, payload));
+            }
+            position += recordBytes;
+        }
+    }
+}
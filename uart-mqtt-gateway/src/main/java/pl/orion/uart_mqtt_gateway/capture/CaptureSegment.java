@@ -0,0 +1,107 @@
+package pl.orion.uart_mqtt_gateway.capture;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+
+/**
+ * One memory-mapped capture file: a header pairing the wall clock with {@link System#nanoTime()} at creation, followed
+ * by {@code [int recordBytes][long timestampNanos][short portId][byte direction][byte reserved][payload]} records.
+ * Files are zero-filled, so a zero record size marks the end of written data, and the size is written last so a
+ * torn append is ignored when decoding. Port paths are declared once per segment, so every file decodes on its own.
+ */
+final class CaptureSegment {
+    static final int MAGIC = 0x55434150;
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 32;
+    static final int CREATED_MILLIS_OFFSET = 8;
+    static final int CREATED_NANOS_OFFSET = 16;
+    static final int RECORD_HEADER_BYTES = Integer.BYTES + Long.BYTES + Short.BYTES + 2;
+    static final int TIMESTAMP_OFFSET = Integer.BYTES;
+    static final int PORT_OFFSET = TIMESTAMP_OFFSET + Long.BYTES;
+    static final int DIRECTION_OFFSET = PORT_OFFSET + Short.BYTES;
+
+    private final Path path;
+    private final long createdNanos;
+    private final Arena arena;
+    private final ByteBuffer buffer;
+    private final BitSet declaredPorts = new BitSet();
+    private int writePosition = HEADER_BYTES;
+
+    private CaptureSegment(Path path, long createdNanos, Arena arena, ByteBuffer buffer) {
+        this.path = path;
+        this.createdNanos = createdNanos;
+        this.arena = arena;
+        this.buffer = buffer;
+    }
+
+    static CaptureSegment create(Path path, int capacity, long createdMillis, long createdNanos) throws IOException {
+        final Arena arena = Arena.ofShared();
+        try (var channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final var mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity, arena);
+            final var segment = new CaptureSegment(path, createdNanos, arena, mapped.asByteBuffer());
+            segment.buffer.putInt(0, MAGIC);
+            segment.buffer.putInt(Integer.BYTES, VERSION);
+            segment.buffer.putLong(CREATED_MILLIS_OFFSET, createdMillis);
+            segment.buffer.putLong(CREATED_NANOS_OFFSET, createdNanos);
+            return segment;
+        } catch (IOException | RuntimeException e) {
+            arena.close();
+            throw e;
+        }
+    }
+
+    static int recordBytes(int payloadLength) {
+        return RECORD_HEADER_BYTES + payloadLength;
+    }
+
+    boolean hasRoom(int recordBytes) {
+        return writePosition + recordBytes <= buffer.capacity();
+    }
+
+    boolean isDeclared(int portId) {
+        return declaredPorts.get(portId);
+    }
+
+    void declare(int portId) {
+        declaredPorts.set(portId);
+    }
+
+    /**
+     * The caller checks {@link #hasRoom} first.
+     */
+    void append(long timestampNanos, int portId, CaptureDirection direction, byte[] payload, int offset, int length) {
+        final int recordBytes = recordBytes(length);
+        buffer.putLong(writePosition + TIMESTAMP_OFFSET, timestampNanos);
+        buffer.putShort(writePosition + PORT_OFFSET, (short) portId);
+        buffer.put(writePosition + DIRECTION_OFFSET, direction.code());
+        buffer.put(writePosition + RECORD_HEADER_BYTES, payload, offset, length);
+        buffer.putInt(writePosition, recordBytes);
+        writePosition += recordBytes;
+    }
+
+    /**
+     * Unmaps the file now by closing its arena rather than whenever the buffer is collected, so retired segments do not
+     * pile up in the address space. Dirty pages stay in the page cache and are written back as usual. The segment must
+     * not be used afterwards.
+     */
+    void close() {
+        arena.close();
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    long getCreatedNanos() {
+        return createdNanos;
+    }
+
+    int getWritePosition() {
+        return writePosition;
+    }
+}
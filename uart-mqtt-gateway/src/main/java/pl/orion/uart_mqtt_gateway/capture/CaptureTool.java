@@ -0,0 +1,143 @@
+package pl.orion.uart_mqtt_gateway.capture;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Prints or extracts the records of a UART capture.
+ * <p>
+ * Usage: {@code ./gradlew decodeCapture -PcaptureArgs="/var/lib/uart-mqtt-gateway/capture --port ttyUSB0 --direction rx"}.
+ * Records print as {@code <time> <port> <RX|TX> <length> <payload>}, with non-printable bytes escaped, or in hex with
+ * {@code --hex}. {@code --raw <file>} writes the matching payloads back to back instead, e.g. to replay a board's
+ * output through a PTY.
+ */
+public final class CaptureTool {
+    private static final String USAGE = "Usage: CaptureTool <capture directory or segment>... [--port <path substring>] "
+        + "[--direction rx|tx] [--since <ISO-8601 instant>] [--until <ISO-8601 instant>] [--hex | --raw <file>]";
+
+    private final List<Path> inputs = new ArrayList<>();
+    private String port;
+    private CaptureDirection direction;
+    private Instant since;
+    private Instant until;
+    private boolean hex;
+    private Path raw;
+    private long matched;
+
+    private CaptureTool() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        final var tool = new CaptureTool();
+        try {
+            tool.parse(args);
+        } catch (RuntimeException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+        tool.run();
+    }
+
+    private void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--port" -> port = value(args, ++i);
+                case "--direction" -> direction = CaptureDirection.valueOf(value(args, ++i).toUpperCase(Locale.ROOT));
+                case "--since" -> since = Instant.parse(value(args, ++i));
+                case "--until" -> until = Instant.parse(value(args, ++i));
+                case "--hex" -> hex = true;
+                case "--raw" -> raw = Path.of(value(args, ++i));
+                default -> inputs.add(Path.of(args[i]));
+            }
+        }
+        if (inputs.isEmpty()) {
+            throw new IllegalArgumentException("No capture given");
+        }
+        if (direction == CaptureDirection.PORT) {
+            throw new IllegalArgumentException("Direction must be rx or tx");
+        }
+    }
+
+    private static String value(String[] args, int index) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException(args[index - 1] + " needs a value");
+        }
+        return args[index];
+    }
+
+    private void run() throws IOException {
+        final var segments = new ArrayList<Path>();
+        for (Path input : inputs) {
+            segments.addAll(Files.isDirectory(input) ? UartCapture.segmentsIn(input) : List.of(input));
+        }
+        if (raw != null) {
+            try (OutputStream out = Files.newOutputStream(raw)) {
+                for (Path segment : segments) {
+                    CaptureReader.read(segment, record -> {
+                        if (matches(record)) {
+                            out.write(bytes(record.payload()));
+                        }
+                    });
+                }
+            }
+            System.err.printf("Wrote %d records to %s%n", matched, raw);
+            return;
+        }
+        final PrintStream out = System.out;
+        for (Path segment : segments) {
+            CaptureReader.read(segment, record -> {
+                if (matches(record)) {
+                    final byte[] payload = bytes(record.payload());
+                    out.printf("%s %s %s %d %s%n", record.time(), record.port(), record.direction(), payload.length,
+                        hex ? HexFormat.of().formatHex(payload) : escape(payload));
+                }
+            });
+        }
+    }
+
+    private boolean matches(CaptureReader.Record record) {
+        final boolean matches = (port == null || record.port().contains(port))
+            && (direction == null || record.direction() == direction)
+            && (since == null || !record.time().isBefore(since))
+            && (until == null || record.time().isBefore(until));
+        if (matches) {
+            matched++;
+        }
+        return matches;
+    }
+
+    private static byte[] bytes(ByteBuffer payload) {
+        final byte[] bytes = new byte[payload.remaining()];
+        payload.get(bytes);
+        return bytes;
+    }
+
+    static String escape(byte[] payload) {
+        final var text = new StringBuilder(payload.length);
+        for (byte b : payload) {
+            switch (b) {
+                case '\n' -> text.append("\\n");
+                case '\r' -> text.append("\\r");
+                case '\\' -> text.append("\\\\");
+                default -> {
+                    if (b >= 0x20 && b < 0x7f) {
+                        text.append((char) b);
+                    } else {
+                        text.append(String.format("\\x%02x", b & 0xff));
+                    }
+                }
+            }
+        }
+        return text.toString();
+    }
+}
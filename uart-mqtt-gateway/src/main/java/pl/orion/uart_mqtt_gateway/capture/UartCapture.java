@@ -0,0 +1,150 @@
+package pl.orion.uart_mqtt_gateway.capture;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.regex.Pattern;
+
+import lombok.extern.slf4j.Slf4j;
+import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties.Serial.Capture;
+
+/**
+ * Appends the bytes of every port read and write to memory-mapped segment files for post-mortem analysis. An append
+ * is a copy into the mapping under one short lock, the page cache writes it back, so the file survives the gateway
+ * crashing. Segments rotate by size and age; the oldest are deleted beyond {@code maxBytes}.
+ * Decode with {@link CaptureTool}.
+ */
+@Slf4j
+public class UartCapture {
+    static final String SEGMENT_SUFFIX = ".ucap";
+    static final Pattern SEGMENT_NAME = Pattern.compile("\\d{20}\\.ucap");
+
+    private record Port(int id, byte[] path) {
+    }
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final int maxSegments;
+    private final long maxAgeNanos;
+    private final LongSupplier nanoClock;
+    private final LongSupplier wallClock;
+    private final Map<String, Port> ports = new HashMap<>();
+    // Oldest first, the last one is active
+    private final ArrayDeque<Path> segments = new ArrayDeque<>();
+    private CaptureSegment active;
+    private long nextSequence;
+    private long dropped;
+    private boolean stopped;
+
+    public UartCapture(Capture config, LongSupplier nanoClock, LongSupplier wallClock) {
+        this.directory = Path.of(config.getDirectory());
+        this.segmentBytes = config.getSegmentBytes();
+        this.maxSegments = (int) Math.max(2, config.getMaxBytes() / config.getSegmentBytes());
+        this.maxAgeNanos = TimeUnit.SECONDS.toNanos(config.getMaxAgeSeconds());
+        this.nanoClock = nanoClock;
+        this.wallClock = wallClock;
+    }
+
+    public synchronized void start() throws IOException {
+        Files.createDirectories(directory);
+        final List<Path> existing = segmentsIn(directory);
+        segments.addAll(existing);
+        if (!existing.isEmpty()) {
+            final String last = existing.getLast().getFileName().toString();
+            nextSequence = Long.parseLong(last.substring(0, last.length() - SEGMENT_SUFFIX.length())) + 1;
+        }
+        enforceRetention();
+        log.info("Capturing UART traffic to {}", directory);
+    }
+
+    public synchronized void stop() {
+        stopped = true;
+        if (active != null) {
+            active.close();
+            active = null;
+        }
+        if (dropped > 0) {
+            log.info("UART capture skipped {} records larger than a segment", dropped);
+        }
+    }
+
+    public void received(String portPath, byte[] buffer, int offset, int length) {
+        append(portPath, CaptureDirection.RX, buffer, offset, length);
+    }
+
+    public void written(String portPath, byte[] buffer, int offset, int length) {
+        append(portPath, CaptureDirection.TX, buffer, offset, length);
+    }
+
+    /**
+     * @return segment files of a capture directory, oldest first
+     */
+    public static List<Path> segmentsIn(Path directory) throws IOException {
+        try (var files = Files.list(directory)) {
+            return files.filter(file -> SEGMENT_NAME.matcher(file.getFileName().toString()).matches())
+                .sorted()
+                .toList();
+        }
+    }
+
+    private void append(String portPath, CaptureDirection direction, byte[] buffer, int offset, int length) {
+        final long now = nanoClock.getAsLong();
+        CaptureSegment retired = null;
+        synchronized (this) {
+            if (stopped) {
+                return;
+            }
+            final var port = ports.computeIfAbsent(portPath, path -> new Port(ports.size(), path.getBytes(StandardCharsets.UTF_8)));
+            final int declarationBytes = CaptureSegment.recordBytes(port.path().length);
+            final int recordBytes = CaptureSegment.recordBytes(length);
+            if (declarationBytes + recordBytes > segmentBytes - CaptureSegment.HEADER_BYTES) {
+                dropped++;
+                return;
+            }
+            try {
+                var segment = active;
+                if (segment == null || now - segment.getCreatedNanos() >= maxAgeNanos
+                        || !segment.hasRoom((segment.isDeclared(port.id()) ? 0 : declarationBytes) + recordBytes)) {
+                    final var previous = segment;
+                    segment = rotate();
+                    retired = previous;
+                }
+                if (!segment.isDeclared(port.id())) {
+                    segment.append(now, port.id(), CaptureDirection.PORT, port.path(), 0, port.path().length);
+                    segment.declare(port.id());
+                }
+                segment.append(now, port.id(), direction, buffer, offset, length);
+            } catch (IOException e) {
+                // A full disk must not cost a log line per frame
+                stopped = true;
+                log.error("Failed to write UART capture to {}, capture stopped: {}", directory, e.toString());
+            }
+        }
+        if (retired != null) {
+            // No other thread can reach a retired segment, its page tables are torn down off the lock
+            retired.close();
+        }
+    }
+
+    private CaptureSegment rotate() throws IOException {
+        final Path path = directory.resolve(String.format("%020d%s", nextSequence++, SEGMENT_SUFFIX));
+        // Both clocks are read back to back, records are placed on the wall clock relative to this pair
+        active = CaptureSegment.create(path, segmentBytes, wallClock.getAsLong(), nanoClock.getAsLong());
+        segments.addLast(path);
+        enforceRetention();
+        return active;
+    }
+
+    private void enforceRetention() throws IOException {
+        while (segments.size() > maxSegments) {
+            Files.deleteIfExists(segments.pollFirst());
+        }
+    }
+}
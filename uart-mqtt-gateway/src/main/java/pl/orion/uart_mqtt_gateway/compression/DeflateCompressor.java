@@ -0,0 +1,52 @@
+package pl.orion.uart_mqtt_gateway.compression;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * zlib-wrapped deflate. With a preset dictionary the zlib header carries its Adler-32, which {@link PayloadDecoder}
+ * uses to pick the matching dictionary.
+ */
+public class DeflateCompressor implements PayloadCompressor {
+    public static final String ENCODING = "deflate";
+
+    private final Deflater deflater;
+    private final byte[] dictionary;
+    private final String dictionaryId;
+    private byte[] scratch = new byte[1024];
+
+    public DeflateCompressor(int level, byte[] dictionary) {
+        this.deflater = new Deflater(level);
+        this.dictionary = dictionary;
+        this.dictionaryId = dictionary != null ? PayloadDecoder.dictionaryId(dictionary) : null;
+    }
+
+    @Override
+    public synchronized byte[] compress(ByteBuffer payload) {
+        deflater.reset();
+        if (dictionary != null) {
+            deflater.setDictionary(dictionary);
+        }
+        deflater.setInput(payload.duplicate());
+        deflater.finish();
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == scratch.length) {
+                scratch = Arrays.copyOf(scratch, scratch.length * 2);
+            }
+            length += deflater.deflate(scratch, length, scratch.length - length);
+        }
+        return Arrays.copyOf(scratch, length);
+    }
+
+    @Override
+    public String contentEncoding() {
+        return ENCODING;
+    }
+
+    @Override
+    public String dictionaryId() {
+        return dictionaryId;
+    }
+}
@@ -0,0 +1,102 @@
+package pl.orion.uart_mqtt_gateway.compression;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Builds a deflate preset dictionary from sample frames. Frames are scored by how many of their 8-byte
+ * substrings recur across the samples; the most representative frames are concatenated, skipping ones that add
+ * little new content, with the best last because deflate encodes nearer matches in fewer bits.
+ * <p>
+ * Usage: {@code ./gradlew trainCompressionDictionary -Psamples=frames.jsonl -Pdictionary=science.dict},
+ * where the samples file holds one frame per line (e.g. {@code mosquitto_sub -t orion/topic/science/outbound}).
+ */
+public final class DictionaryTrainer {
+    // Deflate cannot reference further back than its 32 KiB window
+    public static final int MAX_DICTIONARY_BYTES = 32 * 1024;
+
+    private static final int GRAM_BYTES = 8;
+    private static final double MIN_NEW_CONTENT = 0.2;
+
+    private DictionaryTrainer() {
+    }
+
+    public static byte[] train(List<byte[]> samples, int maxBytes) {
+        final Map<Long, Integer> sampleFrequency = new HashMap<>();
+        final List<Set<Long>> sampleGrams = new ArrayList<>(samples.size());
+        for (byte[] sample : samples) {
+            final Set<Long> grams = grams(sample);
+            grams.forEach(gram -> sampleFrequency.merge(gram, 1, Integer::sum));
+            sampleGrams.add(grams);
+        }
+
+        final var candidates = new ArrayList<Integer>();
+        final double[] scores = new double[samples.size()];
+        for (int i = 0; i < samples.size(); i++) {
+            if (samples.get(i).length > 0 && !sampleGrams.get(i).isEmpty()) {
+                scores[i] = sampleGrams.get(i).stream().mapToInt(sampleFrequency::get).sum() / (double) samples.get(i).length;
+                candidates.add(i);
+            }
+        }
+        candidates.sort(Comparator.comparingDouble((Integer i) -> scores[i]).reversed());
+
+        final var covered = new HashSet<Long>();
+        final var selected = new ArrayList<byte[]>();
+        int size = 0;
+        for (int i : candidates) {
+            final byte[] sample = samples.get(i);
+            final Set<Long> grams = sampleGrams.get(i);
+            final long newGrams = grams.stream().filter(gram -> !covered.contains(gram)).count();
+            if (size + sample.length > maxBytes || newGrams < MIN_NEW_CONTENT * grams.size()) {
+                continue;
+            }
+            covered.addAll(grams);
+            selected.add(sample);
+            size += sample.length;
+        }
+
+        final var dictionary = new ByteArrayOutputStream(size);
+        for (int i = selected.size() - 1; i >= 0; i--) {
+            dictionary.writeBytes(selected.get(i));
+        }
+        return dictionary.toByteArray();
+    }
+
+    private static Set<Long> grams(byte[] sample) {
+        final var grams = new HashSet<Long>();
+        for (int i = 0; i + GRAM_BYTES <= sample.length; i++) {
+            long gram = 0;
+            for (int j = 0; j < GRAM_BYTES; j++) {
+                gram = (gram << 8) | (sample[i + j] & 0xff);
+            }
+            grams.add(gram);
+        }
+        return grams;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: DictionaryTrainer <samples file, one frame per line> <dictionary file> [max bytes]");
+            System.exit(1);
+        }
+        final List<byte[]> samples = Files.readAllLines(Path.of(args[0]), StandardCharsets.UTF_8).stream()
+            .filter(line -> !line.isBlank())
+            .map(line -> line.getBytes(StandardCharsets.UTF_8))
+            .toList();
+        final int maxBytes = args.length > 2 ? Integer.parseInt(args[2]) : MAX_DICTIONARY_BYTES;
+        final byte[] dictionary = train(samples, Math.min(maxBytes, MAX_DICTIONARY_BYTES));
+        Files.write(Path.of(args[1]), dictionary);
+        System.out.printf("Trained %d byte dictionary (id %s) from %d frames%n",
+            dictionary.length, PayloadDecoder.dictionaryId(dictionary), samples.size());
+    }
+}
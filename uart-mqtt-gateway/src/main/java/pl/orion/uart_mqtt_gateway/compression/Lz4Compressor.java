@@ -0,0 +1,50 @@
+package pl.orion.uart_mqtt_gateway.compression;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+
+/**
+ * LZ4 block prefixed with the uncompressed length: {@code [int32 little-endian length][block]}.
+ * Cheaper on the CPU than deflate at a lower ratio, and without dictionary support.
+ */
+public class Lz4Compressor implements PayloadCompressor {
+    public static final String ENCODING = "lz4";
+
+    private final LZ4Compressor compressor;
+    private ByteBuffer scratch = ByteBuffer.allocate(0);
+
+    /**
+     * @param level {@code 0} for the fast compressor, 1-17 for LZ4 HC
+     */
+    public Lz4Compressor(int level) {
+        final var factory = LZ4Factory.fastestInstance();
+        this.compressor = level == 0 ? factory.fastCompressor() : factory.highCompressor(level);
+    }
+
+    @Override
+    public synchronized byte[] compress(ByteBuffer payload) {
+        final int length = payload.remaining();
+        final int maxLength = Integer.BYTES + compressor.maxCompressedLength(length);
+        if (scratch.capacity() < maxLength) {
+            scratch = ByteBuffer.allocate(maxLength).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        scratch.putInt(0, length);
+        final int compressed = compressor.compress(payload, payload.position(), length,
+            scratch, Integer.BYTES, scratch.capacity() - Integer.BYTES);
+        return Arrays.copyOf(scratch.array(), Integer.BYTES + compressed);
+    }
+
+    @Override
+    public String contentEncoding() {
+        return ENCODING;
+    }
+
+    @Override
+    public String dictionaryId() {
+        return null;
+    }
+}
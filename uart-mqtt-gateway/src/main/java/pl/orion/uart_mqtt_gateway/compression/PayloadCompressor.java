@@ -0,0 +1,22 @@
+package pl.orion.uart_mqtt_gateway.compression;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Compresses outbound payloads of one topic. The returned array is owned by the caller, as the MQTT client
+ * publishes asynchronously.
+ */
+public interface PayloadCompressor {
+
+    byte[] compress(ByteBuffer payload);
+
+    /**
+     * @return value of the {@value PayloadDecoder#CONTENT_ENCODING} user property
+     */
+    String contentEncoding();
+
+    /**
+     * @return value of the {@value PayloadDecoder#CONTENT_DICTIONARY} user property, {@code null} without a dictionary
+     */
+    String dictionaryId();
+}
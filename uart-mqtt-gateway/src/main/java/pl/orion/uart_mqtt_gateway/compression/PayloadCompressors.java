@@ -0,0 +1,32 @@
+package pl.orion.uart_mqtt_gateway.compression;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.Deflater;
+
+import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties.UartMqttMapping.MqttMapping.Publication.Compression;
+
+public final class PayloadCompressors {
+
+    private PayloadCompressors() {
+    }
+
+    /**
+     * @return compressor for the configuration, {@code null} if compression is disabled
+     */
+    public static PayloadCompressor create(Compression compression) throws IOException {
+        return switch (compression.getCodec()) {
+            case NONE -> null;
+            case DEFLATE -> new DeflateCompressor(
+                compression.getLevel() != null ? compression.getLevel() : Deflater.DEFAULT_COMPRESSION,
+                compression.getDictionary() != null ? Files.readAllBytes(Path.of(compression.getDictionary())) : null);
+            case LZ4 -> {
+                if (compression.getDictionary() != null) {
+                    throw new IllegalArgumentException("LZ4 compression does not support a dictionary");
+                }
+                yield new Lz4Compressor(compression.getLevel() != null ? compression.getLevel() : 0);
+            }
+        };
+    }
+}
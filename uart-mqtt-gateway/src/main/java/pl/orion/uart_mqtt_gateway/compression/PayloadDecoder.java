@@ -0,0 +1,127 @@
+package pl.orion.uart_mqtt_gateway.compression;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import com.hivemq.client.mqtt.mqtt5.datatypes.Mqtt5UserProperty;
+import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5Publish;
+
+import net.jpountz.lz4.LZ4Factory;
+
+/**
+ * Decodes payloads published with compression for MQTT consumers. Payloads without a
+ * {@value #CONTENT_ENCODING} user property are returned unchanged.
+ */
+public class PayloadDecoder {
+    public static final String CONTENT_ENCODING = "content-encoding";
+    public static final String CONTENT_DICTIONARY = "content-dictionary";
+
+    private static final int DEFAULT_MAX_DECODED_BYTES = 16 * 1024 * 1024;
+
+    private final Map<String, byte[]> dictionaries = new HashMap<>();
+    private final int maxDecodedBytes;
+
+    public PayloadDecoder() {
+        this(List.of(), DEFAULT_MAX_DECODED_BYTES);
+    }
+
+    /**
+     * @param dictionaries deflate dictionaries the publishers may use, matched by their Adler-32
+     * @param maxDecodedBytes limit protecting the consumer from decompression bombs
+     */
+    public PayloadDecoder(Collection<byte[]> dictionaries, int maxDecodedBytes) {
+        dictionaries.forEach(dictionary -> this.dictionaries.put(dictionaryId(dictionary), dictionary));
+        this.maxDecodedBytes = maxDecodedBytes;
+    }
+
+    public byte[] decode(Mqtt5Publish publish) throws DataFormatException {
+        String contentEncoding = null;
+        for (Mqtt5UserProperty property : publish.getUserProperties().asList()) {
+            if (CONTENT_ENCODING.equals(property.getName().toString())) {
+                contentEncoding = property.getValue().toString();
+            }
+        }
+        return decode(contentEncoding, publish.getPayloadAsBytes());
+    }
+
+    public byte[] decode(String contentEncoding, byte[] payload) throws DataFormatException {
+        if (contentEncoding == null) {
+            return payload;
+        }
+        return switch (contentEncoding) {
+            case DeflateCompressor.ENCODING -> inflate(payload);
+            case Lz4Compressor.ENCODING -> decompressLz4(payload);
+            default -> throw new DataFormatException("Unsupported content encoding: " + contentEncoding);
+        };
+    }
+
+    /**
+     * @return Adler-32 of the dictionary as 8 hex digits, the value zlib stores in the stream header
+     */
+    public static String dictionaryId(byte[] dictionary) {
+        final var adler = new Adler32();
+        adler.update(dictionary);
+        return String.format("%08x", adler.getValue());
+    }
+
+    private byte[] inflate(byte[] payload) throws DataFormatException {
+        final var inflater = new Inflater();
+        try {
+            inflater.setInput(payload);
+            byte[] out = new byte[Math.min(maxDecodedBytes, Math.max(256, payload.length * 4))];
+            int length = 0;
+            while (!inflater.finished()) {
+                if (length == out.length) {
+                    if (out.length >= maxDecodedBytes) {
+                        throw new DataFormatException("Decoded payload exceeds " + maxDecodedBytes + " bytes");
+                    }
+                    out = Arrays.copyOf(out, (int) Math.min(2L * out.length, maxDecodedBytes));
+                }
+                final int inflated = inflater.inflate(out, length, out.length - length);
+                if (inflated == 0 && inflater.needsDictionary()) {
+                    final String id = String.format("%08x", inflater.getAdler());
+                    final byte[] dictionary = dictionaries.get(id);
+                    if (dictionary == null) {
+                        throw new DataFormatException("Unknown compression dictionary: " + id);
+                    }
+                    inflater.setDictionary(dictionary);
+                } else if (inflated == 0 && inflater.needsInput()) {
+                    throw new DataFormatException("Truncated deflate payload");
+                }
+                length += inflated;
+            }
+            return Arrays.copyOf(out, length);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private byte[] decompressLz4(byte[] payload) throws DataFormatException {
+        if (payload.length < Integer.BYTES) {
+            throw new DataFormatException("Truncated LZ4 payload");
+        }
+        final int length = ByteBuffer.wrap(payload).order(ByteOrder.LITTLE_ENDIAN).getInt(0);
+        if (length < 0 || length > maxDecodedBytes) {
+            throw new DataFormatException("Invalid LZ4 payload length: " + length);
+        }
+        final byte[] out = new byte[length];
+        try {
+            final int decompressed = LZ4Factory.fastestInstance().safeDecompressor()
+                .decompress(payload, Integer.BYTES, payload.length - Integer.BYTES, out, 0, length);
+            if (decompressed != length) {
+                throw new DataFormatException("LZ4 payload decoded to " + decompressed + " of " + length + " bytes");
+            }
+        } catch (RuntimeException e) {
+            throw new DataFormatException("Corrupted LZ4 payload: " + e.getMessage());
+        }
+        return out;
+    }
+}
@@ -0,0 +1,51 @@
+package pl.orion.uart_mqtt_gateway.config;
+
+import java.util.List;
+
+import org.springframework.aot.hint.BindingReflectionHintsRegistrar;
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.RuntimeHintsRegistrar;
+import org.springframework.aot.hint.TypeReference;
+
+import com.fazecast.jSerialComm.SerialPort;
+
+import pl.orion.uart_mqtt_gateway.model.ErrorPayload;
+import pl.orion.uart_mqtt_gateway.service.DeviceIdentityCache;
+
+/**
+ * Reachability metadata Spring's AOT processing cannot infer. {@code @ConfigurationProperties} binding and actuator
+ * endpoint results are covered by Spring Boot itself; the epoll serial backend is left out on purpose, native images
+ * fall back to jSerialComm.
+ */
+public class NativeRuntimeHints implements RuntimeHintsRegistrar {
+    private static final List<String> LZ4_IMPLEMENTATIONS = List.of("JavaUnsafe", "JavaSafe");
+    private static final List<String> LZ4_CLASS_PATTERNS = List.of(
+        "net.jpountz.lz4.LZ4%sCompressor", "net.jpountz.lz4.LZ4HC%sCompressor",
+        "net.jpountz.lz4.LZ4%sFastDecompressor", "net.jpountz.lz4.LZ4%sSafeDecompressor");
+
+    @Override
+    public void registerHints(RuntimeHints hints, ClassLoader classLoader) {
+        // jSerialComm extracts its library from the jar, which then reads and writes SerialPort fields through JNI
+        hints.resources().registerPattern("Linux/*/libjSerialComm.so");
+        hints.jni().registerType(SerialPort.class, MemberCategory.DECLARED_FIELDS,
+            MemberCategory.INVOKE_DECLARED_CONSTRUCTORS, MemberCategory.INVOKE_DECLARED_METHODS);
+
+        // Serialized with an ObjectMapper directly rather than through Spring MVC
+        new BindingReflectionHintsRegistrar().registerReflectionHints(hints.reflection(),
+            ErrorPayload.class, DeviceIdentityCache.Entry.class);
+
+        // Imported through spring.config.import, which AOT does not follow
+        hints.resources().registerPattern("uart-mqtt-gateway.yml");
+
+        // LZ4Factory loads its implementations by name and reads their INSTANCE field, HC levels other than the
+        // default go through the int constructor. The JNI flavour is left out, without its library the factory
+        // falls back to the Java ones
+        for (String implementation : LZ4_IMPLEMENTATIONS) {
+            for (String pattern : LZ4_CLASS_PATTERNS) {
+                hints.reflection().registerType(TypeReference.of(pattern.formatted(implementation)),
+                    MemberCategory.PUBLIC_FIELDS, MemberCategory.INVOKE_DECLARED_CONSTRUCTORS);
+            }
+        }
+    }
+}
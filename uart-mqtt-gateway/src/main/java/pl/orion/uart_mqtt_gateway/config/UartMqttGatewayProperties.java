@@ -1,25 +1,77 @@
 package pl.orion.uart_mqtt_gateway.config;
 
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
 import lombok.AccessLevel;
 
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.DecimalMax;
+import jakarta.validation.constraints.DecimalMin;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.boot.context.properties.bind.Name;
+import org.springframework.validation.annotation.Validated;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 
 @ConfigurationProperties(prefix = "uart-mqtt-gateway")
+@Validated
 @Data
 public class UartMqttGatewayProperties {
     private String errorTopic;
 
+    @Valid
     private Mqtt mqtt;
     private Serial serial;
+    private Health health = new Health();
+    @Valid
     private List<UartMqttMapping> uartMqttMapping;
 
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private volatile Map<String, UartMqttMapping> uartMqttMappingByEventType;
+
+    public Map<String, UartMqttMapping> getUartMqttMappingByEventType() {
+        var mappings = uartMqttMappingByEventType;
+        if (mappings == null) {
+            final var byEventType = new LinkedHashMap<String, UartMqttMapping>();
+            uartMqttMapping.forEach(mapping -> byEventType.putIfAbsent(mapping.getEventType(), mapping));
+            mappings = Map.copyOf(byEventType);
+            uartMqttMappingByEventType = mappings;
+        }
+        return mappings;
+    }
+
+    /**
+     * @return mappings multiplexed with the given one over the same UART, starting with it
+     */
+    public List<UartMqttMapping> getLinkedMappings(UartMqttMapping mapping) {
+        if (mapping.getLink() == null) {
+            return List.of(mapping);
+        }
+        final var linked = new ArrayList<UartMqttMapping>();
+        linked.add(mapping);
+        for (UartMqttMapping candidate : uartMqttMapping) {
+            if (candidate != mapping && mapping.getLink().equals(candidate.getLink())) {
+                linked.add(candidate);
+            }
+        }
+        return linked;
+    }
+
     @Data
     public static class Mqtt {
         private String clientId;
@@ -44,11 +96,41 @@ public class UartMqttGatewayProperties {
 
         @Name("connection.reconnect.delay.ms")
         private long connectionReconnectDelayMs;
+
+        // Records hops of commands that arrive with a sampled trace context
+        @Name("tracing.enabled")
+        private boolean tracingEnabled = true;
+
+        // Fraction of untraced commands the gateway starts a trace for, traced ones are always followed
+        @Name("tracing.sample-rate")
+        @DecimalMin("0")
+        @DecimalMax("1")
+        private double tracingSampleRate = 0.01;
+
+        private StoreAndForward storeAndForward = new StoreAndForward();
+
+        @Data
+        public static class StoreAndForward {
+            private boolean enabled = false;
+            private String directory = "/var/lib/uart-mqtt-gateway/spool";
+            private int segmentBytes = 4 * 1024 * 1024;
+            private long maxBytesPerTopic = 64L * 1024 * 1024;
+            private long maxAgeSeconds = 3600;
+            private int replayRatePerSecond = 500;
+        }
+    }
+
+    @Data
+    public static class Health {
+        // Consecutive identification failures after which a port marks the gateway as down
+        private int failureThreshold = 5;
+        private long errorReminderIntervalMs = 300000;
     }
 
     @Data
     public static class Serial {
         private int scanIntervalMs;
+        private int identificationTimeoutMs = 2000;
         private List<String> allowedPortNamePrefixes;
         private int baudRate;
         private int dataBits;
@@ -58,32 +140,158 @@ public class UartMqttGatewayProperties {
         private int writeTimeoutMs;
         private int bufferSize;
         private String delimiter;
+        private Backend backend = Backend.JSERIALCOMM;
+        private Reader reader = new Reader();
+        private Writer writer = new Writer();
+        private Hotplug hotplug = new Hotplug();
+        private IdentityCache identityCache = new IdentityCache();
+        private Probe probe = new Probe();
+        private Quarantine quarantine = new Quarantine();
+        private Liveness liveness = new Liveness();
+        private Capture capture = new Capture();
+        private Framing framing = new Framing();
 
-        private static final String REGEX_PREFIX = "regex:";
+        @Data
+        public static class Framing {
+            private Type type = Type.DELIMITER;
+            private Crc crc = Crc.CRC16;
+            // Longest payload of a frame, the delimiter, length header, CRC and COBS overhead come on top
+            private int maxFrameBytes = 4096;
 
-        @Getter(AccessLevel.NONE)
-        private static final List<String> ALLOWED_PORT_PREFIX_PATTERNS = new ArrayList<>();
+            public enum Type {
+                DELIMITER,
+                COBS,
+                LENGTH_PREFIX
+            }
 
-        @Getter(AccessLevel.NONE)
-        private static final List<String> ALLOWED_PORT_REGEX_PATTERNS = new ArrayList<>();
+            public enum Crc {
+                NONE,
+                CRC16,
+                CRC32
+            }
+        }
+
+        @Data
+        public static class Hotplug {
+            private boolean enabled = false;
+            private String directory = "/dev";
+            private int settleDelayMs = 100;
+            private int fallbackScanIntervalMs = 30000;
+        }
+
+        @Data
+        public static class IdentityCache {
+            private boolean enabled = false;
+            private String file = "/var/lib/uart-mqtt-gateway/device-identities.json";
+            // {index} of indexed topics assigned to each device, kept across restarts like the identities
+            private String topicIndexesFile = "/var/lib/uart-mqtt-gateway/topic-indexes.json";
+        }
+
+        /**
+         * Identify request written to freshly opened ports, for boards that report their eventType only when asked.
+         * It is framed with the default {@code serial.framing}; any reply carrying an eventType identifies the device.
+         */
+        @Data
+        public static class Probe {
+            private boolean enabled = false;
+            private String request = "{\"command\":\"identify\"}";
+            private int maxAttempts = 4;
+            private int initialBackoffMs = 200;
+            private double backoffMultiplier = 2.0;
+        }
+
+        /**
+         * Ports failing identification {@code threshold} times in a row are closed and skipped by scans for
+         * {@code initialMs}, doubling with every further failure up to {@code maxMs}.
+         */
+        @Data
+        public static class Quarantine {
+            private int threshold = 3;
+            private long initialMs = 30000;
+            private long maxMs = 600000;
+        }
 
-        public List<String> getAllowedPortPrefixPattern() {
-            if (ALLOWED_PORT_PREFIX_PATTERNS.isEmpty()) {
-                allowedPortNamePrefixes.stream()
-                    .filter(name -> !name.startsWith(REGEX_PREFIX))
-                    .forEach(ALLOWED_PORT_PREFIX_PATTERNS::add);
+        /**
+         * Devices silent for {@code timeoutMs}, or their mapping's {@code livenessTimeoutMs}, are closed and removed.
+         * Expiry is checked every {@code tickMs}.
+         */
+        @Data
+        public static class Liveness {
+            private long timeoutMs = 15000;
+            private long tickMs = 10;
+        }
+
+        /**
+         * Raw bytes of every port read and write, appended to memory-mapped segments of {@code segmentBytes}. A
+         * segment is closed when full or {@code maxAgeSeconds} old, the oldest are deleted beyond {@code maxBytes}.
+         */
+        @Data
+        public static class Capture {
+            private boolean enabled = false;
+            private String directory = "/var/lib/uart-mqtt-gateway/capture";
+            private int segmentBytes = 16 * 1024 * 1024;
+            private long maxAgeSeconds = 900;
+            private long maxBytes = 256L * 1024 * 1024;
+        }
+
+        public enum Backend {
+            JSERIALCOMM,
+            // Linux only, needs --enable-preview and falls back to jSerialComm without it
+            LINUX_EPOLL
+        }
+
+        @Data
+        public static class Reader {
+            private Mode mode = Mode.LISTENER;
+            private int bufferBytes = 4096;
+
+            public enum Mode {
+                // jSerialComm's event thread delivers data to listeners
+                LISTENER,
+                // One thread per device does blocking reads and splits frames itself
+                THREAD
             }
-            return ALLOWED_PORT_PREFIX_PATTERNS;
         }
 
-        public List<String> getAllowedPortRegexPattern() {
-            if (ALLOWED_PORT_REGEX_PATTERNS.isEmpty()) {
-                allowedPortNamePrefixes.stream()
-                    .filter(name -> name.startsWith(REGEX_PREFIX))
-                    .map(name -> name.substring(REGEX_PREFIX.length()))
-                    .forEach(ALLOWED_PORT_REGEX_PATTERNS::add);
+        @Data
+        public static class Writer {
+            private int queueCapacity = 64;
+            private int maxBatchBytes = 512;
+            private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+
+            public enum OverflowPolicy {
+                DROP_OLDEST,
+                COALESCE_LATEST
+            }
+        }
+
+        private static final String REGEX_PREFIX = "regex:";
+
+        @Getter(AccessLevel.NONE)
+        @Setter(AccessLevel.NONE)
+        @ToString.Exclude
+        @EqualsAndHashCode.Exclude
+        private volatile Pattern allowedPortPattern;
+
+        /**
+         * Plain prefixes and {@code regex:} entries of {@code allowed-port-name-prefixes} compiled into one pattern.
+         */
+        public Pattern getAllowedPortPattern() {
+            var pattern = allowedPortPattern;
+            if (pattern == null) {
+                pattern = Pattern.compile(allowedPortNamePrefixes.stream()
+                    .map(name -> name.startsWith(REGEX_PREFIX)
+                        ? name.substring(REGEX_PREFIX.length())
+                        : Pattern.quote(name) + ".*")
+                    .map(alternative -> "(?:" + alternative + ")")
+                    .collect(Collectors.joining("|")));
+                allowedPortPattern = pattern;
             }
-            return ALLOWED_PORT_REGEX_PATTERNS;
+            return pattern;
+        }
+
+        public boolean isAllowedPort(String portPath) {
+            return getAllowedPortPattern().matcher(portPath).matches();
         }
     }
 
@@ -91,12 +299,155 @@ public class UartMqttGatewayProperties {
     public static class UartMqttMapping {
         private String label;
         private String eventType;
+        @Valid
         private MqttMapping mqtt;
+        private Serial.Writer.OverflowPolicy writerOverflowPolicy;
+        private Serial.Framing framing;
+        @Valid
+        private OutboundPolicy outboundPolicy = new OutboundPolicy();
+        // Mappings naming the same link are served by one port, each frame is routed by its eventType
+        private String link;
+        // 0-255, with binary framing the first byte of every frame on the link selects the mapping instead
+        private Integer channel;
+        // Pins the {index} of indexed topics by USB identity or port path, other devices get the lowest free index
+        private Map<String, Integer> topicIndexes = new LinkedHashMap<>();
+        // Packed binary structs on the UART instead of JSON, MQTT clients keep exchanging JSON
+        private Transcoding transcoding;
+        // Overrides serial.liveness.timeout-ms for boards reporting more or less often than the rest
+        private Long livenessTimeoutMs;
+
+        public Serial.Framing getFramingOrDefault(Serial serial) {
+            return framing != null ? framing : serial.getFraming();
+        }
+
+        public long getLivenessTimeoutMsOrDefault(Serial serial) {
+            return livenessTimeoutMs != null ? livenessTimeoutMs : serial.getLiveness().getTimeoutMs();
+        }
+
+        @Data
+        public static class OutboundPolicy {
+            private Mode mode = Mode.NONE;
+            @DecimalMin(value = "0", inclusive = false)
+            private double maxRatePerSecond = 50;
+            @Min(1)
+            private int intervalMs = 20;
+            @Min(1)
+            private int decimation = 10;
+
+            public enum Mode {
+                NONE,
+                MAX_RATE,
+                LATEST,
+                DECIMATE
+            }
+        }
+
+        @Data
+        public static class Transcoding {
+            private ByteOrder byteOrder = ByteOrder.LITTLE_ENDIAN;
+            private List<Struct> structs = new ArrayList<>();
+
+            public enum ByteOrder {
+                LITTLE_ENDIAN,
+                BIG_ENDIAN
+            }
+
+            @Data
+            public static class Struct {
+                // Value of the JSON "mode" field, may be left out when the mapping has a single struct
+                private String mode;
+                // First byte of the binary frame, 0-255 except 123 ('{') which marks a JSON frame
+                private int id;
+                private List<Field> fields = new ArrayList<>();
+            }
+
+            @Data
+            public static class Field {
+                // Member of the JSON "payload" object
+                private String name;
+                private Type type;
+
+                public enum Type {
+                    BOOL,
+                    INT8,
+                    UINT8,
+                    INT16,
+                    UINT16,
+                    INT32,
+                    UINT32,
+                    INT64,
+                    FLOAT32,
+                    FLOAT64
+                }
+            }
+        }
 
         @Data
         public static class MqttMapping {
+            public static final String INDEX_PLACEHOLDER = "{index}";
+
             private String inbound;
             private String outbound;
+            @Valid
+            private Subscription inboundSubscription = new Subscription();
+            @Valid
+            private Publication outboundPublication = new Publication();
+
+            public boolean hasIndexPlaceholder() {
+                return inbound.contains(INDEX_PLACEHOLDER) || outbound.contains(INDEX_PLACEHOLDER);
+            }
+
+            /**
+             * @return copy with {@code {index}} substituted, sharing the subscription and publication settings
+             */
+            public MqttMapping withIndex(int index) {
+                final var resolved = new MqttMapping();
+                resolved.setInbound(inbound.replace(INDEX_PLACEHOLDER, Integer.toString(index)));
+                resolved.setOutbound(outbound.replace(INDEX_PLACEHOLDER, Integer.toString(index)));
+                resolved.setInboundSubscription(inboundSubscription);
+                resolved.setOutboundPublication(outboundPublication);
+                return resolved;
+            }
+
+            @Data
+            public static class Subscription {
+                @Min(0)
+                @Max(2)
+                private int qos = 1;
+                // Disable for commands that must not be replayed when the device (re)connects
+                private boolean retainedMessages = true;
+                // Commands still queued for the UART this long after arrival are dropped, 0 keeps them until
+                // written. A message expiry set by the publisher is honoured either way
+                @Min(0)
+                private long maxAgeMs = 0;
+            }
+
+            @Data
+            public static class Publication {
+                @Min(0)
+                @Max(2)
+                private int qos = 1;
+                private boolean retain = false;
+                // 0 keeps the message until delivered
+                @Min(0)
+                private long messageExpirySeconds = 0;
+                private Compression compression = new Compression();
+
+                @Data
+                public static class Compression {
+                    private Codec codec = Codec.NONE;
+                    // Deflate 1-9 (6 by default), LZ4 0 for the fast compressor (default) or 1-17 for LZ4 HC
+                    private Integer level;
+                    // Deflate preset dictionary file, see DictionaryTrainer
+                    private String dictionary;
+
+                    public enum Codec {
+                        NONE,
+                        DEFLATE,
+                        LZ4
+                    }
+                }
+            }
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,123 @@
+package pl.orion.uart_mqtt_gateway.framing;
+
+import java.nio.ByteBuffer;
+
+import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties.Serial.Framing.Crc;
+
+/**
+ * Consistent Overhead Byte Stuffing: {@code COBS(payload + crc) 0x00}. Costs one byte per 254 payload bytes
+ * plus the terminating zero, carries arbitrary binary data and resynchronises on the next zero after corruption.
+ * {@code maxFrameBytes} limits the payload, the buffer also has room for the CRC and the stuffing overhead.
+ */
+public class CobsFraming implements FrameDecoder, FrameEncoder {
+    private static final int MAX_BLOCK_CODE = 0xFF;
+
+    private final FrameChecksum checksum;
+    private final int maxPayloadBytes;
+    private final byte[] frame;
+    private int frameLength;
+    private boolean discarding;
+    private long droppedFrames;
+
+    public CobsFraming(Crc crc, int maxFrameBytes) {
+        this.checksum = new FrameChecksum(crc);
+        this.maxPayloadBytes = maxFrameBytes;
+        // Stuffed payload and CRC, the terminating zero is not stored
+        this.frame = new byte[maxEncodedLength(maxFrameBytes) - 1];
+    }
+
+    @Override
+    public void decode(byte[] data, int offset, int length, FrameListener listener) {
+        for (int i = offset; i < offset + length; i++) {
+            final byte value = data[i];
+            if (value == 0) {
+                if (!discarding && frameLength > 0) {
+                    emit(listener);
+                }
+                discarding = false;
+                frameLength = 0;
+            } else if (!discarding) {
+                if (frameLength == frame.length) {
+                    droppedFrames++;
+                    discarding = true;
+                } else {
+                    frame[frameLength++] = value;
+                }
+            }
+        }
+    }
+
+    @Override
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    @Override
+    public int maxEncodedLength(int payloadLength) {
+        final int stuffedLength = payloadLength + checksum.length();
+        return stuffedLength + stuffedLength / (MAX_BLOCK_CODE - 1) + 2;
+    }
+
+    @Override
+    public int maxPayloadLength() {
+        return maxPayloadBytes;
+    }
+
+    @Override
+    public int encode(ByteBuffer payload, byte[] out) {
+        final int position = payload.position();
+        final int payloadLength = payload.remaining();
+        Framings.checkPayloadLength(payloadLength, maxPayloadBytes);
+        final long crc = checksum.compute(payload);
+
+        int codeIndex = 0;
+        int write = 1;
+        int code = 1;
+        for (int i = 0; i < payloadLength + checksum.length(); i++) {
+            final byte value = i < payloadLength
+                ? payload.get(position + i)
+                : (byte) (crc >>> (8 * (i - payloadLength)));
+            if (value == 0) {
+                out[codeIndex] = (byte) code;
+                codeIndex = write++;
+                code = 1;
+            } else {
+                out[write++] = value;
+                if (++code == MAX_BLOCK_CODE) {
+                    out[codeIndex] = (byte) code;
+                    codeIndex = write++;
+                    code = 1;
+                }
+            }
+        }
+        out[codeIndex] = (byte) code;
+        out[write++] = 0;
+        return write;
+    }
+
+    private void emit(FrameListener listener) {
+        // Decoding never outruns the read position, so the frame is unstuffed in place
+        int read = 0;
+        int write = 0;
+        while (read < frameLength) {
+            final int code = frame[read++] & 0xFF;
+            if (read + code - 1 > frameLength) {
+                droppedFrames++;
+                return;
+            }
+            for (int i = 1; i < code; i++) {
+                frame[write++] = frame[read++];
+            }
+            if (code < MAX_BLOCK_CODE && read < frameLength) {
+                frame[write++] = 0;
+            }
+        }
+
+        // Zeros cost no stuffing, so a slightly longer payload can still fit the buffer
+        if (write < checksum.length() || write - checksum.length() > maxPayloadBytes || !checksum.matches(frame, 0, write)) {
+            droppedFrames++;
+            return;
+        }
+        listener.onFrame(frame, 0, write - checksum.length());
+    }
+}
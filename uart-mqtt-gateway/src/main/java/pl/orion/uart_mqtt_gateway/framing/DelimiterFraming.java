@@ -0,0 +1,82 @@
+package pl.orion.uart_mqtt_gateway.framing;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Text framing terminated by a delimiter sequence ({@code "\n\n"} by default). Emitted frames keep the
+ * trailing delimiter and outbound payloads are written unchanged, exactly like jSerialComm's message listener.
+ * {@code maxFrameBytes} limits the frame without its delimiter, outbound payloads may carry the delimiter on top.
+ */
+public class DelimiterFraming implements FrameDecoder, FrameEncoder {
+    private final byte[] delimiter;
+    private final byte[] frame;
+    private int frameLength;
+    private boolean discarding;
+    private long droppedFrames;
+
+    public DelimiterFraming(byte[] delimiter, int maxFrameBytes) {
+        this.delimiter = delimiter;
+        this.frame = new byte[maxFrameBytes + delimiter.length];
+    }
+
+    @Override
+    public void decode(byte[] data, int offset, int length, FrameListener listener) {
+        for (int i = offset; i < offset + length; i++) {
+            if (frameLength == frame.length) {
+                // Oversized frame, drop everything up to the next delimiter
+                droppedFrames++;
+                discarding = true;
+                shiftKeepingDelimiterTail();
+            }
+            frame[frameLength++] = data[i];
+            if (endsWithDelimiter()) {
+                if (!discarding) {
+                    listener.onFrame(frame, 0, frameLength);
+                }
+                discarding = false;
+                frameLength = 0;
+            }
+        }
+    }
+
+    @Override
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    @Override
+    public int maxEncodedLength(int payloadLength) {
+        return payloadLength;
+    }
+
+    @Override
+    public int maxPayloadLength() {
+        return frame.length;
+    }
+
+    @Override
+    public int encode(ByteBuffer payload, byte[] out) {
+        final int length = payload.remaining();
+        Framings.checkPayloadLength(length, frame.length);
+        payload.get(payload.position(), out, 0, length);
+        return length;
+    }
+
+    private boolean endsWithDelimiter() {
+        if (frameLength < delimiter.length) {
+            return false;
+        }
+        for (int i = 0; i < delimiter.length; i++) {
+            if (frame[frameLength - delimiter.length + i] != delimiter[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void shiftKeepingDelimiterTail() {
+        final int keep = Math.min(delimiter.length - 1, frameLength);
+        System.arraycopy(frame, frameLength - keep, frame, 0, keep);
+        frameLength = keep;
+    }
+}
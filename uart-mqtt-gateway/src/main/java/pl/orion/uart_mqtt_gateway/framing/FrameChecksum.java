@@ -0,0 +1,95 @@
+package pl.orion.uart_mqtt_gateway.framing;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties.Serial.Framing.Crc;
+
+/**
+ * Frame check sequence appended little-endian after the payload. CRC16 is CRC-16/CCITT-FALSE
+ * (polynomial 0x1021, initial value 0xFFFF), the variant most MCU libraries ship with.
+ */
+final class FrameChecksum {
+    private static final int[] CRC16_TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i << 8;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x1021 : crc << 1;
+            }
+            CRC16_TABLE[i] = crc & 0xFFFF;
+        }
+    }
+
+    private final Crc crc;
+    private final CRC32 crc32 = new CRC32();
+
+    FrameChecksum(Crc crc) {
+        this.crc = crc;
+    }
+
+    int length() {
+        return switch (crc) {
+            case NONE -> 0;
+            case CRC16 -> 2;
+            case CRC32 -> 4;
+        };
+    }
+
+    long compute(byte[] buffer, int offset, int length) {
+        return switch (crc) {
+            case NONE -> 0;
+            case CRC16 -> crc16(buffer, offset, length);
+            case CRC32 -> {
+                crc32.reset();
+                crc32.update(buffer, offset, length);
+                yield crc32.getValue();
+            }
+        };
+    }
+
+    /**
+     * Checksum of the remaining bytes, leaving the buffer position untouched.
+     */
+    long compute(ByteBuffer buffer) {
+        return switch (crc) {
+            case NONE -> 0;
+            case CRC16 -> {
+                int value = 0xFFFF;
+                for (int i = buffer.position(); i < buffer.limit(); i++) {
+                    value = ((value << 8) ^ CRC16_TABLE[((value >>> 8) ^ buffer.get(i)) & 0xFF]) & 0xFFFF;
+                }
+                yield value;
+            }
+            case CRC32 -> {
+                crc32.reset();
+                crc32.update(buffer.duplicate());
+                yield crc32.getValue();
+            }
+        };
+    }
+
+    void write(long value, byte[] out, int offset) {
+        for (int i = 0; i < length(); i++) {
+            out[offset + i] = (byte) (value >>> (8 * i));
+        }
+    }
+
+    boolean matches(byte[] buffer, int offset, int length) {
+        final int payloadLength = length - length();
+        long expected = 0;
+        for (int i = length() - 1; i >= 0; i--) {
+            expected = (expected << 8) | (buffer[offset + payloadLength + i] & 0xFF);
+        }
+        return compute(buffer, offset, payloadLength) == expected;
+    }
+
+    private static int crc16(byte[] buffer, int offset, int length) {
+        int crc = 0xFFFF;
+        for (int i = offset; i < offset + length; i++) {
+            crc = ((crc << 8) ^ CRC16_TABLE[((crc >>> 8) ^ buffer[i]) & 0xFF]) & 0xFFFF;
+        }
+        return crc;
+    }
+}
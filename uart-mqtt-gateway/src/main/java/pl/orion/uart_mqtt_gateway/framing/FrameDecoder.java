@@ -0,0 +1,23 @@
+package pl.orion.uart_mqtt_gateway.framing;
+
+/**
+ * Splits a raw UART byte stream into frames. Implementations keep partial frames between calls,
+ * so one instance serves exactly one port and is fed from a single thread.
+ */
+public interface FrameDecoder {
+
+    @FunctionalInterface
+    interface FrameListener {
+        /**
+         * The buffer is owned by the decoder and only valid for the duration of the call.
+         */
+        void onFrame(byte[] buffer, int offset, int length);
+    }
+
+    void decode(byte[] data, int offset, int length, FrameListener listener);
+
+    /**
+     * @return number of frames dropped so far because they were corrupted or exceeded the maximum size
+     */
+    long getDroppedFrames();
+}
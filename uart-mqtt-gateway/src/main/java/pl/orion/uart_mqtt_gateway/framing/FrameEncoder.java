@@ -0,0 +1,24 @@
+package pl.orion.uart_mqtt_gateway.framing;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Wraps a payload into the on-wire representation expected by the device.
+ */
+public interface FrameEncoder {
+
+    int maxEncodedLength(int payloadLength);
+
+    /**
+     * @return longest payload the device's decoder accepts with the same {@code max-frame-bytes}
+     */
+    int maxPayloadLength();
+
+    /**
+     * Encodes the remaining bytes of the payload without moving its position.
+     *
+     * @return number of bytes written to {@code out}
+     * @throws IllegalArgumentException if the payload is longer than {@link #maxPayloadLength()}
+     */
+    int encode(ByteBuffer payload, byte[] out);
+}
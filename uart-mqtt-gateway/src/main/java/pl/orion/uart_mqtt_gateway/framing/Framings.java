@@ -0,0 +1,42 @@
+package pl.orion.uart_mqtt_gateway.framing;
+
+import java.nio.charset.StandardCharsets;
+
+import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties.Serial;
+import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties.Serial.Framing;
+
+/**
+ * Creates framing instances. Decoders and encoders keep state, so every port and direction gets its own instance.
+ */
+public final class Framings {
+
+    private Framings() {
+    }
+
+    public static FrameDecoder decoder(Framing framing, Serial serial) {
+        return switch (framing.getType()) {
+            case DELIMITER -> delimiter(framing, serial);
+            case COBS -> new CobsFraming(framing.getCrc(), framing.getMaxFrameBytes());
+            case LENGTH_PREFIX -> new LengthPrefixFraming(framing.getCrc(), framing.getMaxFrameBytes());
+        };
+    }
+
+    public static FrameEncoder encoder(Framing framing, Serial serial) {
+        return switch (framing.getType()) {
+            case DELIMITER -> delimiter(framing, serial);
+            case COBS -> new CobsFraming(framing.getCrc(), framing.getMaxFrameBytes());
+            case LENGTH_PREFIX -> new LengthPrefixFraming(framing.getCrc(), framing.getMaxFrameBytes());
+        };
+    }
+
+    static void checkPayloadLength(int payloadLength, int maxPayloadLength) {
+        if (payloadLength > maxPayloadLength) {
+            throw new IllegalArgumentException("Payload of " + payloadLength + " bytes exceeds max-frame-bytes of "
+                + maxPayloadLength);
+        }
+    }
+
+    private static DelimiterFraming delimiter(Framing framing, Serial serial) {
+        return new DelimiterFraming(serial.getDelimiter().getBytes(StandardCharsets.UTF_8), framing.getMaxFrameBytes());
+    }
+}
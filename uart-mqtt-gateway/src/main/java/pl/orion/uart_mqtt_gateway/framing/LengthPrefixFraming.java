@@ -0,0 +1,110 @@
+package pl.orion.uart_mqtt_gateway.framing;
+
+import java.nio.ByteBuffer;
+
+import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties.Serial.Framing.Crc;
+
+/**
+ * Length-prefixed framing: {@code 0xA5, length (uint16 LE), payload, crc (LE)}. The checksum covers the length
+ * and the payload. The sync byte lets the decoder find the next frame after a corrupted one.
+ * {@code maxFrameBytes} limits the payload, frames announcing a longer one are dropped. The 16-bit length caps it
+ * at 65535 bytes whatever is configured.
+ */
+public class LengthPrefixFraming implements FrameDecoder, FrameEncoder {
+    public static final byte SYNC = (byte) 0xA5;
+    private static final int HEADER_LENGTH = 3;
+    private static final int MAX_LENGTH = 0xFFFF;
+
+    private enum State { SYNC, LENGTH_LOW, LENGTH_HIGH, BODY }
+
+    private final FrameChecksum checksum;
+    private final int maxPayloadBytes;
+    private final byte[] frame;
+    private State state = State.SYNC;
+    private int expectedLength;
+    private int frameLength;
+    private long droppedFrames;
+
+    public LengthPrefixFraming(Crc crc, int maxFrameBytes) {
+        this.checksum = new FrameChecksum(crc);
+        this.maxPayloadBytes = Math.min(maxFrameBytes, MAX_LENGTH);
+        this.frame = new byte[HEADER_LENGTH + maxPayloadBytes + checksum.length()];
+    }
+
+    @Override
+    public void decode(byte[] data, int offset, int length, FrameListener listener) {
+        for (int i = offset; i < offset + length; i++) {
+            final byte value = data[i];
+            switch (state) {
+                case SYNC -> {
+                    if (value == SYNC) {
+                        frame[0] = value;
+                        state = State.LENGTH_LOW;
+                    }
+                }
+                case LENGTH_LOW -> {
+                    frame[1] = value;
+                    state = State.LENGTH_HIGH;
+                }
+                case LENGTH_HIGH -> {
+                    frame[2] = value;
+                    final int payloadLength = (frame[1] & 0xFF) | (frame[2] & 0xFF) << 8;
+                    if (HEADER_LENGTH + payloadLength + checksum.length() > frame.length) {
+                        droppedFrames++;
+                        state = State.SYNC;
+                    } else {
+                        expectedLength = HEADER_LENGTH + payloadLength + checksum.length();
+                        frameLength = HEADER_LENGTH;
+                        state = State.BODY;
+                        if (frameLength == expectedLength) {
+                            completeFrame(listener);
+                        }
+                    }
+                }
+                case BODY -> {
+                    frame[frameLength++] = value;
+                    if (frameLength == expectedLength) {
+                        completeFrame(listener);
+                    }
+                }
+            }
+        }
+    }
+
+    private void completeFrame(FrameListener listener) {
+        state = State.SYNC;
+        if (checksum.matches(frame, 1, frameLength - 1)) {
+            listener.onFrame(frame, HEADER_LENGTH, frameLength - HEADER_LENGTH - checksum.length());
+        } else {
+            droppedFrames++;
+        }
+    }
+
+    @Override
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    @Override
+    public int maxEncodedLength(int payloadLength) {
+        return HEADER_LENGTH + payloadLength + checksum.length();
+    }
+
+    @Override
+    public int maxPayloadLength() {
+        return maxPayloadBytes;
+    }
+
+    @Override
+    public int encode(ByteBuffer payload, byte[] out) {
+        final int payloadLength = payload.remaining();
+        Framings.checkPayloadLength(payloadLength, maxPayloadBytes);
+        out[0] = SYNC;
+        out[1] = (byte) payloadLength;
+        out[2] = (byte) (payloadLength >>> 8);
+        payload.get(payload.position(), out, HEADER_LENGTH, payloadLength);
+        final int length = HEADER_LENGTH + payloadLength;
+        checksum.write(checksum.compute(out, 1, length - 1), out, length);
+        return length + checksum.length();
+    }
+}
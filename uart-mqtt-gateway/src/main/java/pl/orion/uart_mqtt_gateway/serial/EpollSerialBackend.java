@@ -0,0 +1,376 @@
+package pl.orion.uart_mqtt_gateway.serial;
+
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+import static java.lang.foreign.ValueLayout.JAVA_LONG_UNALIGNED;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+
+import com.fazecast.jSerialComm.SerialPort;
+
+import lombok.extern.slf4j.Slf4j;
+import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties.Serial;
+
+/**
+ * Linux serial backend calling the C library through the Foreign Function &amp; Memory API. Ports are configured with
+ * termios and opened non-blocking, and a single thread waits on all of them with one epoll set. Reads land in an
+ * off-heap buffer and are copied once into a heap chunk reused for every read, so a frame costs no allocation
+ * before the decoder.
+ * <p>
+ * Only the loop thread removes ports from the epoll set and closes their descriptors, between two batches of events.
+ * A closed channel therefore never gets a callback of its own after its close returns, and an event left over for
+ * a descriptor never reaches another port the kernel gives the same number to.
+ */
+@Slf4j
+public final class EpollSerialBackend implements SerialBackend {
+    private static final int MAX_EVENTS = 64;
+    // Closes wake the loop through an eventfd, the timeout only bounds a lost wakeup
+    private static final int WAIT_TIMEOUT_MS = 100;
+
+    private static final int CSIZE = 0000060;
+    private static final int CSTOPB = 0000100;
+    private static final int CREAD = 0000200;
+    private static final int PARENB = 0000400;
+    private static final int PARODD = 0001000;
+    private static final int CLOCAL = 0004000;
+    private static final int CRTSCTS = 020000000000;
+
+    private record Registration(String portPath, int fd, DataListener listener, Runnable disconnected) {
+    }
+
+    private final Arena arena = Arena.ofShared();
+    private final MemorySegment loopCallState = LibC.allocateCallState(arena);
+    private final MemorySegment events = arena.allocate(LibC.EPOLL_EVENT_BYTES * MAX_EVENTS);
+    private final MemorySegment wakeups = arena.allocate(JAVA_LONG);
+    private final MemorySegment readBuffer;
+    private final byte[] chunk;
+    private final Map<Integer, Registration> registrations = new ConcurrentHashMap<>();
+    private final Queue<EpollChannel> closing = new ConcurrentLinkedQueue<>();
+    private final int epollFd;
+    private final int wakeupFd;
+    private final Thread loop;
+
+    private volatile boolean running = true;
+
+    public EpollSerialBackend(int bufferBytes) throws IOException {
+        readBuffer = arena.allocate(bufferBytes);
+        chunk = new byte[bufferBytes];
+        epollFd = LibC.epollCreate(loopCallState);
+        if (epollFd < 0) {
+            final int errno = LibC.errno(loopCallState);
+            arena.close();
+            throw new IOException("epoll_create1 failed, errno " + errno);
+        }
+        wakeupFd = LibC.eventfd(loopCallState, LibC.EFD_NONBLOCK | LibC.EFD_CLOEXEC);
+        final var event = arena.allocate(LibC.EPOLL_EVENT_BYTES);
+        event.set(JAVA_INT, 0, LibC.EPOLLIN);
+        event.set(JAVA_LONG_UNALIGNED, LibC.EPOLL_EVENT_DATA_OFFSET, wakeupFd);
+        if (wakeupFd < 0 || LibC.epollCtl(loopCallState, epollFd, LibC.EPOLL_CTL_ADD, wakeupFd, event) != 0) {
+            final int errno = LibC.errno(loopCallState);
+            if (wakeupFd >= 0) {
+                LibC.close(loopCallState, wakeupFd);
+            }
+            LibC.close(loopCallState, epollFd);
+            arena.close();
+            throw new IOException("Failed to set up the epoll wakeup, errno " + errno);
+        }
+        loop = Thread.ofPlatform().name("uart-epoll").daemon().start(this::run);
+    }
+
+    @Override
+    public Channel open(String portPath, Serial settings, DataListener listener, Runnable disconnected) throws IOException {
+        final int fd;
+        try (Arena call = Arena.ofConfined()) {
+            final var callState = LibC.allocateCallState(call);
+            fd = LibC.open(callState, call.allocateUtf8String(portPath), LibC.O_RDWR | LibC.O_NOCTTY | LibC.O_NONBLOCK | LibC.O_CLOEXEC);
+            if (fd < 0) {
+                throw new IOException("Failed to open " + portPath + ", errno " + LibC.errno(callState));
+            }
+            try {
+                configure(call, callState, fd, settings);
+                registrations.put(fd, new Registration(portPath, fd, listener, disconnected));
+                final var event = call.allocate(LibC.EPOLL_EVENT_BYTES);
+                event.set(JAVA_INT, 0, LibC.EPOLLIN);
+                event.set(JAVA_LONG_UNALIGNED, LibC.EPOLL_EVENT_DATA_OFFSET, fd);
+                if (LibC.epollCtl(callState, epollFd, LibC.EPOLL_CTL_ADD, fd, event) != 0) {
+                    throw new IOException("Failed to watch " + portPath + ", errno " + LibC.errno(callState));
+                }
+            } catch (IOException | RuntimeException e) {
+                registrations.remove(fd);
+                LibC.close(callState, fd);
+                throw e;
+            }
+        }
+        log.debug("[Device={}] Opened through epoll backend, fd {}", portPath, fd);
+        return new EpollChannel(portPath, fd, settings.getWriteTimeoutMs());
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        wakeUp();
+        try {
+            loop.join(WAIT_TIMEOUT_MS * 5L);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (loop.isAlive()) {
+            // the loop still references the arena, leaking it beats crashing it
+            log.warn("epoll loop did not stop, leaving its buffers allocated");
+            return;
+        }
+        // channels closed while the loop was stopping
+        releaseClosed();
+        LibC.close(loopCallState, wakeupFd);
+        LibC.close(loopCallState, epollFd);
+        arena.close();
+    }
+
+    private void wakeUp() {
+        try (Arena call = Arena.ofConfined()) {
+            LibC.write(LibC.allocateCallState(call), wakeupFd, call.allocate(JAVA_LONG, 1L), Long.BYTES);
+        }
+    }
+
+    private void releaseClosed() {
+        EpollChannel channel;
+        while ((channel = closing.poll()) != null) {
+            channel.release();
+        }
+    }
+
+    private static void configure(Arena call, MemorySegment callState, int fd, Serial settings) throws IOException {
+        final var termios = call.allocate(LibC.TERMIOS_BYTES);
+        if (LibC.tcgetattr(callState, fd, termios) != 0) {
+            throw new IOException("tcgetattr failed, errno " + LibC.errno(callState));
+        }
+        LibC.cfmakeraw(callState, termios);
+        int cflag = termios.get(JAVA_INT, LibC.TERMIOS_CFLAG_OFFSET);
+        cflag &= ~(CSIZE | CSTOPB | PARENB | PARODD | CRTSCTS);
+        cflag |= characterSize(settings.getDataBits()) | parity(settings.getParityBit()) | CREAD | CLOCAL;
+        if (settings.getStopBits() == SerialPort.TWO_STOP_BITS) {
+            cflag |= CSTOPB;
+        }
+        termios.set(JAVA_INT, LibC.TERMIOS_CFLAG_OFFSET, cflag);
+        // with O_NONBLOCK a read of an empty port fails with EAGAIN instead of returning 0
+        termios.set(JAVA_BYTE, LibC.TERMIOS_CC_OFFSET + LibC.VMIN, (byte) 1);
+        termios.set(JAVA_BYTE, LibC.TERMIOS_CC_OFFSET + LibC.VTIME, (byte) 0);
+        if (LibC.cfsetspeed(callState, termios, speed(settings.getBaudRate())) != 0) {
+            throw new IOException("cfsetspeed failed, errno " + LibC.errno(callState));
+        }
+        if (LibC.tcsetattr(callState, fd, LibC.TCSANOW, termios) != 0) {
+            throw new IOException("tcsetattr failed, errno " + LibC.errno(callState));
+        }
+    }
+
+    private static int characterSize(int dataBits) throws IOException {
+        return switch (dataBits) {
+            case 5 -> 0000000;
+            case 6 -> 0000020;
+            case 7 -> 0000040;
+            case 8 -> 0000060;
+            default -> throw new IOException("Unsupported data bits " + dataBits);
+        };
+    }
+
+    private static int parity(int parityBit) throws IOException {
+        return switch (parityBit) {
+            case SerialPort.NO_PARITY -> 0;
+            case SerialPort.ODD_PARITY -> PARENB | PARODD;
+            case SerialPort.EVEN_PARITY -> PARENB;
+            default -> throw new IOException("Unsupported parity " + parityBit);
+        };
+    }
+
+    private static int speed(int baudRate) throws IOException {
+        return switch (baudRate) {
+            case 1200 -> 0000011;
+            case 2400 -> 0000013;
+            case 4800 -> 0000014;
+            case 9600 -> 0000015;
+            case 19200 -> 0000016;
+            case 38400 -> 0000017;
+            case 57600 -> 0010001;
+            case 115200 -> 0010002;
+            case 230400 -> 0010003;
+            case 460800 -> 0010004;
+            case 500000 -> 0010005;
+            case 576000 -> 0010006;
+            case 921600 -> 0010007;
+            case 1000000 -> 0010010;
+            case 1500000 -> 0010012;
+            case 2000000 -> 0010013;
+            default -> throw new IOException("Unsupported baud rate " + baudRate);
+        };
+    }
+
+    private void run() {
+        while (running) {
+            final int ready = LibC.epollWait(loopCallState, epollFd, events, MAX_EVENTS, WAIT_TIMEOUT_MS);
+            if (ready < 0) {
+                if (LibC.errno(loopCallState) != LibC.EINTR) {
+                    log.error("epoll_wait failed, errno {}", LibC.errno(loopCallState));
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(WAIT_TIMEOUT_MS));
+                }
+                continue;
+            }
+            for (int i = 0; i < ready; i++) {
+                final long event = i * LibC.EPOLL_EVENT_BYTES;
+                final int flags = events.get(JAVA_INT, event);
+                final int fd = (int) events.get(JAVA_LONG_UNALIGNED, event + LibC.EPOLL_EVENT_DATA_OFFSET);
+                if (fd == wakeupFd) {
+                    LibC.read(loopCallState, wakeupFd, wakeups, Long.BYTES);
+                    continue;
+                }
+                final var registration = registrations.get(fd);
+                if (registration != null) {
+                    service(registration, flags);
+                }
+            }
+            releaseClosed();
+        }
+    }
+
+    private void service(Registration registration, int flags) {
+        boolean gone = (flags & (LibC.EPOLLERR | LibC.EPOLLHUP)) != 0;
+        if ((flags & LibC.EPOLLIN) != 0) {
+            gone |= !drain(registration);
+        }
+        if (gone && registrations.remove(registration.fd(), registration)) {
+            // stop the level-triggered events, the device closes the fd when it stops
+            LibC.epollCtl(loopCallState, epollFd, LibC.EPOLL_CTL_DEL, registration.fd(), MemorySegment.NULL);
+            log.debug("[Device={}] Port hung up", registration.portPath());
+            registration.disconnected().run();
+        }
+    }
+
+    /**
+     * @return false once the port is gone
+     */
+    private boolean drain(Registration registration) {
+        while (true) {
+            final long read = LibC.read(loopCallState, registration.fd(), readBuffer, chunk.length);
+            if (read > 0) {
+                MemorySegment.copy(readBuffer, JAVA_BYTE, 0, chunk, 0, (int) read);
+                try {
+                    registration.listener().onData(chunk, 0, (int) read);
+                } catch (RuntimeException e) {
+                    log.error("[Device={}] Failed to handle serial data: {}", registration.portPath(), e.toString());
+                }
+                if (read < chunk.length || registrations.get(registration.fd()) != registration) {
+                    // drained, or the listener closed its channel
+                    return true;
+                }
+            } else if (read == 0) {
+                return true;
+            } else {
+                final int errno = LibC.errno(loopCallState);
+                return errno == LibC.EAGAIN || errno == LibC.EINTR;
+            }
+        }
+    }
+
+    private final class EpollChannel implements Channel {
+        private final String portPath;
+        private final int fd;
+        private final long writeTimeoutNanos;
+        private final Arena channelArena = Arena.ofShared();
+        private final MemorySegment callState = LibC.allocateCallState(channelArena);
+        private final CompletableFuture<Void> released = new CompletableFuture<>();
+        private MemorySegment writeBuffer = MemorySegment.NULL;
+        private boolean closed;
+
+        private EpollChannel(String portPath, int fd, int writeTimeoutMs) {
+            this.portPath = portPath;
+            this.fd = fd;
+            this.writeTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(writeTimeoutMs);
+        }
+
+        @Override
+        public synchronized int write(byte[] buffer, int length) {
+            if (closed) {
+                return -1;
+            }
+            if (writeBuffer.byteSize() < length) {
+                writeBuffer = channelArena.allocate(Math.max(length, 256));
+            }
+            MemorySegment.copy(buffer, 0, writeBuffer, JAVA_BYTE, 0, length);
+            final long deadline = System.nanoTime() + writeTimeoutNanos;
+            int written = 0;
+            while (written < length) {
+                final long result = LibC.write(callState, fd, writeBuffer.asSlice(written), length - written);
+                if (result >= 0) {
+                    written += (int) result;
+                    continue;
+                }
+                final int errno = LibC.errno(callState);
+                if (errno == LibC.EINTR) {
+                    continue;
+                }
+                if (errno != LibC.EAGAIN) {
+                    log.debug("[Device={}] Write failed, errno {}", portPath, errno);
+                    return written > 0 ? written : -1;
+                }
+                if (System.nanoTime() - deadline >= 0) {
+                    break;
+                }
+                // the transmit queue is full, it drains at the baud rate
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            }
+            return written;
+        }
+
+        @Override
+        public void close() {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+            }
+            // no new callbacks, the descriptor stays open until the loop is out of any callback in progress
+            registrations.remove(fd);
+            closing.add(this);
+            if (Thread.currentThread() == loop) {
+                // released once the current callback returns
+                return;
+            }
+            if (!loop.isAlive()) {
+                releaseClosed();
+                return;
+            }
+            wakeUp();
+            try {
+                released.get(WAIT_TIMEOUT_MS * 5L, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | TimeoutException e) {
+                log.warn("[Device={}] epoll loop did not release the port in time", portPath);
+            }
+        }
+
+        /**
+         * Called by the loop between two batches of events, or by whoever closes the backend once the loop stopped.
+         */
+        private void release() {
+            if (running) {
+                LibC.epollCtl(callState, epollFd, LibC.EPOLL_CTL_DEL, fd, MemorySegment.NULL);
+            }
+            LibC.close(callState, fd);
+            channelArena.close();
+            released.complete(null);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package pl.orion.uart_mqtt_gateway.serial;
+
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.StructLayout;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+/**
+ * Downcalls into the C library for the epoll serial backend. Every call captures {@code errno} into a segment owned
+ * by the calling thread, see {@link #allocateCallState}. Constants are the Linux generic ABI values shared by
+ * x86-64 and AArch64.
+ */
+final class LibC {
+    static final int O_RDWR = 02;
+    static final int O_NOCTTY = 0400;
+    static final int O_NONBLOCK = 04000;
+    static final int O_CLOEXEC = 02000000;
+
+    static final int EINTR = 4;
+    static final int EAGAIN = 11;
+
+    static final int EPOLLIN = 0x001;
+    static final int EPOLLERR = 0x008;
+    static final int EPOLLHUP = 0x010;
+    static final int EPOLL_CTL_ADD = 1;
+    static final int EPOLL_CTL_DEL = 2;
+
+    static final int EFD_NONBLOCK = O_NONBLOCK;
+    static final int EFD_CLOEXEC = O_CLOEXEC;
+
+    static final int TCSANOW = 0;
+
+    // struct epoll_event is packed on x86-64 only
+    private static final boolean PACKED_EPOLL_EVENT = Arrays.asList("amd64", "x86_64").contains(System.getProperty("os.arch"));
+    static final long EPOLL_EVENT_BYTES = PACKED_EPOLL_EVENT ? 12 : 16;
+    static final long EPOLL_EVENT_DATA_OFFSET = PACKED_EPOLL_EVENT ? 4 : 8;
+
+    // struct termios: four tcflag_t, c_line, c_cc[32], c_ispeed, c_ospeed
+    static final long TERMIOS_BYTES = 60;
+    static final long TERMIOS_CFLAG_OFFSET = 8;
+    static final long TERMIOS_CC_OFFSET = 17;
+    static final int VTIME = 5;
+    static final int VMIN = 6;
+
+    private static final Linker LINKER = Linker.nativeLinker();
+    private static final StructLayout CALL_STATE = Linker.Option.captureStateLayout();
+    private static final VarHandle ERRNO = CALL_STATE.varHandle(MemoryLayout.PathElement.groupElement("errno"));
+
+    private static final MethodHandle OPEN = downcall("open", FunctionDescriptor.of(JAVA_INT, ADDRESS, JAVA_INT, JAVA_INT),
+        Linker.Option.firstVariadicArg(2));
+    private static final MethodHandle CLOSE = downcall("close", FunctionDescriptor.of(JAVA_INT, JAVA_INT));
+    private static final MethodHandle READ = downcall("read", FunctionDescriptor.of(JAVA_LONG, JAVA_INT, ADDRESS, JAVA_LONG));
+    private static final MethodHandle WRITE = downcall("write", FunctionDescriptor.of(JAVA_LONG, JAVA_INT, ADDRESS, JAVA_LONG));
+    private static final MethodHandle TCGETATTR = downcall("tcgetattr", FunctionDescriptor.of(JAVA_INT, JAVA_INT, ADDRESS));
+    private static final MethodHandle TCSETATTR = downcall("tcsetattr", FunctionDescriptor.of(JAVA_INT, JAVA_INT, JAVA_INT, ADDRESS));
+    private static final MethodHandle CFMAKERAW = downcall("cfmakeraw", FunctionDescriptor.ofVoid(ADDRESS));
+    private static final MethodHandle CFSETISPEED = downcall("cfsetispeed", FunctionDescriptor.of(JAVA_INT, ADDRESS, JAVA_INT));
+    private static final MethodHandle CFSETOSPEED = downcall("cfsetospeed", FunctionDescriptor.of(JAVA_INT, ADDRESS, JAVA_INT));
+    private static final MethodHandle EPOLL_CREATE1 = downcall("epoll_create1", FunctionDescriptor.of(JAVA_INT, JAVA_INT));
+    private static final MethodHandle EPOLL_CTL = downcall("epoll_ctl", FunctionDescriptor.of(JAVA_INT, JAVA_INT, JAVA_INT, JAVA_INT, ADDRESS));
+    private static final MethodHandle EVENTFD = downcall("eventfd", FunctionDescriptor.of(JAVA_INT, JAVA_INT, JAVA_INT));
+    private static final MethodHandle EPOLL_WAIT = downcall("epoll_wait", FunctionDescriptor.of(JAVA_INT, JAVA_INT, ADDRESS, JAVA_INT, JAVA_INT));
+
+    private LibC() {
+    }
+
+    static MemorySegment allocateCallState(Arena arena) {
+        return arena.allocate(CALL_STATE);
+    }
+
+    static int errno(MemorySegment callState) {
+        return (int) ERRNO.get(callState);
+    }
+
+    static int open(MemorySegment callState, MemorySegment path, int flags) {
+        try {
+            return (int) OPEN.invokeExact(callState, path, flags, 0);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static int close(MemorySegment callState, int fd) {
+        try {
+            return (int) CLOSE.invokeExact(callState, fd);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static long read(MemorySegment callState, int fd, MemorySegment buffer, long length) {
+        try {
+            return (long) READ.invokeExact(callState, fd, buffer, length);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static long write(MemorySegment callState, int fd, MemorySegment buffer, long length) {
+        try {
+            return (long) WRITE.invokeExact(callState, fd, buffer, length);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static int tcgetattr(MemorySegment callState, int fd, MemorySegment termios) {
+        try {
+            return (int) TCGETATTR.invokeExact(callState, fd, termios);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static int tcsetattr(MemorySegment callState, int fd, int action, MemorySegment termios) {
+        try {
+            return (int) TCSETATTR.invokeExact(callState, fd, action, termios);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static void cfmakeraw(MemorySegment callState, MemorySegment termios) {
+        try {
+            CFMAKERAW.invokeExact(callState, termios);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static int cfsetspeed(MemorySegment callState, MemorySegment termios, int speed) {
+        try {
+            final int input = (int) CFSETISPEED.invokeExact(callState, termios, speed);
+            final int output = (int) CFSETOSPEED.invokeExact(callState, termios, speed);
+            return input != 0 ? input : output;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static int epollCreate(MemorySegment callState) {
+        try {
+            return (int) EPOLL_CREATE1.invokeExact(callState, O_CLOEXEC);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static int epollCtl(MemorySegment callState, int epollFd, int operation, int fd, MemorySegment event) {
+        try {
+            return (int) EPOLL_CTL.invokeExact(callState, epollFd, operation, fd, event);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static int epollWait(MemorySegment callState, int epollFd, MemorySegment events, int maxEvents, int timeoutMs) {
+        try {
+            return (int) EPOLL_WAIT.invokeExact(callState, epollFd, events, maxEvents, timeoutMs);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static int eventfd(MemorySegment callState, int flags) {
+        try {
+            return (int) EVENTFD.invokeExact(callState, 0, flags);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodHandle downcall(String name, FunctionDescriptor descriptor, Linker.Option... options) {
+        final var withErrno = Arrays.copyOf(options, options.length + 1);
+        withErrno[options.length] = Linker.Option.captureCallState("errno");
+        return LINKER.downcallHandle(LINKER.defaultLookup().find(name).orElseThrow(), descriptor, withErrno);
+    }
+}
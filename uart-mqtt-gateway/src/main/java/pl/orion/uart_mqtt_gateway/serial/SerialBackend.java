@@ -0,0 +1,43 @@
+package pl.orion.uart_mqtt_gateway.serial;
+
+import java.io.IOException;
+
+import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties.Serial;
+
+/**
+ * Serial port access for devices not driven by jSerialComm. The backend reads on threads of its own and pushes the
+ * bytes to the device's listener, the device decodes frames itself.
+ */
+public interface SerialBackend extends AutoCloseable {
+
+    @FunctionalInterface
+    interface DataListener {
+        /**
+         * The buffer is owned by the backend and only valid for the duration of the call.
+         */
+        void onData(byte[] buffer, int offset, int length);
+    }
+
+    interface Channel {
+        /**
+         * Blocks for at most {@code serial.write-timeout-ms}.
+         *
+         * @return number of bytes written, negative if the port is gone
+         */
+        int write(byte[] buffer, int length);
+
+        /**
+         * Once it returns the listener is not called again. Called from the backend's own thread, the port is
+         * released when that thread finishes the current callback.
+         */
+        void close();
+    }
+
+    /**
+     * @param disconnected called from the backend's thread once the device disappears, not after {@link Channel#close()}
+     */
+    Channel open(String portPath, Serial settings, DataListener listener, Runnable disconnected) throws IOException;
+
+    @Override
+    void close();
+}
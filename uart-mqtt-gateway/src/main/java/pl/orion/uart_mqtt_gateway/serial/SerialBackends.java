@@ -0,0 +1,46 @@
+package pl.orion.uart_mqtt_gateway.serial;
+
+import java.lang.reflect.InvocationTargetException;
+
+import lombok.extern.slf4j.Slf4j;
+import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties.Serial;
+
+@Slf4j
+public final class SerialBackends {
+    private static final String EPOLL_BACKEND = "pl.orion.uart_mqtt_gateway.serial.EpollSerialBackend";
+
+    private SerialBackends() {
+    }
+
+    /**
+     * @return null when devices should drive their ports through jSerialComm, also the fallback whenever the
+     *         configured backend cannot start on this JVM or platform
+     */
+    public static SerialBackend create(Serial serial) {
+        if (serial.getBackend() != Serial.Backend.LINUX_EPOLL) {
+            return null;
+        }
+        if (!System.getProperty("os.name", "").startsWith("Linux")) {
+            log.warn("Serial backend {} needs Linux, falling back to jSerialComm", serial.getBackend());
+            return null;
+        }
+        if (System.getProperty("org.graalvm.nativeimage.imagecode") != null) {
+            log.warn("Serial backend {} is not included in the native image, falling back to jSerialComm", serial.getBackend());
+            return null;
+        }
+        try {
+            // Loaded reflectively, the class uses preview APIs and must not be linked unless selected
+            final var backend = (SerialBackend) Class.forName(EPOLL_BACKEND)
+                .getConstructor(int.class)
+                .newInstance(serial.getReader().getBufferBytes());
+            log.info("Serial ports are read through the epoll backend");
+            return backend;
+        } catch (InvocationTargetException e) {
+            log.warn("Serial backend {} failed to start, falling back to jSerialComm: {}", serial.getBackend(), e.getCause().toString());
+        } catch (ReflectiveOperationException | LinkageError e) {
+            log.warn("Serial backend {} is unavailable, falling back to jSerialComm. Is the JVM started with --enable-preview? {}",
+                serial.getBackend(), e.toString());
+        }
+        return null;
+    }
+}
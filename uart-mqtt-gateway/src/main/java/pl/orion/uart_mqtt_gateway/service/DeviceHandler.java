@@ -1,65 +1,237 @@
 package pl.orion.uart_mqtt_gateway.service;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fazecast.jSerialComm.SerialPort;
+import com.fazecast.jSerialComm.SerialPortDataListener;
 import com.fazecast.jSerialComm.SerialPortEvent;
 import com.fazecast.jSerialComm.SerialPortMessageListener;
 
+import io.micrometer.core.instrument.MeterRegistry;
+
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import pl.orion.uart_mqtt_gateway.capture.UartCapture;
 import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties;
+import pl.orion.uart_mqtt_gateway.framing.FrameDecoder;
+import pl.orion.uart_mqtt_gateway.framing.Framings;
+import pl.orion.uart_mqtt_gateway.serial.SerialBackend;
+import pl.orion.uart_mqtt_gateway.tracing.HopLatencyRecorder;
+import pl.orion.uart_mqtt_gateway.tracing.TraceContext;
+import pl.orion.uart_mqtt_gateway.transcoding.BinaryTranscoder;
 
 @RequiredArgsConstructor
 @Slf4j
 public class DeviceHandler implements MqttMessageHandler, SerialPortMessageListener {
+    public static final String GATEWAY_RECEIVED_HOP = "gateway-received";
+
     private final SerialPort serialPort;
     private final UartMqttGatewayProperties properties;
     private final MqttService mqttService;
+    private final ScheduledExecutorService outboundTimer;
+    private final MeterRegistry meterRegistry;
+    private final HopLatencyRecorder traceRecorder;
+    private final TopicIndexRegistry topicIndexRegistry;
+    // Null when jSerialComm drives the port
+    private final SerialBackend serialBackend;
+    // Null unless serial.capture is enabled
+    private final UartCapture capture;
     private final Consumer<String> disconnectedHook;
 
-    private final AtomicLong lastSerialMsgReceivedTimestamp = new AtomicLong(TimeService.getCurrentTimeMillis());
+    // Refreshed by every read, the liveness wheel compares it with the eventType's timeout
+    private volatile long lastSerialActivityNanos = TimeService.getNanoTime();
     private DeviceConnState state = DeviceConnState.UNKNOWN;
-    private CompletableFuture<String> eventType = new CompletableFuture<>();
-    private UartMqttGatewayProperties.UartMqttMapping.MqttMapping mqttTopics = null;
+    private volatile CompletableFuture<String> eventType = new CompletableFuture<>();
+    private String identity = null;
+    // False while the mapping comes from the identity cache and no frame has confirmed it yet
+    private volatile boolean mappingConfirmed = true;
+    private volatile UartMqttGatewayProperties.UartMqttMapping.MqttMapping mqttTopics = null;
+    private volatile SerialWriter serialWriter = null;
+    private volatile OutboundLimiter outboundLimiter = null;
+    // Null while the mapping exchanges JSON with the device
+    private volatile BinaryTranscoder transcoder = null;
+    private volatile DeviceMetrics metrics = null;
+    // Set for multiplexed links only, a device with a single mapping keeps the direct path
+    private volatile LinkDispatcher linkDispatcher = null;
+    private final Object writeScratchLock = new Object();
+    private byte[] writeScratch = new byte[0];
+    private SerialReader serialReader = null;
+    private volatile SerialBackend.Channel serialChannel = null;
+    private ScheduledFuture<?> identifyProbe = null;
+    // Encoded once, written by the port's own probe thread, the shared timer only schedules the attempts
+    private byte[] identifyRequest = null;
+    private ExecutorService identifyProbeExecutor = null;
+    // Probe requests and the writer thread must not interleave bytes on the port
+    private final Object portWriteLock = new Object();
 
+    // Binary framings and the thread reader are decoded by the gateway, otherwise jSerialComm's message listener splits frames
+    private final FrameDecoder.FrameListener publishFrameListener = this::publishFrame;
+    private List<FramingCandidate> framingCandidates = List.of();
+    private volatile FrameDecoder frameDecoder = null;
+
+    private record FramingCandidate(UartMqttGatewayProperties.Serial.Framing framing, FrameDecoder decoder) {
+    }
 
     public void start() {
+        if (serialBackend != null) {
+            startOnBackend();
+        } else {
+            startOnJSerialComm();
+        }
+        if (properties.getSerial().getProbe().isEnabled()) {
+            startIdentifyProbe();
+        }
+    }
+
+    private void startOnJSerialComm() {
         serialPort.setBaudRate(properties.getSerial().getBaudRate()); // Example baud rate, can be configured
         serialPort.setNumDataBits(properties.getSerial().getDataBits());
         serialPort.setNumStopBits(properties.getSerial().getStopBits());
         serialPort.setParity(properties.getSerial().getParityBit());
         serialPort.openPort();
-        serialPort.addDataListener(this);
+        identity = DeviceIdentityCache.identityOf(serialPort);
+        this.state = DeviceConnState.IDENTIFYING;
+        this.lastSerialActivityNanos = TimeService.getNanoTime();
+        final var reader = properties.getSerial().getReader();
+        if (reader.getMode() == UartMqttGatewayProperties.Serial.Reader.Mode.THREAD) {
+            framingCandidates = createFramingCandidates(true);
+            serialPort.setComPortTimeouts(SerialPort.TIMEOUT_READ_SEMI_BLOCKING, properties.getSerial().getReadTimeoutMs(), 0);
+            serialReader = new SerialReader(getSystemPortPath(), serialPort::readBytes, reader.getBufferBytes(),
+                this::onSerialData, this::onReaderDisconnected);
+            serialReader.start();
+        } else {
+            framingCandidates = createFramingCandidates(false);
+            serialPort.addDataListener(framingCandidates.isEmpty() ? this : new RawDataListener());
+        }
+    }
+
+    private void startOnBackend() {
+        identity = DeviceIdentityCache.identityOf(serialPort);
         this.state = DeviceConnState.IDENTIFYING;
-        this.lastSerialMsgReceivedTimestamp.set(TimeService.getCurrentTimeMillis());
+        this.lastSerialActivityNanos = TimeService.getNanoTime();
+        framingCandidates = createFramingCandidates(true);
+        try {
+            serialChannel = serialBackend.open(getSystemPortPath(), properties.getSerial(), this::onSerialData, this::onReaderDisconnected);
+        } catch (IOException e) {
+            // stays silent, so identification fails and the port is retried like any unresponsive board
+            log.error("[Device={}] Failed to open serial port: {}", getSystemPortPath(), e.getMessage());
+        }
     }
 
-    public void stop() {
+    public synchronized void stop() {
         final var portpath = serialPort.getSystemPortPath();
 
         if (this.state != DeviceConnState.DISCONNECTED) {
-            if (mqttTopics != null) {
-                mqttService.unsubscribe(mqttTopics.getInbound());
+            if (identifyProbe != null) {
+                identifyProbe.cancel(false);
+                identifyProbeExecutor.shutdownNow();
+            }
+            releaseMapping();
+            if (serialBackend != null) {
+                if (serialChannel != null) {
+                    serialChannel.close();
+                }
+            } else {
+                if (serialReader != null) {
+                    serialReader.stop();
+                } else {
+                    serialPort.removeDataListener();
+                }
+                serialPort.closePort();
             }
-            serialPort.removeDataListener();
-            serialPort.closePort();
             this.state = DeviceConnState.DISCONNECTED;
             disconnectedHook.accept(portpath);
         }
     }
 
     @Override
-    public void handleMessage(String topic, String payload) {
-        log.trace("Received MQTT message on topic {}: {}", topic, payload);
-        serialPort.writeBytes(payload.getBytes(), payload.length());
+    public void handleMessage(String topic, ByteBuffer payload) {
+        handleMessage(topic, payload, null);
+    }
+
+    @Override
+    public void handleMessage(String topic, ByteBuffer payload, TraceContext trace) {
+        handleMessage(topic, payload, trace, NO_DEADLINE);
+    }
+
+    @Override
+    public void handleMessage(String topic, ByteBuffer payload, TraceContext trace, long deadlineNanos) {
+        if (trace != null) {
+            trace = traceRecorder.recordHop(trace, GATEWAY_RECEIVED_HOP, TimeService.getEpochMicros());
+        }
+        if (log.isTraceEnabled()) {
+            log.trace("Received MQTT message on topic {}: {}", topic, StandardCharsets.UTF_8.decode(payload.duplicate()));
+        }
+        final var writer = serialWriter;
+        if (writer == null) {
+            return;
+        }
+        final var links = linkDispatcher;
+        if (links == null) {
+            metrics.frameOut();
+            enqueue(writer, topic, LinkDispatcher.NO_CHANNEL_ID, transcoder, payload, trace, deadlineNanos);
+            return;
+        }
+        final var channel = links.byInboundTopic(topic);
+        if (channel == null) {
+            return;
+        }
+        channel.metrics().frameOut();
+        enqueue(writer, topic, channel.channelId(), channel.transcoder(), payload, trace, deadlineNanos);
+    }
+
+    /**
+     * Prefixes the channel ID and packs binary structs in a reused buffer, the writer encodes it into its own
+     * before returning.
+     */
+    private void enqueue(SerialWriter writer, String topic, int channelId, BinaryTranscoder transcoder, ByteBuffer payload,
+                         TraceContext trace, long deadlineNanos) {
+        if (channelId == LinkDispatcher.NO_CHANNEL_ID && transcoder == null) {
+            writer.enqueue(topic, payload, trace, deadlineNanos);
+            return;
+        }
+        final int prefix = channelId == LinkDispatcher.NO_CHANNEL_ID ? 0 : 1;
+        synchronized (writeScratchLock) {
+            int length = -1;
+            if (transcoder != null) {
+                ensureWriteScratch(prefix + transcoder.maxStructBytes());
+                try {
+                    length = transcoder.toBinary(payload, writeScratch, prefix);
+                } catch (IOException e) {
+                    log.warn("[Device={}] Dropping command on {} that does not fit its struct: {}", getSystemPortPath(), topic, e.getMessage());
+                    meterRegistry.counter(DeviceMetrics.TRANSCODE_FAILURES, "port", getSystemPortPath()).increment();
+                    return;
+                }
+            }
+            if (length < 0) {
+                length = payload.remaining();
+                ensureWriteScratch(prefix + length);
+                payload.get(payload.position(), writeScratch, prefix, length);
+            }
+            if (prefix > 0) {
+                writeScratch[0] = (byte) channelId;
+            }
+            writer.enqueue(topic, ByteBuffer.wrap(writeScratch, 0, prefix + length), trace, deadlineNanos);
+        }
+    }
+
+    private void ensureWriteScratch(int length) {
+        if (writeScratch.length < length) {
+            writeScratch = new byte[length];
+        }
     }
 
     @Override
@@ -72,18 +244,75 @@ public class DeviceHandler implements MqttMessageHandler, SerialPortMessageListe
         return eventType;
     }
 
+    /**
+     * @return USB identity of the adapter, {@code null} if it has none (see {@link DeviceIdentityCache#identityOf})
+     */
+    public String getIdentity() {
+        return identity;
+    }
+
+    public boolean isMappingConfirmed() {
+        return mappingConfirmed;
+    }
+
+    /**
+     * Applies the mapping the same USB adapter identified with last time, so its inbound topic is subscribed before
+     * the first frame arrives. The first frame carrying an eventType confirms it, another eventType re-identifies
+     * the device.
+     */
+    public synchronized void preassignMapping(UartMqttGatewayProperties.UartMqttMapping mapping) {
+        if (state != DeviceConnState.IDENTIFYING || eventType.isDone()) {
+            return;
+        }
+        if (!framingCandidates.isEmpty()) {
+            final var candidate = findFramingCandidate(mapping);
+            if (candidate == null) {
+                return;
+            }
+            frameDecoder = candidate.decoder();
+        }
+        mappingConfirmed = false;
+        applyMapping(mapping);
+    }
+
+    /**
+     * @return topics of the identified mapping with any {@code {index}} resolved, {@code null} before identification
+     */
+    public UartMqttGatewayProperties.UartMqttMapping.MqttMapping getMqttTopics() {
+        return mqttTopics;
+    }
+
     public String getSystemPortPath() {
         return serialPort.getSystemPortPath();
     }
 
     public Long getLastSerialMsgReceivedTimestamp() {
-        return lastSerialMsgReceivedTimestamp.get();
+        return TimeService.getCurrentTimeMillis() - TimeUnit.NANOSECONDS.toMillis(TimeService.getNanoTime() - lastSerialActivityNanos);
+    }
+
+    public long getLastSerialActivityNanos() {
+        return lastSerialActivityNanos;
     }
 
     public DeviceConnState getState() {
         return state;
     }
 
+    public long getDroppedFrames() {
+        final var decoder = frameDecoder;
+        return decoder != null ? decoder.getDroppedFrames() : 0;
+    }
+
+    public OutboundLimiter.Stats getOutboundStats() {
+        final var limiter = outboundLimiter;
+        return limiter != null ? limiter.getStats() : null;
+    }
+
+    public SerialWriter.Stats getWriterStats() {
+        final var writer = serialWriter;
+        return writer != null ? writer.getStats() : null;
+    }
+
     @Override
     public boolean delimiterIndicatesEndOfMessage() {
         return true;
@@ -96,11 +325,19 @@ public class DeviceHandler implements MqttMessageHandler, SerialPortMessageListe
 
     @Override
     public void serialEvent(SerialPortEvent event) {
-        this.lastSerialMsgReceivedTimestamp.set(TimeService.getCurrentTimeMillis());
+        this.lastSerialActivityNanos = TimeService.getNanoTime();
 
         switch (event.getEventType()) {
             case SerialPort.LISTENING_EVENT_DATA_RECEIVED:
-                processSerialData(event.getReceivedData());
+                final byte[] data = event.getReceivedData();
+                if (capture != null && data != null) {
+                    capture.received(getSystemPortPath(), data, 0, data.length);
+                }
+                if (framingCandidates.isEmpty()) {
+                    processSerialData(data);
+                } else {
+                    decodeSerialData(data, 0, data.length);
+                }
                 break;
             case SerialPort.LISTENING_EVENT_PORT_DISCONNECTED:
                 log.info("[Device={}, eventType={}] Device disconnected", serialPort.getSystemPortPath(), eventType.getNow("unknown"));
@@ -112,6 +349,19 @@ public class DeviceHandler implements MqttMessageHandler, SerialPortMessageListe
         }
     }
 
+    private void onSerialData(byte[] buffer, int offset, int length) {
+        this.lastSerialActivityNanos = TimeService.getNanoTime();
+        if (capture != null) {
+            capture.received(getSystemPortPath(), buffer, offset, length);
+        }
+        decodeSerialData(buffer, offset, length);
+    }
+
+    private void onReaderDisconnected() {
+        log.info("[Device={}, eventType={}] Device disconnected", serialPort.getSystemPortPath(), eventType.getNow("unknown"));
+        stop();
+    }
+
     private void processSerialData(byte[] data) {
         if (data == null || data.length == 0) {
             log.warn("Received empty data from serial port");
@@ -121,35 +371,529 @@ public class DeviceHandler implements MqttMessageHandler, SerialPortMessageListe
             log.warn("Failed to identify event type for data. Payload missing or malformed");
             return;
         }
+        final var links = linkDispatcher;
+        if (links != null) {
+            dispatchFrame(links, data, 0, data.length, true);
+            return;
+        }
 
-        if (mqttTopics != null) {
-            mqttService.publish(mqttTopics.getOutbound(), new String(data));
+        final var limiter = outboundLimiter;
+        if (limiter != null) {
+            metrics.frameIn(data.length);
+            limiter.offer(data);
+        }
+    }
+
+    /**
+     * Until the device is identified, every configured framing decodes the stream in parallel. The first frame
+     * whose eventType maps to that same framing locks the decoder for the lifetime of the connection.
+     */
+    private void decodeSerialData(byte[] data, int offset, int length) {
+        final var decoder = frameDecoder;
+        if (decoder != null) {
+            decoder.decode(data, offset, length, publishFrameListener);
+            return;
+        }
+        for (FramingCandidate candidate : framingCandidates) {
+            candidate.decoder().decode(data, offset, length,
+                (buffer, offset, length) -> onCandidateFrame(candidate, buffer, offset, length));
+        }
+    }
+
+    private void onCandidateFrame(FramingCandidate candidate, byte[] buffer, int offset, int length) {
+        if (frameDecoder == null) {
+            try {
+                final var mapping = resolveMapping(buffer, offset, length);
+                if (mapping == null || !candidate.framing().equals(mapping.getFramingOrDefault(properties.getSerial()))) {
+                    return;
+                }
+                applyIdentifiedMapping(mapping, candidate);
+            } catch (IOException e) {
+                log.trace("[Device={}] Failed to parse incoming JSON payload: {}", getSystemPortPath(), e.toString());
+                meterRegistry.counter(DeviceMetrics.PARSE_FAILURES, "port", getSystemPortPath()).increment();
+                return;
+            }
+        }
+        if (frameDecoder == candidate.decoder()) {
+            publishFrame(buffer, offset, length);
+        }
+    }
+
+    private void publishFrame(byte[] buffer, int offset, int length) {
+        if (!mappingConfirmed && !confirmMapping(buffer, offset, length)) {
+            return;
+        }
+        final var links = linkDispatcher;
+        if (links != null) {
+            dispatchFrame(links, buffer, offset, length, false);
+            return;
+        }
+        final var limiter = outboundLimiter;
+        if (limiter != null) {
+            metrics.frameIn(length);
+            // The decoder reuses its buffer while HiveMQ publishes asynchronously, the limiter copies what it keeps
+            limiter.offer(buffer, offset, length);
+        }
+    }
+
+    /**
+     * Routes a frame of a multiplexed link to the outbound topic of its channel. The channel ID byte is link
+     * framing and is not published.
+     *
+     * @param owned whether {@code buffer} may be handed to the MQTT client as is
+     */
+    private void dispatchFrame(LinkDispatcher links, byte[] buffer, int offset, int length, boolean owned) {
+        final LinkDispatcher.Channel channel;
+        int payloadOffset = offset;
+        if (links.usesChannelIds()) {
+            channel = length > 1 ? links.byChannelId(buffer[offset]) : null;
+            payloadOffset++;
+        } else {
+            channel = links.byEventType(sniffEventType(buffer, offset, length));
+        }
+        if (channel == null) {
+            meterRegistry.counter(DeviceMetrics.UNROUTED_FRAMES, "port", getSystemPortPath()).increment();
+            return;
+        }
+        final int payloadLength = length - (payloadOffset - offset);
+        channel.metrics().frameIn(payloadLength);
+        if (owned && payloadOffset == 0 && payloadLength == buffer.length) {
+            channel.limiter().offer(buffer);
+        } else {
+            channel.limiter().offer(buffer, payloadOffset, payloadLength);
+        }
+    }
+
+    private String sniffEventType(byte[] buffer, int offset, int length) {
+        try {
+            return EventTypeSniffer.sniff(buffer, offset, length);
+        } catch (IOException e) {
+            log.trace("[Device={}] Failed to parse incoming JSON payload: {}", getSystemPortPath(), e.toString());
+            meterRegistry.counter(DeviceMetrics.PARSE_FAILURES, "port", getSystemPortPath()).increment();
+            return null;
         }
     }
 
     private boolean identifyEventType(byte[] data) {
+        if (!mappingConfirmed) {
+            return confirmMapping(data, 0, data.length);
+        }
         if (!eventType.isDone()) {
             try {
-                JsonNode jsonNode = new ObjectMapper().readTree(data);
-                if (jsonNode.has("eventType")) {
-                    final String eventTypeString = jsonNode.get("eventType").asText();
-                    mqttTopics = properties.getUartMqttMapping().stream()
-                        .filter(mapping -> mapping.getEventType().equals(eventTypeString))
-                        .findFirst()
-                        .map(UartMqttGatewayProperties.UartMqttMapping::getMqtt)
-                        .orElseThrow(() -> new IllegalArgumentException("No mapping found for event type: " + eventTypeString));
-
-                    eventType.complete(eventTypeString);
-                    this.state = DeviceConnState.CONNECTED;
-
-                    mqttService.subscribe(mqttTopics.getInbound(), this);
-                    log.info("[Device={}] Detected eventType=[{}], applying MQTT topic mapping: {}", getSystemPortPath(), eventTypeString, mqttTopics); 
+                final var mapping = resolveMapping(data, 0, data.length);
+                if (mapping != null && !applyIdentifiedMapping(mapping, null)) {
+                    // The cached mapping was applied in the meantime, this frame has to confirm it
+                    return confirmMapping(data, 0, data.length);
                 }
             } catch (IOException e) {
                 log.trace("[Device={}] Failed to parse incoming JSON payload: {}", getSystemPortPath(), e.toString());
+                meterRegistry.counter(DeviceMetrics.PARSE_FAILURES, "port", getSystemPortPath()).increment();
                 return false;
             }
         }
         return true;
     }
+
+    /**
+     * @return mapping for the frame's eventType, or {@code null} if the frame carries none
+     */
+    UartMqttGatewayProperties.UartMqttMapping resolveMapping(byte[] buffer, int offset, int length) throws IOException {
+        final String eventTypeString;
+        try {
+            eventTypeString = EventTypeSniffer.sniff(buffer, offset, length);
+        } catch (IOException e) {
+            final var channelMapping = resolveChannelMapping(buffer, offset, length);
+            if (channelMapping != null) {
+                return channelMapping;
+            }
+            throw e;
+        }
+        if (eventTypeString == null) {
+            return null;
+        }
+        final var mapping = properties.getUartMqttMappingByEventType().get(eventTypeString);
+        if (mapping == null) {
+            throw new IllegalArgumentException("No mapping found for event type: " + eventTypeString);
+        }
+        return mapping;
+    }
+
+    /**
+     * Frames of a link with channel IDs carry the JSON after the channel byte, which must match the mapping.
+     */
+    private UartMqttGatewayProperties.UartMqttMapping resolveChannelMapping(byte[] buffer, int offset, int length) {
+        if (length < 2) {
+            return null;
+        }
+        try {
+            final String eventTypeString = EventTypeSniffer.sniff(buffer, offset + 1, length - 1);
+            final var mapping = eventTypeString != null ? properties.getUartMqttMappingByEventType().get(eventTypeString) : null;
+            return mapping != null && mapping.getChannel() != null && mapping.getChannel() == (buffer[offset] & 0xff)
+                ? mapping
+                : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private synchronized void startIdentifyProbe() {
+        final var serial = properties.getSerial();
+        final var request = ByteBuffer.wrap(serial.getProbe().getRequest().getBytes(StandardCharsets.UTF_8));
+        final var encoder = Framings.encoder(serial.getFraming(), serial);
+        final byte[] frame = new byte[encoder.maxEncodedLength(request.remaining())];
+        identifyRequest = Arrays.copyOf(frame, encoder.encode(request, frame));
+        identifyProbeExecutor = Executors.newSingleThreadExecutor(
+            Thread.ofPlatform().name("uart-probe-" + getSystemPortPath()).daemon().factory());
+        scheduleIdentifyProbe(1, 0);
+    }
+
+    /**
+     * A write blocking on this port must not hold up the timer, which also flushes every device's outbound limiter.
+     */
+    private synchronized void scheduleIdentifyProbe(int attempt, long delayMs) {
+        final var executor = identifyProbeExecutor;
+        identifyProbe = outboundTimer.schedule(() -> {
+            try {
+                executor.execute(() -> sendIdentifyRequest(attempt));
+            } catch (RejectedExecutionException e) {
+                // the device was stopped meanwhile
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Retries with exponential backoff until the device identifies itself or the attempts run out.
+     */
+    private void sendIdentifyRequest(int attempt) {
+        if (state != DeviceConnState.IDENTIFYING || eventType.isDone()) {
+            identifyProbeExecutor.shutdown();
+            return;
+        }
+        final var probe = properties.getSerial().getProbe();
+        final int length = identifyRequest.length;
+        if (writeToPort(identifyRequest, length) != length) {
+            log.debug("[Device={}] Identify request {} was not fully written", getSystemPortPath(), attempt);
+        } else {
+            log.debug("[Device={}] Sent identify request {}/{}", getSystemPortPath(), attempt, probe.getMaxAttempts());
+        }
+        if (attempt < probe.getMaxAttempts()) {
+            final double backoff = probe.getInitialBackoffMs() * Math.pow(probe.getBackoffMultiplier(), attempt - 1);
+            scheduleIdentifyProbe(attempt + 1, (long) backoff);
+        } else {
+            identifyProbeExecutor.shutdown();
+        }
+    }
+
+    /**
+     * @return whether the frame should be forwarded
+     */
+    private synchronized boolean confirmMapping(byte[] buffer, int offset, int length) {
+        if (mappingConfirmed) {
+            return true;
+        }
+        if (isTranscodedStruct(buffer, offset, length)) {
+            // Carries no eventType, like a frame without one it does not contradict the cached identity
+            return true;
+        }
+        final UartMqttGatewayProperties.UartMqttMapping mapping;
+        try {
+            mapping = resolveMapping(buffer, offset, length);
+        } catch (IOException | IllegalArgumentException e) {
+            log.warn("[Device={}] First frame does not confirm cached eventType=[{}], re-identifying: {}",
+                getSystemPortPath(), eventType.getNow("unknown"), e.toString());
+            revertToIdentification();
+            return false;
+        }
+        if (mapping == null) {
+            // Nothing to contradict the cached identity
+            return true;
+        }
+        final var links = linkDispatcher;
+        if (mapping.getEventType().equals(eventType.getNow(null))
+                || (links != null && links.byEventType(mapping.getEventType()) != null)) {
+            mappingConfirmed = true;
+            log.debug("[Device={}] Cached eventType=[{}] confirmed", getSystemPortPath(), mapping.getEventType());
+            return true;
+        }
+        log.warn("[Device={}] Reported eventType=[{}] instead of cached [{}], re-identifying",
+            getSystemPortPath(), mapping.getEventType(), eventType.getNow("unknown"));
+        revertToIdentification();
+        if (!framingCandidates.isEmpty()) {
+            final var candidate = findFramingCandidate(mapping);
+            if (candidate == null) {
+                return false;
+            }
+            frameDecoder = candidate.decoder();
+        }
+        applyMapping(mapping);
+        return true;
+    }
+
+    private boolean isTranscodedStruct(byte[] buffer, int offset, int length) {
+        final var links = linkDispatcher;
+        if (links == null) {
+            final var structs = transcoder;
+            return structs != null && structs.isStruct(buffer, offset, length);
+        }
+        if (!links.usesChannelIds() || length < 2) {
+            return false;
+        }
+        final var channel = links.byChannelId(buffer[offset]);
+        return channel != null && channel.transcoder() != null && channel.transcoder().isStruct(buffer, offset + 1, length - 1);
+    }
+
+    private void revertToIdentification() {
+        releaseMapping();
+        mqttTopics = null;
+        serialWriter = null;
+        outboundLimiter = null;
+        transcoder = null;
+        linkDispatcher = null;
+        frameDecoder = null;
+        eventType = new CompletableFuture<>();
+        mappingConfirmed = true;
+        state = DeviceConnState.IDENTIFYING;
+    }
+
+    private void releaseMapping() {
+        final var links = linkDispatcher;
+        if (links != null) {
+            for (LinkDispatcher.Channel channel : links.channels()) {
+                if (channel.limiter() != outboundLimiter) {
+                    mqttService.unsubscribe(channel.topics().getInbound());
+                    channel.limiter().stop();
+                    channel.metrics().close();
+                }
+            }
+        }
+        if (mqttTopics != null) {
+            mqttService.unsubscribe(mqttTopics.getInbound());
+        }
+        if (serialWriter != null) {
+            serialWriter.stop();
+        }
+        if (outboundLimiter != null) {
+            outboundLimiter.stop();
+        }
+        if (metrics != null) {
+            metrics.close();
+        }
+    }
+
+    /**
+     * Applies the mapping of the first frame carrying an eventType. Serialised with {@link #preassignMapping}, so
+     * the cached and the identified mapping are never both applied.
+     *
+     * @return {@code false} if a mapping was applied first
+     */
+    private synchronized boolean applyIdentifiedMapping(UartMqttGatewayProperties.UartMqttMapping mapping,
+                                                        FramingCandidate candidate) {
+        if (eventType.isDone() || state == DeviceConnState.DISCONNECTED) {
+            return false;
+        }
+        if (candidate != null) {
+            frameDecoder = candidate.decoder();
+        }
+        applyMapping(mapping);
+        return true;
+    }
+
+    private FramingCandidate findFramingCandidate(UartMqttGatewayProperties.UartMqttMapping mapping) {
+        final var framing = mapping.getFramingOrDefault(properties.getSerial());
+        for (FramingCandidate candidate : framingCandidates) {
+            if (candidate.framing().equals(framing)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    // Callers hold the handler's lock
+    private void applyMapping(UartMqttGatewayProperties.UartMqttMapping mapping) {
+        metrics = new DeviceMetrics(meterRegistry, getSystemPortPath(), mapping.getEventType(), this);
+        mqttTopics = resolveTopics(mapping);
+        serialWriter = createSerialWriter(mapping);
+        serialWriter.start();
+        transcoder = createTranscoder(mapping);
+        outboundLimiter = createOutboundLimiter(mapping, mqttTopics, transcoder);
+        linkDispatcher = mapping.getLink() != null ? createLinkDispatcher(mapping) : null;
+
+        eventType.complete(mapping.getEventType());
+        this.state = DeviceConnState.CONNECTED;
+
+        mqttService.subscribe(mqttTopics.getInbound(), mqttTopics.getInboundSubscription(), this);
+        log.info("[Device={}] Detected eventType=[{}], applying MQTT topic mapping: {}", getSystemPortPath(), mapping.getEventType(), mqttTopics);
+        final var links = linkDispatcher;
+        if (links != null) {
+            for (LinkDispatcher.Channel channel : links.channels()) {
+                if (channel.mapping() != mapping) {
+                    final var topics = channel.topics();
+                    mqttService.subscribe(topics.getInbound(), topics.getInboundSubscription(), this);
+                }
+            }
+            log.info("[Device={}] Multiplexing eventTypes={} over link [{}], routed by {}", getSystemPortPath(),
+                links.channels().stream().map(channel -> channel.mapping().getEventType()).toList(),
+                mapping.getLink(), links.usesChannelIds() ? "channel ID" : "eventType");
+        }
+    }
+
+    /**
+     * Indexed topics are resolved once per device, the frame path only sees the resulting topic strings.
+     */
+    private UartMqttGatewayProperties.UartMqttMapping.MqttMapping resolveTopics(UartMqttGatewayProperties.UartMqttMapping mapping) {
+        final var topics = mapping.getMqtt();
+        if (!topics.hasIndexPlaceholder()) {
+            return topics;
+        }
+        final int index = topicIndexRegistry.indexOf(mapping, identity != null ? identity : getSystemPortPath());
+        return topics.withIndex(index);
+    }
+
+    private OutboundLimiter createOutboundLimiter(UartMqttGatewayProperties.UartMqttMapping mapping,
+                                                  UartMqttGatewayProperties.UartMqttMapping.MqttMapping topics,
+                                                  BinaryTranscoder structs) {
+        final String outboundTopic = topics.getOutbound();
+        final var publication = topics.getOutboundPublication();
+        // Transcoded after the limiter, so frames it drops are never converted
+        final var limiter = new OutboundLimiter(mapping.getOutboundPolicy(), structs == null
+            ? frame -> mqttService.publish(outboundTopic, frame, publication)
+            : frame -> publishTranscoded(structs, outboundTopic, frame, publication));
+        limiter.start(outboundTimer);
+        return limiter;
+    }
+
+    private void publishTranscoded(BinaryTranscoder structs, String topic, byte[] frame,
+                                   UartMqttGatewayProperties.UartMqttMapping.MqttMapping.Publication publication) {
+        final byte[] json;
+        try {
+            json = structs.toJson(frame);
+        } catch (IOException e) {
+            log.trace("[Device={}] Failed to transcode frame for {}: {}", getSystemPortPath(), topic, e.toString());
+            meterRegistry.counter(DeviceMetrics.TRANSCODE_FAILURES, "port", getSystemPortPath()).increment();
+            return;
+        }
+        mqttService.publish(topic, json, publication);
+    }
+
+    /**
+     * Layouts are validated at startup, see {@link DeviceManagerServiceImpl#validateTranscodings()}.
+     */
+    private BinaryTranscoder createTranscoder(UartMqttGatewayProperties.UartMqttMapping mapping) {
+        if (mapping.getTranscoding() == null) {
+            return null;
+        }
+        if (mapping.getFramingOrDefault(properties.getSerial()).getType() == UartMqttGatewayProperties.Serial.Framing.Type.DELIMITER) {
+            log.warn("[Device={}] Binary structs of eventType=[{}] may contain the delimiter, configure a binary framing",
+                getSystemPortPath(), mapping.getEventType());
+        }
+        return BinaryTranscoder.create(mapping.getEventType(), mapping.getTranscoding());
+    }
+
+    /**
+     * Every mapping of the link gets its own meters and outbound policy, they all share the port's writer and
+     * decoder, so mappings framed differently than the identified one are left out.
+     */
+    private LinkDispatcher createLinkDispatcher(UartMqttGatewayProperties.UartMqttMapping mapping) {
+        final var serial = properties.getSerial();
+        final var framing = mapping.getFramingOrDefault(serial);
+        final var linked = new ArrayList<UartMqttGatewayProperties.UartMqttMapping>();
+        for (UartMqttGatewayProperties.UartMqttMapping candidate : properties.getLinkedMappings(mapping)) {
+            if (framing.equals(candidate.getFramingOrDefault(serial))) {
+                linked.add(candidate);
+            } else {
+                log.error("[Device={}] eventType=[{}] uses a different framing than link [{}], not routed",
+                    getSystemPortPath(), candidate.getEventType(), mapping.getLink());
+            }
+        }
+        final boolean channelIds = framing.getType() != UartMqttGatewayProperties.Serial.Framing.Type.DELIMITER
+            && linked.stream().allMatch(candidate -> candidate.getChannel() != null
+                && candidate.getChannel() >= 0 && candidate.getChannel() <= 255);
+        if (!channelIds && linked.stream().anyMatch(candidate -> candidate.getChannel() != null)) {
+            log.warn("[Device={}] Channel IDs of link [{}] need binary framing and a 0-255 ID on every mapping, routing by eventType",
+                getSystemPortPath(), mapping.getLink());
+        }
+
+        final var channels = new ArrayList<LinkDispatcher.Channel>(linked.size());
+        for (UartMqttGatewayProperties.UartMqttMapping candidate : linked) {
+            final int channelId = channelIds ? candidate.getChannel() : LinkDispatcher.NO_CHANNEL_ID;
+            if (candidate == mapping) {
+                channels.add(new LinkDispatcher.Channel(candidate, mqttTopics, channelId, metrics, outboundLimiter, transcoder));
+            } else {
+                final var topics = resolveTopics(candidate);
+                final var structs = createTranscoder(candidate);
+                channels.add(new LinkDispatcher.Channel(candidate, topics, channelId,
+                    new DeviceMetrics(meterRegistry, getSystemPortPath(), candidate.getEventType()),
+                    createOutboundLimiter(candidate, topics, structs), structs));
+            }
+        }
+        return new LinkDispatcher(channels);
+    }
+
+    /**
+     * @param decodeDelimiter whether delimiter framing is split by the gateway rather than by jSerialComm
+     */
+    private List<FramingCandidate> createFramingCandidates(boolean decodeDelimiter) {
+        final var serial = properties.getSerial();
+        final var framings = properties.getUartMqttMapping().stream()
+            .map(mapping -> mapping.getFramingOrDefault(serial))
+            .distinct()
+            .toList();
+        if (!decodeDelimiter && framings.stream().allMatch(framing -> framing.getType() == UartMqttGatewayProperties.Serial.Framing.Type.DELIMITER)) {
+            return List.of();
+        }
+        final var candidates = new ArrayList<FramingCandidate>(framings.size());
+        framings.forEach(framing -> candidates.add(new FramingCandidate(framing, Framings.decoder(framing, serial))));
+        return candidates;
+    }
+
+    private SerialWriter createSerialWriter(UartMqttGatewayProperties.UartMqttMapping mapping) {
+        final var writerProperties = properties.getSerial().getWriter();
+        final var overflowPolicy = mapping.getWriterOverflowPolicy() != null
+            ? mapping.getWriterOverflowPolicy()
+            : writerProperties.getOverflowPolicy();
+        final var encoder = Framings.encoder(mapping.getFramingOrDefault(properties.getSerial()), properties.getSerial());
+        final var deviceMetrics = metrics;
+        final SerialWriter.SerialSink sink = (buffer, length) -> {
+            final long started = System.nanoTime();
+            final int written = writeToPort(buffer, length);
+            deviceMetrics.serialWrite(System.nanoTime() - started);
+            return written;
+        };
+        // Commands of a link are counted for the channel whose inbound topic they came from
+        final SerialWriter.WrittenListener written = (topic, bytes) -> {
+            final var links = linkDispatcher;
+            final var channel = links != null ? links.byInboundTopic(topic) : null;
+            (channel != null ? channel.metrics() : deviceMetrics).frameWritten(bytes);
+        };
+        return new SerialWriter(getSystemPortPath(), sink, encoder, writerProperties.getQueueCapacity(), overflowPolicy,
+            writerProperties.getMaxBatchBytes(), traceRecorder, written);
+    }
+
+    private int writeToPort(byte[] buffer, int length) {
+        synchronized (portWriteLock) {
+            final int written;
+            if (serialBackend == null) {
+                written = serialPort.writeBytes(buffer, length);
+            } else {
+                final var channel = serialChannel;
+                written = channel != null ? channel.write(buffer, length) : -1;
+            }
+            if (capture != null && written > 0) {
+                capture.written(getSystemPortPath(), buffer, 0, written);
+            }
+            return written;
+        }
+    }
+
+    private final class RawDataListener implements SerialPortDataListener {
+        @Override
+        public int getListeningEvents() {
+            return DeviceHandler.this.getListeningEvents();
+        }
+
+        @Override
+        public void serialEvent(SerialPortEvent event) {
+            DeviceHandler.this.serialEvent(event);
+        }
+    }
 }
@@ -0,0 +1,131 @@
+package pl.orion.uart_mqtt_gateway.service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fazecast.jSerialComm.SerialPort;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties;
+
+/**
+ * Remembers which eventType each USB serial adapter identified as, so a replugged or restarted device gets its
+ * mapping before its first frame. Only the eventType is stored, topics always come from the current configuration.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class DeviceIdentityCache {
+    private static final String UNKNOWN = "Unknown";
+
+    public record Entry(String eventType, long learnedMillis) {
+    }
+
+    private final UartMqttGatewayProperties properties;
+    private final ObjectMapper objectMapper;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Adapters reporting a USB serial number are recognised on any port, others only on the same physical USB port.
+     *
+     * @return {@code null} for ports without USB descriptors
+     */
+    public static String identityOf(SerialPort port) {
+        final int vendorId = port.getVendorID();
+        final int productId = port.getProductID();
+        if (vendorId <= 0 || productId <= 0) {
+            return null;
+        }
+        final String usbId = String.format("%04x:%04x", vendorId, productId);
+        final String serialNumber = port.getSerialNumber();
+        if (serialNumber != null && !serialNumber.isBlank() && !UNKNOWN.equals(serialNumber)) {
+            return usbId + "#" + serialNumber;
+        }
+        final String location = port.getPortLocation();
+        if (location != null && !location.isBlank() && !UNKNOWN.equals(location)) {
+            return usbId + "@" + location;
+        }
+        return null;
+    }
+
+    @PostConstruct
+    public void load() {
+        final var config = properties.getSerial().getIdentityCache();
+        if (!config.isEnabled()) {
+            return;
+        }
+        final var file = Path.of(config.getFile());
+        if (!Files.exists(file)) {
+            return;
+        }
+        try {
+            final Map<String, Entry> stored = objectMapper.readValue(file.toFile(), new TypeReference<Map<String, Entry>>() {
+            });
+            final var mappings = properties.getUartMqttMappingByEventType();
+            stored.forEach((identity, entry) -> {
+                if (entry != null && mappings.containsKey(entry.eventType())) {
+                    entries.put(identity, entry);
+                }
+            });
+            log.info("Loaded {} known device identities from {}", entries.size(), file);
+        } catch (IOException e) {
+            log.warn("Ignoring unreadable device identity cache {}: {}", file, e.toString());
+        }
+    }
+
+    /**
+     * @return eventType the device identified as last time, {@code null} if unknown
+     */
+    public String lookup(String identity) {
+        if (identity == null || !properties.getSerial().getIdentityCache().isEnabled()) {
+            return null;
+        }
+        final var entry = entries.get(identity);
+        return entry != null ? entry.eventType() : null;
+    }
+
+    public void remember(String identity, String eventType) {
+        if (identity == null || eventType == null || !properties.getSerial().getIdentityCache().isEnabled()) {
+            return;
+        }
+        final var previous = entries.get(identity);
+        if (previous != null && previous.eventType().equals(eventType)) {
+            return;
+        }
+        entries.put(identity, new Entry(eventType, TimeService.getCurrentTimeMillis()));
+        log.debug("Device [{}] remembered as eventType=[{}]", identity, eventType);
+        save();
+    }
+
+    private synchronized void save() {
+        final var file = Path.of(properties.getSerial().getIdentityCache().getFile());
+        try {
+            writeAtomically(objectMapper, file, new TreeMap<>(entries));
+        } catch (IOException e) {
+            log.warn("Failed to persist device identity cache {}: {}", file, e.toString());
+        }
+    }
+
+    /**
+     * Writes a temporary file first, so a crash never leaves a truncated file behind.
+     */
+    static void writeAtomically(ObjectMapper objectMapper, Path file, Object value) throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        final var temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        objectMapper.writerWithDefaultPrettyPrinter().writeValue(temporary.toFile(), value);
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -1,6 +1,9 @@
 package pl.orion.uart_mqtt_gateway.service;
 
+import java.util.Map;
+
 public interface DeviceManagerService {
     void stop();
     void scan();
+    Map<String, DeviceHandler> getManagedDevices();
 }
@@ -1,13 +1,18 @@
 package pl.orion.uart_mqtt_gateway.service;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 import org.springframework.context.annotation.Primary;
 import org.springframework.scheduling.annotation.Scheduled;
@@ -15,11 +20,20 @@ import org.springframework.stereotype.Service;
 
 import com.fazecast.jSerialComm.SerialPort;
 
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import pl.orion.uart_mqtt_gateway.actuator.UartHealthIndicator;
+import pl.orion.uart_mqtt_gateway.capture.UartCapture;
 import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties;
+import pl.orion.uart_mqtt_gateway.serial.SerialBackend;
+import pl.orion.uart_mqtt_gateway.serial.SerialBackends;
+import pl.orion.uart_mqtt_gateway.tracing.HopLatencyRecorder;
+import pl.orion.uart_mqtt_gateway.transcoding.BinaryTranscoder;
 
 @Service
 @Primary
@@ -27,38 +41,146 @@ import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties;
 @Slf4j
 public class DeviceManagerServiceImpl implements DeviceManagerService {
 
-    private static final int SERIAL_EVENT_TYPE_CONNECTION_INTERVAL_MS = 2000;
-    private static final int LIVENESS_TIMEOUT_THRESHOLD_MS = 15000;
-
     private final UartHealthIndicator uartHealthIndicator;
     private final UartMqttGatewayProperties properties;
     private final MqttService mqttService;
+    private final MeterRegistry meterRegistry;
+    private final HopLatencyRecorder traceRecorder;
+    private final DeviceIdentityCache deviceIdentityCache;
+    private final TopicIndexRegistry topicIndexRegistry;
 
     private Map<String, DeviceHandler> managedDevices = new ConcurrentHashMap<>(5);
+    private final Set<String> identificationInProgress = ConcurrentHashMap.newKeySet();
+    private final Map<String, Quarantine> quarantinedPorts = new ConcurrentHashMap<>();
+    private final Map<String, LivenessWheel.Timeout> livenessTimeouts = new ConcurrentHashMap<>();
+    // Null until started, devices are then never expired
+    private LivenessWheel livenessWheel;
+    private SerialHotplugWatcher hotplugWatcher;
+    // Null when devices use jSerialComm
+    private SerialBackend serialBackend;
+    // Null unless serial.capture is enabled
+    private UartCapture capture;
+    private volatile long lastPortEnumerationMillis;
+
+    /**
+     * @param failures consecutive identification failures of the port
+     * @param untilMillis scans skip the port before this time, {@code 0} while below the threshold
+     */
+    private record Quarantine(int failures, long untilMillis) {
+    }
+
+    // Shared by all devices, flushes downsampled outbound telemetry off the serial event threads
+    private final ScheduledExecutorService outboundTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final var thread = new Thread(runnable, "uart-outbound-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ScheduledExecutorService livenessTicker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final var thread = new Thread(runnable, "uart-liveness");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @PostConstruct
+    public void registerDeviceStateGauges() {
+        for (DeviceConnState state : DeviceConnState.values()) {
+            Gauge.builder("uart.devices", managedDevices, devices -> devices.values().stream()
+                    .filter(device -> device.getState() == state)
+                    .count())
+                .description("Managed devices by connection state")
+                .tag("state", state.name())
+                .register(meterRegistry);
+        }
+        Gauge.builder("uart.ports.quarantined", quarantinedPorts, ports -> ports.values().stream()
+                .filter(quarantine -> quarantine.untilMillis() > TimeService.getCurrentTimeMillis())
+                .count())
+            .description("Ports skipped by scans after repeatedly failing identification")
+            .register(meterRegistry);
+    }
+
+    /**
+     * Fails startup on an inconsistent struct layout rather than when a device identifies.
+     */
+    @PostConstruct
+    public void validateTranscodings() {
+        for (UartMqttGatewayProperties.UartMqttMapping mapping : properties.getUartMqttMapping()) {
+            if (mapping.getTranscoding() != null) {
+                BinaryTranscoder.create(mapping.getEventType(), mapping.getTranscoding());
+            }
+        }
+    }
+
+    @PostConstruct
+    public void startSerialBackend() {
+        serialBackend = SerialBackends.create(properties.getSerial());
+    }
+
+    @PostConstruct
+    public void startCapture() {
+        final var config = properties.getSerial().getCapture();
+        if (!config.isEnabled()) {
+            return;
+        }
+        final var started = new UartCapture(config, TimeService::getNanoTime, TimeService::getCurrentTimeMillis);
+        try {
+            started.start();
+            capture = started;
+        } catch (IOException e) {
+            log.error("Failed to start UART capture in {}, continuing without it: {}", config.getDirectory(), e.toString());
+        }
+    }
+
+    @PostConstruct
+    public void startLivenessWheel() {
+        final long tickMs = properties.getSerial().getLiveness().getTickMs();
+        livenessWheel = new LivenessWheel(TimeUnit.MILLISECONDS.toNanos(tickMs), TimeService::getNanoTime);
+        livenessTicker.scheduleAtFixedRate(livenessWheel::advance, tickMs, tickMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PostConstruct
+    public void startHotplugWatcher() {
+        final var hotplug = properties.getSerial().getHotplug();
+        if (!hotplug.isEnabled()) {
+            return;
+        }
+        final var watcher = new SerialHotplugWatcher(
+            Path.of(hotplug.getDirectory()),
+            properties.getSerial()::isAllowedPort,
+            hotplug.getSettleDelayMs(),
+            this::attachPort,
+            this::detachPort,
+            () -> lastPortEnumerationMillis = 0);
+        if (watcher.start()) {
+            hotplugWatcher = watcher;
+        }
+    }
 
     @PreDestroy
     @Override
     public void stop() {
+        if (hotplugWatcher != null) {
+            hotplugWatcher.stop();
+        }
         managedDevices.values().forEach(DeviceHandler::stop);
+        if (serialBackend != null) {
+            serialBackend.close();
+        }
+        if (capture != null) {
+            capture.stop();
+        }
+        outboundTimer.shutdownNow();
+        livenessTicker.shutdownNow();
     }
 
     @Override
     @Scheduled(fixedRateString = "${uart-mqtt-gateway.serial.scan-interval-ms}", initialDelayString = "${uart-mqtt-gateway.serial.scan-interval-ms}")
     public void scan() {
-        List<SerialPort> availablePorts = getAllAvailablePorts();
-        log.debug("Port candidates for processing={}", availablePorts.stream().map(SerialPort::getSystemPortPath).collect(Collectors.toList()));
-
-        final var unconnectedPorts = availablePorts.stream()
-            .filter(port -> !managedDevices.containsKey(port.getSystemPortPath()))
-            .toList();
+        final List<SerialPort> unconnectedPorts = isPortEnumerationDue() ? getUnconnectedPorts() : List.of();
+        unconnectedPorts.forEach(this::startDeviceIdentification);
 
-        final var unidentifiedUnconnectedDevices = unconnectedPorts.stream()
-            .map(this::startDeviceIdentification);
-        final var identificationPendingDevices = Stream.concat(
-                unidentifiedUnconnectedDevices,
-                managedDevices.values().stream()
-                    .filter(device -> device.getState() == DeviceConnState.IDENTIFYING)
-            )
+        final var identificationPendingDevices = managedDevices.values().stream()
+            .filter(device -> device.getState() == DeviceConnState.IDENTIFYING)
             .toList();
 
         log.info("Scanning for UART devices... Pending connection={}, pending_identification={}, connected={}",
@@ -66,73 +188,194 @@ public class DeviceManagerServiceImpl implements DeviceManagerService {
             identificationPendingDevices.stream().map(DeviceHandler::getSystemPortPath).toList(),
             managedDevices.keySet());
 
-        for (DeviceHandler device : identificationPendingDevices) {
-            managedDevices.put(device.getSystemPortPath(), device);
+        identificationPendingDevices.forEach(this::awaitIdentification);
+        rememberRemappedDevices();
+    }
 
-            try {
-                final String eventType = device.getEventType().get(SERIAL_EVENT_TYPE_CONNECTION_INTERVAL_MS, TimeUnit.MILLISECONDS);
-                log.info("Device [{}] has been identified as [{}]", device.getSystemPortPath(), eventType);
-                uartHealthIndicator.clearUartDetectionFailure(device.getSystemPortPath());
-            }
-            catch (Exception e) {
-                log.error("Device [{}]. Cannot identify device under port. Reason: {}", device.getSystemPortPath(), e.toString());
-                uartHealthIndicator.registerUartDetectionFailure(device.getSystemPortPath());
-            }
+    @Override
+    public Map<String, DeviceHandler> getManagedDevices() {
+        return Collections.unmodifiableMap(managedDevices);
+    }
+
+    public void removeDevice(String portPath) {
+        final var timeout = livenessTimeouts.remove(portPath);
+        if (timeout != null) {
+            timeout.cancel();
+        }
+        final var removedDevice = managedDevices.remove(portPath);
+        if (removedDevice != null) {
+            log.info("[Device={}, eventType={}] has been removed on disconnect.", portPath, removedDevice.getEventType().getNow("unknown"));
         }
     }
 
-    @Scheduled(fixedRateString = "${uart-mqtt-gateway.serial.remove-disconnected-interval-ms}", initialDelayString = "${uart-mqtt-gateway.serial.remove-disconnected-interval-ms}")
-    public void removeDisconnectedDevices() {
-        log.trace("Running garbage collection on unused and/or dead devices");
-        for (Entry<String, DeviceHandler> entry : managedDevices.entrySet()) {
-            final var device = entry.getValue();
-            if (device.getState() == DeviceConnState.DISCONNECTED
-                    || !isDeviceAlive(device)) {
-                        device.stop();
-                        managedDevices.remove(entry.getKey());
-                        log.info("[Device={}, eventType={}] has been removed as no longer active", entry.getKey(), device.getEventType().getNow("unknown"));
-                    }
+    private void attachPort(String portPath) {
+        if (!managedDevices.containsKey(portPath)) {
+            // A re-plugged port may hold another board
+            quarantinedPorts.remove(portPath);
+            log.info("[Device={}] Hot-plugged, starting identification", portPath);
+            startDeviceIdentification(SerialPort.getCommPort(portPath));
         }
     }
 
-    public void removeDevice(String portPath) {
-        final var removedDevice = managedDevices.remove(portPath);
-        log.info("[Device={}, eventType={}] has been removed on disconnect.", portPath, removedDevice.getEventType().getNow("unknown"));
+    private void detachPort(String portPath) {
+        final var device = managedDevices.get(portPath);
+        if (device != null) {
+            device.stop();
+        }
+    }
+
+    private void startDeviceIdentification(SerialPort port) {
+        final DeviceHandler handler = new DeviceHandler(port, properties, mqttService, outboundTimer, meterRegistry, traceRecorder,
+            topicIndexRegistry, serialBackend, capture, this::removeDevice);
+        if (managedDevices.putIfAbsent(handler.getSystemPortPath(), handler) == null) {
+            handler.start();
+            watchLiveness(handler);
+            preassignKnownMapping(handler);
+            awaitIdentification(handler);
+        }
+    }
+
+    private void preassignKnownMapping(DeviceHandler device) {
+        final String eventType = deviceIdentityCache.lookup(device.getIdentity());
+        final var mapping = eventType != null ? properties.getUartMqttMappingByEventType().get(eventType) : null;
+        if (mapping != null) {
+            log.info("[Device={}] Known adapter [{}], assuming eventType=[{}] until the first frame",
+                device.getSystemPortPath(), device.getIdentity(), eventType);
+            device.preassignMapping(mapping);
+        }
     }
 
-    private DeviceHandler startDeviceIdentification(SerialPort port) {
-        DeviceHandler handler = new DeviceHandler(port, properties, mqttService, this::removeDevice);
-        handler.start();
-        return handler;
+    /**
+     * A device whose first frame contradicted its cached eventType is re-identified without passing through
+     * {@link #awaitIdentification}, pick up what it turned out to be.
+     */
+    private void rememberRemappedDevices() {
+        for (DeviceHandler device : managedDevices.values()) {
+            if (device.getState() == DeviceConnState.CONNECTED && device.isMappingConfirmed()) {
+                deviceIdentityCache.remember(device.getIdentity(), device.getEventType().getNow(null));
+            }
+        }
+    }
+
+    /**
+     * With hot-plug detection running, full port enumeration is only a slow fallback.
+     */
+    private boolean isPortEnumerationDue() {
+        final var now = TimeService.getCurrentTimeMillis();
+        if (hotplugWatcher != null && hotplugWatcher.isRunning()
+                && now - lastPortEnumerationMillis < properties.getSerial().getHotplug().getFallbackScanIntervalMs()) {
+            return false;
+        }
+        lastPortEnumerationMillis = now;
+        return true;
     }
 
-    private boolean isDeviceAlive(DeviceHandler device) {
+    private List<SerialPort> getUnconnectedPorts() {
+        final List<SerialPort> availablePorts = getAllAvailablePorts();
+        log.debug("Port candidates for processing={}", availablePorts.stream().map(SerialPort::getSystemPortPath).collect(Collectors.toList()));
+
         final var now = TimeService.getCurrentTimeMillis();
-        final var lastSerialMsgReceivedTimestamp = device.getLastSerialMsgReceivedTimestamp();
-        final var diff = now - lastSerialMsgReceivedTimestamp;
+        return availablePorts.stream()
+            .filter(port -> !managedDevices.containsKey(port.getSystemPortPath()))
+            .filter(port -> !isQuarantined(port.getSystemPortPath(), now))
+            .toList();
+    }
+
+    /**
+     * Records the identification outcome once the device reports its eventType or the identification
+     * window elapses. Never blocks the scheduler, so all pending devices share a single window.
+     */
+    private void awaitIdentification(DeviceHandler device) {
+        final var portPath = device.getSystemPortPath();
+        if (!identificationInProgress.add(portPath)) {
+            return;
+        }
+
+        device.getEventType().copy()
+            .orTimeout(properties.getSerial().getIdentificationTimeoutMs(), TimeUnit.MILLISECONDS)
+            .whenComplete((eventType, throwable) -> {
+                identificationInProgress.remove(portPath);
+                if (throwable == null) {
+                    log.info("Device [{}] has been identified as [{}]", portPath, eventType);
+                    uartHealthIndicator.clearUartDetectionFailure(portPath);
+                    quarantinedPorts.remove(portPath);
+                    if (device.isMappingConfirmed()) {
+                        deviceIdentityCache.remember(device.getIdentity(), eventType);
+                    }
+                } else {
+                    log.error("Device [{}]. Cannot identify device under port. Reason: {}", portPath, throwable.toString());
+                    uartHealthIndicator.registerUartDetectionFailure(portPath);
+                    meterRegistry.counter(DeviceMetrics.IDENTIFICATION_FAILURES, "port", portPath).increment();
+                    quarantineIfRepeatedlyFailing(device);
+                }
+            });
+    }
+
+    private void quarantineIfRepeatedlyFailing(DeviceHandler device) {
+        final var portPath = device.getSystemPortPath();
+        final var config = properties.getSerial().getQuarantine();
+        final var quarantine = quarantinedPorts.merge(portPath, new Quarantine(1, 0),
+            (previous, failure) -> new Quarantine(previous.failures() + 1, 0));
+        final int excess = quarantine.failures() - config.getThreshold();
+        if (excess < 0 || device.getState() != DeviceConnState.IDENTIFYING) {
+            return;
+        }
+        final long durationMs = Math.min(config.getMaxMs(), config.getInitialMs() << Math.min(excess, 20));
+        quarantinedPorts.put(portPath, new Quarantine(quarantine.failures(), TimeService.getCurrentTimeMillis() + durationMs));
+        log.warn("[Device={}] Failed identification {} times in a row, closing the port for {} ms",
+            portPath, quarantine.failures(), durationMs);
+        device.stop();
+    }
+
+    private boolean isQuarantined(String portPath, long now) {
+        final var quarantine = quarantinedPorts.get(portPath);
+        return quarantine != null && quarantine.untilMillis() > now;
+    }
+
+    /**
+     * The deadline follows the device's last serial activity and is re-read whenever the wheel reaches it, so it
+     * also picks up the timeout of the eventType the device identifies as.
+     */
+    private void watchLiveness(DeviceHandler device) {
+        if (livenessWheel == null || device.getState() == DeviceConnState.DISCONNECTED) {
+            return;
+        }
+        final var portPath = device.getSystemPortPath();
+        final var timeout = livenessWheel.watch(
+            () -> device.getLastSerialActivityNanos() + TimeUnit.MILLISECONDS.toNanos(livenessTimeoutMs(device)),
+            () -> {
+                log.info("[Device={}, eventType={}] has been removed as no longer active", portPath, device.getEventType().getNow("unknown"));
+                device.stop();
+            });
+        final var previous = livenessTimeouts.put(portPath, timeout);
+        if (previous != null) {
+            previous.cancel();
+        }
+    }
 
-        log.trace("[Device={}] Last serial message received timestamp [{}], now [{}], diff [{}] return result={}", device.getSystemPortPath(), lastSerialMsgReceivedTimestamp, now, diff, diff < LIVENESS_TIMEOUT_THRESHOLD_MS);
-        return diff < LIVENESS_TIMEOUT_THRESHOLD_MS;
+    private long livenessTimeoutMs(DeviceHandler device) {
+        final String eventType = device.getEventType().getNow(null);
+        final var mapping = eventType != null ? properties.getUartMqttMappingByEventType().get(eventType) : null;
+        return mapping != null
+            ? mapping.getLivenessTimeoutMsOrDefault(properties.getSerial())
+            : properties.getSerial().getLiveness().getTimeoutMs();
     }
 
     private List<SerialPort> getAllAvailablePorts() {
-        List<SerialPort> availablePorts = Arrays.asList(SerialPort.getCommPorts());
-
-        log.debug("Detected all port paths: {}", availablePorts.stream()
-            .map(SerialPort::getSystemPortPath)
-            .toList()
-        );
-
-        return Stream.concat(
-            availablePorts.stream()
-                .filter(port -> properties.getSerial().getAllowedPortPrefixPattern().stream()
-                    .peek(prefix -> log.trace("[PREFIX] PORT=[{}], prefix=[{}]", port.getSystemPortPath(), prefix))
-                    .anyMatch(prefix -> port.getSystemPortPath().startsWith(prefix))),
-            availablePorts.stream()
-                .filter(port -> properties.getSerial().getAllowedPortRegexPattern().stream()
-                    .peek(regex -> log.trace("[REGEX] PORT=[{}], regex=[{}]", port.getSystemPortPath(), regex))
-                    .anyMatch(regex -> port.getSystemPortPath().matches(regex)))
-            )
-            .collect(Collectors.toList());
+        final SerialPort[] ports = SerialPort.getCommPorts();
+        if (log.isDebugEnabled()) {
+            log.debug("Detected all port paths: {}", Arrays.stream(ports).map(SerialPort::getSystemPortPath).toList());
+        }
+        return filterAllowedPorts(ports);
+    }
+
+    List<SerialPort> filterAllowedPorts(SerialPort[] ports) {
+        final var allowedPorts = new ArrayList<SerialPort>(ports.length);
+        for (SerialPort port : ports) {
+            if (properties.getSerial().isAllowedPort(port.getSystemPortPath())) {
+                allowedPorts.add(port);
+            }
+        }
+        return allowedPorts;
     }
 }
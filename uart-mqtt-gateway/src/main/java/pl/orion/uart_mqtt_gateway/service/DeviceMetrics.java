@@ -0,0 +1,116 @@
+package pl.orion.uart_mqtt_gateway.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Meters of a single identified device, or of one eventType multiplexed over its link. They are registered once,
+ * so the serial event thread only increments pre-built meters and never allocates tags or looks meters up. The
+ * port's write duration and decoder drops are registered once per port, with the identified eventType's meters.
+ */
+public class DeviceMetrics {
+    public static final String PARSE_FAILURES = "uart.parse.failures";
+    public static final String IDENTIFICATION_FAILURES = "uart.identification.failures";
+    public static final String UNROUTED_FRAMES = "uart.frames.unrouted";
+    public static final String TRANSCODE_FAILURES = "uart.transcode.failures";
+
+    private final MeterRegistry registry;
+    private final Counter framesIn;
+    private final Counter bytesIn;
+    private final Counter framesOut;
+    private final Counter framesWritten;
+    private final Counter bytesOut;
+    private final Timer serialWrite;
+    private final FunctionCounter droppedFrames;
+
+    /**
+     * Meters of the identified eventType, including those of the port.
+     */
+    public DeviceMetrics(MeterRegistry registry, String portPath, String eventType, DeviceHandler device) {
+        this(registry, portPath, eventType, device, true);
+    }
+
+    /**
+     * Meters of another eventType multiplexed over the same port.
+     */
+    public DeviceMetrics(MeterRegistry registry, String portPath, String eventType) {
+        this(registry, portPath, eventType, null, false);
+    }
+
+    private DeviceMetrics(MeterRegistry registry, String portPath, String eventType, DeviceHandler device, boolean port) {
+        this.registry = registry;
+        final Tags tags = Tags.of("port", portPath, "eventType", eventType);
+        this.framesIn = Counter.builder("uart.frames.in")
+            .description("Frames received from the device")
+            .tags(tags)
+            .register(registry);
+        this.bytesIn = Counter.builder("uart.bytes.in")
+            .baseUnit("bytes")
+            .tags(tags)
+            .register(registry);
+        this.framesOut = Counter.builder("uart.frames.out")
+            .description("MQTT messages queued for the device")
+            .tags(tags)
+            .register(registry);
+        this.framesWritten = Counter.builder("uart.frames.written")
+            .description("Commands written to the serial port in full")
+            .tags(tags)
+            .register(registry);
+        this.bytesOut = Counter.builder("uart.bytes.out")
+            .baseUnit("bytes")
+            .tags(tags)
+            .register(registry);
+        this.serialWrite = port ? Timer.builder("uart.write.duration")
+            .description("Duration of a single write call to the serial port")
+            .tags(tags)
+            .publishPercentileHistogram()
+            .register(registry) : null;
+        this.droppedFrames = port ? FunctionCounter.builder("uart.frames.dropped", device, DeviceHandler::getDroppedFrames)
+            .description("Frames dropped by the decoder because they were corrupted or oversized")
+            .tags(tags)
+            .register(registry) : null;
+    }
+
+    public void frameIn(int length) {
+        framesIn.increment();
+        bytesIn.increment(length);
+    }
+
+    public void frameOut() {
+        framesOut.increment();
+    }
+
+    public void frameWritten(int length) {
+        framesWritten.increment();
+        bytesOut.increment(length);
+    }
+
+    /**
+     * Only on the meters of the identified eventType, a write call may carry commands of several eventTypes.
+     */
+    public void serialWrite(long durationNanos) {
+        serialWrite.record(durationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Removes the meters so a detached port does not keep reporting stale values.
+     */
+    public void close() {
+        final List<Meter> meters = new ArrayList<>(List.of(framesIn, bytesIn, framesOut, framesWritten, bytesOut));
+        if (serialWrite != null) {
+            meters.add(serialWrite);
+            meters.add(droppedFrames);
+        }
+        for (Meter meter : meters) {
+            registry.remove(meter);
+        }
+    }
+}
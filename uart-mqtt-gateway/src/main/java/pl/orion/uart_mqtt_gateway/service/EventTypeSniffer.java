@@ -0,0 +1,47 @@
+package pl.orion.uart_mqtt_gateway.service;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Extracts the top-level {@code eventType} field from a JSON frame without building a tree.
+ * Parsing stops as soon as the field is found, so the size of the remaining payload does not matter.
+ */
+public final class EventTypeSniffer {
+    public static final String EVENT_TYPE_FIELD = "eventType";
+
+    // Thread-safe and recycles its parsing buffers across parsers
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private EventTypeSniffer() {
+    }
+
+    /**
+     * @return the value of the top-level {@code eventType} field, or {@code null} if the frame is
+     *         not a JSON object or carries no textual {@code eventType}
+     * @throws IOException if the frame is not valid JSON up to the {@code eventType} field
+     */
+    public static String sniff(byte[] data) throws IOException {
+        return sniff(data, 0, data.length);
+    }
+
+    public static String sniff(byte[] data, int offset, int length) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(data, offset, length)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String fieldName = parser.currentName();
+                final JsonToken value = parser.nextToken();
+                if (EVENT_TYPE_FIELD.equals(fieldName)) {
+                    return value == JsonToken.VALUE_STRING ? parser.getText() : null;
+                }
+                parser.skipChildren();
+            }
+            return null;
+        }
+    }
+}
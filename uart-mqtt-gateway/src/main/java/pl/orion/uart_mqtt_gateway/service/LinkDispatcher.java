@@ -0,0 +1,64 @@
+package pl.orion.uart_mqtt_gateway.service;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties.UartMqttMapping;
+import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties.UartMqttMapping.MqttMapping;
+import pl.orion.uart_mqtt_gateway.transcoding.BinaryTranscoder;
+
+/**
+ * Routing tables of a multiplexed UART link, one port serving the mappings of several eventTypes. They are built
+ * once at identification, so routing a frame is a single array index by channel ID or a hash lookup by eventType.
+ */
+final class LinkDispatcher {
+    static final int NO_CHANNEL_ID = -1;
+
+    /**
+     * @param topics the mapping's topics resolved for this device
+     * @param transcoder {@code null} if the mapping exchanges JSON with the device
+     */
+    record Channel(UartMqttMapping mapping, MqttMapping topics, int channelId, DeviceMetrics metrics, OutboundLimiter limiter,
+                   BinaryTranscoder transcoder) {
+    }
+
+    private final List<Channel> channels;
+    // Indexed by the unsigned first byte of a frame, null when frames are routed by eventType
+    private final Channel[] byChannelId;
+    private final Map<String, Channel> byEventType = new HashMap<>();
+    private final Map<String, Channel> byInboundTopic = new HashMap<>();
+
+    LinkDispatcher(List<Channel> channels) {
+        this.channels = List.copyOf(channels);
+        final boolean channelIds = channels.stream().allMatch(channel -> channel.channelId() != NO_CHANNEL_ID);
+        this.byChannelId = channelIds ? new Channel[256] : null;
+        for (Channel channel : channels) {
+            if (channelIds) {
+                byChannelId[channel.channelId()] = channel;
+            }
+            byEventType.put(channel.mapping().getEventType(), channel);
+            byInboundTopic.put(channel.topics().getInbound(), channel);
+        }
+    }
+
+    List<Channel> channels() {
+        return channels;
+    }
+
+    boolean usesChannelIds() {
+        return byChannelId != null;
+    }
+
+    Channel byChannelId(int channelId) {
+        return byChannelId[channelId & 0xff];
+    }
+
+    Channel byEventType(String eventType) {
+        return eventType != null ? byEventType.get(eventType) : null;
+    }
+
+    Channel byInboundTopic(String topic) {
+        return byInboundTopic.get(topic);
+    }
+}
@@ -0,0 +1,119 @@
+package pl.orion.uart_mqtt_gateway.service;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.LongSupplier;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Hashed timer wheel expiring silent devices. Serial reads only refresh the device's activity time; an entry
+ * re-reads its deadline when its bucket comes round and either expires or moves to the bucket of the new deadline,
+ * so a busy device costs one bucket move per timeout rather than one per frame.
+ *
+ * <p>
+ * Buckets are touched only by the thread calling {@link #advance()}, entries from other threads wait in a queue.
+ * Deadlines further out than one lap are revisited every lap until they are in reach.
+ */
+@Slf4j
+final class LivenessWheel {
+    private static final int WHEEL_SIZE = 512;
+    private static final int MASK = WHEEL_SIZE - 1;
+
+    private final long tickNanos;
+    private final LongSupplier nanoClock;
+    @SuppressWarnings("unchecked")
+    private final ArrayDeque<Timeout>[] buckets = new ArrayDeque[WHEEL_SIZE];
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private final long startNanos;
+    // Ticks processed so far, only read and written by the ticker
+    private long tick;
+
+    final class Timeout {
+        private final LongSupplier deadlineNanos;
+        private final Runnable onExpiry;
+        private volatile boolean cancelled;
+
+        private Timeout(LongSupplier deadlineNanos, Runnable onExpiry) {
+            this.deadlineNanos = deadlineNanos;
+            this.onExpiry = onExpiry;
+        }
+
+        void cancel() {
+            cancelled = true;
+        }
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    LivenessWheel(long tickNanos, LongSupplier nanoClock) {
+        if (tickNanos <= 0) {
+            throw new IllegalArgumentException("Tick must be positive, was " + tickNanos + " ns");
+        }
+        this.tickNanos = tickNanos;
+        this.nanoClock = nanoClock;
+        this.startNanos = nanoClock.getAsLong();
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            buckets[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * @param deadlineNanos read on the ticker thread whenever the entry is due, on the clock passed to the wheel
+     * @param onExpiry runs on the ticker thread once the deadline has passed, the entry is dropped afterwards
+     */
+    Timeout watch(LongSupplier deadlineNanos, Runnable onExpiry) {
+        final var timeout = new Timeout(deadlineNanos, onExpiry);
+        pending.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Processes every tick that has elapsed since the previous call, meant to be called every tick.
+     */
+    void advance() {
+        final long now = nanoClock.getAsLong();
+        final long target = (now - startNanos) / tickNanos;
+        Timeout timeout;
+        while ((timeout = pending.poll()) != null) {
+            schedule(timeout, now);
+        }
+        while (tick < target) {
+            tick++;
+            expire(buckets[(int) (tick & MASK)], now);
+        }
+    }
+
+    private void expire(ArrayDeque<Timeout> bucket, long now) {
+        // entries rescheduled into this very bucket are left for the next lap
+        for (int remaining = bucket.size(); remaining > 0; remaining--) {
+            final var timeout = bucket.poll();
+            if (timeout.cancelled) {
+                continue;
+            }
+            try {
+                if (timeout.deadlineNanos.getAsLong() - now <= 0) {
+                    timeout.cancelled = true;
+                    timeout.onExpiry.run();
+                } else {
+                    schedule(timeout, now);
+                }
+            } catch (RuntimeException e) {
+                log.error("Liveness timeout failed: {}", e.toString());
+            }
+        }
+    }
+
+    private void schedule(Timeout timeout, long now) {
+        if (timeout.cancelled) {
+            return;
+        }
+        final long deadline = timeout.deadlineNanos.getAsLong();
+        // the first tick at or past the deadline, but never one already processed
+        final long due = Math.max(Math.ceilDiv(deadline - startNanos, tickNanos), tick + 1);
+        buckets[(int) (Math.min(due, tick + WHEEL_SIZE) & MASK)].add(timeout);
+    }
+}
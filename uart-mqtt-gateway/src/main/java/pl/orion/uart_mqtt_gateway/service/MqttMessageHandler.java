@@ -1,5 +1,30 @@
 package pl.orion.uart_mqtt_gateway.service;
 
+import java.nio.ByteBuffer;
+
+import pl.orion.uart_mqtt_gateway.tracing.TraceContext;
+
 public interface MqttMessageHandler {
-    void handleMessage(String topic, String payload);
+    long NO_DEADLINE = Long.MAX_VALUE;
+
+    /**
+     * Handles an inbound message. The buffer may be read-only and is only valid for
+     * the duration of the call, so implementations must not keep a reference to it.
+     */
+    void handleMessage(String topic, ByteBuffer payload);
+
+    /**
+     * @param trace trace context carried by the message, {@code null} if it was not sampled
+     */
+    default void handleMessage(String topic, ByteBuffer payload, TraceContext trace) {
+        handleMessage(topic, payload);
+    }
+
+    /**
+     * @param deadlineNanos {@link System#nanoTime()} after which the command must no longer reach the device,
+     *                      {@link #NO_DEADLINE} if it never expires
+     */
+    default void handleMessage(String topic, ByteBuffer payload, TraceContext trace, long deadlineNanos) {
+        handleMessage(topic, payload, trace);
+    }
 }
\ No newline at end of file
@@ -1,9 +1,22 @@
 package pl.orion.uart_mqtt_gateway.service;
 
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties.UartMqttMapping.MqttMapping.Publication;
+import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties.UartMqttMapping.MqttMapping.Subscription;
+import pl.orion.uart_mqtt_gateway.spool.TelemetrySpool;
+
 public interface MqttService {
     void connect();
     void disconnect();
     void publish(String topic, String payload);
+    void publish(String topic, byte[] payload);
+    void publish(String topic, ByteBuffer payload);
+    void publish(String topic, byte[] payload, Publication publication);
     void subscribe(String topic, MqttMessageHandler handler);
+    void subscribe(String topic, Subscription subscription, MqttMessageHandler handler);
     void unsubscribe(String topic);
+    Map<String, PublishAckStats.Snapshot> getPublishAckStats();
+    Map<String, TelemetrySpool.TopicStats> getSpoolStats();
 }
\ No newline at end of file
@@ -3,14 +3,42 @@ package pl.orion.uart_mqtt_gateway.service;
 import com.hivemq.client.mqtt.MqttClient;
 import com.hivemq.client.mqtt.datatypes.MqttQos;
 import com.hivemq.client.mqtt.mqtt5.Mqtt5AsyncClient;
+import com.hivemq.client.mqtt.mqtt5.datatypes.Mqtt5UserProperties;
+import com.hivemq.client.mqtt.mqtt5.datatypes.Mqtt5UserPropertiesBuilder;
+import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5Publish;
+import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5PublishResult;
+import com.hivemq.client.mqtt.mqtt5.message.subscribe.Mqtt5RetainHandling;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
+import pl.orion.uart_mqtt_gateway.compression.PayloadCompressor;
+import pl.orion.uart_mqtt_gateway.compression.PayloadCompressors;
+import pl.orion.uart_mqtt_gateway.compression.PayloadDecoder;
 import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties;
+import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties.UartMqttMapping.MqttMapping.Publication;
+import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties.UartMqttMapping.MqttMapping.Subscription;
+import pl.orion.uart_mqtt_gateway.spool.TelemetrySpool;
+import pl.orion.uart_mqtt_gateway.tracing.TraceContext;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 
 @Service
@@ -18,13 +46,35 @@ import java.util.concurrent.TimeUnit;
 @Slf4j
 public class MqttServiceImpl implements MqttService {
 
+    private static final ByteBuffer EMPTY_PAYLOAD = ByteBuffer.allocate(0).asReadOnlyBuffer();
+
+    private static final Publication DEFAULT_PUBLICATION = new Publication();
+    private static final Subscription DEFAULT_SUBSCRIPTION = new Subscription();
+
     private final UartMqttGatewayProperties properties;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, PublishAckStats> publishAckStats = new ConcurrentHashMap<>();
+    private final Map<String, TopicCompression> compressionByTopic = new ConcurrentHashMap<>();
+    // Indexed outbound topics are resolved per device, their compression is found through the mapping's publication
+    private volatile Map<Publication, TopicCompression> compressionByTemplate = Map.of();
     private Mqtt5AsyncClient client;
+    private TelemetrySpool spool;
 
     @Override
     public void connect() {
         log.info("Attempting to connect to MQTT broker under URL={}@{}:{}", properties.getMqtt().getBrokerUsername(), properties.getMqtt().getBrokerUrl(), properties.getMqtt().getBrokerPort());
 
+        registerCompression();
+        if (properties.getMqtt().getStoreAndForward().isEnabled()) {
+            spool = new TelemetrySpool(properties.getMqtt().getStoreAndForward(), this::replay,
+                    TimeService::getCurrentTimeMillis, DEFAULT_PUBLICATION);
+            try {
+                spool.start();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to open store-and-forward spool", e);
+            }
+        }
+
         client = MqttClient.builder()
                 .useMqttVersion5()
                 .automaticReconnect()
@@ -37,6 +87,16 @@ public class MqttServiceImpl implements MqttService {
                 .identifier(properties.getMqtt().getClientId() + "-" + UUID.randomUUID())
                 .serverHost(properties.getMqtt().getBrokerUrl())
                 .serverPort(properties.getMqtt().getBrokerPort())
+                .addConnectedListener(context -> {
+                    if (spool != null) {
+                        spool.connected();
+                    }
+                })
+                .addDisconnectedListener(context -> {
+                    if (spool != null) {
+                        spool.disconnected();
+                    }
+                })
                 .buildAsync();
 
         client.connectWith()
@@ -54,27 +114,236 @@ public class MqttServiceImpl implements MqttService {
     @PreDestroy
     @Override
     public void disconnect() {
+        if (spool != null) {
+            spool.stop();
+        }
         client.disconnect();
     }
 
     @Override
     public void publish(String topic, String payload) {
-        client.publishWith()
+        publish(topic, payload.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void publish(String topic, byte[] payload) {
+        publish(topic, ByteBuffer.wrap(payload));
+    }
+
+    @Override
+    public void publish(String topic, ByteBuffer payload) {
+        publish(topic, payload, DEFAULT_PUBLICATION);
+    }
+
+    @Override
+    public void publish(String topic, byte[] payload, Publication publication) {
+        publish(topic, ByteBuffer.wrap(payload), publication);
+    }
+
+    private void publish(String topic, ByteBuffer payload, Publication publication) {
+        final var telemetrySpool = spool;
+        if (telemetrySpool != null && telemetrySpool.offer(topic, payload, publication)) {
+            return;
+        }
+        publishNow(topic, payload, publication);
+    }
+
+    private CompletableFuture<Mqtt5PublishResult> replay(String topic, ByteBuffer payload, Publication publication) {
+        return publishNow(topic, payload, publication).thenApply(result -> {
+            if (result.getError().isPresent()) {
+                throw new CompletionException(result.getError().get());
+            }
+            return result;
+        });
+    }
+
+    private CompletableFuture<Mqtt5PublishResult> publishNow(String topic, ByteBuffer payload, Publication publication) {
+        final var stats = getPublishAckStats(topic);
+        final int qos = publication.getQos();
+        final var builder = Mqtt5Publish.builder()
                 .topic(topic)
-                .qos(MqttQos.AT_LEAST_ONCE)
-                .payload(payload.getBytes())
-                .send();
+                .qos(toMqttQos(qos))
+                .retain(publication.isRetain());
+        var compression = compressionByTopic.isEmpty() ? null : compressionByTopic.get(topic);
+        if (compression == null && !compressionByTemplate.isEmpty()) {
+            compression = compressionByTemplate.get(publication);
+        }
+        if (compression != null) {
+            builder.payload(compression.compress(payload)).userProperties(compression.userProperties());
+        } else {
+            builder.payload(payload);
+        }
+        if (publication.getMessageExpirySeconds() > 0) {
+            builder.messageExpiryInterval(publication.getMessageExpirySeconds());
+        }
+        final long sentNanos = System.nanoTime();
+        return send(builder.build()).whenComplete((result, throwable) -> stats.record(qos, System.nanoTime() - sentNanos,
+                throwable == null && result.getError().isEmpty()));
+    }
+
+    // Seam for benchmarks, which replace the network client
+    CompletableFuture<Mqtt5PublishResult> send(Mqtt5Publish publish) {
+        return client.publish(publish);
+    }
+
+    private void registerCompression() {
+        final var byTemplate = new IdentityHashMap<Publication, TopicCompression>();
+        for (var mapping : properties.getUartMqttMapping()) {
+            final String topic = mapping.getMqtt().getOutbound();
+            final var compression = mapping.getMqtt().getOutboundPublication().getCompression();
+            final PayloadCompressor compressor;
+            try {
+                compressor = PayloadCompressors.create(compression);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to load compression dictionary for topic " + topic, e);
+            }
+            if (compressor != null) {
+                final var topicCompression = new TopicCompression(topic, compressor, meterRegistry);
+                if (mapping.getMqtt().hasIndexPlaceholder()) {
+                    byTemplate.put(mapping.getMqtt().getOutboundPublication(), topicCompression);
+                } else {
+                    compressionByTopic.put(topic, topicCompression);
+                }
+                log.info("Compressing payloads on topic={} with codec={}", topic, compressor.contentEncoding());
+            }
+        }
+        compressionByTemplate = byTemplate;
+    }
+
+    private PublishAckStats getPublishAckStats(String topic) {
+        final var stats = publishAckStats.get(topic);
+        if (stats != null) {
+            return stats;
+        }
+        return publishAckStats.computeIfAbsent(topic, key -> new PublishAckStats(Timer.builder("mqtt.publish.ack")
+                .description("Time from publish until the broker acknowledged it (socket write for QoS 0)")
+                .tag("topic", key)
+                .publishPercentileHistogram()
+                .register(meterRegistry)));
+    }
+
+    @Override
+    public Map<String, TelemetrySpool.TopicStats> getSpoolStats() {
+        final var telemetrySpool = spool;
+        return telemetrySpool != null ? telemetrySpool.getStats() : Map.of();
     }
 
     @Override
     public void subscribe(String topic, MqttMessageHandler handler) {
+        subscribe(topic, DEFAULT_SUBSCRIPTION, handler);
+    }
+
+    @Override
+    public void subscribe(String topic, Subscription subscription, MqttMessageHandler handler) {
         client.subscribeWith()
                 .topicFilter(topic)
-                .qos(MqttQos.AT_LEAST_ONCE)
-                .callback(publish -> handler.handleMessage(topic, new String(publish.getPayloadAsBytes())))
+                .qos(toMqttQos(subscription.getQos()))
+                .retainHandling(subscription.isRetainedMessages() ? Mqtt5RetainHandling.SEND : Mqtt5RetainHandling.DO_NOT_SEND)
+                .callback(publish -> deliver(topic, subscription, publish, handler))
                 .send();
     }
 
+    void deliver(String topic, Subscription subscription, Mqtt5Publish publish, MqttMessageHandler handler) {
+        final long deadlineNanos = commandDeadline(System.nanoTime(), publish.getMessageExpiryInterval(), subscription.getMaxAgeMs());
+        handler.handleMessage(topic, publish.getPayload().orElse(EMPTY_PAYLOAD), trace(publish), deadlineNanos);
+    }
+
+    /**
+     * @return trace the command carries, a new one if an untraced command is sampled, otherwise {@code null}
+     */
+    private TraceContext trace(Mqtt5Publish publish) {
+        final var mqtt = properties.getMqtt();
+        if (!mqtt.isTracingEnabled()) {
+            return null;
+        }
+        final var trace = TraceContext.fromUserProperties(publish.getUserProperties());
+        if (trace != null) {
+            return trace;
+        }
+        final double sampleRate = mqtt.getTracingSampleRate();
+        return sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate ? TraceContext.sampled() : null;
+    }
+
+    /**
+     * @param expirySeconds remaining message expiry as forwarded by the broker
+     * @return the earlier of the message expiry and the subscription's max age
+     */
+    static long commandDeadline(long receivedNanos, OptionalLong expirySeconds, long maxAgeMs) {
+        long maxAgeNanos = maxAgeMs > 0 ? TimeUnit.MILLISECONDS.toNanos(maxAgeMs) : Long.MAX_VALUE;
+        if (expirySeconds.isPresent()) {
+            maxAgeNanos = Math.min(maxAgeNanos, TimeUnit.SECONDS.toNanos(expirySeconds.getAsLong()));
+        }
+        return maxAgeNanos == Long.MAX_VALUE ? MqttMessageHandler.NO_DEADLINE : receivedNanos + maxAgeNanos;
+    }
+
+    @Override
+    public Map<String, PublishAckStats.Snapshot> getPublishAckStats() {
+        final var snapshot = new TreeMap<String, PublishAckStats.Snapshot>();
+        publishAckStats.forEach((topic, stats) -> snapshot.put(topic, stats.snapshot()));
+        return snapshot;
+    }
+
+    /**
+     * Compressor of one outbound topic with the user properties advertising it and its ratio and CPU cost meters.
+     */
+    private static final class TopicCompression {
+        private final PayloadCompressor compressor;
+        private final Mqtt5UserProperties userProperties;
+        private final Counter bytesIn;
+        private final Counter bytesOut;
+        private final Timer duration;
+
+        private TopicCompression(String topic, PayloadCompressor compressor, MeterRegistry meterRegistry) {
+            this.compressor = compressor;
+            final Mqtt5UserPropertiesBuilder properties = Mqtt5UserProperties.builder()
+                    .add(PayloadDecoder.CONTENT_ENCODING, compressor.contentEncoding());
+            if (compressor.dictionaryId() != null) {
+                properties.add(PayloadDecoder.CONTENT_DICTIONARY, compressor.dictionaryId());
+            }
+            this.userProperties = properties.build();
+            final String codec = compressor.contentEncoding();
+            this.bytesIn = Counter.builder("mqtt.compression.bytes.in").tag("topic", topic).tag("codec", codec).register(meterRegistry);
+            this.bytesOut = Counter.builder("mqtt.compression.bytes.out").tag("topic", topic).tag("codec", codec).register(meterRegistry);
+            this.duration = Timer.builder("mqtt.compression.duration")
+                    .description("Time spent compressing one payload")
+                    .tag("topic", topic)
+                    .tag("codec", codec)
+                    .register(meterRegistry);
+            Gauge.builder("mqtt.compression.ratio", this, TopicCompression::ratio)
+                    .description("Uncompressed to compressed bytes")
+                    .tag("topic", topic)
+                    .tag("codec", codec)
+                    .register(meterRegistry);
+        }
+
+        private byte[] compress(ByteBuffer payload) {
+            final int length = payload.remaining();
+            final long started = System.nanoTime();
+            final byte[] compressed = compressor.compress(payload);
+            duration.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+            bytesIn.increment(length);
+            bytesOut.increment(compressed.length);
+            return compressed;
+        }
+
+        private Mqtt5UserProperties userProperties() {
+            return userProperties;
+        }
+
+        private double ratio() {
+            final double out = bytesOut.count();
+            return out == 0 ? 1.0 : bytesIn.count() / out;
+        }
+    }
+
+    private static MqttQos toMqttQos(int qos) {
+        final var mqttQos = MqttQos.fromCode(qos);
+        if (mqttQos == null) {
+            throw new IllegalArgumentException("Invalid MQTT QoS: " + qos);
+        }
+        return mqttQos;
+    }
+
     @Override
     public void unsubscribe(String topic) {
         client.unsubscribeWith()
@@ -0,0 +1,119 @@
+package pl.orion.uart_mqtt_gateway.service;
+
+import java.util.Arrays;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties.UartMqttMapping.OutboundPolicy;
+
+/**
+ * Applies a mapping's outbound policy to serial frames before they reach the broker. Frames are offered from
+ * the serial event thread and never wait: excess frames are either discarded or, in {@code latest} mode,
+ * parked until the shared timer publishes the most recent one.
+ */
+public class OutboundLimiter {
+
+    public record Stats(long forwarded, long suppressed) {
+    }
+
+    private final OutboundPolicy policy;
+    private final Consumer<byte[]> publisher;
+    private final long rateIntervalNanos;
+
+    private final AtomicLong forwarded = new AtomicLong();
+    private final AtomicLong suppressed = new AtomicLong();
+    private final AtomicReference<byte[]> latest = new AtomicReference<>();
+    private long nextAllowedNanos;
+    private long frameCounter;
+    private ScheduledFuture<?> flushTask;
+
+    public OutboundLimiter(OutboundPolicy policy, Consumer<byte[]> publisher) {
+        this.policy = policy;
+        this.publisher = publisher;
+        this.rateIntervalNanos = policy.getMaxRatePerSecond() > 0
+            ? (long) (TimeUnit.SECONDS.toNanos(1) / policy.getMaxRatePerSecond())
+            : 0;
+        this.nextAllowedNanos = System.nanoTime();
+    }
+
+    public void start(ScheduledExecutorService timer) {
+        if (policy.getMode() == OutboundPolicy.Mode.LATEST) {
+            final long intervalMs = policy.getIntervalMs();
+            flushTask = timer.scheduleAtFixedRate(this::flushLatest, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void stop() {
+        if (flushTask != null) {
+            flushTask.cancel(false);
+        }
+        latest.set(null);
+    }
+
+    /**
+     * Called from the serial event thread only. The frame must not be modified afterwards.
+     */
+    public void offer(byte[] frame) {
+        offer(frame, 0, frame.length, true);
+    }
+
+    /**
+     * Called from the serial event thread only, for a frame in a buffer its decoder reuses. Only frames that are
+     * forwarded or parked are copied.
+     */
+    public void offer(byte[] buffer, int offset, int length) {
+        offer(buffer, offset, length, false);
+    }
+
+    private void offer(byte[] buffer, int offset, int length, boolean owned) {
+        switch (policy.getMode()) {
+            case NONE -> forward(kept(buffer, offset, length, owned));
+            case MAX_RATE -> {
+                // Forwarding slots follow a fixed schedule so jitter does not lower the rate, idle time earns at most half a slot
+                final long now = System.nanoTime();
+                if (now - nextAllowedNanos >= 0) {
+                    nextAllowedNanos = Math.max(nextAllowedNanos, now - rateIntervalNanos / 2) + rateIntervalNanos;
+                    forward(kept(buffer, offset, length, owned));
+                } else {
+                    suppressed.incrementAndGet();
+                }
+            }
+            case LATEST -> {
+                if (latest.getAndSet(kept(buffer, offset, length, owned)) != null) {
+                    suppressed.incrementAndGet();
+                }
+            }
+            case DECIMATE -> {
+                if (frameCounter++ % policy.getDecimation() == 0) {
+                    forward(kept(buffer, offset, length, owned));
+                } else {
+                    suppressed.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    public Stats getStats() {
+        return new Stats(forwarded.get(), suppressed.get());
+    }
+
+    private void flushLatest() {
+        final byte[] frame = latest.getAndSet(null);
+        if (frame != null) {
+            forward(frame);
+        }
+    }
+
+    private void forward(byte[] frame) {
+        publisher.accept(frame);
+        forwarded.incrementAndGet();
+    }
+
+    private static byte[] kept(byte[] buffer, int offset, int length, boolean owned) {
+        return owned ? buffer : Arrays.copyOfRange(buffer, offset, offset + length);
+    }
+}
@@ -0,0 +1,49 @@
+package pl.orion.uart_mqtt_gateway.service;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Time from handing a message to the MQTT client until its {@code send()} future completes: the PUBACK for
+ * QoS 1, the PUBCOMP for QoS 2 and the socket write for QoS 0.
+ */
+public class PublishAckStats {
+
+    public record Snapshot(int qos, long acked, long failed, double meanLatencyMs, double maxLatencyMs) {
+    }
+
+    private final Timer timer;
+    private final AtomicLong acked = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong totalLatencyNanos = new AtomicLong();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+    private volatile int qos;
+
+    public PublishAckStats(Timer timer) {
+        this.timer = timer;
+    }
+
+    public void record(int qos, long latencyNanos, boolean success) {
+        this.qos = qos;
+        if (!success) {
+            failed.incrementAndGet();
+            return;
+        }
+        acked.incrementAndGet();
+        totalLatencyNanos.addAndGet(latencyNanos);
+        maxLatencyNanos.accumulateAndGet(latencyNanos, Math::max);
+        timer.record(latencyNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public Snapshot snapshot() {
+        final long ackedCount = acked.get();
+        return new Snapshot(
+            qos,
+            ackedCount,
+            failed.get(),
+            ackedCount == 0 ? 0.0 : totalLatencyNanos.get() / 1e6 / ackedCount,
+            maxLatencyNanos.get() / 1e6);
+    }
+}
@@ -0,0 +1,139 @@
+package pl.orion.uart_mqtt_gateway.service;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Watches the device directory (inotify on Linux) and reports serial nodes as soon as they appear or vanish,
+ * so a board that resets mid-run does not wait for the next periodic scan.
+ */
+@Slf4j
+public class SerialHotplugWatcher {
+    private final Path directory;
+    private final Predicate<String> allowedPort;
+    private final long settleDelayMs;
+    private final Consumer<String> portAttached;
+    private final Consumer<String> portDetached;
+    private final Runnable eventsLost;
+
+    private final ScheduledExecutorService dispatcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final var thread = new Thread(runnable, "serial-hotplug-dispatcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private WatchService watchService;
+    private volatile boolean running;
+
+    public SerialHotplugWatcher(Path directory, Predicate<String> allowedPort, long settleDelayMs,
+                                Consumer<String> portAttached, Consumer<String> portDetached, Runnable eventsLost) {
+        this.directory = directory;
+        this.allowedPort = allowedPort;
+        this.settleDelayMs = settleDelayMs;
+        this.portAttached = portAttached;
+        this.portDetached = portDetached;
+        this.eventsLost = eventsLost;
+    }
+
+    /**
+     * @return {@code false} if the directory cannot be watched on this platform, periodic scanning must then be relied upon
+     */
+    public boolean start() {
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            directory.register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException | UnsupportedOperationException e) {
+            log.warn("Serial hot-plug detection unavailable for directory={}: {}", directory, e.toString());
+            dispatcher.shutdown();
+            return false;
+        }
+
+        running = true;
+        final var thread = new Thread(this::run, "serial-hotplug-watcher");
+        thread.setDaemon(true);
+        thread.start();
+        log.info("Watching {} for serial device hot-plug events", directory);
+        return true;
+    }
+
+    public void stop() {
+        running = false;
+        dispatcher.shutdownNow();
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                log.debug("Failed to close hot-plug watch service: {}", e.toString());
+            }
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                final WatchKey key = watchService.take();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    dispatch(event);
+                }
+                if (!key.reset()) {
+                    log.warn("Hot-plug watch on {} is no longer valid", directory);
+                    running = false;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            log.debug("Hot-plug watch service closed");
+        } finally {
+            running = false;
+        }
+    }
+
+    private void dispatch(WatchEvent<?> event) {
+        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+            eventsLost.run();
+            return;
+        }
+
+        final String portPath = directory.resolve((Path) event.context()).toString();
+        if (!allowedPort.test(portPath)) {
+            return;
+        }
+
+        if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+            log.debug("Serial port {} attached", portPath);
+            // udev applies ownership and permissions right after the node appears
+            dispatcher.schedule(() -> notifyListener(portAttached, portPath), settleDelayMs, TimeUnit.MILLISECONDS);
+        } else {
+            log.debug("Serial port {} detached", portPath);
+            dispatcher.execute(() -> notifyListener(portDetached, portPath));
+        }
+    }
+
+    private void notifyListener(Consumer<String> listener, String portPath) {
+        try {
+            listener.accept(portPath);
+        } catch (RuntimeException e) {
+            log.error("[Device={}] Failed to handle hot-plug event: {}", portPath, e.toString());
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package pl.orion.uart_mqtt_gateway.service;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Reads a port with blocking reads on its own thread instead of jSerialComm's event thread. It is a platform thread:
+ * jSerialComm reads in native code, which would pin a virtual thread's carrier for as long as the read waits.
+ * Read buffers are shared between connections, so boards that reset repeatedly do not churn the heap.
+ */
+@Slf4j
+public class SerialReader {
+
+    @FunctionalInterface
+    public interface SerialSource {
+        /**
+         * @return number of bytes read, {@code 0} on timeout, negative once the port is gone
+         */
+        int read(byte[] buffer, int length);
+    }
+
+    @FunctionalInterface
+    public interface DataListener {
+        /**
+         * The buffer is owned by the reader and only valid for the duration of the call.
+         */
+        void onData(byte[] buffer, int offset, int length);
+    }
+
+    private static final ConcurrentLinkedQueue<byte[]> BUFFER_POOL = new ConcurrentLinkedQueue<>();
+
+    private final String portPath;
+    private final SerialSource source;
+    private final int bufferBytes;
+    private final DataListener listener;
+    private final Runnable disconnected;
+
+    private volatile boolean running;
+    private Thread thread;
+
+    public SerialReader(String portPath, SerialSource source, int bufferBytes, DataListener listener, Runnable disconnected) {
+        this.portPath = portPath;
+        this.source = source;
+        this.bufferBytes = bufferBytes;
+        this.listener = listener;
+        this.disconnected = disconnected;
+    }
+
+    public void start() {
+        running = true;
+        thread = Thread.ofPlatform().name("uart-reader-" + portPath).daemon().start(this::run);
+    }
+
+    public void stop() {
+        running = false;
+        if (thread != null && thread != Thread.currentThread()) {
+            thread.interrupt();
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void run() {
+        final byte[] buffer = borrowBuffer(bufferBytes);
+        try {
+            while (running) {
+                final int read;
+                try {
+                    read = source.read(buffer, buffer.length);
+                } catch (RuntimeException e) {
+                    log.error("[Device={}] Failed to read from serial port: {}", portPath, e.toString());
+                    break;
+                }
+                if (read < 0) {
+                    break;
+                }
+                if (read > 0) {
+                    dispatch(buffer, read);
+                }
+            }
+        } finally {
+            BUFFER_POOL.offer(buffer);
+        }
+        if (running) {
+            running = false;
+            disconnected.run();
+        }
+    }
+
+    private void dispatch(byte[] buffer, int length) {
+        try {
+            listener.onData(buffer, 0, length);
+        } catch (RuntimeException e) {
+            log.error("[Device={}] Failed to handle serial data: {}", portPath, e.toString());
+        }
+    }
+
+    private static byte[] borrowBuffer(int bufferBytes) {
+        final byte[] pooled = BUFFER_POOL.poll();
+        if (pooled != null && pooled.length == bufferBytes) {
+            return pooled;
+        }
+        return new byte[bufferBytes];
+    }
+}
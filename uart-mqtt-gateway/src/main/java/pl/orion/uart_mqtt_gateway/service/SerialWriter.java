@@ -0,0 +1,366 @@
+package pl.orion.uart_mqtt_gateway.service;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import lombok.extern.slf4j.Slf4j;
+import pl.orion.uart_mqtt_gateway.framing.FrameEncoder;
+import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties.Serial.Writer.OverflowPolicy;
+import pl.orion.uart_mqtt_gateway.tracing.HopLatencyRecorder;
+import pl.orion.uart_mqtt_gateway.tracing.TraceContext;
+
+/**
+ * Decouples MQTT callback threads from the UART. Commands are copied into pooled buffers,
+ * queued in a bounded queue and written by a dedicated thread, so a slow or blocked port
+ * only ever stalls itself.
+ */
+@Slf4j
+public class SerialWriter {
+    public static final String UART_WRITTEN_HOP = "uart-written";
+
+    @FunctionalInterface
+    public interface SerialSink {
+        int write(byte[] buffer, int length);
+    }
+
+    /**
+     * Told about every command that reached the port in full, on the writer thread.
+     */
+    @FunctionalInterface
+    public interface WrittenListener {
+        WrittenListener NONE = (topic, bytes) -> {};
+
+        void onWritten(String topic, int bytes);
+    }
+
+    public record Stats(int queueDepth, long written, long dropped, long coalesced, long expired,
+                        long writeCalls, double meanLatencyMs, double maxLatencyMs) {
+    }
+
+    private static final class Command {
+        private String topic;
+        private byte[] data = new byte[0];
+        private int length;
+        private long enqueuedNanos;
+        private long deadlineNanos;
+        private TraceContext trace;
+    }
+
+    private final String portPath;
+    private final SerialSink sink;
+    private final FrameEncoder encoder;
+    private final int capacity;
+    private final OverflowPolicy overflowPolicy;
+    private final byte[] batchBuffer;
+    private final HopLatencyRecorder traceRecorder;
+    private final WrittenListener writtenListener;
+    // Per command of the batch being written, a batch never holds more commands than the queue. Writer thread only
+    private final int[] batchEnds;
+    private final long[] batchEnqueuedNanos;
+    private final TraceContext[] batchTraces;
+    private final String[] batchTopics;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final ArrayDeque<Command> queue;
+    private final ArrayDeque<Command> pool;
+    private final Map<String, Command> pendingByTopic = new HashMap<>();
+
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong writeCalls = new AtomicLong();
+    private final AtomicLong totalLatencyNanos = new AtomicLong();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    private volatile boolean running;
+    private Thread thread;
+
+    public SerialWriter(String portPath, SerialSink sink, FrameEncoder encoder,
+                        int capacity, OverflowPolicy overflowPolicy, int maxBatchBytes, HopLatencyRecorder traceRecorder) {
+        this(portPath, sink, encoder, capacity, overflowPolicy, maxBatchBytes, traceRecorder, WrittenListener.NONE);
+    }
+
+    public SerialWriter(String portPath, SerialSink sink, FrameEncoder encoder, int capacity, OverflowPolicy overflowPolicy,
+                        int maxBatchBytes, HopLatencyRecorder traceRecorder, WrittenListener writtenListener) {
+        this.portPath = portPath;
+        this.sink = sink;
+        this.encoder = encoder;
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+        this.batchBuffer = new byte[maxBatchBytes];
+        this.traceRecorder = traceRecorder;
+        this.writtenListener = writtenListener;
+        this.batchEnds = new int[capacity];
+        this.batchEnqueuedNanos = new long[capacity];
+        this.batchTraces = new TraceContext[capacity];
+        this.batchTopics = new String[capacity];
+        this.queue = new ArrayDeque<>(capacity);
+        this.pool = new ArrayDeque<>(capacity + 1);
+    }
+
+    public void start() {
+        running = true;
+        thread = new Thread(this::run, "uart-writer-" + portPath);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+        }
+        lock.lock();
+        try {
+            queue.clear();
+            pendingByTopic.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void enqueue(String topic, ByteBuffer payload) {
+        enqueue(topic, payload, null, MqttMessageHandler.NO_DEADLINE);
+    }
+
+    public void enqueue(String topic, ByteBuffer payload, TraceContext trace) {
+        enqueue(topic, payload, trace, MqttMessageHandler.NO_DEADLINE);
+    }
+
+    /**
+     * Encodes the payload into a pooled buffer and queues it for writing. Never blocks on the UART. Payloads the
+     * device would discard for exceeding {@code max-frame-bytes} are dropped here.
+     *
+     * @param deadlineNanos {@link System#nanoTime()} after which the command is dropped instead of written
+     */
+    public void enqueue(String topic, ByteBuffer payload, TraceContext trace, long deadlineNanos) {
+        if (payload.remaining() > encoder.maxPayloadLength()) {
+            dropped.incrementAndGet();
+            log.debug("[Device={}] Dropped command of {} bytes on {}, longer than max-frame-bytes", portPath,
+                payload.remaining(), topic);
+            return;
+        }
+        final int maxLength = encoder.maxEncodedLength(payload.remaining());
+        lock.lock();
+        try {
+            // Encoded into an unlinked command first, a failure leaves the queue and the pending commands untouched
+            final Command encoded = pool.isEmpty() ? new Command() : pool.pollFirst();
+            if (encoded.data.length < maxLength) {
+                encoded.data = new byte[maxLength];
+            }
+            try {
+                encoded.length = encoder.encode(payload, encoded.data);
+            } catch (RuntimeException e) {
+                recycle(encoded);
+                dropped.incrementAndGet();
+                log.error("[Device={}] Failed to encode command on {}: {}", portPath, topic, e.toString());
+                return;
+            }
+            Command command = overflowPolicy == OverflowPolicy.COALESCE_LATEST ? pendingByTopic.get(topic) : null;
+            if (command != null) {
+                // The pending command keeps its place in the queue and takes over the new bytes
+                coalesced.incrementAndGet();
+                final byte[] replaced = command.data;
+                command.data = encoded.data;
+                command.length = encoded.length;
+                encoded.data = replaced;
+                recycle(encoded);
+            } else {
+                if (queue.size() >= capacity) {
+                    recycle(queue.pollFirst());
+                    dropped.incrementAndGet();
+                }
+                command = encoded;
+                command.topic = topic;
+                queue.addLast(command);
+                if (overflowPolicy == OverflowPolicy.COALESCE_LATEST) {
+                    pendingByTopic.put(topic, command);
+                }
+            }
+            command.enqueuedNanos = System.nanoTime();
+            command.deadlineNanos = deadlineNanos;
+            command.trace = trace;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Stats getStats() {
+        final long writtenCount = written.get();
+        return new Stats(
+            getQueueDepth(),
+            writtenCount,
+            dropped.get(),
+            coalesced.get(),
+            expired.get(),
+            writeCalls.get(),
+            writtenCount == 0 ? 0.0 : totalLatencyNanos.get() / 1e6 / writtenCount,
+            maxLatencyNanos.get() / 1e6);
+    }
+
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                writeNextBatch();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.error("[Device={}] Failed to write to serial port: {}", portPath, e.toString());
+            }
+        }
+    }
+
+    private void writeNextBatch() throws InterruptedException {
+        Command oversized = null;
+        int batchLength = 0;
+        int batchCommands = 0;
+
+        lock.lockInterruptibly();
+        try {
+            do {
+                while (queue.isEmpty()) {
+                    notEmpty.await();
+                }
+                dropExpired(System.nanoTime());
+            } while (queue.isEmpty());
+            if (queue.peekFirst().length > batchBuffer.length) {
+                oversized = takeFirst();
+            } else {
+                // Small commands queued together leave in a single write call
+                while (!queue.isEmpty() && batchLength + queue.peekFirst().length <= batchBuffer.length) {
+                    final Command command = takeFirst();
+                    System.arraycopy(command.data, 0, batchBuffer, batchLength, command.length);
+                    batchLength += command.length;
+                    batchEnds[batchCommands] = batchLength;
+                    batchEnqueuedNanos[batchCommands] = command.enqueuedNanos;
+                    batchTraces[batchCommands] = command.trace;
+                    batchTopics[batchCommands] = command.topic;
+                    batchCommands++;
+                    recycle(command);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (oversized != null) {
+            batchEnds[0] = oversized.length;
+            batchEnqueuedNanos[0] = oversized.enqueuedNanos;
+            batchTraces[0] = oversized.trace;
+            batchTopics[0] = oversized.topic;
+            recordWrite(1, writeFully(oversized.data, oversized.length));
+            lock.lock();
+            try {
+                recycle(oversized);
+            } finally {
+                lock.unlock();
+            }
+        } else if (batchLength > 0) {
+            recordWrite(batchCommands, writeFully(batchBuffer, batchLength));
+        }
+    }
+
+    /**
+     * Repeats short writes until the port stops accepting bytes. The unwritten rest is moved to the front of
+     * {@code buffer}, which is only touched by the writer thread at this point.
+     *
+     * @return number of bytes the port accepted
+     */
+    private int writeFully(byte[] buffer, int length) {
+        int total = 0;
+        while (total < length) {
+            final int accepted = sink.write(buffer, length - total);
+            writeCalls.incrementAndGet();
+            if (accepted <= 0) {
+                break;
+            }
+            total += accepted;
+            if (total < length) {
+                System.arraycopy(buffer, accepted, buffer, 0, length - total);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Only commands that reached the port in full count as written and get their trace hop, the rest are dropped.
+     * A truncated frame is left for the device's framing to discard.
+     */
+    private void recordWrite(int commands, int writtenBytes) {
+        final long now = System.nanoTime();
+        final long writtenMicros = TimeService.getEpochMicros();
+        int complete = 0;
+        while (complete < commands && batchEnds[complete] <= writtenBytes) {
+            final long latency = now - batchEnqueuedNanos[complete];
+            totalLatencyNanos.addAndGet(latency);
+            maxLatencyNanos.accumulateAndGet(latency, Math::max);
+            if (batchTraces[complete] != null) {
+                traceRecorder.recordHop(batchTraces[complete], UART_WRITTEN_HOP, writtenMicros);
+            }
+            writtenListener.onWritten(batchTopics[complete],
+                batchEnds[complete] - (complete == 0 ? 0 : batchEnds[complete - 1]));
+            complete++;
+        }
+        written.addAndGet(complete);
+        if (complete < commands) {
+            dropped.addAndGet(commands - complete);
+            log.warn("[Device={}] Serial port accepted {} of {} bytes, dropped {} commands", portPath, writtenBytes,
+                batchEnds[commands - 1], commands - complete);
+        }
+        Arrays.fill(batchTraces, 0, commands, null);
+        Arrays.fill(batchTopics, 0, commands, null);
+    }
+
+    /**
+     * Drops commands that waited past their deadline, e.g. behind a blocked port, so they never reach the device late.
+     */
+    private void dropExpired(long now) {
+        int expiredCommands = 0;
+        for (var iterator = queue.iterator(); iterator.hasNext(); ) {
+            final Command command = iterator.next();
+            if (command.deadlineNanos != MqttMessageHandler.NO_DEADLINE && now - command.deadlineNanos >= 0) {
+                iterator.remove();
+                recycle(command);
+                expiredCommands++;
+            }
+        }
+        if (expiredCommands > 0) {
+            expired.addAndGet(expiredCommands);
+            log.debug("[Device={}] Dropped {} expired commands", portPath, expiredCommands);
+        }
+    }
+
+    private Command takeFirst() {
+        final Command command = queue.pollFirst();
+        pendingByTopic.remove(command.topic, command);
+        return command;
+    }
+
+    private void recycle(Command command) {
+        pendingByTopic.remove(command.topic, command);
+        command.topic = null;
+        command.trace = null;
+        if (pool.size() <= capacity) {
+            pool.addLast(command);
+        }
+    }
+}
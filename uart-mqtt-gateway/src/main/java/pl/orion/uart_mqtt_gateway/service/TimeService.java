@@ -1,9 +1,28 @@
 package pl.orion.uart_mqtt_gateway.service;
 
+import java.util.concurrent.TimeUnit;
+
 public class TimeService {
+    private static final long ORIGIN_EPOCH_MICROS = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+    private static final long ORIGIN_NANOS = System.nanoTime();
 
     public static long getCurrentTimeMillis() {
         return System.currentTimeMillis();
     }
 
+    /**
+     * Monotonic, only meaningful as a difference between two readings.
+     */
+    public static long getNanoTime() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Epoch microseconds anchored to the wall clock once and advanced by {@link System#nanoTime()}, so trace hops
+     * compare with other services on the host while NTP slewing cannot make an in-process hop negative.
+     */
+    public static long getEpochMicros() {
+        return ORIGIN_EPOCH_MICROS + (System.nanoTime() - ORIGIN_NANOS) / 1000;
+    }
+
 }
@@ -0,0 +1,101 @@
+package pl.orion.uart_mqtt_gateway.service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties;
+import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties.UartMqttMapping;
+
+/**
+ * Assigns the {@code {index}} of indexed topic templates, so identical boards of one eventType publish to topics
+ * of their own. Pinned indexes come from the mapping's {@code topic-indexes}, any other device gets the lowest index
+ * nobody holds. Assignments are kept after a device detaches, a replugged board gets its topics back. With the
+ * identity cache enabled they are stored next to it and survive restarts.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class TopicIndexRegistry {
+    private final UartMqttGatewayProperties properties;
+    private final ObjectMapper objectMapper;
+    // eventType -> device key -> index
+    private final Map<String, Map<String, Integer>> assignments = new HashMap<>();
+
+    @PostConstruct
+    public synchronized void load() {
+        final var config = properties.getSerial().getIdentityCache();
+        if (!config.isEnabled()) {
+            return;
+        }
+        final var file = Path.of(config.getTopicIndexesFile());
+        if (!Files.exists(file)) {
+            return;
+        }
+        try {
+            final Map<String, Map<String, Integer>> stored = objectMapper.readValue(file.toFile(),
+                new TypeReference<Map<String, Map<String, Integer>>>() {
+                });
+            final var mappings = properties.getUartMqttMappingByEventType();
+            stored.forEach((eventType, indexes) -> {
+                if (indexes != null && mappings.containsKey(eventType)) {
+                    assignments.put(eventType, new HashMap<>(indexes));
+                }
+            });
+            log.info("Loaded topic indexes of {} eventTypes from {}", assignments.size(), file);
+        } catch (IOException e) {
+            log.warn("Ignoring unreadable topic index file {}: {}", file, e.toString());
+        }
+    }
+
+    /**
+     * @param deviceKey USB identity of the adapter, or its port path if it has none
+     */
+    public synchronized int indexOf(UartMqttMapping mapping, String deviceKey) {
+        final var pinned = mapping.getTopicIndexes();
+        final Integer pinnedIndex = pinned.get(deviceKey);
+        if (pinnedIndex != null) {
+            return pinnedIndex;
+        }
+        final var assigned = assignments.computeIfAbsent(mapping.getEventType(), eventType -> new HashMap<>());
+        final Integer assignedIndex = assigned.get(deviceKey);
+        if (assignedIndex != null && !pinned.containsValue(assignedIndex)) {
+            return assignedIndex;
+        }
+        // New device, or its stored index has since been pinned to another one
+        assigned.remove(deviceKey);
+        int index = 0;
+        while (assigned.containsValue(index) || pinned.containsValue(index)) {
+            index++;
+        }
+        assigned.put(deviceKey, index);
+        save();
+        return index;
+    }
+
+    private void save() {
+        final var config = properties.getSerial().getIdentityCache();
+        if (!config.isEnabled()) {
+            return;
+        }
+        final var file = Path.of(config.getTopicIndexesFile());
+        final var sorted = new TreeMap<String, Map<String, Integer>>();
+        assignments.forEach((eventType, indexes) -> sorted.put(eventType, new TreeMap<>(indexes)));
+        try {
+            DeviceIdentityCache.writeAtomically(objectMapper, file, sorted);
+        } catch (IOException e) {
+            log.warn("Failed to persist topic indexes {}: {}", file, e.toString());
+        }
+    }
+}
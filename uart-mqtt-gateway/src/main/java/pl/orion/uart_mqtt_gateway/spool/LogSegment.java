@@ -0,0 +1,158 @@
+package pl.orion.uart_mqtt_gateway.spool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * One memory-mapped file of a topic log: a header holding the committed read position, followed by
+ * {@code [int recordBytes][long timestampMillis][payload]} records. Files are zero-filled, so a zero
+ * record size marks the end of written data, and the size is written last so a torn append is ignored on recovery.
+ */
+final class LogSegment {
+    static final int HEADER_BYTES = 16;
+    static final int RECORD_HEADER_BYTES = Integer.BYTES + Long.BYTES;
+
+    private static final int MAGIC = 0x53504f4c;
+    private static final int READ_POSITION_OFFSET = Integer.BYTES;
+
+    private final Path path;
+    private final long sequence;
+    private final MappedByteBuffer buffer;
+    private int writePosition = HEADER_BYTES;
+    private int readPosition = HEADER_BYTES;
+    private int records;
+    private int readRecords;
+    private long lastTimestampMillis;
+    private boolean deleted;
+
+    private LogSegment(Path path, long sequence, MappedByteBuffer buffer) {
+        this.path = path;
+        this.sequence = sequence;
+        this.buffer = buffer;
+    }
+
+    static LogSegment create(Path path, long sequence, int capacity) throws IOException {
+        try (var channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final var segment = new LogSegment(path, sequence, channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity));
+            segment.buffer.putInt(0, MAGIC);
+            segment.buffer.putInt(READ_POSITION_OFFSET, HEADER_BYTES);
+            return segment;
+        }
+    }
+
+    static LogSegment open(Path path, long sequence) throws IOException {
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final var segment = new LogSegment(path, sequence, channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+            if (segment.buffer.capacity() < HEADER_BYTES || segment.buffer.getInt(0) != MAGIC) {
+                throw new IOException("Not a spool segment: " + path);
+            }
+            segment.recover();
+            return segment;
+        }
+    }
+
+    static int recordBytes(int payloadLength) {
+        return RECORD_HEADER_BYTES + payloadLength;
+    }
+
+    boolean append(ByteBuffer payload, long timestampMillis) {
+        final int length = payload.remaining();
+        final int recordBytes = recordBytes(length);
+        if (writePosition + recordBytes > buffer.capacity()) {
+            return false;
+        }
+        buffer.putLong(writePosition + Integer.BYTES, timestampMillis);
+        buffer.put(writePosition + RECORD_HEADER_BYTES, payload, payload.position(), length);
+        buffer.putInt(writePosition, recordBytes);
+        writePosition += recordBytes;
+        records++;
+        lastTimestampMillis = timestampMillis;
+        return true;
+    }
+
+    long timestamp(int position) {
+        return buffer.getLong(position + Integer.BYTES);
+    }
+
+    /**
+     * @return read-only view of the record's payload, valid after the segment is deleted as the mapping outlives the file
+     */
+    ByteBuffer payload(int position) {
+        return buffer.slice(position + RECORD_HEADER_BYTES, buffer.getInt(position) - RECORD_HEADER_BYTES).asReadOnlyBuffer();
+    }
+
+    int next(int position) {
+        return position + buffer.getInt(position);
+    }
+
+    void commit(int position, int committedRecords) {
+        readPosition = position;
+        readRecords += committedRecords;
+        buffer.putInt(READ_POSITION_OFFSET, position);
+    }
+
+    void force() {
+        buffer.force();
+    }
+
+    void delete() throws IOException {
+        deleted = true;
+        Files.deleteIfExists(path);
+    }
+
+    boolean isDeleted() {
+        return deleted;
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    int getCapacity() {
+        return buffer.capacity();
+    }
+
+    int getReadPosition() {
+        return readPosition;
+    }
+
+    int getWritePosition() {
+        return writePosition;
+    }
+
+    int getBacklogRecords() {
+        return records - readRecords;
+    }
+
+    int getBacklogBytes() {
+        return writePosition - readPosition;
+    }
+
+    long getLastTimestampMillis() {
+        return lastTimestampMillis;
+    }
+
+    private void recover() {
+        final int committed = buffer.getInt(READ_POSITION_OFFSET);
+        int position = HEADER_BYTES;
+        while (position + RECORD_HEADER_BYTES <= buffer.capacity()) {
+            final int recordBytes = buffer.getInt(position);
+            if (recordBytes < RECORD_HEADER_BYTES || position + recordBytes > buffer.capacity()) {
+                break;
+            }
+            if (position < committed) {
+                readRecords++;
+            }
+            records++;
+            lastTimestampMillis = timestamp(position);
+            position += recordBytes;
+        }
+        writePosition = position;
+        readPosition = Math.min(Math.max(committed, HEADER_BYTES), position);
+    }
+}
@@ -0,0 +1,228 @@
+package pl.orion.uart_mqtt_gateway.spool;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import lombok.extern.slf4j.Slf4j;
+import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties.Mqtt.StoreAndForward;
+import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties.UartMqttMapping.MqttMapping.Publication;
+
+/**
+ * Store-and-forward for outbound telemetry. While the broker is unreachable frames are appended to a disk-backed
+ * log per topic instead of piling up in the MQTT client's in-memory queue. After reconnecting the spooled frames are
+ * replayed in order at a capped rate. New frames of a topic with a backlog keep going through its log, so ordering
+ * holds, but are replayed right behind the backlog without counting against the cap; other topics publish directly.
+ */
+@Slf4j
+public class TelemetrySpool {
+    static final long REPLAY_TICK_MS = 100;
+
+    @FunctionalInterface
+    public interface Publisher {
+        /**
+         * @return completes exceptionally unless the broker accepted the frame
+         */
+        CompletableFuture<?> publish(String topic, ByteBuffer payload, Publication publication);
+    }
+
+    public record TopicStats(long backlogFrames, long backlogBytes, int segments, long spooled, long replayed,
+                             long expired, long dropped) {
+    }
+
+    private final StoreAndForward config;
+    private final Path directory;
+    private final Publisher publisher;
+    private final LongSupplier clock;
+    private final Publication defaultPublication;
+    private final Map<String, TopicLog> logs = new ConcurrentHashMap<>();
+    private final List<ByteBuffer> batch = new ArrayList<>();
+
+    private final ScheduledExecutorService replayer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final var thread = new Thread(runnable, "mqtt-spool-replay");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile boolean connected;
+    // Set from the first disconnect until every log is drained, frames bypass the spool otherwise
+    private volatile boolean spooling = true;
+    private CompletableFuture<Void> inFlight = CompletableFuture.completedFuture(null);
+
+    public TelemetrySpool(StoreAndForward config, Publisher publisher, LongSupplier clock, Publication defaultPublication) {
+        this.config = config;
+        this.directory = Path.of(config.getDirectory());
+        this.publisher = publisher;
+        this.clock = clock;
+        this.defaultPublication = defaultPublication;
+    }
+
+    public void start() throws IOException {
+        recover();
+        replayer.scheduleWithFixedDelay(this::replay, REPLAY_TICK_MS, REPLAY_TICK_MS, TimeUnit.MILLISECONDS);
+        log.info("Store-and-forward enabled in {}", directory);
+    }
+
+    public void stop() {
+        replayer.shutdownNow();
+        logs.values().forEach(TopicLog::close);
+    }
+
+    public void connected() {
+        synchronized (this) {
+            logs.values().forEach(TopicLog::markLive);
+            connected = true;
+        }
+    }
+
+    public void disconnected() {
+        if (connected) {
+            log.warn("MQTT broker unreachable, spooling telemetry to {}", directory);
+        }
+        synchronized (this) {
+            spooling = true;
+            connected = false;
+            logs.values().forEach(TopicLog::clearLive);
+        }
+    }
+
+    /**
+     * @return {@code true} if the frame was spooled and must not be published now
+     */
+    public boolean offer(String topic, ByteBuffer payload, Publication publication) {
+        if (!spooling) {
+            return false;
+        }
+        synchronized (this) {
+            if (!spooling) {
+                return false;
+            }
+            try {
+                if (connected && !hasBacklog(topic)) {
+                    return false;
+                }
+                final var topicLog = getOrCreateLog(topic, publication);
+                topicLog.setPublication(publication);
+                topicLog.append(payload, clock.getAsLong());
+                return true;
+            } catch (IOException e) {
+                log.error("[Topic={}] Failed to spool frame, handing it to the MQTT client: {}", topic, e.toString());
+                return false;
+            }
+        }
+    }
+
+    public Map<String, TopicStats> getStats() {
+        final var stats = new TreeMap<String, TopicStats>();
+        logs.forEach((topic, topicLog) -> stats.put(topic, topicLog.getStats()));
+        return stats;
+    }
+
+    boolean isSpooling() {
+        return spooling;
+    }
+
+    private boolean hasBacklog(String topic) {
+        final var topicLog = logs.get(topic);
+        return topicLog != null && topicLog.hasBacklog();
+    }
+
+    void replay() {
+        if (!connected || !inFlight.isDone()) {
+            return;
+        }
+        try {
+            replayBatch();
+        } catch (RuntimeException e) {
+            log.error("Failed to replay spooled telemetry: {}", e.toString());
+        }
+    }
+
+    private void replayBatch() {
+        final var backlogged = logs.values().stream().filter(TopicLog::hasBacklog).toList();
+        if (backlogged.isEmpty()) {
+            synchronized (this) {
+                if (spooling && connected && logs.values().stream().noneMatch(TopicLog::hasBacklog)) {
+                    spooling = false;
+                    log.info("Spooled telemetry replayed, publishing directly");
+                }
+            }
+            return;
+        }
+
+        final long budget = Math.max(1, config.getReplayRatePerSecond() * REPLAY_TICK_MS / 1000);
+        final int framesPerTopic = (int) Math.max(1, budget / backlogged.size());
+        final long now = clock.getAsLong();
+        final var completions = new ArrayList<CompletableFuture<?>>(backlogged.size());
+        for (TopicLog topicLog : backlogged) {
+            batch.clear();
+            topicLog.nextBatch(framesPerTopic, now, batch);
+            final var publishes = new CompletableFuture<?>[batch.size()];
+            for (int i = 0; i < publishes.length; i++) {
+                publishes[i] = publisher.publish(topicLog.getTopic(), batch.get(i), topicLog.getPublication());
+            }
+            completions.add(CompletableFuture.allOf(publishes).whenComplete((result, throwable) -> {
+                // A frame the connected broker rejected would be rejected again, only lost connections are retried
+                if (throwable == null || connected) {
+                    topicLog.commitBatch();
+                } else {
+                    log.debug("[Topic={}] Replay interrupted, retrying after reconnect: {}", topicLog.getTopic(), throwable.toString());
+                    topicLog.abortBatch();
+                }
+            }));
+        }
+        batch.clear();
+        inFlight = CompletableFuture.allOf(completions.toArray(CompletableFuture[]::new))
+            .exceptionally(throwable -> null);
+    }
+
+    /**
+     * Frames left over from before a restart are replayed with default settings until their device is back.
+     */
+    void recover() throws IOException {
+        Files.createDirectories(directory);
+        try (var topics = Files.list(directory)) {
+            for (Path topicDirectory : topics.filter(Files::isDirectory).toList()) {
+                final String topic = URLDecoder.decode(topicDirectory.getFileName().toString(), StandardCharsets.UTF_8);
+                logs.put(topic, new TopicLog(topic, topicDirectory, config, defaultPublication, this::forceInBackground));
+            }
+        }
+    }
+
+    private TopicLog getOrCreateLog(String topic, Publication publication) throws IOException {
+        final var existing = logs.get(topic);
+        if (existing != null) {
+            return existing;
+        }
+        final var created = new TopicLog(topic, directory.resolve(URLEncoder.encode(topic, StandardCharsets.UTF_8)), config,
+            publication, this::forceInBackground);
+        logs.put(topic, created);
+        return created;
+    }
+
+    /**
+     * An msync of a full segment must not stall the thread publishing telemetry.
+     */
+    private void forceInBackground(Runnable force) {
+        try {
+            replayer.execute(force);
+        } catch (RejectedExecutionException e) {
+            // Stopping, closing the logs forces the segments still kept
+        }
+    }
+}
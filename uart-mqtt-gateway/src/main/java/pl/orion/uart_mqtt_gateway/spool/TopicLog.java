@@ -0,0 +1,252 @@
+package pl.orion.uart_mqtt_gateway.spool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.regex.Pattern;
+
+import lombok.extern.slf4j.Slf4j;
+import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties.Mqtt.StoreAndForward;
+import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties.UartMqttMapping.MqttMapping.Publication;
+
+/**
+ * Append log of one outbound topic, split into fixed-size memory-mapped segments. Only the segment index lives
+ * on the heap, payloads stay in the mapped files until they are replayed. At most one replay batch is in flight,
+ * its read position is committed once the broker has acknowledged every frame of it.
+ */
+@Slf4j
+final class TopicLog {
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final Pattern SEGMENT_NAME = Pattern.compile("\\d{20}\\.seg");
+
+    private final String topic;
+    private final Path directory;
+    private final int segmentBytes;
+    private final int maxSegments;
+    private final long maxAgeMillis;
+    private final Executor forcer;
+    private final ArrayDeque<LogSegment> segments = new ArrayDeque<>();
+    private volatile Publication publication;
+    private long nextSequence;
+    // Frames from this segment and position on were appended while connected and are replayed without the rate cap
+    private long liveSequence = Long.MAX_VALUE;
+    private int livePosition;
+
+    private LogSegment batchSegment;
+    private int batchPosition;
+    private int batchRecords;
+    private int batchExpired;
+
+    private long spooled;
+    private long replayed;
+    private long expired;
+    private long dropped;
+
+    /**
+     * @param forcer flushes full segments to disk off the appending thread
+     */
+    TopicLog(String topic, Path directory, StoreAndForward config, Publication publication, Executor forcer) throws IOException {
+        this.topic = topic;
+        this.directory = directory;
+        this.segmentBytes = config.getSegmentBytes();
+        this.maxSegments = (int) Math.max(1, config.getMaxBytesPerTopic() / config.getSegmentBytes());
+        this.maxAgeMillis = config.getMaxAgeSeconds() * 1000;
+        this.forcer = forcer;
+        this.publication = publication;
+        Files.createDirectories(directory);
+        recover();
+    }
+
+    String getTopic() {
+        return topic;
+    }
+
+    Publication getPublication() {
+        return publication;
+    }
+
+    void setPublication(Publication publication) {
+        this.publication = publication;
+    }
+
+    /**
+     * A frame that can never fit into a segment is dropped, publishing it instead would overtake the backlog.
+     */
+    synchronized void append(ByteBuffer payload, long nowMillis) throws IOException {
+        if (LogSegment.recordBytes(payload.remaining()) > segmentBytes - LogSegment.HEADER_BYTES) {
+            dropped++;
+            log.warn("[Topic={}] Dropped a frame of {} bytes, larger than a spool segment of {} bytes", topic,
+                payload.remaining(), segmentBytes);
+            return;
+        }
+        var tail = segments.peekLast();
+        if (tail == null || !tail.append(payload, nowMillis)) {
+            if (tail != null) {
+                forcer.execute(tail::force);
+            }
+            dropExpiredSegments(nowMillis);
+            while (segments.size() >= maxSegments) {
+                dropHead(false);
+            }
+            tail = LogSegment.create(segmentPath(nextSequence), nextSequence++, segmentBytes);
+            segments.addLast(tail);
+            tail.append(payload, nowMillis);
+        }
+        spooled++;
+    }
+
+    /**
+     * Marks the end of the frames spooled while disconnected, the ones appended after it are live.
+     */
+    synchronized void markLive() {
+        final var tail = segments.peekLast();
+        liveSequence = tail != null ? tail.getSequence() : nextSequence;
+        livePosition = tail != null ? tail.getWritePosition() : LogSegment.HEADER_BYTES;
+    }
+
+    synchronized void clearLive() {
+        liveSequence = Long.MAX_VALUE;
+    }
+
+    synchronized boolean hasBacklog() {
+        for (LogSegment segment : segments) {
+            if (segment.getBacklogRecords() > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Collects unacknowledged frames of the oldest segment, up to {@code maxFrames} of those spooled while
+     * disconnected and all live ones behind them, skipping frames older than the retention age. A batch never spans
+     * segments.
+     */
+    synchronized int nextBatch(int maxFrames, long nowMillis, List<ByteBuffer> out) {
+        dropExpiredSegments(nowMillis);
+        LogSegment segment = segments.peekFirst();
+        while (segment != null && segment.getBacklogRecords() == 0 && segment != segments.peekLast()) {
+            dropHead(true);
+            segment = segments.peekFirst();
+        }
+        if (segment == null || segment.getBacklogRecords() == 0) {
+            return 0;
+        }
+
+        final long oldestMillis = nowMillis - maxAgeMillis;
+        int position = segment.getReadPosition();
+        int frames = 0;
+        int cappedFrames = 0;
+        batchRecords = 0;
+        batchExpired = 0;
+        while (position < segment.getWritePosition()) {
+            final boolean live = isLive(segment, position);
+            if (!live && cappedFrames >= maxFrames) {
+                break;
+            }
+            if (segment.timestamp(position) < oldestMillis) {
+                batchExpired++;
+            } else {
+                out.add(segment.payload(position));
+                frames++;
+                if (!live) {
+                    cappedFrames++;
+                }
+            }
+            position = segment.next(position);
+            batchRecords++;
+        }
+        batchSegment = segment;
+        batchPosition = position;
+        return frames;
+    }
+
+    synchronized void commitBatch() {
+        if (batchSegment != null && !batchSegment.isDeleted()) {
+            batchSegment.commit(batchPosition, batchRecords);
+            replayed += batchRecords - batchExpired;
+            expired += batchExpired;
+        }
+        batchSegment = null;
+    }
+
+    /**
+     * The next batch starts again from the last committed position, so frames may be delivered twice.
+     */
+    synchronized void abortBatch() {
+        batchSegment = null;
+    }
+
+    synchronized TelemetrySpool.TopicStats getStats() {
+        long backlogFrames = 0;
+        long backlogBytes = 0;
+        for (LogSegment segment : segments) {
+            backlogFrames += segment.getBacklogRecords();
+            backlogBytes += segment.getBacklogBytes();
+        }
+        return new TelemetrySpool.TopicStats(backlogFrames, backlogBytes, segments.size(), spooled, replayed, expired, dropped);
+    }
+
+    synchronized void close() {
+        segments.forEach(LogSegment::force);
+    }
+
+    private boolean isLive(LogSegment segment, int position) {
+        return segment.getSequence() > liveSequence || segment.getSequence() == liveSequence && position >= livePosition;
+    }
+
+    private void dropExpiredSegments(long nowMillis) {
+        while (segments.size() > 1 && segments.peekFirst().getLastTimestampMillis() < nowMillis - maxAgeMillis) {
+            expired += segments.peekFirst().getBacklogRecords();
+            dropHead(true);
+        }
+    }
+
+    private void dropHead(boolean drained) {
+        final var head = segments.pollFirst();
+        if (!drained && head.getBacklogRecords() > 0) {
+            dropped += head.getBacklogRecords();
+            log.warn("[Topic={}] Spool full, dropped {} buffered frames", topic, head.getBacklogRecords());
+        }
+        try {
+            head.delete();
+        } catch (IOException e) {
+            log.error("[Topic={}] Failed to delete spool segment: {}", topic, e.toString());
+        }
+    }
+
+    private void recover() throws IOException {
+        final var paths = new ArrayList<Path>();
+        try (var files = Files.list(directory)) {
+            files.filter(path -> SEGMENT_NAME.matcher(path.getFileName().toString()).matches()).forEach(paths::add);
+        }
+        paths.sort(Comparator.comparingLong(TopicLog::sequenceOf));
+        for (Path path : paths) {
+            try {
+                segments.addLast(LogSegment.open(path, sequenceOf(path)));
+            } catch (IOException | RuntimeException e) {
+                log.error("[Topic={}] Discarding unreadable spool segment {}: {}", topic, path, e.toString());
+                Files.deleteIfExists(path);
+            }
+        }
+        nextSequence = segments.isEmpty() ? 0 : segments.peekLast().getSequence() + 1;
+        if (!segments.isEmpty()) {
+            log.info("[Topic={}] Recovered {} spooled frames", topic, getStats().backlogFrames());
+        }
+    }
+
+    private Path segmentPath(long sequence) {
+        return directory.resolve(String.format("%020d%s", sequence, SEGMENT_SUFFIX));
+    }
+
+    private static long sequenceOf(Path path) {
+        final String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    }
+}
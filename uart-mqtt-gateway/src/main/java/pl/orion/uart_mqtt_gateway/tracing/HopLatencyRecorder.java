@@ -0,0 +1,59 @@
+package pl.orion.uart_mqtt_gateway.tracing;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.springframework.stereotype.Component;
+
+/**
+ * Records the time between consecutive hops of sampled commands into one HdrHistogram per hop pair. Called by the
+ * serial writer for every traced command, so recording looks the histogram up by both hop names instead of building
+ * a key.
+ */
+@Component
+public class HopLatencyRecorder {
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    public record HopLatency(long count, double p50Ms, double p99Ms, double p999Ms, double maxMs) {
+    }
+
+    // previous hop -> hop -> latency in microseconds
+    private final Map<String, Map<String, Histogram>> histograms = new ConcurrentHashMap<>();
+
+    /**
+     * Moves the trace to the hop and records its distance from the previous one, if there was one.
+     */
+    public TraceContext recordHop(TraceContext trace, String hop, long epochMicros) {
+        if (trace.lastHop() != null) {
+            // Clocks of different hosts may disagree, a hop can not take less than nothing
+            histograms.computeIfAbsent(trace.lastHop(), previous -> new ConcurrentHashMap<>())
+                .computeIfAbsent(hop, next -> new ConcurrentHistogram(SIGNIFICANT_DIGITS))
+                .recordValue(Math.max(0, epochMicros - trace.lastHopMicros()));
+        }
+        return trace.withHop(hop, epochMicros);
+    }
+
+    /**
+     * @return latencies keyed by {@code "previous -> hop"}
+     */
+    public Map<String, HopLatency> getHopLatencies() {
+        final var latencies = new TreeMap<String, HopLatency>();
+        histograms.forEach((previous, next) -> next.forEach((hop, histogram) -> {
+            final Histogram copy = histogram.copy();
+            latencies.put(previous + " -> " + hop, new HopLatency(
+                copy.getTotalCount(),
+                copy.getValueAtPercentile(50.0) / 1e3,
+                copy.getValueAtPercentile(99.0) / 1e3,
+                copy.getValueAtPercentile(99.9) / 1e3,
+                copy.getMaxValue() / 1e3));
+        }));
+        return latencies;
+    }
+
+    public void reset() {
+        histograms.values().forEach(next -> next.values().forEach(Histogram::reset));
+    }
+}
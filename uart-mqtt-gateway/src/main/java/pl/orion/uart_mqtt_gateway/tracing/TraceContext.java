@@ -0,0 +1,57 @@
+package pl.orion.uart_mqtt_gateway.tracing;
+
+import java.util.UUID;
+
+import com.hivemq.client.mqtt.mqtt5.datatypes.Mqtt5UserProperties;
+import com.hivemq.client.mqtt.mqtt5.datatypes.Mqtt5UserProperty;
+
+/**
+ * Where a command's trace stands when it reaches the gateway: its ID and the last hop recorded upstream. The gateway
+ * measures only from that hop on and never republishes the trace, so earlier hops are not kept. The wire format is
+ * owned by rover-controller-service, see "Command tracing" in ARCHITECTURE.md.
+ *
+ * @param lastHop {@code null} until the first hop of a trace the gateway sampled itself
+ */
+public record TraceContext(String traceId, String lastHop, long lastHopMicros) {
+    static final String TRACE_ID_PROPERTY = "orion-trace-id";
+    static final String HOP_PROPERTY = "orion-trace-hop";
+
+    /**
+     * @return the trace carried by the message, or {@code null} if it was not sampled upstream
+     */
+    public static TraceContext fromUserProperties(Mqtt5UserProperties userProperties) {
+        String traceId = null;
+        String lastHop = null;
+        long lastHopMicros = 0;
+        for (Mqtt5UserProperty property : userProperties.asList()) {
+            final String name = property.getName().toString();
+            if (TRACE_ID_PROPERTY.equals(name)) {
+                traceId = property.getValue().toString();
+            } else if (HOP_PROPERTY.equals(name)) {
+                // name@epochMicros, appended in order so the last one is the latest hop
+                final String value = property.getValue().toString();
+                final int separator = value.lastIndexOf('@');
+                if (separator > 0) {
+                    try {
+                        lastHopMicros = Long.parseLong(value, separator + 1, value.length(), 10);
+                        lastHop = value.substring(0, separator);
+                    } catch (NumberFormatException e) {
+                        // malformed hop, measure from the one before
+                    }
+                }
+            }
+        }
+        return traceId != null ? new TraceContext(traceId, lastHop, lastHopMicros) : null;
+    }
+
+    /**
+     * @return a new trace for an untraced command sampled at the gateway
+     */
+    public static TraceContext sampled() {
+        return new TraceContext(UUID.randomUUID().toString(), null, 0);
+    }
+
+    public TraceContext withHop(String hop, long epochMicros) {
+        return new TraceContext(traceId, hop, epochMicros);
+    }
+}
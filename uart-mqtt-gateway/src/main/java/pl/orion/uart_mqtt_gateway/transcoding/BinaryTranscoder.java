@@ -0,0 +1,303 @@
+package pl.orion.uart_mqtt_gateway.transcoding;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+
+import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties.UartMqttMapping.Transcoding;
+import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties.UartMqttMapping.Transcoding.Field.Type;
+
+/**
+ * Converts between the JSON frames of MQTT clients, {@code {"eventType":..,"mode":..,"payload":{..}}}, and the
+ * packed structs one mapping's firmware speaks. A binary frame is the struct ID followed by the payload fields in
+ * declaration order without padding. Field offsets are computed once, both directions stream through Jackson's
+ * parser and generator without building a tree.
+ * <p>
+ * Frames starting with {@code '{'} are JSON and pass through, so boards still identify themselves with JSON.
+ */
+public final class BinaryTranscoder {
+    public static final String MODE_FIELD = "mode";
+    public static final String PAYLOAD_FIELD = "payload";
+
+    private static final int JSON_FRAME = '{';
+    private static final SerializedString EVENT_TYPE_NAME = new SerializedString("eventType");
+    private static final SerializedString MODE_NAME = new SerializedString(MODE_FIELD);
+    private static final SerializedString PAYLOAD_NAME = new SerializedString(PAYLOAD_FIELD);
+
+    // Thread-safe and recycles its parsing buffers across parsers
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private record Slot(String name, SerializedString serializedName, Type type, int offset) {
+    }
+
+    /**
+     * @param size struct ID included
+     */
+    private record Struct(int id, SerializedString mode, Slot[] slots, Map<String, Slot> byName, int size) {
+    }
+
+    private final SerializedString eventType;
+    private final ByteOrder byteOrder;
+    private final Struct[] byId = new Struct[256];
+    private final Map<String, Struct> byMode = new HashMap<>();
+    // The single struct of a mapping that does not name modes
+    private final Struct modeless;
+    private final int maxStructBytes;
+
+    private BinaryTranscoder(String eventType, Transcoding transcoding) {
+        this.eventType = new SerializedString(eventType);
+        this.byteOrder = transcoding.getByteOrder() == Transcoding.ByteOrder.BIG_ENDIAN ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+        if (transcoding.getStructs().isEmpty()) {
+            throw new IllegalArgumentException("Transcoding of eventType " + eventType + " declares no structs");
+        }
+        Struct withoutMode = null;
+        int maxSize = 0;
+        for (Transcoding.Struct declared : transcoding.getStructs()) {
+            final var struct = compile(eventType, declared);
+            if (struct.id() == JSON_FRAME || struct.id() < 0 || struct.id() > 255) {
+                throw new IllegalArgumentException("Struct ID " + struct.id() + " of eventType " + eventType + " is outside 0-255 or is '{'");
+            }
+            if (byId[struct.id()] != null) {
+                throw new IllegalArgumentException("Duplicate struct ID " + struct.id() + " in eventType " + eventType);
+            }
+            byId[struct.id()] = struct;
+            if (declared.getMode() == null) {
+                if (transcoding.getStructs().size() > 1) {
+                    throw new IllegalArgumentException("Structs of eventType " + eventType + " need a mode to tell them apart");
+                }
+                withoutMode = struct;
+            } else if (byMode.put(declared.getMode(), struct) != null) {
+                throw new IllegalArgumentException("Duplicate struct mode " + declared.getMode() + " in eventType " + eventType);
+            }
+            maxSize = Math.max(maxSize, struct.size());
+        }
+        this.modeless = withoutMode;
+        this.maxStructBytes = maxSize;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the layout is inconsistent
+     */
+    public static BinaryTranscoder create(String eventType, Transcoding transcoding) {
+        return new BinaryTranscoder(eventType, transcoding);
+    }
+
+    private static Struct compile(String eventType, Transcoding.Struct declared) {
+        final var slots = new Slot[declared.getFields().size()];
+        final var byName = new HashMap<String, Slot>();
+        int offset = 1;
+        for (int i = 0; i < slots.length; i++) {
+            final var field = declared.getFields().get(i);
+            if (field.getName() == null || field.getType() == null) {
+                throw new IllegalArgumentException("Field " + i + " of struct " + declared.getId() + " in eventType " + eventType + " needs a name and a type");
+            }
+            slots[i] = new Slot(field.getName(), new SerializedString(field.getName()), field.getType(), offset);
+            if (byName.put(field.getName(), slots[i]) != null) {
+                throw new IllegalArgumentException("Duplicate field " + field.getName() + " in struct " + declared.getId() + " of eventType " + eventType);
+            }
+            offset += size(field.getType());
+        }
+        return new Struct(declared.getId(), declared.getMode() != null ? new SerializedString(declared.getMode()) : null,
+            slots, byName, offset);
+    }
+
+    private static int size(Type type) {
+        return switch (type) {
+            case BOOL, INT8, UINT8 -> 1;
+            case INT16, UINT16 -> 2;
+            case INT32, UINT32, FLOAT32 -> 4;
+            case INT64, FLOAT64 -> 8;
+        };
+    }
+
+    public int maxStructBytes() {
+        return maxStructBytes;
+    }
+
+    public boolean isStruct(byte[] buffer, int offset, int length) {
+        if (length < 1) {
+            return false;
+        }
+        final var struct = byId[buffer[offset] & 0xff];
+        return struct != null && struct.size() == length;
+    }
+
+    /**
+     * @return the JSON frame for a struct, or {@code frame} itself if it already is JSON
+     * @throws IOException if the frame is neither JSON nor a struct of this mapping
+     */
+    public byte[] toJson(byte[] frame) throws IOException {
+        if (frame.length > 0 && frame[0] == JSON_FRAME) {
+            return frame;
+        }
+        if (!isStruct(frame, 0, frame.length)) {
+            throw new IOException("Frame of " + frame.length + " bytes is no struct of eventType " + eventType.getValue());
+        }
+        final var struct = byId[frame[0] & 0xff];
+        final var source = ByteBuffer.wrap(frame).order(byteOrder);
+        final var out = new ByteArrayBuilder(64 + struct.size() * 8);
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(out)) {
+            generator.writeStartObject();
+            generator.writeFieldName(EVENT_TYPE_NAME);
+            generator.writeString(eventType);
+            if (struct.mode() != null) {
+                generator.writeFieldName(MODE_NAME);
+                generator.writeString(struct.mode());
+            }
+            generator.writeFieldName(PAYLOAD_NAME);
+            generator.writeStartObject();
+            for (Slot slot : struct.slots()) {
+                generator.writeFieldName(slot.serializedName());
+                writeValue(generator, source, slot);
+            }
+            generator.writeEndObject();
+            generator.writeEndObject();
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeValue(JsonGenerator generator, ByteBuffer source, Slot slot) throws IOException {
+        final int at = slot.offset();
+        switch (slot.type()) {
+            case BOOL -> generator.writeBoolean(source.get(at) != 0);
+            case INT8 -> generator.writeNumber(source.get(at));
+            case UINT8 -> generator.writeNumber(source.get(at) & 0xff);
+            case INT16 -> generator.writeNumber(source.getShort(at));
+            case UINT16 -> generator.writeNumber(source.getShort(at) & 0xffff);
+            case INT32 -> generator.writeNumber(source.getInt(at));
+            case UINT32 -> generator.writeNumber(source.getInt(at) & 0xffffffffL);
+            case INT64 -> generator.writeNumber(source.getLong(at));
+            case FLOAT32 -> generator.writeNumber(source.getFloat(at));
+            case FLOAT64 -> generator.writeNumber(source.getDouble(at));
+        }
+    }
+
+    /**
+     * Packs a JSON frame into {@code out}, which must have {@link #maxStructBytes()} room from {@code outOffset}.
+     * Payload members without a field are ignored, fields the payload leaves out are zero.
+     *
+     * @return length of the struct, {@code -1} if no struct matches the frame's mode and it should go out as JSON
+     * @throws IOException if the JSON is malformed or a value does not fit its field
+     */
+    public int toBinary(ByteBuffer json, byte[] out, int outOffset) throws IOException {
+        final byte[] array;
+        final int offset;
+        final int length = json.remaining();
+        if (json.hasArray()) {
+            array = json.array();
+            offset = json.arrayOffset() + json.position();
+        } else {
+            array = new byte[length];
+            json.get(json.position(), array);
+            offset = 0;
+        }
+        // Members may come in any order, so a first pass finds the mode before the payload is packed
+        final var struct = selectStruct(array, offset, length);
+        if (struct == null) {
+            return -1;
+        }
+        Arrays.fill(out, outOffset, outOffset + struct.size(), (byte) 0);
+        out[outOffset] = (byte) struct.id();
+        final var target = ByteBuffer.wrap(out).order(byteOrder);
+        try (JsonParser parser = JSON_FACTORY.createParser(array, offset, length)) {
+            parser.nextToken();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final boolean payload = PAYLOAD_FIELD.equals(parser.currentName());
+                if (parser.nextToken() == JsonToken.START_OBJECT && payload) {
+                    packPayload(parser, struct, target, outOffset);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return struct.size();
+    }
+
+    private Struct selectStruct(byte[] array, int offset, int length) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(array, offset, length)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String fieldName = parser.currentName();
+                final JsonToken value = parser.nextToken();
+                if (MODE_FIELD.equals(fieldName)) {
+                    return value == JsonToken.VALUE_STRING ? byMode.get(parser.getText()) : null;
+                }
+                parser.skipChildren();
+            }
+            return modeless;
+        }
+    }
+
+    private static void packPayload(JsonParser parser, Struct struct, ByteBuffer target, int outOffset) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final var slot = struct.byName().get(parser.currentName());
+            final JsonToken value = parser.nextToken();
+            if (slot == null) {
+                parser.skipChildren();
+                continue;
+            }
+            final int at = outOffset + slot.offset();
+            switch (slot.type()) {
+                case BOOL -> {
+                    if (value != JsonToken.VALUE_TRUE && value != JsonToken.VALUE_FALSE) {
+                        throw mismatch(slot, value);
+                    }
+                    target.put(at, (byte) (value == JsonToken.VALUE_TRUE ? 1 : 0));
+                }
+                case FLOAT32, FLOAT64 -> {
+                    if (!value.isNumeric()) {
+                        throw mismatch(slot, value);
+                    }
+                    if (slot.type() == Type.FLOAT32) {
+                        target.putFloat(at, parser.getFloatValue());
+                    } else {
+                        target.putDouble(at, parser.getDoubleValue());
+                    }
+                }
+                default -> {
+                    if (value != JsonToken.VALUE_NUMBER_INT) {
+                        throw mismatch(slot, value);
+                    }
+                    packInteger(slot, parser.getLongValue(), target, at);
+                }
+            }
+        }
+    }
+
+    private static void packInteger(Slot slot, long value, ByteBuffer target, int at) throws IOException {
+        final boolean fits = switch (slot.type()) {
+            case INT8 -> value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE;
+            case UINT8 -> value >= 0 && value <= 0xff;
+            case INT16 -> value >= Short.MIN_VALUE && value <= Short.MAX_VALUE;
+            case UINT16 -> value >= 0 && value <= 0xffff;
+            case INT32 -> value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE;
+            case UINT32 -> value >= 0 && value <= 0xffffffffL;
+            default -> true;
+        };
+        if (!fits) {
+            throw new IOException("Value " + value + " of field " + slot.name() + " does not fit " + slot.type());
+        }
+        switch (slot.type()) {
+            case INT8, UINT8 -> target.put(at, (byte) value);
+            case INT16, UINT16 -> target.putShort(at, (short) value);
+            case INT32, UINT32 -> target.putInt(at, (int) value);
+            default -> target.putLong(at, value);
+        }
+    }
+
+    private static IOException mismatch(Slot slot, JsonToken value) {
+        return new IOException("Field " + slot.name() + " expects " + slot.type() + ", got " + value);
+    }
+}
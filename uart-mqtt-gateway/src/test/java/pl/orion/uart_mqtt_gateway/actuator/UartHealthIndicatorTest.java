@@ -0,0 +1,139 @@
+package pl.orion.uart_mqtt_gateway.actuator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.MockedStatic;
+import org.springframework.boot.actuate.health.Status;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties;
+import pl.orion.uart_mqtt_gateway.service.MqttService;
+import pl.orion.uart_mqtt_gateway.service.TimeService;
+
+class UartHealthIndicatorTest {
+    private static final String ERROR_TOPIC = "orion/topic/error";
+    private static final String PORT = "/dev/ttyUSB0";
+    private static final String OTHER_PORT = "/dev/ttyUSB1";
+
+    private final UartMqttGatewayProperties properties = new UartMqttGatewayProperties();
+    private final MqttService mqttService = mock(MqttService.class);
+    private UartHealthIndicator healthIndicator;
+
+    @BeforeEach
+    void setUp() {
+        properties.setErrorTopic(ERROR_TOPIC);
+        healthIndicator = new UartHealthIndicator(properties, mqttService, new ObjectMapper());
+    }
+
+    @Test
+    void staysUpUntilFailureThresholdIsExceeded() {
+        failIdentification(PORT, properties.getHealth().getFailureThreshold());
+
+        assertEquals(Status.UP, healthIndicator.health().getStatus());
+        verify(mqttService, never()).publish(eq(ERROR_TOPIC), anyString());
+    }
+
+    @Test
+    void pollingDownHealthPublishesErrorOnlyOnStateChange() {
+        failIdentification(PORT, properties.getHealth().getFailureThreshold() + 3);
+
+        final var health = healthIndicator.health();
+        for (int i = 0; i < 10; i++) {
+            assertSame(health, healthIndicator.health());
+        }
+        assertEquals(Status.DOWN, health.getStatus());
+        assertEquals("{port=/dev/ttyUSB0, failures=8}", health.getDetails().get("failedDevices"));
+        verify(mqttService, times(1)).publish(eq(ERROR_TOPIC), anyString());
+
+        failIdentification(OTHER_PORT, properties.getHealth().getFailureThreshold() + 1);
+        verify(mqttService, times(2)).publish(eq(ERROR_TOPIC), anyString());
+    }
+
+    @Test
+    void identifiedDeviceRestoresHealth() {
+        failIdentification(PORT, properties.getHealth().getFailureThreshold() + 1);
+
+        healthIndicator.clearUartDetectionFailure(PORT);
+
+        assertEquals(Status.UP, healthIndicator.health().getStatus());
+        verify(mqttService, times(1)).publish(eq(ERROR_TOPIC), anyString());
+    }
+
+    @Test
+    void reminderRepublishesWhileDown() {
+        properties.getHealth().setErrorReminderIntervalMs(0);
+        healthIndicator.remindOfFailedDevices();
+        verify(mqttService, never()).publish(eq(ERROR_TOPIC), anyString());
+
+        failIdentification(PORT, properties.getHealth().getFailureThreshold() + 1);
+        healthIndicator.remindOfFailedDevices();
+
+        verify(mqttService, times(2)).publish(eq(ERROR_TOPIC), anyString());
+    }
+
+    @Test
+    void reminderIsDueOneIntervalAfterTheLastReport() {
+        properties.getHealth().setErrorReminderIntervalMs(60_000);
+        final var now = new AtomicLong(1_000_000);
+        try (MockedStatic<TimeService> time = mockStatic(TimeService.class)) {
+            time.when(TimeService::getCurrentTimeMillis).then(invocation -> now.get());
+            failIdentification(PORT, properties.getHealth().getFailureThreshold() + 1);
+
+            now.addAndGet(59_999);
+            healthIndicator.remindOfFailedDevices();
+            verify(mqttService, times(1)).publish(eq(ERROR_TOPIC), anyString());
+
+            now.addAndGet(1);
+            healthIndicator.remindOfFailedDevices();
+            healthIndicator.remindOfFailedDevices();
+            verify(mqttService, times(2)).publish(eq(ERROR_TOPIC), anyString());
+        }
+    }
+
+    @Test
+    void slowPublishDoesNotBlockHealthUpdates() throws InterruptedException {
+        final var publishing = new CountDownLatch(1);
+        final var brokerResponds = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            publishing.countDown();
+            brokerResponds.await(5, TimeUnit.SECONDS);
+            return null;
+        }).when(mqttService).publish(eq(ERROR_TOPIC), anyString());
+        final var failing = Thread.ofPlatform()
+            .start(() -> failIdentification(PORT, properties.getHealth().getFailureThreshold() + 1));
+        assertTrue(publishing.await(1, TimeUnit.SECONDS));
+
+        assertTimeoutPreemptively(Duration.ofSeconds(1), () -> healthIndicator.clearUartDetectionFailure(PORT));
+        assertEquals(Status.UP, healthIndicator.health().getStatus());
+
+        brokerResponds.countDown();
+        failing.join();
+        verify(mqttService, timeout(1000).times(1)).publish(eq(ERROR_TOPIC), anyString());
+    }
+
+    private void failIdentification(String port, int times) {
+        for (int i = 0; i < times; i++) {
+            healthIndicator.registerUartDetectionFailure(port);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package pl.orion.uart_mqtt_gateway.capture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties;
+
+class UartCaptureTest {
+    private static final long START_MILLIS = Instant.parse("2026-05-14T09:30:00Z").toEpochMilli();
+
+    @TempDir
+    private Path directory;
+
+    private final AtomicLong nanos = new AtomicLong(123_456_789L);
+
+    @Test
+    void recordsDecodeWithPortDirectionAndTime() throws IOException {
+        final var capture = start(config(4096, 60));
+        capture.received("/dev/ttyUSB0", bytes("xx{\"eventType\":\"chassis\"}\n\n"), 2, 25);
+        nanos.addAndGet(1500);
+        capture.written("/dev/ttyACM0", bytes("{\"command\":1}\n\n"), 0, 15);
+        capture.stop();
+
+        final var records = decode();
+
+        assertEquals(List.of(
+            "2026-05-14T09:30:00Z /dev/ttyUSB0 RX {\"eventType\":\"chassis\"}\n\n",
+            "2026-05-14T09:30:00.000001500Z /dev/ttyACM0 TX {\"command\":1}\n\n"), records);
+    }
+
+    @Test
+    void segmentsRotateBySizeAndAgeAndOldestAreDeleted() throws IOException {
+        final var config = config(256, 10);
+        config.setMaxBytes(3 * 256);
+        final var capture = start(config);
+        final byte[] frame = new byte[50];
+        for (int i = 0; i < 6; i++) {
+            // two frames per segment
+            capture.received("/dev/ttyUSB0", frame, 0, frame.length);
+        }
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        capture.received("/dev/ttyUSB0", frame, 0, frame.length);
+        capture.stop();
+
+        assertEquals(List.of("00000000000000000001.ucap", "00000000000000000002.ucap", "00000000000000000003.ucap"),
+            UartCapture.segmentsIn(directory).stream().map(path -> path.getFileName().toString()).toList());
+        // every segment declares its ports again
+        assertEquals(5, decode().size());
+    }
+
+    @Test
+    void retiredSegmentsAreUnmapped() throws IOException {
+        final Path maps = Path.of("/proc/self/maps");
+        assumeTrue(Files.isReadable(maps));
+        final var capture = start(config(256, 60));
+        final byte[] frame = new byte[100];
+        for (int i = 0; i < 4; i++) {
+            capture.received("/dev/ttyUSB0", frame, 0, frame.length);
+        }
+
+        final String mapped = Files.readString(maps);
+        assertFalse(mapped.contains(directory.resolve("00000000000000000000.ucap").toString()));
+        assertTrue(mapped.contains(directory.resolve("00000000000000000003.ucap").toString()));
+        capture.stop();
+        assertFalse(Files.readString(maps).contains(directory.toString()));
+    }
+
+    @Test
+    void recordLargerThanASegmentIsSkipped() throws IOException {
+        final var capture = start(config(256, 60));
+        capture.received("/dev/ttyUSB0", new byte[512], 0, 512);
+        capture.received("/dev/ttyUSB0", bytes("ok"), 0, 2);
+        capture.stop();
+
+        assertEquals(List.of("2026-05-14T09:30:00Z /dev/ttyUSB0 RX ok"), decode());
+    }
+
+    @Test
+    void restartContinuesTheSequence() throws IOException {
+        start(config(4096, 60)).received("/dev/ttyUSB0", bytes("a"), 0, 1);
+        start(config(4096, 60)).received("/dev/ttyUSB0", bytes("b"), 0, 1);
+
+        assertEquals(List.of("00000000000000000000.ucap", "00000000000000000001.ucap"),
+            UartCapture.segmentsIn(directory).stream().map(path -> path.getFileName().toString()).toList());
+        assertEquals(2, decode().size());
+    }
+
+    private UartCapture start(UartMqttGatewayProperties.Serial.Capture config) throws IOException {
+        final var capture = new UartCapture(config, nanos::get, () -> START_MILLIS);
+        capture.start();
+        return capture;
+    }
+
+    private UartMqttGatewayProperties.Serial.Capture config(int segmentBytes, long maxAgeSeconds) {
+        final var config = new UartMqttGatewayProperties.Serial.Capture();
+        config.setEnabled(true);
+        config.setDirectory(directory.toString());
+        config.setSegmentBytes(segmentBytes);
+        config.setMaxAgeSeconds(maxAgeSeconds);
+        return config;
+    }
+
+    private List<String> decode() throws IOException {
+        final var records = new ArrayList<String>();
+        for (Path segment : UartCapture.segmentsIn(directory)) {
+            CaptureReader.read(segment, record -> records.add(record.time() + " " + record.port() + " "
+                + record.direction() + " " + StandardCharsets.UTF_8.decode(record.payload())));
+        }
+        return records;
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
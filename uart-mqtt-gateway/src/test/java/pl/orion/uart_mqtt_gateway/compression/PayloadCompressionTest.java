@@ -0,0 +1,74 @@
+package pl.orion.uart_mqtt_gateway.compression;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+
+import org.junit.jupiter.api.Test;
+
+class PayloadCompressionTest {
+
+    private static final List<byte[]> SAMPLES = IntStream.range(0, 200).mapToObj(PayloadCompressionTest::frame).toList();
+
+    @Test
+    void deflateRoundTrips() throws DataFormatException {
+        final byte[] frame = frame(1000);
+
+        final byte[] compressed = new DeflateCompressor(Deflater.DEFAULT_COMPRESSION, null).compress(ByteBuffer.wrap(frame));
+
+        assertArrayEquals(frame, new PayloadDecoder().decode(DeflateCompressor.ENCODING, compressed));
+    }
+
+    @Test
+    void trainedDictionaryShrinksSmallFrames() throws DataFormatException {
+        final byte[] dictionary = DictionaryTrainer.train(SAMPLES, DictionaryTrainer.MAX_DICTIONARY_BYTES);
+        final byte[] frame = frame(1000);
+
+        final byte[] plain = new DeflateCompressor(Deflater.DEFAULT_COMPRESSION, null).compress(ByteBuffer.wrap(frame));
+        final byte[] withDictionary = new DeflateCompressor(Deflater.DEFAULT_COMPRESSION, dictionary).compress(ByteBuffer.wrap(frame));
+
+        assertTrue(dictionary.length > 0 && dictionary.length <= DictionaryTrainer.MAX_DICTIONARY_BYTES);
+        assertTrue(withDictionary.length < plain.length * 0.7,
+            "plain=" + plain.length + "B, with dictionary=" + withDictionary.length + "B");
+        assertArrayEquals(frame, new PayloadDecoder(List.of(dictionary), 1 << 20).decode(DeflateCompressor.ENCODING, withDictionary));
+    }
+
+    @Test
+    void unknownDictionaryIsRejected() {
+        final byte[] dictionary = DictionaryTrainer.train(SAMPLES, 1024);
+        final byte[] compressed = new DeflateCompressor(Deflater.DEFAULT_COMPRESSION, dictionary).compress(ByteBuffer.wrap(frame(1)));
+
+        assertThrows(DataFormatException.class, () -> new PayloadDecoder().decode(DeflateCompressor.ENCODING, compressed));
+    }
+
+    @Test
+    void lz4RoundTrips() throws DataFormatException {
+        final byte[] frame = frame(1000);
+
+        final byte[] compressed = new Lz4Compressor(0).compress(ByteBuffer.wrap(frame).asReadOnlyBuffer());
+
+        assertTrue(compressed.length < frame.length);
+        assertArrayEquals(frame, new PayloadDecoder().decode(Lz4Compressor.ENCODING, compressed));
+    }
+
+    @Test
+    void uncompressedPayloadPassesThrough() throws DataFormatException {
+        final byte[] frame = frame(1);
+
+        assertArrayEquals(frame, new PayloadDecoder().decode(null, frame));
+    }
+
+    private static byte[] frame(int sequence) {
+        return ("{\"eventType\":\"science\",\"seq\":" + sequence
+            + ",\"soil\":{\"moisture\":" + (sequence % 37) + ".5,\"temperature\":" + (sequence % 23) + ".25,\"ph\":6." + (sequence % 9) + "}"
+            + ",\"spectrometer\":{\"channel\":" + (sequence % 8) + ",\"intensity\":" + (sequence * 7 % 1000) + "}}")
+            .getBytes(StandardCharsets.UTF_8);
+    }
+}
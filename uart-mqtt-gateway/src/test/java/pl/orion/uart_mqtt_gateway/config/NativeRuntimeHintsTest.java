@@ -0,0 +1,63 @@
+package pl.orion.uart_mqtt_gateway.config;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.predicate.RuntimeHintsPredicates;
+
+import com.fazecast.jSerialComm.SerialPort;
+
+import net.jpountz.lz4.LZ4Factory;
+import pl.orion.uart_mqtt_gateway.model.ErrorPayload;
+import pl.orion.uart_mqtt_gateway.service.DeviceIdentityCache;
+
+class NativeRuntimeHintsTest {
+
+    private final RuntimeHints hints = new RuntimeHints();
+
+    NativeRuntimeHintsTest() {
+        new NativeRuntimeHints().registerHints(hints, getClass().getClassLoader());
+    }
+
+    @Test
+    void jSerialCommLibraryAndJniAccessAreRegistered() {
+        assertTrue(RuntimeHintsPredicates.resource().forResource("Linux/x86_64/libjSerialComm.so").test(hints));
+        assertTrue(RuntimeHintsPredicates.resource().forResource("Linux/armv8_64/libjSerialComm.so").test(hints));
+        assertNotNull(hints.jni().getTypeHint(SerialPort.class));
+    }
+
+    @Test
+    void payloadsSerializedByJacksonCanBeWrittenAndRead() throws NoSuchMethodException {
+        assertTrue(RuntimeHintsPredicates.reflection().onMethod(ErrorPayload.class.getMethod("message")).invoke().test(hints));
+        assertTrue(RuntimeHintsPredicates.reflection().onMethod(DeviceIdentityCache.Entry.class.getMethod("eventType"))
+            .invoke().test(hints));
+        assertTrue(RuntimeHintsPredicates.reflection().onConstructor(DeviceIdentityCache.Entry.class
+            .getDeclaredConstructor(String.class, long.class)).invoke().test(hints));
+    }
+
+    @Test
+    void importedConfigurationIsRegistered() {
+        assertTrue(RuntimeHintsPredicates.resource().forResource("uart-mqtt-gateway.yml").test(hints));
+    }
+
+    @Test
+    void lz4ImplementationsTheFactoryLoadsByNameAreRegistered() throws NoSuchMethodException {
+        for (LZ4Factory factory : List.of(LZ4Factory.unsafeInstance(), LZ4Factory.safeInstance())) {
+            final List<Class<?>> implementations = List.of(factory.fastCompressor().getClass(),
+                factory.highCompressor().getClass(), factory.fastDecompressor().getClass(),
+                factory.safeDecompressor().getClass());
+            for (Class<?> implementation : implementations) {
+                assertTrue(RuntimeHintsPredicates.reflection().onField(implementation, "INSTANCE").test(hints),
+                    implementation.getName());
+            }
+            // Lz4Compressor asks for HC levels other than the default
+            final Class<?> high = factory.highCompressor(4).getClass();
+            assertTrue(RuntimeHintsPredicates.reflection().onConstructor(high.getDeclaredConstructor(int.class))
+                .invoke().test(hints), high.getName());
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package pl.orion.uart_mqtt_gateway.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.context.annotation.Configuration;
+
+class UartMqttGatewayPropertiesTest {
+    private static final String MAPPING = "uart-mqtt-gateway.uart-mqtt-mapping[0].";
+
+    private final ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+        .withUserConfiguration(PropertiesConfiguration.class)
+        .withPropertyValues(
+            MAPPING + "event-type=chassis",
+            MAPPING + "mqtt.inbound=orion/topic/chassis/inbound",
+            MAPPING + "mqtt.outbound=orion/topic/chassis/outbound");
+
+    @Test
+    void validMappingBinds() {
+        contextRunner
+            .withPropertyValues(MAPPING + "mqtt.inbound-subscription.qos=2", MAPPING + "mqtt.outbound-publication.qos=0")
+            .run(context -> assertThat(context).hasNotFailed());
+    }
+
+    @Test
+    void invalidInboundQosFailsStartup() {
+        contextRunner
+            .withPropertyValues(MAPPING + "mqtt.inbound-subscription.qos=3")
+            .run(context -> assertThat(context).getFailure().hasStackTraceContaining("inboundSubscription.qos"));
+    }
+
+    @Test
+    void invalidOutboundQosFailsStartup() {
+        contextRunner
+            .withPropertyValues(MAPPING + "mqtt.outbound-publication.qos=-1")
+            .run(context -> assertThat(context).getFailure().hasStackTraceContaining("outboundPublication.qos"));
+    }
+
+    @Test
+    void negativeCommandMaxAgeFailsStartup() {
+        contextRunner
+            .withPropertyValues(MAPPING + "mqtt.inbound-subscription.max-age-ms=-1")
+            .run(context -> assertThat(context).getFailure().hasStackTraceContaining("inboundSubscription.maxAgeMs"));
+    }
+
+    @Test
+    void zeroDecimationFailsStartup() {
+        contextRunner
+            .withPropertyValues(MAPPING + "outbound-policy.mode=decimate", MAPPING + "outbound-policy.decimation=0")
+            .run(context -> assertThat(context).getFailure().hasStackTraceContaining("outboundPolicy.decimation"));
+    }
+
+    @Test
+    void zeroMaxRateFailsStartup() {
+        contextRunner
+            .withPropertyValues(MAPPING + "outbound-policy.mode=max-rate", MAPPING + "outbound-policy.max-rate-per-second=0")
+            .run(context -> assertThat(context).getFailure().hasStackTraceContaining("outboundPolicy.maxRatePerSecond"));
+    }
+
+    @Test
+    void zeroLatestIntervalFailsStartup() {
+        contextRunner
+            .withPropertyValues(MAPPING + "outbound-policy.mode=latest", MAPPING + "outbound-policy.interval-ms=0")
+            .run(context -> assertThat(context).getFailure().hasStackTraceContaining("outboundPolicy.intervalMs"));
+    }
+
+    @Test
+    void traceSampleRateAboveOneFailsStartup() {
+        contextRunner
+            .withPropertyValues("uart-mqtt-gateway.mqtt.tracing.sample-rate=1.5")
+            .run(context -> assertThat(context).getFailure().hasStackTraceContaining("mqtt.tracingSampleRate"));
+    }
+
+    @Configuration(proxyBeanMethods = false)
+    @EnableConfigurationProperties(UartMqttGatewayProperties.class)
+    static class PropertiesConfiguration {
+    }
+}
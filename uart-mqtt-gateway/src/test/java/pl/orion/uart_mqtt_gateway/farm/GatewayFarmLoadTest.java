@@ -0,0 +1,286 @@
+package pl.orion.uart_mqtt_gateway.farm;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.testcontainers.hivemq.HiveMQContainer;
+import org.testcontainers.utility.DockerImageName;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hivemq.client.mqtt.MqttClient;
+import com.hivemq.client.mqtt.datatypes.MqttQos;
+import com.hivemq.client.mqtt.mqtt5.Mqtt5AsyncClient;
+import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5Publish;
+
+import lombok.extern.slf4j.Slf4j;
+import pl.orion.uart_mqtt_gateway.service.DeviceConnState;
+import pl.orion.uart_mqtt_gateway.service.DeviceManagerService;
+
+/**
+ * Scales a farm of PTY-backed virtual boards against a running gateway and reports where it saturates.
+ * Requires {@code socat} and either Docker or an external broker ({@code -Dfarm.broker.url}, {@code farm.broker.port}).
+ * Run with {@code ./gradlew farmTest -Dfarm.devices=1,2,4,8,16,32,64 -Dfarm.hz=100 -Dfarm.window-seconds=10}
+ * and compare reader modes with {@code -Dfarm.reader-mode=listener|thread}, or serial backends with
+ * {@code -Dfarm.backend=jserialcomm|linux-epoll}.
+ */
+@Slf4j
+@Tag("farm")
+@SpringBootTest
+class GatewayFarmLoadTest {
+    private static final String EVENT_TYPE = "farm";
+    private static final String INBOUND_TOPIC = "orion/topic/farm/inbound";
+    private static final String OUTBOUND_TOPIC = "orion/topic/farm/outbound";
+    private static final int COMMAND_HZ = 10;
+
+    private static final List<Integer> DEVICE_STEPS = Arrays.stream(System.getProperty("farm.devices", "1,2,4,8,16,32,64").split(","))
+        .map(String::trim)
+        .map(Integer::parseInt)
+        .toList();
+    private static final int TELEMETRY_HZ = Integer.getInteger("farm.hz", 100);
+    private static final int WINDOW_SECONDS = Integer.getInteger("farm.window-seconds", 10);
+    private static final String READER_MODE = System.getProperty("farm.reader-mode", "listener");
+    private static final String BACKEND = System.getProperty("farm.backend", "jserialcomm");
+    // The reader mode only applies to jSerialComm
+    private static final String SERIAL_PATH = "jserialcomm".equals(BACKEND) ? READER_MODE : BACKEND;
+
+    private static HiveMQContainer broker;
+    private static Path farmDirectory;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(4);
+    private final List<VirtualBoard> boards = new ArrayList<>();
+    private final AtomicLong telemetryReceived = new AtomicLong();
+    private final AtomicLong echoesReceived = new AtomicLong();
+    private final Histogram telemetryLatencyMicros = new ConcurrentHistogram(3);
+    private final Histogram commandRoundTripMicros = new ConcurrentHistogram(3);
+
+    @Autowired
+    private DeviceManagerService deviceManagerService;
+
+    public record StepResult(int devices, double sentPerSecond, double receivedPerSecond, double dropRate,
+                             double p50Ms, double p99Ms, double maxMs, double jitterMs, double cpuPercent,
+                             double cpuMicrosPerFrame, long commandsSent, long echoes, double commandP99Ms) {
+    }
+
+    @BeforeAll
+    static void requireSocat() {
+        // Runs before the application context, so a missing tool skips the harness instead of failing it
+        assumeTrue(isSocatAvailable(), "socat is required to create virtual serial ports");
+    }
+
+    @DynamicPropertySource
+    static void farmProperties(DynamicPropertyRegistry registry) throws IOException {
+        farmDirectory = Files.createTempDirectory("uart-farm");
+
+        final String externalBroker = System.getProperty("farm.broker.url");
+        if (externalBroker != null) {
+            registry.add("uart-mqtt-gateway.mqtt.broker.url", () -> externalBroker);
+            registry.add("uart-mqtt-gateway.mqtt.broker.port", () -> Integer.getInteger("farm.broker.port", 1883));
+        } else {
+            broker = new HiveMQContainer(DockerImageName.parse("hivemq/hivemq-ce:2024.3"));
+            broker.start();
+            registry.add("uart-mqtt-gateway.mqtt.broker.url", broker::getHost);
+            registry.add("uart-mqtt-gateway.mqtt.broker.port", broker::getMqttPort);
+        }
+        registry.add("uart-mqtt-gateway.mqtt.broker.username", () -> "farm");
+        registry.add("uart-mqtt-gateway.mqtt.broker.password", () -> "farm");
+        registry.add("uart-mqtt-gateway.serial.reader.mode", () -> READER_MODE);
+        registry.add("uart-mqtt-gateway.serial.backend", () -> BACKEND);
+        registry.add("uart-mqtt-gateway.serial.hotplug.enabled", () -> true);
+        registry.add("uart-mqtt-gateway.serial.hotplug.directory", farmDirectory::toString);
+        registry.add("uart-mqtt-gateway.serial.allowed-port-name-prefixes[0]", () -> farmDirectory.resolve("ttyFARM").toString());
+        registry.add("uart-mqtt-gateway.uart-mqtt-mapping[0].label", () -> "virtual-board");
+        registry.add("uart-mqtt-gateway.uart-mqtt-mapping[0].event-type", () -> EVENT_TYPE);
+        registry.add("uart-mqtt-gateway.uart-mqtt-mapping[0].mqtt.inbound", () -> INBOUND_TOPIC);
+        registry.add("uart-mqtt-gateway.uart-mqtt-mapping[0].mqtt.outbound", () -> OUTBOUND_TOPIC);
+    }
+
+    @AfterAll
+    static void stopBroker() {
+        if (broker != null) {
+            broker.stop();
+        }
+    }
+
+    @Test
+    void reportsThroughputDropRateAndLatencyAsFarmScales() throws Exception {
+        final Mqtt5AsyncClient client = observer();
+        final List<StepResult> results = new ArrayList<>();
+        try {
+            for (int devices : DEVICE_STEPS) {
+                results.add(runStep(client, devices));
+            }
+        } finally {
+            boards.forEach(VirtualBoard::close);
+            scheduler.shutdownNow();
+            client.disconnect();
+        }
+
+        log.info("Virtual board farm, {} serial path, {} Hz telemetry per board, {} s windows", SERIAL_PATH, TELEMETRY_HZ, WINDOW_SECONDS);
+        log.info(String.format("%7s %10s %10s %8s %8s %8s %8s %9s %6s %9s %9s %7s %9s",
+            "devices", "sent/s", "recv/s", "drop%", "p50 ms", "p99 ms", "max ms", "jitter ms", "cpu%", "cpu us/fr", "commands", "echoes", "cmd p99"));
+        for (StepResult result : results) {
+            log.info(String.format("%7d %10.1f %10.1f %8.2f %8.2f %8.2f %8.2f %9.2f %6.1f %9.1f %9d %7d %9.2f",
+                result.devices(), result.sentPerSecond(), result.receivedPerSecond(), result.dropRate() * 100,
+                result.p50Ms(), result.p99Ms(), result.maxMs(), result.jitterMs(), result.cpuPercent(),
+                result.cpuMicrosPerFrame(), result.commandsSent(), result.echoes(), result.commandP99Ms()));
+        }
+        writeCsv(results);
+        assertTrue(results.stream().allMatch(result -> result.receivedPerSecond() > 0), "Gateway forwarded no telemetry");
+    }
+
+    private StepResult runStep(Mqtt5AsyncClient client, int devices) throws Exception {
+        while (boards.size() < devices) {
+            final var board = new VirtualBoard(boards.size(), EVENT_TYPE, farmDirectory);
+            board.start(scheduler, TELEMETRY_HZ);
+            boards.add(board);
+        }
+        awaitConnectedDevices(devices);
+
+        // Warm-up traffic from identification and earlier steps must not leak into the window
+        TimeUnit.SECONDS.sleep(1);
+        final long sentBefore = boards.stream().mapToLong(VirtualBoard::getFramesSent).sum();
+        telemetryReceived.set(0);
+        echoesReceived.set(0);
+        telemetryLatencyMicros.reset();
+        commandRoundTripMicros.reset();
+        final var os = (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+        final long cpuBefore = os.getProcessCpuTime();
+
+        final long periodMs = TimeUnit.SECONDS.toMillis(1) / COMMAND_HZ;
+        final var commands = scheduler.scheduleAtFixedRate(() -> publishCommand(client), 0, periodMs, TimeUnit.MILLISECONDS);
+        TimeUnit.SECONDS.sleep(WINDOW_SECONDS);
+        commands.cancel(false);
+        // Includes the virtual boards and observer running in this JVM, which cost the same on every serial path
+        final long cpuNanos = os.getProcessCpuTime() - cpuBefore;
+        final double cpuPercent = cpuNanos / (WINDOW_SECONDS * 1e9) * 100;
+
+        final long sent = boards.stream().mapToLong(VirtualBoard::getFramesSent).sum() - sentBefore;
+        final long received = telemetryReceived.get();
+        final Histogram latency = telemetryLatencyMicros.copy();
+        return new StepResult(
+            devices,
+            (double) sent / WINDOW_SECONDS,
+            (double) received / WINDOW_SECONDS,
+            sent == 0 ? 0.0 : Math.max(0.0, 1.0 - (double) received / sent),
+            latency.getValueAtPercentile(50.0) / 1e3,
+            latency.getValueAtPercentile(99.0) / 1e3,
+            latency.getMaxValue() / 1e3,
+            latency.getStdDeviation() / 1e3,
+            cpuPercent,
+            received == 0 ? 0.0 : cpuNanos / 1e3 / received,
+            (long) WINDOW_SECONDS * COMMAND_HZ,
+            echoesReceived.get(),
+            commandRoundTripMicros.copy().getValueAtPercentile(99.0) / 1e3);
+    }
+
+    private void awaitConnectedDevices(int devices) throws InterruptedException {
+        for (int i = 0; i < 300; i++) {
+            final long connected = deviceManagerService.getManagedDevices().values().stream()
+                .filter(device -> device.getState() == DeviceConnState.CONNECTED)
+                .count();
+            if (connected >= devices) {
+                return;
+            }
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+        throw new IllegalStateException("Gateway did not identify " + devices + " virtual boards");
+    }
+
+    private Mqtt5AsyncClient observer() {
+        final var client = MqttClient.builder()
+            .useMqttVersion5()
+            .identifier("farm-observer-" + UUID.randomUUID())
+            .serverHost(broker != null ? broker.getHost() : System.getProperty("farm.broker.url"))
+            .serverPort(broker != null ? broker.getMqttPort() : Integer.getInteger("farm.broker.port", 1883))
+            .buildAsync();
+        client.connect().join();
+        client.subscribeWith()
+            .topicFilter(OUTBOUND_TOPIC)
+            .qos(MqttQos.AT_MOST_ONCE)
+            .callback(this::onOutbound)
+            .send()
+            .join();
+        return client;
+    }
+
+    private void publishCommand(Mqtt5AsyncClient client) {
+        final String command = "{\"command\":true,\"sentNanos\":" + System.nanoTime() + "}\n\n";
+        client.publishWith()
+            .topic(INBOUND_TOPIC)
+            .qos(MqttQos.AT_LEAST_ONCE)
+            .payload(command.getBytes(StandardCharsets.UTF_8))
+            .send();
+    }
+
+    private void onOutbound(Mqtt5Publish publish) {
+        final long receivedNanos = System.nanoTime();
+        try {
+            final ByteBuffer payload = publish.getPayload().orElseThrow();
+            final byte[] bytes = new byte[payload.remaining()];
+            payload.get(bytes);
+            final JsonNode frame = mapper.readTree(bytes);
+            final long latencyMicros = Math.max(0, (receivedNanos - frame.path("sentNanos").asLong()) / 1000);
+            if (frame.path("command").asBoolean(false)) {
+                echoesReceived.incrementAndGet();
+                commandRoundTripMicros.recordValue(latencyMicros);
+            } else {
+                telemetryReceived.incrementAndGet();
+                telemetryLatencyMicros.recordValue(latencyMicros);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.debug("Unexpected outbound frame: {}", e.toString());
+        }
+    }
+
+    private static void writeCsv(List<StepResult> results) throws IOException {
+        final var lines = new ArrayList<String>();
+        lines.add("devices,sent_per_s,received_per_s,drop_rate,p50_ms,p99_ms,max_ms,jitter_ms,cpu_percent,cpu_us_per_frame,commands,echoes,command_p99_ms");
+        results.forEach(result -> lines.add(String.format("%d,%.1f,%.1f,%.4f,%.3f,%.3f,%.3f,%.3f,%.1f,%.2f,%d,%d,%.3f",
+            result.devices(), result.sentPerSecond(), result.receivedPerSecond(), result.dropRate(),
+            result.p50Ms(), result.p99Ms(), result.maxMs(), result.jitterMs(), result.cpuPercent(),
+            result.cpuMicrosPerFrame(), result.commandsSent(), result.echoes(), result.commandP99Ms())));
+        final Path report = Path.of("build", "reports", "farm", "farm-" + SERIAL_PATH + ".csv");
+        Files.createDirectories(report.getParent());
+        Files.write(report, lines);
+        log.info("Farm report written to {}", report.toAbsolutePath());
+    }
+
+    private static boolean isSocatAvailable() {
+        try {
+            return new ProcessBuilder("socat", "-V").redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD).start().waitFor() == 0;
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
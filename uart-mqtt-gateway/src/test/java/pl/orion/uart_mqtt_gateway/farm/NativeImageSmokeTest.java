@@ -0,0 +1,291 @@
+package pl.orion.uart_mqtt_gateway.farm;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.zip.DataFormatException;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.testcontainers.hivemq.HiveMQContainer;
+import org.testcontainers.utility.DockerImageName;
+
+import com.hivemq.client.mqtt.MqttClient;
+import com.hivemq.client.mqtt.datatypes.MqttQos;
+import com.hivemq.client.mqtt.mqtt5.Mqtt5AsyncClient;
+import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5Publish;
+
+import lombok.extern.slf4j.Slf4j;
+import pl.orion.uart_mqtt_gateway.compression.Lz4Compressor;
+import pl.orion.uart_mqtt_gateway.compression.PayloadDecoder;
+
+/**
+ * Boots the native binary, and the JVM jar for comparison, as separate processes against a broker and a PTY-backed
+ * virtual board, then checks telemetry and commands cross the gateway. Startup is measured up to the first healthy
+ * {@code /actuator/health}, RSS is read from {@code /proc} after a few seconds of traffic. Outbound payloads are
+ * compressed with LZ4 HC, whose implementations lz4-java loads reflectively, and only count once they decode.
+ * Run with {@code ./gradlew nativeSmokeTest}, which builds both and passes {@code native.binary} and {@code native.jar}.
+ */
+@Slf4j
+@Tag("native")
+class NativeImageSmokeTest {
+    private static final String EVENT_TYPE = "smoke";
+    private static final String INBOUND_TOPIC = "orion/topic/smoke/inbound";
+    private static final String OUTBOUND_TOPIC = "orion/topic/smoke/outbound";
+    private static final String NATIVE_BINARY = System.getProperty("native.binary");
+    private static final String JVM_JAR = System.getProperty("native.jar");
+    private static final int TIMEOUT_SECONDS = 60;
+    private static final int TRAFFIC_SECONDS = Integer.getInteger("native.traffic-seconds", 5);
+
+    private static HiveMQContainer broker;
+    private static String brokerHost;
+    private static int brokerPort;
+
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+    private final HttpClient http = HttpClient.newHttpClient();
+    private final AtomicLong telemetryReceived = new AtomicLong();
+    private final AtomicLong echoesReceived = new AtomicLong();
+    private final AtomicLong undecodable = new AtomicLong();
+    private final PayloadDecoder decoder = new PayloadDecoder();
+
+    public record LaunchResult(String build, long startupMillis, long rssKb, long peakRssKb, long telemetry, long echoes) {
+    }
+
+    @BeforeAll
+    static void startBroker() {
+        assumeTrue(NATIVE_BINARY != null && Files.isExecutable(Path.of(NATIVE_BINARY)), "Build the binary with ./gradlew nativeCompile");
+        assumeTrue(Files.isDirectory(Path.of("/proc/self")), "RSS is read from /proc");
+        assumeTrue(isSocatAvailable(), "socat is required to create virtual serial ports");
+
+        brokerHost = System.getProperty("native.broker.url");
+        brokerPort = Integer.getInteger("native.broker.port", 1883);
+        if (brokerHost == null) {
+            broker = new HiveMQContainer(DockerImageName.parse("hivemq/hivemq-ce:2024.3"));
+            broker.start();
+            brokerHost = broker.getHost();
+            brokerPort = broker.getMqttPort();
+        }
+    }
+
+    @AfterAll
+    static void stopBroker() {
+        if (broker != null) {
+            broker.stop();
+        }
+    }
+
+    @AfterEach
+    void stopScheduler() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    void nativeBinaryForwardsTelemetryAndCommands() throws Exception {
+        final List<LaunchResult> results = new ArrayList<>();
+        results.add(launch("native", List.of(NATIVE_BINARY, "-Xmx128m")));
+        if (JVM_JAR != null && Files.exists(Path.of(JVM_JAR))) {
+            final String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+            // Same flags as the JVM Docker image
+            results.add(launch("jvm", List.of(java, "-XX:+UseZGC", "-Xmx256m", "--enable-preview",
+                "--enable-native-access=ALL-UNNAMED", "-jar", JVM_JAR)));
+        }
+
+        log.info(String.format("%6s %10s %9s %13s %9s %6s", "build", "startup ms", "rss MB", "peak rss MB", "telemetry", "echoes"));
+        for (LaunchResult result : results) {
+            log.info(String.format("%6s %10d %9.1f %13.1f %9d %6d", result.build(), result.startupMillis(),
+                result.rssKb() / 1024.0, result.peakRssKb() / 1024.0, result.telemetry(), result.echoes()));
+        }
+        writeCsv(results);
+        for (LaunchResult result : results) {
+            assertTrue(result.telemetry() > 0, result.build() + " build forwarded no telemetry");
+            assertTrue(result.echoes() > 0, result.build() + " build forwarded no commands");
+        }
+    }
+
+    private LaunchResult launch(String build, List<String> command) throws Exception {
+        final Path directory = Files.createTempDirectory("uart-native-" + build);
+        final int httpPort = freePort();
+        final var arguments = new ArrayList<>(command);
+        arguments.addAll(List.of(
+            "--server.port=" + httpPort,
+            "--uart-mqtt-gateway.mqtt.broker.url=" + brokerHost,
+            "--uart-mqtt-gateway.mqtt.broker.port=" + brokerPort,
+            "--uart-mqtt-gateway.mqtt.broker.username=smoke",
+            "--uart-mqtt-gateway.mqtt.broker.password=smoke",
+            "--uart-mqtt-gateway.serial.hotplug.enabled=true",
+            "--uart-mqtt-gateway.serial.hotplug.directory=" + directory,
+            "--uart-mqtt-gateway.serial.allowed-port-name-prefixes[0]=" + directory.resolve("ttyFARM"),
+            "--uart-mqtt-gateway.uart-mqtt-mapping[0].label=virtual-board",
+            "--uart-mqtt-gateway.uart-mqtt-mapping[0].event-type=" + EVENT_TYPE,
+            "--uart-mqtt-gateway.uart-mqtt-mapping[0].mqtt.inbound=" + INBOUND_TOPIC,
+            "--uart-mqtt-gateway.uart-mqtt-mapping[0].mqtt.outbound=" + OUTBOUND_TOPIC,
+            "--uart-mqtt-gateway.uart-mqtt-mapping[0].mqtt.outbound-publication.compression.codec=lz4",
+            "--uart-mqtt-gateway.uart-mqtt-mapping[0].mqtt.outbound-publication.compression.level=4"));
+        final Path gatewayLog = directory.resolve("gateway.log");
+        telemetryReceived.set(0);
+        echoesReceived.set(0);
+        undecodable.set(0);
+
+        final Mqtt5AsyncClient client = observer();
+        final var board = new VirtualBoard(0, EVENT_TYPE, directory);
+        final long startNanos = System.nanoTime();
+        final Process gateway = new ProcessBuilder(arguments)
+            .redirectErrorStream(true)
+            .redirectOutput(gatewayLog.toFile())
+            .start();
+        try {
+            awaitHealthy(gateway, httpPort, gatewayLog);
+            final long startupMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+
+            board.start(scheduler, 50);
+            awaitPositive(telemetryReceived::get, "telemetry", gatewayLog);
+            final var commands = scheduler.scheduleAtFixedRate(() -> publishCommand(client), 0, 100, TimeUnit.MILLISECONDS);
+            awaitPositive(echoesReceived::get, "command echoes", gatewayLog);
+            TimeUnit.SECONDS.sleep(TRAFFIC_SECONDS);
+            commands.cancel(false);
+
+            if (undecodable.get() > 0) {
+                throw new IllegalStateException(undecodable.get() + " outbound payloads were not LZ4, see " + gatewayLog);
+            }
+            final Path status = Path.of("/proc", Long.toString(gateway.pid()), "status");
+            return new LaunchResult(build, startupMillis, statusKb(status, "VmRSS:"), statusKb(status, "VmHWM:"),
+                telemetryReceived.get(), echoesReceived.get());
+        } finally {
+            gateway.destroy();
+            if (!gateway.waitFor(10, TimeUnit.SECONDS)) {
+                gateway.destroyForcibly();
+            }
+            board.close();
+            client.disconnect();
+        }
+    }
+
+    private void awaitHealthy(Process gateway, int httpPort, Path gatewayLog) throws InterruptedException {
+        final var request = HttpRequest.newBuilder(URI.create("http://localhost:" + httpPort + "/actuator/health")).build();
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (System.nanoTime() < deadline) {
+            if (!gateway.isAlive()) {
+                throw new IllegalStateException("Gateway exited with " + gateway.exitValue() + ", see " + gatewayLog);
+            }
+            try {
+                if (http.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                    return;
+                }
+            } catch (IOException e) {
+                // not listening yet
+            }
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        throw new IllegalStateException("Gateway did not become healthy, see " + gatewayLog);
+    }
+
+    private static void awaitPositive(LongSupplier counter, String what, Path gatewayLog) throws InterruptedException {
+        for (int i = 0; i < TIMEOUT_SECONDS * 10 && counter.getAsLong() == 0; i++) {
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+        if (counter.getAsLong() == 0) {
+            throw new IllegalStateException("No " + what + " crossed the gateway, see " + gatewayLog);
+        }
+    }
+
+    private Mqtt5AsyncClient observer() {
+        final var client = MqttClient.builder()
+            .useMqttVersion5()
+            .identifier("native-smoke-" + UUID.randomUUID())
+            .serverHost(brokerHost)
+            .serverPort(brokerPort)
+            .buildAsync();
+        client.connect().join();
+        client.subscribeWith()
+            .topicFilter(OUTBOUND_TOPIC)
+            .qos(MqttQos.AT_MOST_ONCE)
+            .callback(this::onOutbound)
+            .send()
+            .join();
+        return client;
+    }
+
+    private void publishCommand(Mqtt5AsyncClient client) {
+        client.publishWith()
+            .topic(INBOUND_TOPIC)
+            .qos(MqttQos.AT_LEAST_ONCE)
+            .payload("{\"command\":true}\n\n".getBytes(StandardCharsets.UTF_8))
+            .send();
+    }
+
+    private void onOutbound(Mqtt5Publish publish) {
+        final byte[] payload;
+        try {
+            payload = decoder.decode(publish);
+        } catch (DataFormatException e) {
+            undecodable.incrementAndGet();
+            return;
+        }
+        if (publish.getUserProperties().asList().stream().noneMatch(property ->
+                PayloadDecoder.CONTENT_ENCODING.equals(property.getName().toString())
+                    && Lz4Compressor.ENCODING.equals(property.getValue().toString()))) {
+            undecodable.incrementAndGet();
+            return;
+        }
+        if (new String(payload, StandardCharsets.UTF_8).contains("\"command\"")) {
+            echoesReceived.incrementAndGet();
+        } else {
+            telemetryReceived.incrementAndGet();
+        }
+    }
+
+    private static long statusKb(Path status, String field) throws IOException {
+        for (String line : Files.readAllLines(status)) {
+            if (line.startsWith(field)) {
+                return Long.parseLong(line.substring(field.length()).trim().split("\\s+")[0]);
+            }
+        }
+        return -1;
+    }
+
+    private static int freePort() throws IOException {
+        try (var socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void writeCsv(List<LaunchResult> results) throws IOException {
+        final var lines = new ArrayList<String>();
+        lines.add("build,startup_ms,rss_kb,peak_rss_kb,telemetry,echoes");
+        results.forEach(result -> lines.add(String.format("%s,%d,%d,%d,%d,%d", result.build(), result.startupMillis(),
+            result.rssKb(), result.peakRssKb(), result.telemetry(), result.echoes())));
+        final Path report = Path.of("build", "reports", "native", "startup.csv");
+        Files.createDirectories(report.getParent());
+        Files.write(report, lines);
+        log.info("Native smoke report written to {}", report.toAbsolutePath());
+    }
+
+    private static boolean isSocatAvailable() {
+        try {
+            return new ProcessBuilder("socat", "-V").redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD).start().waitFor() == 0;
+        } catch (IOException | InterruptedException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package pl.orion.uart_mqtt_gateway.farm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A microcontroller simulated on a Linux PTY pair created by {@code socat}. The gateway opens {@code portPath},
+ * the board the hidden peer. The board identifies itself through its telemetry frames, streams them at a fixed
+ * rate and echoes every command it receives.
+ */
+@Slf4j
+class VirtualBoard implements AutoCloseable {
+    static final byte[] DELIMITER = "\n\n".getBytes(StandardCharsets.UTF_8);
+
+    private final int id;
+    private final String eventType;
+    private final Path portPath;
+    private final Path peerPath;
+    private final AtomicLong framesSent = new AtomicLong();
+    private final AtomicLong commandsEchoed = new AtomicLong();
+
+    private Process socat;
+    private FileChannel channel;
+    private ScheduledFuture<?> telemetry;
+    private Thread reader;
+    private long sequence;
+
+    VirtualBoard(int id, String eventType, Path directory) {
+        this.id = id;
+        this.eventType = eventType;
+        this.portPath = directory.resolve("ttyFARM" + id);
+        this.peerPath = directory.resolve(".board" + id);
+    }
+
+    void start(ScheduledExecutorService scheduler, int telemetryHz) throws IOException, InterruptedException {
+        // The peer link is created first, so the gateway never opens a port whose board is not listening yet
+        socat = new ProcessBuilder("socat",
+                "pty,raw,echo=0,link=" + peerPath,
+                "pty,raw,echo=0,link=" + portPath)
+            .redirectErrorStream(true)
+            .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+            .start();
+        for (int i = 0; i < 100 && !(Files.exists(peerPath) && Files.exists(portPath)); i++) {
+            TimeUnit.MILLISECONDS.sleep(20);
+        }
+        if (!Files.exists(portPath)) {
+            throw new IOException("socat did not create " + portPath);
+        }
+        channel = FileChannel.open(peerPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        reader = new Thread(this::echoCommands, "virtual-board-" + id);
+        reader.setDaemon(true);
+        reader.start();
+        final long periodMicros = TimeUnit.SECONDS.toMicros(1) / telemetryHz;
+        telemetry = scheduler.scheduleAtFixedRate(this::sendTelemetry, periodMicros, periodMicros, TimeUnit.MICROSECONDS);
+    }
+
+    long getFramesSent() {
+        return framesSent.get();
+    }
+
+    long getCommandsEchoed() {
+        return commandsEchoed.get();
+    }
+
+    @Override
+    public void close() {
+        if (telemetry != null) {
+            telemetry.cancel(false);
+        }
+        if (socat != null) {
+            socat.destroy();
+        }
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            log.debug("Failed to close board {}: {}", id, e.toString());
+        }
+    }
+
+    private void sendTelemetry() {
+        final String frame = "{\"eventType\":\"" + eventType + "\",\"board\":" + id + ",\"seq\":" + sequence++
+            + ",\"sentNanos\":" + System.nanoTime() + "}\n\n";
+        try {
+            write(ByteBuffer.wrap(frame.getBytes(StandardCharsets.UTF_8)));
+            framesSent.incrementAndGet();
+        } catch (IOException e) {
+            log.debug("Board {} failed to send telemetry: {}", id, e.toString());
+        }
+    }
+
+    private void echoCommands() {
+        final ByteBuffer buffer = ByteBuffer.allocate(4096);
+        try {
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                int frameStart = 0;
+                for (int i = 0; i + DELIMITER.length <= buffer.limit(); i++) {
+                    if (buffer.get(i) == DELIMITER[0] && buffer.get(i + 1) == DELIMITER[1]) {
+                        final int frameEnd = i + DELIMITER.length;
+                        write(buffer.duplicate().position(frameStart).limit(frameEnd).slice());
+                        commandsEchoed.incrementAndGet();
+                        frameStart = frameEnd;
+                        i = frameEnd - 1;
+                    }
+                }
+                buffer.position(frameStart);
+                buffer.compact();
+                if (!buffer.hasRemaining()) {
+                    // A command without delimiter that fills the buffer is line noise
+                    buffer.clear();
+                }
+            }
+        } catch (IOException e) {
+            log.debug("Board {} stopped reading: {}", id, e.toString());
+        }
+    }
+
+    private synchronized void write(ByteBuffer frame) throws IOException {
+        while (frame.hasRemaining()) {
+            channel.write(frame);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package pl.orion.uart_mqtt_gateway.framing;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties.Serial.Framing.Crc;
+
+class FramingsTest {
+
+    private final List<byte[]> frames = new ArrayList<>();
+    private final FrameDecoder.FrameListener collector =
+        (buffer, offset, length) -> frames.add(Arrays.copyOfRange(buffer, offset, offset + length));
+
+    @ParameterizedTest
+    @EnumSource(Crc.class)
+    void cobsRoundTripsBinaryPayloadSplitAcrossChunks(Crc crc) {
+        final var framing = new CobsFraming(crc, 1024);
+        final byte[] payload = binaryPayload(600);
+
+        final byte[] wire = encode(framing, payload);
+        for (int i = 0; i < wire.length; i += 7) {
+            framing.decode(wire, i, Math.min(7, wire.length - i), collector);
+        }
+
+        assertEquals(1, frames.size());
+        assertArrayEquals(payload, frames.get(0));
+        assertEquals(0, framing.getDroppedFrames());
+    }
+
+    @Test
+    void cobsHandlesFullBlockWithoutZeros() {
+        final var framing = new CobsFraming(Crc.NONE, 1024);
+        final byte[] payload = new byte[254];
+        Arrays.fill(payload, (byte) 0x11);
+
+        final byte[] wire = encode(framing, payload);
+        framing.decode(wire, 0, wire.length, collector);
+
+        assertTrue(wire.length <= framing.maxEncodedLength(payload.length));
+        assertArrayEquals(payload, frames.get(0));
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = Crc.class, names = {"CRC16", "CRC32"})
+    void cobsDropsCorruptedFrameAndResynchronises(Crc crc) {
+        final var framing = new CobsFraming(crc, 1024);
+        final byte[] corrupted = encode(framing, json("chassis"));
+        corrupted[5] ^= 0x01;
+        final byte[] valid = encode(framing, json("power"));
+
+        framing.decode(corrupted, 0, corrupted.length, collector);
+        framing.decode(valid, 0, valid.length, collector);
+
+        assertEquals(1, frames.size());
+        assertArrayEquals(json("power"), frames.get(0));
+        assertEquals(1, framing.getDroppedFrames());
+    }
+
+    @ParameterizedTest
+    @EnumSource(Crc.class)
+    void lengthPrefixRoundTripsPayloadsSplitAcrossChunks(Crc crc) {
+        final var framing = new LengthPrefixFraming(crc, 1024);
+        final byte[] first = binaryPayload(300);
+        final byte[] empty = new byte[0];
+        final byte[] wire = concat(encode(framing, first), encode(framing, empty), encode(framing, json("power")));
+
+        for (int i = 0; i < wire.length; i += 5) {
+            framing.decode(wire, i, Math.min(5, wire.length - i), collector);
+        }
+
+        assertEquals(3, frames.size());
+        assertArrayEquals(first, frames.get(0));
+        assertArrayEquals(empty, frames.get(1));
+        assertArrayEquals(json("power"), frames.get(2));
+    }
+
+    @Test
+    void lengthPrefixSkipsNoiseAndCorruptedFrames() {
+        final var framing = new LengthPrefixFraming(Crc.CRC16, 64);
+        final byte[] corrupted = encode(framing, json("chassis"));
+        corrupted[corrupted.length - 4] ^= 0x40;
+        final byte[] oversized = {LengthPrefixFraming.SYNC, (byte) 0xFF, (byte) 0xFF};
+        final byte[] wire = concat(new byte[] {0x01, 0x02}, corrupted, oversized, encode(framing, json("power")));
+
+        framing.decode(wire, 0, wire.length, collector);
+
+        assertEquals(1, frames.size());
+        assertArrayEquals(json("power"), frames.get(0));
+        assertEquals(2, framing.getDroppedFrames());
+    }
+
+    @Test
+    void delimiterSplitsFramesAndDropsOversizedOnes() {
+        final var framing = new DelimiterFraming("\n\n".getBytes(StandardCharsets.UTF_8), 16);
+        final byte[] wire = "{\"a\":1}\n\n0123456789abcdefXYZ\n\n{\"b\":2}\n".getBytes(StandardCharsets.UTF_8);
+
+        framing.decode(wire, 0, wire.length, collector);
+        framing.decode(new byte[] {'\n'}, 0, 1, collector);
+
+        assertEquals(2, frames.size());
+        assertEquals("{\"a\":1}\n\n", new String(frames.get(0), StandardCharsets.UTF_8));
+        assertEquals("{\"b\":2}\n\n", new String(frames.get(1), StandardCharsets.UTF_8));
+        assertEquals(1, framing.getDroppedFrames());
+    }
+
+    @ParameterizedTest
+    @EnumSource(Crc.class)
+    void maxFrameBytesLimitsThePayloadOfBinaryFramings(Crc crc) {
+        final byte[] zeros = new byte[301];
+        final byte[] noZeros = new byte[301];
+        Arrays.fill(noZeros, (byte) 0x11);
+        // zeros cost COBS no stuffing, so the longer payload still fits its buffer and only the length check catches it
+        assertPayloadLimit(new CobsFraming(crc, 300), new CobsFraming(crc, 301), zeros);
+        assertPayloadLimit(new CobsFraming(crc, 300), new CobsFraming(crc, 301), noZeros);
+        assertPayloadLimit(new LengthPrefixFraming(crc, 300), new LengthPrefixFraming(crc, 301), noZeros);
+    }
+
+    @ParameterizedTest
+    @EnumSource(Crc.class)
+    void encodersRejectPayloadsOverMaxFrameBytes(Crc crc) {
+        final byte[] payload = new byte[301];
+
+        assertEquals(300, new CobsFraming(crc, 300).maxPayloadLength());
+        assertThrows(IllegalArgumentException.class, () -> encode(new CobsFraming(crc, 300), payload));
+        assertThrows(IllegalArgumentException.class, () -> encode(new LengthPrefixFraming(crc, 300), payload));
+        // the 16-bit length header would wrap around
+        assertEquals(0xFFFF, new LengthPrefixFraming(crc, 70_000).maxPayloadLength());
+        assertThrows(IllegalArgumentException.class, () -> encode(new LengthPrefixFraming(crc, 70_000), new byte[0x10000]));
+    }
+
+    @Test
+    void delimiterEncoderAcceptsMaxFrameBytesPlusTheDelimiter() {
+        final var framing = new DelimiterFraming("\n\n".getBytes(StandardCharsets.UTF_8), 64);
+
+        assertEquals(66, encode(framing, ("x".repeat(64) + "\n\n").getBytes(StandardCharsets.UTF_8)).length);
+        assertThrows(IllegalArgumentException.class, () -> encode(framing, new byte[67]));
+    }
+
+    @Test
+    void maxFrameBytesOfDelimiterFramingExcludesTheDelimiter() {
+        final var framing = new DelimiterFraming("\n\n".getBytes(StandardCharsets.UTF_8), 64);
+        final String fits = "x".repeat(64) + "\n\n";
+        final byte[] wire = (fits + "y".repeat(65) + "\n\n" + fits).getBytes(StandardCharsets.UTF_8);
+
+        framing.decode(wire, 0, wire.length, collector);
+
+        assertEquals(2, frames.size());
+        assertEquals(fits, new String(frames.get(0), StandardCharsets.UTF_8));
+        assertEquals(1, framing.getDroppedFrames());
+    }
+
+    /**
+     * @param peer encoder of a device configured with a larger limit
+     * @param payload one byte longer than the framing's limit
+     */
+    private <T extends FrameDecoder & FrameEncoder> void assertPayloadLimit(T framing, FrameEncoder peer, byte[] payload) {
+        frames.clear();
+        final byte[] fits = Arrays.copyOf(payload, payload.length - 1);
+        final byte[] wire = concat(encode(framing, fits), encode(peer, payload), encode(framing, fits));
+
+        framing.decode(wire, 0, wire.length, collector);
+
+        assertEquals(2, frames.size(), framing.getClass().getSimpleName());
+        assertArrayEquals(fits, frames.get(0));
+        assertEquals(1, framing.getDroppedFrames(), framing.getClass().getSimpleName());
+    }
+
+    private static byte[] encode(FrameEncoder encoder, byte[] payload) {
+        final byte[] out = new byte[encoder.maxEncodedLength(payload.length)];
+        final var buffer = ByteBuffer.wrap(payload).asReadOnlyBuffer();
+        final int length = encoder.encode(buffer, out);
+        assertEquals(0, buffer.position());
+        return Arrays.copyOf(out, length);
+    }
+
+    private static byte[] binaryPayload(int length) {
+        final byte[] payload = new byte[length];
+        for (int i = 0; i < length; i++) {
+            payload[i] = (byte) (i % 7 == 0 ? 0 : i * 31);
+        }
+        return payload;
+    }
+
+    private static byte[] json(String eventType) {
+        return ("{\"eventType\":\"" + eventType + "\",\"payload\":{}}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        final var out = ByteBuffer.allocate(Arrays.stream(parts).mapToInt(part -> part.length).sum());
+        Arrays.stream(parts).forEach(out::put);
+        return out.array();
+    }
+}
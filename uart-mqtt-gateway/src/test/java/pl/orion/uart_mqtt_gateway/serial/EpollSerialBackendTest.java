@@ -0,0 +1,205 @@
+package pl.orion.uart_mqtt_gateway.serial;
+
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.invoke.MethodHandle;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+
+import com.fazecast.jSerialComm.SerialPort;
+
+import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties;
+
+/**
+ * Drives the backend through a pseudo-terminal, the slave side stands in for the USB adapter.
+ */
+@EnabledOnOs(OS.LINUX)
+class EpollSerialBackendTest {
+    private static final Linker LINKER = Linker.nativeLinker();
+    private static final MethodHandle GRANTPT = downcall("grantpt");
+    private static final MethodHandle UNLOCKPT = downcall("unlockpt");
+    private static final MethodHandle PTSNAME = LINKER.downcallHandle(LINKER.defaultLookup().find("ptsname").orElseThrow(),
+        FunctionDescriptor.of(ADDRESS, JAVA_INT));
+
+    private final Arena arena = Arena.ofShared();
+    private final MemorySegment callState = LibC.allocateCallState(arena);
+    private final ByteArrayOutputStream received = new ByteArrayOutputStream();
+    private int master;
+    private String slavePath;
+    private EpollSerialBackend backend;
+
+    @BeforeEach
+    void setUp() throws Throwable {
+        openPty();
+        backend = new EpollSerialBackend(256);
+    }
+
+    private void openPty() throws Throwable {
+        master = LibC.open(callState, arena.allocateUtf8String("/dev/ptmx"), LibC.O_RDWR | LibC.O_NOCTTY | LibC.O_NONBLOCK);
+        assertTrue(master >= 0, "Failed to open /dev/ptmx");
+        assertEquals(0, (int) GRANTPT.invokeExact(master));
+        assertEquals(0, (int) UNLOCKPT.invokeExact(master));
+        slavePath = ((MemorySegment) PTSNAME.invokeExact(master)).reinterpret(64).getUtf8String(0);
+    }
+
+    @AfterEach
+    void tearDown() {
+        backend.close();
+        if (master >= 0) {
+            LibC.close(callState, master);
+        }
+        arena.close();
+    }
+
+    @Test
+    void bytesFlowBothWays() throws Exception {
+        final var channel = backend.open(slavePath, serial(), this::onData, () -> {});
+
+        final String frame = "{\"eventType\":\"power\"}\n\n";
+        writeMaster(frame);
+        assertEquals(frame, awaitReceived(frame.length()));
+
+        final byte[] command = "cmd\n\n".getBytes(StandardCharsets.UTF_8);
+        assertEquals(command.length, channel.write(command, command.length));
+        assertEquals("cmd\n\n", readMaster(command.length));
+        channel.close();
+    }
+
+    @Test
+    void hangupIsReportedAsDisconnect() throws Exception {
+        final var disconnected = new CountDownLatch(1);
+        final var channel = backend.open(slavePath, serial(), this::onData, disconnected::countDown);
+
+        LibC.close(callState, master);
+        master = -1;
+
+        assertTrue(disconnected.await(1, TimeUnit.SECONDS));
+        channel.close();
+    }
+
+    @Test
+    void closedChannelIsNotReportedAsDisconnect() throws Exception {
+        final var disconnected = new CountDownLatch(1);
+        backend.open(slavePath, serial(), this::onData, disconnected::countDown).close();
+
+        LibC.close(callState, master);
+        master = -1;
+
+        assertFalse(disconnected.await(300, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void noDataIsDeliveredOnceCloseReturns() throws Exception {
+        final var closed = new AtomicBoolean();
+        final var lateCallbacks = new AtomicInteger();
+        final var firstData = new CountDownLatch(1);
+        final var channel = backend.open(slavePath, serial(), (buffer, offset, length) -> {
+            firstData.countDown();
+            // keep the loop inside the callback while close() runs
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+            if (closed.get()) {
+                lateCallbacks.incrementAndGet();
+            }
+        }, () -> {});
+
+        writeMaster("x".repeat(100));
+        assertTrue(firstData.await(1, TimeUnit.SECONDS));
+        channel.close();
+        closed.set(true);
+        TimeUnit.MILLISECONDS.sleep(200);
+
+        assertEquals(0, lateCallbacks.get());
+    }
+
+    @Test
+    void channelClosedFromTheDisconnectCallbackIsReleased() throws Throwable {
+        final var channel = new AtomicReference<SerialBackend.Channel>();
+        final var disconnected = new CountDownLatch(1);
+        channel.set(backend.open(slavePath, serial(), this::onData, () -> {
+            channel.get().close();
+            disconnected.countDown();
+        }));
+
+        LibC.close(callState, master);
+        master = -1;
+
+        assertTrue(disconnected.await(1, TimeUnit.SECONDS));
+        // the loop keeps serving ports after releasing the closed one
+        openPty();
+        final var reopened = backend.open(slavePath, serial(), this::onData, () -> {});
+        writeMaster("ok");
+        assertEquals("ok", awaitReceived(2));
+        reopened.close();
+    }
+
+    private synchronized void onData(byte[] buffer, int offset, int length) {
+        received.write(buffer, offset, length);
+        notifyAll();
+    }
+
+    private synchronized String awaitReceived(int length) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        while (received.size() < length && System.nanoTime() < deadline) {
+            wait(10);
+        }
+        return received.toString(StandardCharsets.UTF_8);
+    }
+
+    private void writeMaster(String data) {
+        final byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+        final var buffer = arena.allocate(bytes.length);
+        MemorySegment.copy(bytes, 0, buffer, JAVA_BYTE, 0, bytes.length);
+        assertEquals(bytes.length, LibC.write(callState, master, buffer, bytes.length));
+    }
+
+    private String readMaster(int length) throws IOException, InterruptedException {
+        final var buffer = arena.allocate(length);
+        final var out = new ByteArrayOutputStream();
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        while (out.size() < length && System.nanoTime() < deadline) {
+            final long read = LibC.read(callState, master, buffer.asSlice(out.size()), length - out.size());
+            if (read > 0) {
+                out.write(buffer.asSlice(out.size(), read).toArray(JAVA_BYTE));
+            } else {
+                TimeUnit.MILLISECONDS.sleep(5);
+            }
+        }
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    private static UartMqttGatewayProperties.Serial serial() {
+        final var serial = new UartMqttGatewayProperties.Serial();
+        serial.setBaudRate(115200);
+        serial.setDataBits(8);
+        serial.setStopBits(SerialPort.ONE_STOP_BIT);
+        serial.setParityBit(SerialPort.NO_PARITY);
+        serial.setWriteTimeoutMs(1000);
+        return serial;
+    }
+
+    private static MethodHandle downcall(String name) {
+        return LINKER.downcallHandle(LINKER.defaultLookup().find(name).orElseThrow(), FunctionDescriptor.of(JAVA_INT, JAVA_INT));
+    }
+}
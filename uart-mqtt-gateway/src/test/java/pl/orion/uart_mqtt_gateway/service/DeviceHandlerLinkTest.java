@@ -0,0 +1,175 @@
+package pl.orion.uart_mqtt_gateway.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fazecast.jSerialComm.SerialPort;
+import com.fazecast.jSerialComm.SerialPortEvent;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties;
+import pl.orion.uart_mqtt_gateway.framing.Framings;
+import pl.orion.uart_mqtt_gateway.tracing.HopLatencyRecorder;
+
+class DeviceHandlerLinkTest {
+
+    private static final String PORT_PATH = "/dev/ttyUSB0";
+
+    private SerialPort serialPort;
+    private MqttService mqttService;
+    private DeviceHandler deviceHandler;
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @BeforeEach
+    void setUp() {
+        serialPort = mock(SerialPort.class);
+        when(serialPort.getSystemPortPath()).thenReturn(PORT_PATH);
+        when(serialPort.writeBytes(any(byte[].class), anyInt())).thenAnswer(invocation -> invocation.getArgument(1));
+        mqttService = mock(MqttService.class);
+    }
+
+    @AfterEach
+    void tearDown() {
+        deviceHandler.stop();
+    }
+
+    @Test
+    void framesAreRoutedByEventType() {
+        final var properties = properties(null);
+        start(properties);
+
+        deviceHandler.serialEvent(dataReceived(json("power")));
+        deviceHandler.serialEvent(dataReceived(json("science")));
+        deviceHandler.serialEvent(dataReceived(json("chassis")));
+
+        verify(mqttService).subscribe(eq("orion/topic/power/inbound"), any(), eq(deviceHandler));
+        verify(mqttService).subscribe(eq("orion/topic/science/inbound"), any(), eq(deviceHandler));
+        verify(mqttService).publish(eq("orion/topic/power/outbound"), eq(json("power")), any());
+        verify(mqttService).publish(eq("orion/topic/science/outbound"), eq(json("science")), any());
+        verify(mqttService, never()).publish(eq("orion/topic/chassis/outbound"), any(byte[].class), any());
+    }
+
+    @Test
+    void channelIdsSelectOutboundTopicAndPrefixInboundWrites() {
+        final var framing = new UartMqttGatewayProperties.Serial.Framing();
+        framing.setType(UartMqttGatewayProperties.Serial.Framing.Type.COBS);
+        final var properties = properties(framing);
+        start(properties);
+
+        deviceHandler.serialEvent(dataReceived(encode(properties, channel(1, json("power")))));
+        deviceHandler.serialEvent(dataReceived(encode(properties, channel(2, "telemetry".getBytes(StandardCharsets.UTF_8)))));
+        deviceHandler.handleMessage("orion/topic/science/inbound", ByteBuffer.wrap("cmd".getBytes(StandardCharsets.UTF_8)));
+
+        verify(mqttService).publish(eq("orion/topic/power/outbound"), eq(json("power")), any());
+        verify(mqttService).publish(eq("orion/topic/science/outbound"), eq("telemetry".getBytes(StandardCharsets.UTF_8)), any());
+        final var written = ArgumentCaptor.forClass(byte[].class);
+        final var length = ArgumentCaptor.forClass(Integer.class);
+        verify(serialPort, timeout(1000)).writeBytes(written.capture(), length.capture());
+        assertArrayEquals(channel(2, "cmd".getBytes(StandardCharsets.UTF_8)),
+            decode(properties, Arrays.copyOf(written.getValue(), length.getValue())).get(0));
+    }
+
+    @Test
+    void portMetersAreRegisteredOnceAndWritesCountForTheirChannel() throws InterruptedException {
+        start(properties(null));
+        deviceHandler.serialEvent(dataReceived(json("power")));
+
+        deviceHandler.handleMessage("orion/topic/science/inbound", ByteBuffer.wrap("cmd".getBytes(StandardCharsets.UTF_8)));
+
+        final var scienceWritten = meterRegistry.get("uart.frames.written").tag("eventType", "science").counter();
+        for (int i = 0; i < 100 && scienceWritten.count() == 0; i++) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertEquals(1, scienceWritten.count());
+        assertEquals("cmd\n\n".length(), meterRegistry.get("uart.bytes.out").tag("eventType", "science").counter().count());
+        assertEquals(0, meterRegistry.get("uart.bytes.out").tag("eventType", "power").counter().count());
+        assertEquals(1, meterRegistry.find("uart.frames.dropped").functionCounters().size());
+        assertEquals(1, meterRegistry.find("uart.write.duration").timers().size());
+        assertEquals("power", meterRegistry.get("uart.frames.dropped").functionCounter().getId().getTag("eventType"));
+    }
+
+    private void start(UartMqttGatewayProperties properties) {
+        deviceHandler = new DeviceHandler(serialPort, properties, mqttService, mock(ScheduledExecutorService.class),
+            meterRegistry, new HopLatencyRecorder(), new TopicIndexRegistry(properties, new ObjectMapper()),
+            null, null, portPath -> {});
+        deviceHandler.start();
+    }
+
+    private SerialPortEvent dataReceived(byte[] data) {
+        return new SerialPortEvent(serialPort, SerialPort.LISTENING_EVENT_DATA_RECEIVED, data);
+    }
+
+    private static byte[] json(String eventType) {
+        return ("{\"eventType\":\"" + eventType + "\",\"payload\":{}}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] channel(int channelId, byte[] payload) {
+        final byte[] frame = new byte[payload.length + 1];
+        frame[0] = (byte) channelId;
+        System.arraycopy(payload, 0, frame, 1, payload.length);
+        return frame;
+    }
+
+    private static byte[] encode(UartMqttGatewayProperties properties, byte[] payload) {
+        final var encoder = Framings.encoder(properties.getSerial().getFraming(), properties.getSerial());
+        final byte[] out = new byte[encoder.maxEncodedLength(payload.length)];
+        return Arrays.copyOf(out, encoder.encode(ByteBuffer.wrap(payload), out));
+    }
+
+    private static List<byte[]> decode(UartMqttGatewayProperties properties, byte[] wire) {
+        final var frames = new ArrayList<byte[]>();
+        Framings.decoder(properties.getSerial().getFraming(), properties.getSerial())
+            .decode(wire, 0, wire.length, (buffer, offset, length) -> frames.add(Arrays.copyOfRange(buffer, offset, offset + length)));
+        return frames;
+    }
+
+    private static UartMqttGatewayProperties properties(UartMqttGatewayProperties.Serial.Framing framing) {
+        final var serial = new UartMqttGatewayProperties.Serial();
+        serial.setDelimiter("\n\n");
+        if (framing != null) {
+            serial.setFraming(framing);
+        }
+        final var properties = new UartMqttGatewayProperties();
+        properties.setSerial(serial);
+        properties.setUartMqttMapping(List.of(
+            mapping("power", "mcu-1", 1),
+            mapping("science", "mcu-1", 2),
+            mapping("chassis", null, null)));
+        return properties;
+    }
+
+    private static UartMqttGatewayProperties.UartMqttMapping mapping(String eventType, String link, Integer channel) {
+        final var topics = new UartMqttGatewayProperties.UartMqttMapping.MqttMapping();
+        topics.setInbound("orion/topic/" + eventType + "/inbound");
+        topics.setOutbound("orion/topic/" + eventType + "/outbound");
+        final var mapping = new UartMqttGatewayProperties.UartMqttMapping();
+        mapping.setEventType(eventType);
+        mapping.setLink(link);
+        mapping.setChannel(channel);
+        mapping.setMqtt(topics);
+        return mapping;
+    }
+}
@@ -0,0 +1,262 @@
+package pl.orion.uart_mqtt_gateway.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fazecast.jSerialComm.SerialPort;
+import com.fazecast.jSerialComm.SerialPortEvent;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties;
+import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties.UartMqttMapping.MqttMapping.Publication;
+import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties.UartMqttMapping.MqttMapping.Subscription;
+import pl.orion.uart_mqtt_gateway.spool.TelemetrySpool;
+import pl.orion.uart_mqtt_gateway.tracing.HopLatencyRecorder;
+
+class DeviceHandlerTest {
+
+    private static final String INBOUND_TOPIC = "orion/topic/chassis/inbound";
+    private static final String PORT_PATH = "/dev/ttyUSB0";
+    private static final String OUTBOUND_TOPIC = "orion/topic/chassis/outbound";
+    private static final int WARM_UP_ITERATIONS = 2_000;
+    private static final int MEASURED_ITERATIONS = 10_000;
+    private static final int SMALL_FRAME_SIZE = 64;
+    private static final int LARGE_FRAME_SIZE = 16 * 1024;
+
+    private SerialPort serialPort;
+    private RecordingMqttService mqttService;
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private DeviceHandler deviceHandler;
+
+    @BeforeEach
+    void setUp() {
+        serialPort = mock(SerialPort.class);
+        when(serialPort.getSystemPortPath()).thenReturn(PORT_PATH);
+        mqttService = new RecordingMqttService();
+        final var properties = properties();
+        deviceHandler = new DeviceHandler(serialPort, properties, mqttService, mock(ScheduledExecutorService.class), meterRegistry,
+            new HopLatencyRecorder(), new TopicIndexRegistry(properties, new ObjectMapper()), null, null, portPath -> {});
+
+        // The first frame identifies the device, everything afterwards is the steady-state path
+        deviceHandler.serialEvent(dataReceived(frame(SMALL_FRAME_SIZE)));
+        assertEquals(DeviceConnState.CONNECTED, deviceHandler.getState());
+        assertSame(deviceHandler, mqttService.subscribedHandler);
+    }
+
+    @AfterEach
+    void tearDown() {
+        deviceHandler.stop();
+    }
+
+    @Test
+    void serialFrameIsPublishedWithoutCopy() {
+        final byte[] frame = frame(LARGE_FRAME_SIZE);
+
+        deviceHandler.serialEvent(dataReceived(frame));
+
+        assertEquals(OUTBOUND_TOPIC, mqttService.lastTopic);
+        assertSame(frame, mqttService.lastPayload.array());
+        assertEquals(frame.length, mqttService.lastPayload.remaining());
+    }
+
+    @Test
+    void framesAreCountedPerPortAndEventType() {
+        final byte[] frame = frame(LARGE_FRAME_SIZE);
+
+        deviceHandler.serialEvent(dataReceived(frame));
+
+        final var framesIn = meterRegistry.get("uart.frames.in").tag("port", PORT_PATH).tag("eventType", "chassis").counter();
+        final var bytesIn = meterRegistry.get("uart.bytes.in").tag("port", PORT_PATH).counter();
+        assertEquals(2, framesIn.count());
+        assertEquals(SMALL_FRAME_SIZE + LARGE_FRAME_SIZE, bytesIn.count());
+    }
+
+    @Test
+    void inboundMessageWritesByteCountRatherThanCharCount() {
+        final byte[] command = "{\"eventType\":\"chassis\",\"payload\":\"za\u017c\u00f3\u0142\u0107\"}".getBytes(StandardCharsets.UTF_8);
+
+        deviceHandler.handleMessage(INBOUND_TOPIC, ByteBuffer.wrap(command).asReadOnlyBuffer());
+
+        verify(serialPort, timeout(1000)).writeBytes(any(byte[].class), eq(command.length));
+    }
+
+    @Test
+    void serialToMqttPathAllocationDoesNotScaleWithFrameSize() {
+        final SerialPortEvent smallEvent = dataReceived(frame(SMALL_FRAME_SIZE));
+        final SerialPortEvent largeEvent = dataReceived(frame(LARGE_FRAME_SIZE));
+
+        final long smallCost = allocatedBytesPerCall(() -> deviceHandler.serialEvent(smallEvent));
+        final long largeCost = allocatedBytesPerCall(() -> deviceHandler.serialEvent(largeEvent));
+
+        assertTrue(largeCost - smallCost < LARGE_FRAME_SIZE / 4,
+            "Serial to MQTT path allocates per frame: small=" + smallCost + "B, large=" + largeCost + "B");
+    }
+
+    @Test
+    void mqttToSerialPathAllocationDoesNotScaleWithPayloadSize() {
+        final ByteBuffer smallPayload = ByteBuffer.wrap(frame(SMALL_FRAME_SIZE)).asReadOnlyBuffer();
+        final ByteBuffer largePayload = ByteBuffer.wrap(frame(LARGE_FRAME_SIZE)).asReadOnlyBuffer();
+
+        final long smallCost = allocatedBytesPerCall(() -> deviceHandler.handleMessage(INBOUND_TOPIC, smallPayload));
+        final long largeCost = allocatedBytesPerCall(() -> deviceHandler.handleMessage(INBOUND_TOPIC, largePayload));
+
+        assertTrue(largeCost - smallCost < LARGE_FRAME_SIZE / 4,
+            "MQTT to serial path allocates per message: small=" + smallCost + "B, large=" + largeCost + "B");
+        verify(serialPort, timeout(1000).atLeastOnce()).writeBytes(any(byte[].class), anyInt());
+    }
+
+    @Test
+    void cachedAndIdentifiedMappingAreNeverBothApplied() throws Exception {
+        for (int i = 0; i < 200; i++) {
+            final var properties = properties();
+            final var service = new RecordingMqttService();
+            final var handler = new DeviceHandler(serialPort, properties, service, mock(ScheduledExecutorService.class),
+                meterRegistry, new HopLatencyRecorder(), new TopicIndexRegistry(properties, new ObjectMapper()), null, null,
+                portPath -> {});
+            handler.start();
+            final var ready = new CyclicBarrier(2);
+            // the identity cache preassigns from the scanning thread while the first frame arrives
+            final var preassigned = CompletableFuture.runAsync(() -> {
+                await(ready);
+                handler.preassignMapping(properties.getUartMqttMapping().getFirst());
+            });
+            await(ready);
+            handler.serialEvent(dataReceived(frame(SMALL_FRAME_SIZE)));
+            preassigned.get(1, TimeUnit.SECONDS);
+
+            assertEquals(1, service.subscriptions);
+            handler.stop();
+        }
+    }
+
+    private static void await(CyclicBarrier barrier) {
+        try {
+            barrier.await(1, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long allocatedBytesPerCall(Runnable call) {
+        final var threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+            call.run();
+        }
+        final long before = threadMXBean.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            call.run();
+        }
+        return (threadMXBean.getCurrentThreadAllocatedBytes() - before) / MEASURED_ITERATIONS;
+    }
+
+    private SerialPortEvent dataReceived(byte[] data) {
+        return new SerialPortEvent(serialPort, SerialPort.LISTENING_EVENT_DATA_RECEIVED, data);
+    }
+
+    private static byte[] frame(int size) {
+        final String prefix = "{\"eventType\":\"chassis\",\"payload\":\"";
+        final String suffix = "\"}";
+        return (prefix + "x".repeat(size - prefix.length() - suffix.length()) + suffix).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static UartMqttGatewayProperties properties() {
+        final var topics = new UartMqttGatewayProperties.UartMqttMapping.MqttMapping();
+        topics.setInbound(INBOUND_TOPIC);
+        topics.setOutbound(OUTBOUND_TOPIC);
+        final var mapping = new UartMqttGatewayProperties.UartMqttMapping();
+        mapping.setLabel("chassis-microcontroller");
+        mapping.setEventType("chassis");
+        mapping.setMqtt(topics);
+        final var serial = new UartMqttGatewayProperties.Serial();
+        serial.setDelimiter("\n\n");
+        final var properties = new UartMqttGatewayProperties();
+        properties.setSerial(serial);
+        properties.setUartMqttMapping(List.of(mapping));
+        return properties;
+    }
+
+    private static class RecordingMqttService implements MqttService {
+        private String lastTopic;
+        private ByteBuffer lastPayload;
+        private MqttMessageHandler subscribedHandler;
+        private volatile int subscriptions;
+
+        @Override
+        public void connect() {
+        }
+
+        @Override
+        public void disconnect() {
+        }
+
+        @Override
+        public void publish(String topic, String payload) {
+            publish(topic, payload.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void publish(String topic, byte[] payload) {
+            publish(topic, ByteBuffer.wrap(payload));
+        }
+
+        @Override
+        public void publish(String topic, ByteBuffer payload) {
+            lastTopic = topic;
+            lastPayload = payload;
+        }
+
+        @Override
+        public void publish(String topic, byte[] payload, Publication publication) {
+            publish(topic, ByteBuffer.wrap(payload));
+        }
+
+        @Override
+        public synchronized void subscribe(String topic, MqttMessageHandler handler) {
+            subscribedHandler = handler;
+            subscriptions++;
+        }
+
+        @Override
+        public void subscribe(String topic, Subscription subscription, MqttMessageHandler handler) {
+            subscribe(topic, handler);
+        }
+
+        @Override
+        public void unsubscribe(String topic) {
+        }
+
+        @Override
+        public Map<String, PublishAckStats.Snapshot> getPublishAckStats() {
+            return Map.of();
+        }
+
+        @Override
+        public Map<String, TelemetrySpool.TopicStats> getSpoolStats() {
+            return Map.of();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package pl.orion.uart_mqtt_gateway.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fazecast.jSerialComm.SerialPort;
+
+import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties;
+
+class DeviceIdentityCacheTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void identityPrefersSerialNumberOverPortLocation() {
+        assertEquals("0403:6001#A10K3XYZ", DeviceIdentityCache.identityOf(port(0x0403, 0x6001, "A10K3XYZ", "1-1.2")));
+        assertEquals("1a86:7523@1-1.2", DeviceIdentityCache.identityOf(port(0x1a86, 0x7523, "Unknown", "1-1.2")));
+        assertNull(DeviceIdentityCache.identityOf(port(-1, -1, "Unknown", "0-0")));
+    }
+
+    @Test
+    void identitiesSurviveRestartWhileTheirMappingExists() {
+        final var properties = properties("chassis", "power");
+        final var cache = new DeviceIdentityCache(properties, new ObjectMapper());
+        cache.remember("0403:6001#A", "chassis");
+        cache.remember("0403:6001#B", "power");
+        cache.remember("0403:6001#A", "power");
+
+        final var restarted = new DeviceIdentityCache(properties("power"), new ObjectMapper());
+        restarted.load();
+
+        assertEquals("power", restarted.lookup("0403:6001#A"));
+        assertEquals("power", restarted.lookup("0403:6001#B"));
+        assertNull(restarted.lookup(null));
+
+        final var remapped = new DeviceIdentityCache(properties("chassis"), new ObjectMapper());
+        remapped.load();
+        assertNull(remapped.lookup("0403:6001#A"));
+    }
+
+    private static SerialPort port(int vendorId, int productId, String serialNumber, String location) {
+        final var port = mock(SerialPort.class);
+        when(port.getVendorID()).thenReturn(vendorId);
+        when(port.getProductID()).thenReturn(productId);
+        when(port.getSerialNumber()).thenReturn(serialNumber);
+        when(port.getPortLocation()).thenReturn(location);
+        return port;
+    }
+
+    private UartMqttGatewayProperties properties(String... eventTypes) {
+        final var properties = new UartMqttGatewayProperties();
+        properties.setUartMqttMapping(List.of(eventTypes).stream().map(eventType -> {
+            final var mapping = new UartMqttGatewayProperties.UartMqttMapping();
+            mapping.setEventType(eventType);
+            return mapping;
+        }).toList());
+        properties.setSerial(new UartMqttGatewayProperties.Serial());
+        properties.getSerial().getIdentityCache().setEnabled(true);
+        properties.getSerial().getIdentityCache().setFile(directory.resolve("device-identities.json").toString());
+        return properties;
+    }
+}
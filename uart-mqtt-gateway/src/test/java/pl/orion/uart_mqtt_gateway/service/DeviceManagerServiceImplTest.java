@@ -0,0 +1,293 @@
+package pl.orion.uart_mqtt_gateway.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.MockedStatic;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fazecast.jSerialComm.SerialPort;
+import com.fazecast.jSerialComm.SerialPortDataListener;
+import com.fazecast.jSerialComm.SerialPortEvent;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import pl.orion.uart_mqtt_gateway.actuator.UartHealthIndicator;
+import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties;
+import pl.orion.uart_mqtt_gateway.tracing.HopLatencyRecorder;
+
+class DeviceManagerServiceImplTest {
+
+    private static final int DEVICE_COUNT = 8;
+    private static final int IDENTIFICATION_TIMEOUT_MS = 400;
+    private static final int BOARD_RESPONSE_DELAY_MS = IDENTIFICATION_TIMEOUT_MS / 2;
+
+    private static final String ADAPTER_IDENTITY = "0403:6001#A10K3XYZ";
+
+    private final ScheduledExecutorService boards = Executors.newScheduledThreadPool(2);
+    private UartHealthIndicator uartHealthIndicator;
+    private MqttService mqttService;
+    private UartMqttGatewayProperties properties;
+    private DeviceIdentityCache identityCache;
+    private DeviceManagerServiceImpl deviceManagerService;
+
+    @TempDir
+    Path cacheDirectory;
+
+    @BeforeEach
+    void setUp() {
+        uartHealthIndicator = mock(UartHealthIndicator.class);
+        mqttService = mock(MqttService.class);
+        properties = properties();
+        properties.getSerial().getIdentityCache().setEnabled(true);
+        properties.getSerial().getIdentityCache().setFile(cacheDirectory.resolve("device-identities.json").toString());
+        properties.getSerial().getIdentityCache().setTopicIndexesFile(cacheDirectory.resolve("topic-indexes.json").toString());
+        identityCache = new DeviceIdentityCache(properties, new ObjectMapper());
+        deviceManagerService = new DeviceManagerServiceImpl(uartHealthIndicator, properties, mqttService,
+            new SimpleMeterRegistry(), new HopLatencyRecorder(), identityCache, new TopicIndexRegistry(properties, new ObjectMapper()));
+    }
+
+    @AfterEach
+    void tearDown() {
+        deviceManagerService.stop();
+        boards.shutdownNow();
+    }
+
+    @Test
+    void identifiesAllPendingDevicesWithinSingleWindow() {
+        final List<SerialPort> respondingPorts = new ArrayList<>();
+        final List<SerialPort> silentPorts = new ArrayList<>();
+        for (int i = 0; i < DEVICE_COUNT; i++) {
+            if (i % 2 == 0) {
+                respondingPorts.add(fakeBoard("/dev/ttyUSB" + i, true));
+            } else {
+                silentPorts.add(fakeBoard("/dev/ttyUSB" + i, false));
+            }
+        }
+        final List<SerialPort> allPorts = new ArrayList<>(respondingPorts);
+        allPorts.addAll(silentPorts);
+
+        final long scanStarted = System.nanoTime();
+        try (MockedStatic<SerialPort> serialPort = mockStatic(SerialPort.class)) {
+            serialPort.when(SerialPort::getCommPorts).thenReturn(allPorts.toArray(SerialPort[]::new));
+            deviceManagerService.scan();
+        }
+        final long scanDurationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - scanStarted);
+        assertTrue(scanDurationMs < IDENTIFICATION_TIMEOUT_MS, "scan() blocked for " + scanDurationMs + " ms");
+
+        for (SerialPort port : respondingPorts) {
+            verify(uartHealthIndicator, timeout(IDENTIFICATION_TIMEOUT_MS)).clearUartDetectionFailure(port.getSystemPortPath());
+        }
+        for (SerialPort port : silentPorts) {
+            verify(uartHealthIndicator, timeout(2L * IDENTIFICATION_TIMEOUT_MS)).registerUartDetectionFailure(port.getSystemPortPath());
+        }
+        final long allResolvedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - scanStarted);
+
+        // Sequential waiting would take DEVICE_COUNT / 2 windows for the silent boards alone
+        assertTrue(allResolvedMs < 2L * IDENTIFICATION_TIMEOUT_MS,
+            "Identification of " + DEVICE_COUNT + " devices took " + allResolvedMs + " ms");
+        for (SerialPort port : respondingPorts) {
+            assertEquals(DeviceConnState.CONNECTED,
+                deviceManagerService.getManagedDevices().get(port.getSystemPortPath()).getState());
+            verify(uartHealthIndicator, never()).registerUartDetectionFailure(port.getSystemPortPath());
+        }
+        assertEquals(DEVICE_COUNT, deviceManagerService.getManagedDevices().size());
+    }
+
+    @Test
+    void knownAdapterIsSubscribedBeforeItsFirstFrame() {
+        identityCache.remember(ADAPTER_IDENTITY, "power");
+        final var port = usbAdapter(fakeBoard("/dev/ttyUSB0", false));
+
+        scan(port);
+
+        assertEquals(DeviceConnState.CONNECTED, deviceManagerService.getManagedDevices().get("/dev/ttyUSB0").getState());
+        verify(mqttService).subscribe(eq("orion/topic/power/inbound"), any(), any());
+        verify(uartHealthIndicator, timeout(IDENTIFICATION_TIMEOUT_MS)).clearUartDetectionFailure("/dev/ttyUSB0");
+    }
+
+    @Test
+    void adapterReportingAnotherEventTypeIsRemapped() {
+        identityCache.remember(ADAPTER_IDENTITY, "chassis");
+        final var port = usbAdapter(fakeBoard("/dev/ttyUSB0", true));
+
+        scan(port);
+        verify(mqttService).subscribe(eq("orion/topic/chassis/inbound"), any(), any());
+        verify(mqttService, timeout(2L * BOARD_RESPONSE_DELAY_MS)).subscribe(eq("orion/topic/power/inbound"), any(), any());
+        verify(mqttService).unsubscribe("orion/topic/chassis/inbound");
+
+        scan(port);
+        assertEquals("power", deviceManagerService.getManagedDevices().get("/dev/ttyUSB0").getEventType().getNow(null));
+        final var restarted = new DeviceIdentityCache(properties, new ObjectMapper());
+        restarted.load();
+        assertEquals("power", restarted.lookup(ADAPTER_IDENTITY));
+    }
+
+    @Test
+    void identicalBoardsGetIndexedTopics() {
+        final var topics = properties.getUartMqttMappingByEventType().get("power").getMqtt();
+        topics.setInbound("orion/topic/power/{index}/inbound");
+        topics.setOutbound("orion/topic/power/{index}/outbound");
+
+        scan(fakeBoard("/dev/ttyUSB0", true), fakeBoard("/dev/ttyUSB1", true));
+
+        verify(uartHealthIndicator, timeout(IDENTIFICATION_TIMEOUT_MS)).clearUartDetectionFailure("/dev/ttyUSB0");
+        verify(uartHealthIndicator, timeout(IDENTIFICATION_TIMEOUT_MS)).clearUartDetectionFailure("/dev/ttyUSB1");
+        verify(mqttService).subscribe(eq("orion/topic/power/0/inbound"), any(), any());
+        verify(mqttService).subscribe(eq("orion/topic/power/1/inbound"), any(), any());
+        assertEquals(Set.of("orion/topic/power/0/outbound", "orion/topic/power/1/outbound"),
+            deviceManagerService.getManagedDevices().values().stream()
+                .map(device -> device.getMqttTopics().getOutbound())
+                .collect(Collectors.toSet()));
+    }
+
+    @Test
+    void boardIsIdentifiedByRetriedProbe() {
+        properties.getSerial().getProbe().setEnabled(true);
+        final var port = mock(SerialPort.class);
+        when(port.getSystemPortPath()).thenReturn("/dev/ttyUSB0");
+        final var listener = new AtomicReference<SerialPortDataListener>();
+        when(port.addDataListener(any())).thenAnswer(invocation -> {
+            listener.set(invocation.getArgument(0));
+            return true;
+        });
+        final var requests = new AtomicInteger();
+        when(port.writeBytes(any(byte[].class), anyInt())).thenAnswer(invocation -> {
+            // The first request is lost, the retry is answered
+            if (requests.incrementAndGet() == 2) {
+                final byte[] reply = "{\"eventType\":\"power\",\"identify\":true}".getBytes(StandardCharsets.UTF_8);
+                listener.get().serialEvent(new SerialPortEvent(port, SerialPort.LISTENING_EVENT_DATA_RECEIVED, reply));
+            }
+            return invocation.getArgument(1);
+        });
+
+        scan(port);
+
+        verify(uartHealthIndicator, timeout(IDENTIFICATION_TIMEOUT_MS)).clearUartDetectionFailure("/dev/ttyUSB0");
+        assertEquals(DeviceConnState.CONNECTED, deviceManagerService.getManagedDevices().get("/dev/ttyUSB0").getState());
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    void probeBlockedOnOnePortDoesNotDelayAnotherDevicesLatestFlush() {
+        properties.getSerial().getProbe().setEnabled(true);
+        final var policy = properties.getUartMqttMapping().getFirst().getOutboundPolicy();
+        policy.setMode(UartMqttGatewayProperties.UartMqttMapping.OutboundPolicy.Mode.LATEST);
+        policy.setIntervalMs(20);
+        final var released = new CountDownLatch(1);
+        final var stuck = mock(SerialPort.class);
+        when(stuck.getSystemPortPath()).thenReturn("/dev/ttyUSB1");
+        when(stuck.openPort()).thenReturn(true);
+        when(stuck.writeBytes(any(byte[].class), anyInt())).thenAnswer(invocation -> {
+            released.await();
+            return 0;
+        });
+        final var board = fakeBoard("/dev/ttyUSB0", true);
+
+        try {
+            scan(stuck, board);
+
+            verify(mqttService, timeout(IDENTIFICATION_TIMEOUT_MS))
+                .publish(eq("orion/topic/power/outbound"), any(byte[].class), any());
+            verify(stuck, timeout(IDENTIFICATION_TIMEOUT_MS)).writeBytes(any(byte[].class), anyInt());
+        } finally {
+            released.countDown();
+        }
+    }
+
+    @Test
+    void repeatedlyFailingPortIsQuarantined() {
+        properties.getSerial().getQuarantine().setThreshold(1);
+        final var port = fakeBoard("/dev/ttyUSB0", false);
+
+        scan(port);
+        verify(port, timeout(2L * IDENTIFICATION_TIMEOUT_MS)).closePort();
+        scan(port);
+
+        verify(port, times(1)).openPort();
+        verify(uartHealthIndicator).registerUartDetectionFailure("/dev/ttyUSB0");
+    }
+
+    private void scan(SerialPort... ports) {
+        try (MockedStatic<SerialPort> serialPort = mockStatic(SerialPort.class)) {
+            serialPort.when(SerialPort::getCommPorts).thenReturn(ports);
+            deviceManagerService.scan();
+        }
+    }
+
+    private static SerialPort usbAdapter(SerialPort port) {
+        when(port.getVendorID()).thenReturn(0x0403);
+        when(port.getProductID()).thenReturn(0x6001);
+        when(port.getSerialNumber()).thenReturn("A10K3XYZ");
+        return port;
+    }
+
+    private SerialPort fakeBoard(String portPath, boolean responding) {
+        final SerialPort port = mock(SerialPort.class);
+        when(port.getSystemPortPath()).thenReturn(portPath);
+        when(port.openPort()).thenReturn(true);
+        when(port.addDataListener(any())).thenAnswer(invocation -> {
+            final SerialPortDataListener listener = invocation.getArgument(0);
+            if (responding) {
+                final byte[] frame = "{\"eventType\":\"power\",\"payload\":{}}".getBytes(StandardCharsets.UTF_8);
+                boards.schedule(
+                    () -> listener.serialEvent(new SerialPortEvent(port, SerialPort.LISTENING_EVENT_DATA_RECEIVED, frame)),
+                    BOARD_RESPONSE_DELAY_MS, TimeUnit.MILLISECONDS);
+            }
+            return true;
+        });
+        return port;
+    }
+
+    private static UartMqttGatewayProperties properties() {
+        final var topics = new UartMqttGatewayProperties.UartMqttMapping.MqttMapping();
+        topics.setInbound("orion/topic/power/inbound");
+        topics.setOutbound("orion/topic/power/outbound");
+        final var mapping = new UartMqttGatewayProperties.UartMqttMapping();
+        mapping.setLabel("power-microcontroller");
+        mapping.setEventType("power");
+        mapping.setMqtt(topics);
+        final var chassisTopics = new UartMqttGatewayProperties.UartMqttMapping.MqttMapping();
+        chassisTopics.setInbound("orion/topic/chassis/inbound");
+        chassisTopics.setOutbound("orion/topic/chassis/outbound");
+        final var chassis = new UartMqttGatewayProperties.UartMqttMapping();
+        chassis.setLabel("chassis-microcontroller");
+        chassis.setEventType("chassis");
+        chassis.setMqtt(chassisTopics);
+        final var serial = new UartMqttGatewayProperties.Serial();
+        serial.setAllowedPortNamePrefixes(List.of("/dev/ttyUSB"));
+        serial.setIdentificationTimeoutMs(IDENTIFICATION_TIMEOUT_MS);
+        serial.setDelimiter("\n\n");
+        final var properties = new UartMqttGatewayProperties();
+        properties.setSerial(serial);
+        properties.setUartMqttMapping(List.of(mapping, chassis));
+        return properties;
+    }
+}
@@ -0,0 +1,44 @@
+package pl.orion.uart_mqtt_gateway.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+class EventTypeSnifferTest {
+
+    @Test
+    void findsTopLevelEventType() throws IOException {
+        assertEquals("power", sniff("{\"eventType\":\"power\",\"payload\":{\"voltage\":12.1}}"));
+    }
+
+    @Test
+    void skipsNestedEventTypeAndPrecedingFields() throws IOException {
+        assertEquals("science", sniff("{\"payload\":{\"eventType\":\"chassis\",\"values\":[1,2,3]},\"eventType\":\"science\"}"));
+    }
+
+    @Test
+    void stopsParsingAfterEventType() throws IOException {
+        assertEquals("chassis", sniff("{\"eventType\":\"chassis\",\"payload\":{\"truncated"));
+    }
+
+    @Test
+    void returnsNullWithoutEventType() throws IOException {
+        assertNull(sniff("{\"payload\":{}}"));
+        assertNull(sniff("[\"eventType\",\"chassis\"]"));
+        assertNull(sniff("{\"eventType\":{\"name\":\"chassis\"}}"));
+    }
+
+    @Test
+    void rejectsMalformedFrame() {
+        assertThrows(IOException.class, () -> sniff("{eventType:chassis}"));
+    }
+
+    private static String sniff(String frame) throws IOException {
+        return EventTypeSniffer.sniff(frame.getBytes(StandardCharsets.UTF_8));
+    }
+}
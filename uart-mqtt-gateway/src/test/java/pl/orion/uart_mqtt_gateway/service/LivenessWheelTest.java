@@ -0,0 +1,79 @@
+package pl.orion.uart_mqtt_gateway.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+class LivenessWheelTest {
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final AtomicLong clock = new AtomicLong(1_000_000_000L);
+    private final LivenessWheel wheel = new LivenessWheel(TICK_NANOS, clock::get);
+    private final AtomicInteger expired = new AtomicInteger();
+
+    @Test
+    void expiresWithinATickOfTheDeadline() {
+        final long deadline = clock.get() + TimeUnit.MILLISECONDS.toNanos(105);
+        wheel.watch(() -> deadline, expired::incrementAndGet);
+
+        advanceMillis(100);
+        assertEquals(0, expired.get());
+
+        advanceMillis(10);
+        assertEquals(1, expired.get());
+
+        advanceMillis(100);
+        assertEquals(1, expired.get());
+    }
+
+    @Test
+    void activityPostponesExpiry() {
+        final var lastActivity = new AtomicLong(clock.get());
+        wheel.watch(() -> lastActivity.get() + TimeUnit.MILLISECONDS.toNanos(50), expired::incrementAndGet);
+
+        for (int i = 0; i < 10; i++) {
+            advanceMillis(30);
+            lastActivity.set(clock.get());
+        }
+        assertEquals(0, expired.get());
+
+        advanceMillis(60);
+        assertEquals(1, expired.get());
+    }
+
+    @Test
+    void cancelledTimeoutNeverFires() {
+        final long deadline = clock.get() + TimeUnit.MILLISECONDS.toNanos(20);
+        final var timeout = wheel.watch(() -> deadline, expired::incrementAndGet);
+        wheel.advance();
+
+        timeout.cancel();
+        advanceMillis(100);
+
+        assertEquals(0, expired.get());
+    }
+
+    @Test
+    void deadlineBeyondOneLapStillFires() {
+        // 512 buckets of 10 ms cover a little over 5 s
+        final long deadline = clock.get() + TimeUnit.SECONDS.toNanos(12);
+        wheel.watch(() -> deadline, expired::incrementAndGet);
+
+        advanceMillis(11_990);
+        assertEquals(0, expired.get());
+
+        advanceMillis(20);
+        assertEquals(1, expired.get());
+    }
+
+    private void advanceMillis(long millis) {
+        for (long elapsed = 0; elapsed < millis; elapsed += 5) {
+            clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(5));
+            wheel.advance();
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package pl.orion.uart_mqtt_gateway.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.hivemq.client.mqtt.datatypes.MqttQos;
+import com.hivemq.client.mqtt.mqtt5.datatypes.Mqtt5UserProperties;
+import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5Publish;
+import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5PublishResult;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties;
+import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties.UartMqttMapping.MqttMapping.Publication;
+import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties.UartMqttMapping.MqttMapping.Subscription;
+import pl.orion.uart_mqtt_gateway.tracing.TraceContext;
+
+class MqttServiceImplTest {
+    private static final String OUTBOUND_TOPIC = "orion/topic/chassis/outbound";
+    private static final String INBOUND_TOPIC = "orion/topic/chassis/inbound";
+
+    private final List<Mqtt5Publish> sent = new ArrayList<>();
+    private Throwable publishError;
+    private final UartMqttGatewayProperties properties = properties();
+    private final MqttServiceImpl mqttService = new MqttServiceImpl(properties, new SimpleMeterRegistry()) {
+        @Override
+        CompletableFuture<Mqtt5PublishResult> send(Mqtt5Publish publish) {
+            sent.add(publish);
+            return CompletableFuture.completedFuture(result(publish, publishError));
+        }
+    };
+
+    @Test
+    void publishCarriesQosRetainAndExpiryOfThePublication() {
+        final var publication = new Publication();
+        publication.setQos(2);
+        publication.setRetain(true);
+        publication.setMessageExpirySeconds(30);
+
+        mqttService.publish(OUTBOUND_TOPIC, bytes("{}"), publication);
+
+        final var publish = sent.getFirst();
+        assertEquals(MqttQos.EXACTLY_ONCE, publish.getQos());
+        assertTrue(publish.isRetain());
+        assertEquals(OptionalLong.of(30), publish.getMessageExpiryInterval());
+    }
+
+    @Test
+    void defaultPublicationIsAtLeastOnceWithoutRetainOrExpiry() {
+        mqttService.publish(OUTBOUND_TOPIC, "{}");
+
+        final var publish = sent.getFirst();
+        assertEquals(MqttQos.AT_LEAST_ONCE, publish.getQos());
+        assertFalse(publish.isRetain());
+        assertEquals(OptionalLong.empty(), publish.getMessageExpiryInterval());
+    }
+
+    @Test
+    void acknowledgementsAndFailuresAreCountedPerTopic() {
+        final var publication = new Publication();
+        publication.setQos(0);
+        mqttService.publish(OUTBOUND_TOPIC, bytes("{}"), publication);
+        publishError = new IllegalStateException("not connected");
+        mqttService.publish(OUTBOUND_TOPIC, bytes("{}"), publication);
+
+        final var stats = mqttService.getPublishAckStats().get(OUTBOUND_TOPIC);
+        assertEquals(0, stats.qos());
+        assertEquals(1, stats.acked());
+        assertEquals(1, stats.failed());
+    }
+
+    @Test
+    void deliveredCommandGetsTheEarlierOfMessageExpiryAndMaxAge() {
+        final var subscription = new Subscription();
+        subscription.setMaxAgeMs(500);
+        final long[] deadline = new long[1];
+        final MqttMessageHandler handler = new MqttMessageHandler() {
+            @Override
+            public void handleMessage(String topic, ByteBuffer payload) {
+            }
+
+            @Override
+            public void handleMessage(String topic, ByteBuffer payload, TraceContext trace, long deadlineNanos) {
+                deadline[0] = deadlineNanos;
+            }
+        };
+
+        final long before = System.nanoTime();
+        mqttService.deliver(INBOUND_TOPIC, subscription,
+            Mqtt5Publish.builder().topic(INBOUND_TOPIC).messageExpiryInterval(10).build(), handler);
+
+        assertTrue(deadline[0] - before >= TimeUnit.MILLISECONDS.toNanos(500));
+        assertTrue(deadline[0] - System.nanoTime() <= TimeUnit.MILLISECONDS.toNanos(500));
+    }
+
+    @Test
+    void untracedCommandsAreSampledAtTheConfiguredRate() {
+        final var untraced = Mqtt5Publish.builder().topic(INBOUND_TOPIC).build();
+
+        properties.getMqtt().setTracingSampleRate(0.0);
+        assertNull(deliveredTrace(untraced));
+        properties.getMqtt().setTracingSampleRate(1.0);
+        final var sampled = deliveredTrace(untraced);
+        assertNotNull(sampled);
+        assertNull(sampled.lastHop());
+    }
+
+    @Test
+    void tracedCommandsAreFollowedUnlessTracingIsDisabled() {
+        final var traced = Mqtt5Publish.builder()
+            .topic(INBOUND_TOPIC)
+            .userProperties(Mqtt5UserProperties.builder()
+                .add("orion-trace-id", "trace-1")
+                .add("orion-trace-hop", "controller-published@1700")
+                .build())
+            .build();
+        properties.getMqtt().setTracingSampleRate(0.0);
+
+        assertEquals(new TraceContext("trace-1", "controller-published", 1_700), deliveredTrace(traced));
+        properties.getMqtt().setTracingEnabled(false);
+        assertNull(deliveredTrace(traced));
+    }
+
+    @Test
+    void commandDeadline() {
+        assertEquals(MqttMessageHandler.NO_DEADLINE, MqttServiceImpl.commandDeadline(1_000, OptionalLong.empty(), 0));
+        assertEquals(1_000 + TimeUnit.MILLISECONDS.toNanos(500), MqttServiceImpl.commandDeadline(1_000, OptionalLong.empty(), 500));
+        assertEquals(1_000 + TimeUnit.SECONDS.toNanos(2), MqttServiceImpl.commandDeadline(1_000, OptionalLong.of(2), 0));
+        assertEquals(1_000 + TimeUnit.SECONDS.toNanos(2), MqttServiceImpl.commandDeadline(1_000, OptionalLong.of(2), 5_000));
+        // an expired message forwarded anyway must not reach the UART
+        assertEquals(1_000, MqttServiceImpl.commandDeadline(1_000, OptionalLong.of(0), 500));
+    }
+
+    private TraceContext deliveredTrace(Mqtt5Publish publish) {
+        final var delivered = new ArrayList<TraceContext>();
+        mqttService.deliver(INBOUND_TOPIC, new Subscription(), publish, new MqttMessageHandler() {
+            @Override
+            public void handleMessage(String topic, ByteBuffer payload) {
+            }
+
+            @Override
+            public void handleMessage(String topic, ByteBuffer payload, TraceContext trace, long deadlineNanos) {
+                delivered.add(trace);
+            }
+        });
+        assertEquals(1, delivered.size());
+        return delivered.get(0);
+    }
+
+    private static UartMqttGatewayProperties properties() {
+        final var properties = new UartMqttGatewayProperties();
+        properties.setMqtt(new UartMqttGatewayProperties.Mqtt());
+        properties.setUartMqttMapping(List.of());
+        return properties;
+    }
+
+    private static Mqtt5PublishResult result(Mqtt5Publish publish, Throwable error) {
+        return new Mqtt5PublishResult() {
+            @Override
+            public Mqtt5Publish getPublish() {
+                return publish;
+            }
+
+            @Override
+            public Optional<Throwable> getError() {
+                return Optional.ofNullable(error);
+            }
+        };
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,114 @@
+package pl.orion.uart_mqtt_gateway.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties.UartMqttMapping.OutboundPolicy;
+
+class OutboundLimiterTest {
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    private final List<byte[]> published = new CopyOnWriteArrayList<>();
+    private OutboundLimiter limiter;
+
+    @AfterEach
+    void tearDown() {
+        limiter.stop();
+        timer.shutdownNow();
+    }
+
+    @Test
+    void forwardsEveryFrameByDefault() {
+        limiter = new OutboundLimiter(new OutboundPolicy(), published::add);
+
+        for (int i = 0; i < 100; i++) {
+            limiter.offer(new byte[] {(byte) i});
+        }
+
+        assertEquals(100, published.size());
+        assertEquals(new OutboundLimiter.Stats(100, 0), limiter.getStats());
+    }
+
+    @Test
+    void decimationForwardsEveryNthFrame() {
+        final var policy = policy(OutboundPolicy.Mode.DECIMATE);
+        policy.setDecimation(4);
+        limiter = new OutboundLimiter(policy, published::add);
+
+        for (int i = 0; i < 10; i++) {
+            limiter.offer(new byte[] {(byte) i});
+        }
+
+        assertEquals(3, published.size());
+        assertArrayEquals(new byte[] {4}, published.get(1));
+        assertEquals(new OutboundLimiter.Stats(3, 7), limiter.getStats());
+    }
+
+    @Test
+    void framesInAReusedBufferAreCopiedWhenForwarded() {
+        final var policy = policy(OutboundPolicy.Mode.DECIMATE);
+        policy.setDecimation(2);
+        limiter = new OutboundLimiter(policy, published::add);
+        final byte[] decoderBuffer = new byte[8];
+
+        for (int i = 0; i < 4; i++) {
+            decoderBuffer[2] = (byte) i;
+            decoderBuffer[3] = (byte) -i;
+            limiter.offer(decoderBuffer, 2, 2);
+        }
+
+        assertEquals(2, published.size());
+        assertArrayEquals(new byte[] {0, 0}, published.get(0));
+        assertArrayEquals(new byte[] {2, -2}, published.get(1));
+    }
+
+    @Test
+    void maxRateSuppressesBurst() {
+        final var policy = policy(OutboundPolicy.Mode.MAX_RATE);
+        policy.setMaxRatePerSecond(10);
+        limiter = new OutboundLimiter(policy, published::add);
+
+        for (int i = 0; i < 1000; i++) {
+            limiter.offer(new byte[] {(byte) i});
+        }
+
+        // A tight loop finishes well within one 100 ms slot
+        assertEquals(1, published.size());
+        assertEquals(999, limiter.getStats().suppressed());
+    }
+
+    @Test
+    void latestModePublishesOnlyMostRecentFrameFromTimer() throws InterruptedException {
+        final var policy = policy(OutboundPolicy.Mode.LATEST);
+        policy.setIntervalMs(50);
+        limiter = new OutboundLimiter(policy, published::add);
+        limiter.start(timer);
+
+        limiter.offer(new byte[] {1});
+        limiter.offer(new byte[] {2});
+        limiter.offer(new byte[] {3});
+        assertTrue(published.isEmpty());
+
+        TimeUnit.MILLISECONDS.sleep(200);
+
+        assertEquals(1, published.size());
+        assertArrayEquals(new byte[] {3}, published.get(0));
+        assertEquals(new OutboundLimiter.Stats(1, 2), limiter.getStats());
+    }
+
+    private static OutboundPolicy policy(OutboundPolicy.Mode mode) {
+        final var policy = new OutboundPolicy();
+        policy.setMode(mode);
+        return policy;
+    }
+}
@@ -0,0 +1,39 @@
+package pl.orion.uart_mqtt_gateway.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class PublishAckStatsTest {
+
+    private final Timer timer = Timer.builder("mqtt.publish.ack").register(new SimpleMeterRegistry());
+    private final PublishAckStats stats = new PublishAckStats(timer);
+
+    @Test
+    void latencyIsAveragedOverAcknowledgedPublishesOnly() {
+        stats.record(1, TimeUnit.MILLISECONDS.toNanos(2), true);
+        stats.record(1, TimeUnit.MILLISECONDS.toNanos(6), true);
+        stats.record(1, TimeUnit.MILLISECONDS.toNanos(100), false);
+
+        assertEquals(new PublishAckStats.Snapshot(1, 2, 1, 4.0, 6.0), stats.snapshot());
+        assertEquals(2, timer.count());
+    }
+
+    @Test
+    void snapshotReportsTheLastQos() {
+        stats.record(1, 1000, true);
+        stats.record(0, 1000, true);
+
+        assertEquals(0, stats.snapshot().qos());
+    }
+
+    @Test
+    void emptySnapshot() {
+        assertEquals(new PublishAckStats.Snapshot(0, 0, 0, 0.0, 0.0), stats.snapshot());
+    }
+}
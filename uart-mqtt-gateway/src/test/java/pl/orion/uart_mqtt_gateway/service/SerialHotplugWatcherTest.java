@@ -0,0 +1,74 @@
+package pl.orion.uart_mqtt_gateway.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties;
+
+class SerialHotplugWatcherTest {
+
+    @TempDir
+    private Path devDirectory;
+
+    private final BlockingQueue<String> attached = new LinkedBlockingQueue<>();
+    private final BlockingQueue<String> detached = new LinkedBlockingQueue<>();
+    private UartMqttGatewayProperties.Serial serial;
+    private SerialHotplugWatcher watcher;
+
+    @BeforeEach
+    void setUp() {
+        serial = new UartMqttGatewayProperties.Serial();
+        serial.setAllowedPortNamePrefixes(List.of(
+            devDirectory.resolve("ttyUSB").toString(),
+            "regex:" + devDirectory + "/ttyACM[3-9]"));
+        watcher = new SerialHotplugWatcher(devDirectory, serial::isAllowedPort, 0, attached::add, detached::add, () -> {});
+        assertTrue(watcher.start());
+    }
+
+    @AfterEach
+    void tearDown() {
+        watcher.stop();
+    }
+
+    @Test
+    void reportsMatchingPortsAsTheyAppearAndVanish() throws IOException, InterruptedException {
+        final Path port = Files.createFile(devDirectory.resolve("ttyUSB0"));
+        assertEquals(port.toString(), attached.poll(5, TimeUnit.SECONDS));
+
+        Files.delete(port);
+        assertEquals(port.toString(), detached.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void ignoresPortsOutsideTheAllowList() throws IOException, InterruptedException {
+        Files.createFile(devDirectory.resolve("ttyACM0"));
+        Files.createFile(devDirectory.resolve("ttyS0"));
+        final Path allowed = Files.createFile(devDirectory.resolve("ttyACM3"));
+
+        assertEquals(allowed.toString(), attached.poll(5, TimeUnit.SECONDS));
+        assertNull(attached.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void compilesPrefixesAndRegexesIntoSingleMatcher() {
+        assertTrue(serial.isAllowedPort(devDirectory + "/ttyUSB12"));
+        assertTrue(serial.isAllowedPort(devDirectory + "/ttyACM9"));
+        assertFalse(serial.isAllowedPort(devDirectory + "/ttyACM10"));
+        assertFalse(serial.isAllowedPort("/dev/ttyUSB0"));
+    }
+}
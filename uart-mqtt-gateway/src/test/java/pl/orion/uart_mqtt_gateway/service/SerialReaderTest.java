@@ -0,0 +1,89 @@
+package pl.orion.uart_mqtt_gateway.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+
+class SerialReaderTest {
+
+    private final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+
+    @Test
+    void readsAreDispatchedUntilPortDisappears() throws InterruptedException {
+        final var reads = new LinkedBlockingQueue<>(List.of("ab", "", "cd"));
+        final var disconnected = new CountDownLatch(1);
+        final var reader = new SerialReader("/dev/ttyTEST0", (buffer, length) -> {
+            final String chunk = reads.poll();
+            if (chunk == null) {
+                return -1;
+            }
+            final byte[] bytes = chunk.getBytes(StandardCharsets.UTF_8);
+            System.arraycopy(bytes, 0, buffer, 0, bytes.length);
+            return bytes.length;
+        }, 64, this::onData, disconnected::countDown);
+
+        reader.start();
+
+        assertTrue(disconnected.await(1, TimeUnit.SECONDS));
+        assertEquals("ab", received.poll());
+        assertEquals("cd", received.poll());
+        assertNull(received.poll());
+        assertFalse(reader.isRunning());
+    }
+
+    @Test
+    void readsBlockOnAPlatformThread() throws InterruptedException {
+        final var virtual = new LinkedBlockingQueue<Boolean>();
+        final var reader = new SerialReader("/dev/ttyTEST0", (buffer, length) -> {
+            virtual.add(Thread.currentThread().isVirtual());
+            return -1;
+        }, 64, this::onData, () -> {});
+
+        reader.start();
+
+        assertFalse(virtual.poll(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void stoppedReaderDoesNotReportDisconnect() throws InterruptedException {
+        final var portClosed = new AtomicBoolean();
+        final var disconnected = new CountDownLatch(1);
+        final var reader = new SerialReader("/dev/ttyTEST0", (buffer, length) -> {
+            if (portClosed.get()) {
+                return -1;
+            }
+            sleep(5);
+            return 0;
+        }, 64, this::onData, disconnected::countDown);
+
+        reader.start();
+        reader.stop();
+        portClosed.set(true);
+
+        assertFalse(disconnected.await(100, TimeUnit.MILLISECONDS));
+        assertFalse(reader.isRunning());
+    }
+
+    private void onData(byte[] buffer, int offset, int length) {
+        received.add(new String(buffer, offset, length, StandardCharsets.UTF_8));
+    }
+
+    private static void sleep(long millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
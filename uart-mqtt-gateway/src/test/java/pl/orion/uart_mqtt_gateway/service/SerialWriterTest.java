@@ -0,0 +1,240 @@
+package pl.orion.uart_mqtt_gateway.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties.Serial.Writer.OverflowPolicy;
+import pl.orion.uart_mqtt_gateway.framing.DelimiterFraming;
+import pl.orion.uart_mqtt_gateway.framing.FrameEncoder;
+import pl.orion.uart_mqtt_gateway.tracing.HopLatencyRecorder;
+import pl.orion.uart_mqtt_gateway.tracing.TraceContext;
+
+class SerialWriterTest {
+
+    private final BlockingQueue<String> writes = new LinkedBlockingQueue<>();
+    private final HopLatencyRecorder traceRecorder = new HopLatencyRecorder();
+    private SerialWriter serialWriter;
+
+    @AfterEach
+    void tearDown() {
+        serialWriter.stop();
+    }
+
+    @Test
+    void queuedCommandsLeaveInSingleWrite() throws InterruptedException {
+        serialWriter = writer(8, OverflowPolicy.DROP_OLDEST, 64);
+        enqueue("orion/topic/chassis/inbound", "a");
+        enqueue("orion/topic/chassis/inbound", "b");
+        enqueue("orion/topic/chassis/inbound", "c");
+
+        serialWriter.start();
+
+        assertEquals("abc", writes.poll(1, TimeUnit.SECONDS));
+        assertNull(writes.poll(100, TimeUnit.MILLISECONDS));
+        assertEquals(3, serialWriter.getStats().written());
+        assertEquals(1, serialWriter.getStats().writeCalls());
+    }
+
+    @Test
+    void fullQueueDropsOldestCommand() throws InterruptedException {
+        serialWriter = writer(2, OverflowPolicy.DROP_OLDEST, 64);
+        enqueue("orion/topic/chassis/inbound", "a");
+        enqueue("orion/topic/chassis/inbound", "b");
+        enqueue("orion/topic/chassis/inbound", "c");
+        assertEquals(2, serialWriter.getQueueDepth());
+
+        serialWriter.start();
+
+        assertEquals("bc", writes.poll(1, TimeUnit.SECONDS));
+        assertEquals(1, serialWriter.getStats().dropped());
+    }
+
+    @Test
+    void coalescesToLatestCommandPerTopic() throws InterruptedException {
+        serialWriter = writer(8, OverflowPolicy.COALESCE_LATEST, 64);
+        enqueue("orion/topic/chassis/inbound", "1");
+        enqueue("orion/topic/power/inbound", "x");
+        enqueue("orion/topic/chassis/inbound", "2");
+        enqueue("orion/topic/chassis/inbound", "3");
+
+        serialWriter.start();
+
+        assertEquals("3x", writes.poll(1, TimeUnit.SECONDS));
+        assertEquals(2, serialWriter.getStats().coalesced());
+        assertEquals(0, serialWriter.getStats().dropped());
+    }
+
+    @Test
+    void failedEncodeLeavesThePendingCommandIntact() throws InterruptedException {
+        final var framing = new DelimiterFraming(new byte[] {'\n', '\n'}, 4096);
+        serialWriter = new SerialWriter("/dev/ttyTEST0", (buffer, length) -> {
+            writes.add(new String(buffer, 0, length, StandardCharsets.UTF_8));
+            return length;
+        }, new FrameEncoder() {
+            @Override
+            public int maxEncodedLength(int payloadLength) {
+                return payloadLength;
+            }
+
+            @Override
+            public int maxPayloadLength() {
+                return 4096;
+            }
+
+            @Override
+            public int encode(ByteBuffer payload, byte[] out) {
+                if (payload.get(payload.position()) == '!') {
+                    throw new IllegalStateException("unencodable");
+                }
+                return framing.encode(payload, out);
+            }
+        }, 8, OverflowPolicy.COALESCE_LATEST, 64, traceRecorder);
+        enqueue("orion/topic/chassis/inbound", "1");
+        enqueue("orion/topic/chassis/inbound", "!");
+        enqueue("orion/topic/power/inbound", "!");
+        assertEquals(1, serialWriter.getQueueDepth());
+
+        serialWriter.start();
+
+        assertEquals("1", writes.poll(1, TimeUnit.SECONDS));
+        assertNull(writes.poll(100, TimeUnit.MILLISECONDS));
+        assertEquals(2, serialWriter.getStats().dropped());
+        assertEquals(0, serialWriter.getStats().coalesced());
+    }
+
+    @Test
+    void commandLargerThanBatchIsWrittenOnItsOwn() throws InterruptedException {
+        serialWriter = writer(8, OverflowPolicy.DROP_OLDEST, 4);
+        enqueue("orion/topic/chassis/inbound", "0123456789");
+        enqueue("orion/topic/chassis/inbound", "ab");
+
+        serialWriter.start();
+
+        assertEquals("0123456789", writes.poll(1, TimeUnit.SECONDS));
+        assertEquals("ab", writes.poll(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void commandsOverMaxFrameBytesAreDropped() throws InterruptedException {
+        serialWriter = new SerialWriter("/dev/ttyTEST0", (buffer, length) -> {
+            writes.add(new String(buffer, 0, length, StandardCharsets.UTF_8));
+            return length;
+        }, new DelimiterFraming(new byte[] {'\n', '\n'}, 4), 8, OverflowPolicy.DROP_OLDEST, 64, traceRecorder);
+        enqueue("orion/topic/chassis/inbound", "abcdefg\n\n");
+        enqueue("orion/topic/chassis/inbound", "abcd\n\n");
+
+        serialWriter.start();
+
+        assertEquals("abcd\n\n", writes.poll(1, TimeUnit.SECONDS));
+        assertEquals(1, serialWriter.getStats().dropped());
+        assertEquals(0, serialWriter.getQueueDepth());
+    }
+
+    @Test
+    void commandsPastTheirDeadlineAreNotWritten() throws InterruptedException {
+        serialWriter = writer(8, OverflowPolicy.DROP_OLDEST, 64);
+        serialWriter.enqueue("orion/topic/chassis/inbound", ByteBuffer.wrap(new byte[] {'a'}), null, System.nanoTime() - 1);
+        serialWriter.enqueue("orion/topic/chassis/inbound", ByteBuffer.wrap(new byte[] {'b'}), null,
+            System.nanoTime() + TimeUnit.MINUTES.toNanos(1));
+        enqueue("orion/topic/chassis/inbound", "c");
+
+        serialWriter.start();
+
+        assertEquals("bc", writes.poll(1, TimeUnit.SECONDS));
+        assertEquals(1, serialWriter.getStats().expired());
+        assertEquals(0, serialWriter.getStats().dropped());
+    }
+
+    @Test
+    void tracedCommandRecordsUartWriteHop() throws InterruptedException {
+        serialWriter = writer(8, OverflowPolicy.DROP_OLDEST, 64);
+        final var trace = new TraceContext("trace-1", "gateway-received", TimeService.getEpochMicros());
+        serialWriter.enqueue("orion/topic/chassis/inbound", ByteBuffer.wrap(new byte[] {'a'}), trace);
+
+        serialWriter.start();
+
+        assertEquals("a", writes.poll(1, TimeUnit.SECONDS));
+        final var hop = "gateway-received -> " + SerialWriter.UART_WRITTEN_HOP;
+        for (int i = 0; i < 100 && !traceRecorder.getHopLatencies().containsKey(hop); i++) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertEquals(1, traceRecorder.getHopLatencies().get(hop).count());
+    }
+
+    @Test
+    void shortWritesAreRepeatedUntilTheBatchIsWritten() throws InterruptedException {
+        // the port takes at most two bytes per call
+        serialWriter = writer(8, OverflowPolicy.DROP_OLDEST, 64, 2);
+        enqueue("orion/topic/chassis/inbound", "abc");
+        enqueue("orion/topic/chassis/inbound", "de");
+
+        serialWriter.start();
+
+        assertEquals("ab", writes.poll(1, TimeUnit.SECONDS));
+        assertEquals("cd", writes.poll(1, TimeUnit.SECONDS));
+        assertEquals("e", writes.poll(1, TimeUnit.SECONDS));
+        awaitWritten(2);
+        assertEquals(3, serialWriter.getStats().writeCalls());
+        assertEquals(0, serialWriter.getStats().dropped());
+    }
+
+    @Test
+    void commandsCutOffByAFailedWriteAreDroppedWithoutTraceHop() throws InterruptedException {
+        final var accepted = new AtomicInteger(4);
+        serialWriter = new SerialWriter("/dev/ttyTEST0", (buffer, length) -> {
+            final int written = Math.min(length, accepted.getAndSet(-1));
+            if (written > 0) {
+                writes.add(new String(buffer, 0, written, StandardCharsets.UTF_8));
+            }
+            return written;
+        }, new DelimiterFraming(new byte[] {'\n', '\n'}, 4096), 8, OverflowPolicy.DROP_OLDEST, 64, traceRecorder);
+        final var trace = new TraceContext("trace-1", "gateway-received", TimeService.getEpochMicros());
+        enqueue("orion/topic/chassis/inbound", "abc");
+        serialWriter.enqueue("orion/topic/chassis/inbound", ByteBuffer.wrap(new byte[] {'d', 'e'}), trace);
+
+        serialWriter.start();
+
+        assertEquals("abcd", writes.poll(1, TimeUnit.SECONDS));
+        for (int i = 0; i < 100 && serialWriter.getStats().dropped() == 0; i++) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertEquals(1, serialWriter.getStats().written());
+        assertEquals(1, serialWriter.getStats().dropped());
+        assertTrue(traceRecorder.getHopLatencies().isEmpty());
+    }
+
+    private SerialWriter writer(int capacity, OverflowPolicy overflowPolicy, int maxBatchBytes) {
+        return writer(capacity, overflowPolicy, maxBatchBytes, Integer.MAX_VALUE);
+    }
+
+    private SerialWriter writer(int capacity, OverflowPolicy overflowPolicy, int maxBatchBytes, int maxBytesPerWrite) {
+        return new SerialWriter("/dev/ttyTEST0", (buffer, length) -> {
+            final int written = Math.min(length, maxBytesPerWrite);
+            writes.add(new String(Arrays.copyOf(buffer, written), StandardCharsets.UTF_8));
+            return written;
+        }, new DelimiterFraming(new byte[] {'\n', '\n'}, 4096), capacity, overflowPolicy, maxBatchBytes, traceRecorder);
+    }
+
+    private void awaitWritten(long commands) throws InterruptedException {
+        for (int i = 0; i < 100 && serialWriter.getStats().written() < commands; i++) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertEquals(commands, serialWriter.getStats().written());
+    }
+
+    private void enqueue(String topic, String payload) {
+        serialWriter.enqueue(topic, ByteBuffer.wrap(payload.getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer());
+    }
+}
@@ -0,0 +1,123 @@
+package pl.orion.uart_mqtt_gateway.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties;
+
+class TopicIndexRegistryTest {
+
+    @TempDir
+    Path cacheDirectory;
+
+    private final UartMqttGatewayProperties properties = properties(false);
+    private final TopicIndexRegistry registry = new TopicIndexRegistry(properties, new ObjectMapper());
+
+    @Test
+    void devicesGetLowestFreeIndexAndKeepIt() {
+        final var power = mapping("power");
+        final var science = mapping("science");
+
+        assertEquals(0, registry.indexOf(power, "0403:6001#A"));
+        assertEquals(1, registry.indexOf(power, "/dev/ttyUSB3"));
+        assertEquals(0, registry.indexOf(science, "/dev/ttyUSB3"));
+        assertEquals(0, registry.indexOf(power, "0403:6001#A"));
+    }
+
+    @Test
+    void pinnedIndexesAreReservedForTheirDevice() {
+        final var power = mapping("power");
+        power.setTopicIndexes(Map.of("0403:6001#B", 0, "/dev/ttyUSB1", 2));
+
+        assertEquals(1, registry.indexOf(power, "0403:6001#A"));
+        assertEquals(3, registry.indexOf(power, "0403:6001#C"));
+        assertEquals(0, registry.indexOf(power, "0403:6001#B"));
+        assertEquals(2, registry.indexOf(power, "/dev/ttyUSB1"));
+    }
+
+    @Test
+    void assignmentsSurviveRestart() {
+        final var properties = properties(true);
+        final var power = properties.getUartMqttMappingByEventType().get("power");
+        final var beforeRestart = restart(properties);
+        assertEquals(0, beforeRestart.indexOf(power, "0403:6001#A"));
+        assertEquals(1, beforeRestart.indexOf(power, "/dev/ttyUSB3"));
+
+        final var afterRestart = restart(properties);
+
+        // the second board comes up first this time
+        assertEquals(1, afterRestart.indexOf(power, "/dev/ttyUSB3"));
+        assertEquals(0, afterRestart.indexOf(power, "0403:6001#A"));
+        assertEquals(2, afterRestart.indexOf(power, "0403:6001#C"));
+    }
+
+    @Test
+    void storedIndexPinnedToAnotherDeviceSinceIsReassigned() {
+        final var properties = properties(true);
+        final var power = properties.getUartMqttMappingByEventType().get("power");
+        restart(properties).indexOf(power, "0403:6001#A");
+
+        power.setTopicIndexes(Map.of("0403:6001#B", 0));
+        final var afterRestart = restart(properties);
+
+        assertEquals(1, afterRestart.indexOf(power, "0403:6001#A"));
+        assertEquals(0, afterRestart.indexOf(power, "0403:6001#B"));
+    }
+
+    @Test
+    void assignmentsOfRemovedEventTypesAreDropped() {
+        final var properties = properties(true);
+        restart(properties).indexOf(properties.getUartMqttMappingByEventType().get("science"), "0403:6001#A");
+
+        final var withoutScience = properties(true);
+        withoutScience.setUartMqttMapping(List.of(mapping("power")));
+        restart(withoutScience).indexOf(withoutScience.getUartMqttMappingByEventType().get("power"), "/dev/ttyUSB0");
+        final var science = mapping("science");
+
+        assertEquals(0, restart(properties).indexOf(science, "/dev/ttyUSB1"));
+    }
+
+    @Test
+    void indexIsSubstitutedIntoBothTopics() {
+        final var topics = mapping("power").getMqtt().withIndex(4);
+
+        assertEquals("orion/topic/power/4/inbound", topics.getInbound());
+        assertEquals("orion/topic/power/4/outbound", topics.getOutbound());
+    }
+
+    private static TopicIndexRegistry restart(UartMqttGatewayProperties properties) {
+        final var registry = new TopicIndexRegistry(properties, new ObjectMapper());
+        registry.load();
+        return registry;
+    }
+
+    private UartMqttGatewayProperties properties(boolean persistent) {
+        final var properties = new UartMqttGatewayProperties();
+        properties.setSerial(new UartMqttGatewayProperties.Serial());
+        properties.getSerial().getIdentityCache().setEnabled(persistent);
+        if (persistent) {
+            properties.getSerial().getIdentityCache()
+                .setTopicIndexesFile(cacheDirectory.resolve("topic-indexes.json").toString());
+        }
+        properties.setUartMqttMapping(List.of(mapping("power"), mapping("science")));
+        return properties;
+    }
+
+    private static UartMqttGatewayProperties.UartMqttMapping mapping(String eventType) {
+        final var topics = new UartMqttGatewayProperties.UartMqttMapping.MqttMapping();
+        topics.setInbound("orion/topic/" + eventType + "/{index}/inbound");
+        topics.setOutbound("orion/topic/" + eventType + "/{index}/outbound");
+        final var mapping = new UartMqttGatewayProperties.UartMqttMapping();
+        mapping.setEventType(eventType);
+        mapping.setMqtt(topics);
+        return mapping;
+    }
+}
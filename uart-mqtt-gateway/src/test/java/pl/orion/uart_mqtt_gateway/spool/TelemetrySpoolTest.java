@@ -0,0 +1,222 @@
+package pl.orion.uart_mqtt_gateway.spool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties.Mqtt.StoreAndForward;
+import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties.UartMqttMapping.MqttMapping.Publication;
+
+class TelemetrySpoolTest {
+    private static final String TOPIC = "orion/topic/chassis/outbound";
+    private static final Publication PUBLICATION = new Publication();
+
+    @TempDir
+    Path directory;
+
+    private final List<String> published = new ArrayList<>();
+    private final AtomicLong clock = new AtomicLong(1_000_000);
+    private final List<TelemetrySpool> spools = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        spools.forEach(TelemetrySpool::stop);
+    }
+
+    @Test
+    void framesSpooledWhileDisconnectedAreReplayedInOrder() {
+        final var spool = spool(config(), this::acknowledge);
+        offer(spool, 0, 3);
+
+        spool.connected();
+        offer(spool, 3, 5);
+        replayAll(spool);
+
+        assertEquals(frames(0, 5), published);
+        assertFalse(spool.isSpooling());
+        assertFalse(spool.offer(TOPIC, frame(5), PUBLICATION));
+        assertEquals(5, spool.getStats().get(TOPIC).replayed());
+        assertEquals(0, spool.getStats().get(TOPIC).backlogFrames());
+    }
+
+    @Test
+    void replayIsRateCapped() {
+        final var config = config();
+        config.setReplayRatePerSecond(50);
+        final var spool = spool(config, this::acknowledge);
+        offer(spool, 0, 20);
+        spool.connected();
+
+        spool.replay();
+
+        assertEquals(50 * TelemetrySpool.REPLAY_TICK_MS / 1000, published.size());
+    }
+
+    @Test
+    void backlogDrainsWhileLiveRateExceedsTheCap() {
+        final var config = config();
+        config.setReplayRatePerSecond(50);
+        final var spool = spool(config, this::acknowledge);
+        offer(spool, 0, 20);
+        spool.connected();
+
+        // 10 live frames per tick against a cap of 5
+        for (int tick = 0; tick < 8; tick++) {
+            IntStream.range(20 + tick * 10, 30 + tick * 10).forEach(i -> {
+                if (!spool.offer(TOPIC, frame(i), PUBLICATION)) {
+                    acknowledge(TOPIC, frame(i), PUBLICATION);
+                }
+            });
+            spool.replay();
+        }
+
+        assertFalse(spool.isSpooling());
+        assertEquals(frames(0, 100), published);
+    }
+
+    @Test
+    void topicWithoutBacklogPublishesDirectlyAfterReconnect() {
+        final var spool = spool(config(), this::acknowledge);
+        offer(spool, 0, 3);
+        spool.connected();
+
+        assertFalse(spool.offer("orion/topic/power/outbound", frame(0), PUBLICATION));
+        assertTrue(spool.offer(TOPIC, frame(3), PUBLICATION));
+        assertTrue(spool.isSpooling());
+    }
+
+    @Test
+    void oldestSegmentsAreDroppedWhenSpoolIsFull() {
+        final var config = config();
+        config.setSegmentBytes(256);
+        config.setMaxBytesPerTopic(512);
+        final var spool = spool(config, this::acknowledge);
+        offer(spool, 0, 40);
+
+        final var stats = spool.getStats().get(TOPIC);
+        assertEquals(2, stats.segments());
+        assertTrue(stats.dropped() > 0);
+        assertEquals(40, stats.dropped() + stats.backlogFrames());
+
+        spool.connected();
+        replayAll(spool);
+        assertEquals(frames(40 - (int) stats.backlogFrames(), 40), published);
+    }
+
+    @Test
+    void framesLargerThanASegmentAreDroppedWhileSpooling() {
+        final var config = config();
+        config.setSegmentBytes(256);
+        final var spool = spool(config, this::acknowledge);
+        offer(spool, 0, 2);
+        spool.connected();
+
+        assertTrue(spool.offer(TOPIC, ByteBuffer.wrap(new byte[256]), PUBLICATION));
+        offer(spool, 2, 3);
+        replayAll(spool);
+
+        assertEquals(frames(0, 3), published);
+        assertEquals(1, spool.getStats().get(TOPIC).dropped());
+    }
+
+    @Test
+    void framesOlderThanMaxAgeAreNotReplayed() {
+        final var spool = spool(config(), this::acknowledge);
+        offer(spool, 0, 3);
+        clock.addAndGet(config().getMaxAgeSeconds() * 1000 + 1);
+        offer(spool, 3, 4);
+
+        spool.connected();
+        replayAll(spool);
+
+        assertEquals(frames(3, 4), published);
+        assertEquals(3, spool.getStats().get(TOPIC).expired());
+    }
+
+    @Test
+    void unacknowledgedFramesSurviveRestart() throws IOException {
+        final var config = config();
+        config.setReplayRatePerSecond(20);
+        final var spool = spool(config, this::acknowledge);
+        offer(spool, 0, 5);
+        spool.connected();
+        spool.replay();
+        spool.stop();
+
+        final var restarted = spool(config, this::acknowledge);
+        restarted.recover();
+        restarted.connected();
+        replayAll(restarted);
+
+        assertEquals(frames(0, 5), published);
+    }
+
+    @Test
+    void batchInterruptedByDisconnectIsReplayedAgain() {
+        final var spool = new TelemetrySpool[1];
+        spool[0] = spool(config(), (topic, payload, publication) -> {
+            spool[0].disconnected();
+            return CompletableFuture.failedFuture(new IOException("connection lost"));
+        });
+        offer(spool[0], 0, 2);
+        spool[0].connected();
+        spool[0].replay();
+
+        assertEquals(2, spool[0].getStats().get(TOPIC).backlogFrames());
+    }
+
+    private TelemetrySpool spool(StoreAndForward config, TelemetrySpool.Publisher publisher) {
+        final var spool = new TelemetrySpool(config, publisher, clock::get, PUBLICATION);
+        spools.add(spool);
+        return spool;
+    }
+
+    private StoreAndForward config() {
+        final var config = new StoreAndForward();
+        config.setEnabled(true);
+        config.setDirectory(directory.toString());
+        config.setSegmentBytes(4096);
+        config.setMaxBytesPerTopic(64 * 1024);
+        config.setReplayRatePerSecond(10_000);
+        return config;
+    }
+
+    private CompletableFuture<?> acknowledge(String topic, ByteBuffer payload, Publication publication) {
+        published.add(StandardCharsets.UTF_8.decode(payload).toString());
+        return CompletableFuture.completedFuture(null);
+    }
+
+    private void offer(TelemetrySpool spool, int from, int to) {
+        IntStream.range(from, to).forEach(i -> assertTrue(spool.offer(TOPIC, frame(i), PUBLICATION)));
+    }
+
+    private static void replayAll(TelemetrySpool spool) {
+        for (int i = 0; i < 100 && spool.isSpooling(); i++) {
+            spool.replay();
+        }
+    }
+
+    private static ByteBuffer frame(int sequence) {
+        return ByteBuffer.wrap(("{\"eventType\":\"chassis\",\"seq\":" + sequence + "}").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static List<String> frames(int from, int to) {
+        return IntStream.range(from, to)
+            .mapToObj(i -> StandardCharsets.UTF_8.decode(frame(i)).toString())
+            .toList();
+    }
+}
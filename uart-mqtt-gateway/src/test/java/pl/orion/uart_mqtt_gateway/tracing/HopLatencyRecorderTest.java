@@ -0,0 +1,48 @@
+package pl.orion.uart_mqtt_gateway.tracing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+class HopLatencyRecorderTest {
+
+    private final HopLatencyRecorder recorder = new HopLatencyRecorder();
+
+    @Test
+    void recordsLatencyFromTheUpstreamHop() {
+        var trace = new TraceContext("trace-1", "controller-published", 10_000);
+
+        trace = recorder.recordHop(trace, "gateway-received", 12_000);
+        recorder.recordHop(trace, "uart-written", 12_500);
+
+        final var latencies = recorder.getHopLatencies();
+        assertEquals(2.0, latencies.get("controller-published -> gateway-received").p50Ms(), 0.01);
+        assertEquals(0.5, latencies.get("gateway-received -> uart-written").p99Ms(), 0.01);
+        assertEquals(1, latencies.get("gateway-received -> uart-written").count());
+    }
+
+    @Test
+    void traceSampledAtTheGatewayIsMeasuredFromItsFirstHop() {
+        recorder.recordHop(recorder.recordHop(TraceContext.sampled(), "gateway-received", 12_000), "uart-written", 12_500);
+
+        assertEquals(Set.of("gateway-received -> uart-written"), recorder.getHopLatencies().keySet());
+    }
+
+    @Test
+    void hostClocksDisagreeingDoNotRecordNegativeLatency() {
+        recorder.recordHop(new TraceContext("trace-1", "controller-published", 10_000), "gateway-received", 9_000);
+
+        assertEquals(0.0, recorder.getHopLatencies().get("controller-published -> gateway-received").maxMs());
+    }
+
+    @Test
+    void resetKeepsHopsButClearsCounts() {
+        recorder.recordHop(new TraceContext("trace-1", "gateway-received", 10_000), "uart-written", 10_500);
+
+        recorder.reset();
+
+        assertEquals(0, recorder.getHopLatencies().get("gateway-received -> uart-written").count());
+    }
+}
@@ -0,0 +1,50 @@
+package pl.orion.uart_mqtt_gateway.tracing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.Test;
+
+import com.hivemq.client.mqtt.mqtt5.datatypes.Mqtt5UserProperties;
+
+class TraceContextTest {
+
+    @Test
+    void keepsTheLastHopRecordedUpstream() {
+        final var properties = Mqtt5UserProperties.builder()
+            .add("content-type", "json")
+            .add("orion-trace-id", "trace-1")
+            .add("orion-trace-hop", "ground-control@1000")
+            .add("orion-trace-hop", "controller-received@1500")
+            .add("orion-trace-hop", "controller-published@1700")
+            .build();
+
+        assertEquals(new TraceContext("trace-1", "controller-published", 1_700), TraceContext.fromUserProperties(properties));
+    }
+
+    @Test
+    void malformedHopsAreSkipped() {
+        final var properties = Mqtt5UserProperties.builder()
+            .add("orion-trace-id", "trace-1")
+            .add("orion-trace-hop", "controller-published@1700")
+            .add("orion-trace-hop", "broker@soon")
+            .add("orion-trace-hop", "@1800")
+            .build();
+
+        assertEquals(new TraceContext("trace-1", "controller-published", 1_700), TraceContext.fromUserProperties(properties));
+    }
+
+    @Test
+    void messagesWithoutTraceIdAreNotTraced() {
+        assertNull(TraceContext.fromUserProperties(Mqtt5UserProperties.of()));
+        assertNull(TraceContext.fromUserProperties(Mqtt5UserProperties.builder().add("orion-trace-hop", "a@1").build()));
+    }
+
+    @Test
+    void traceSampledAtTheGatewayStartsWithoutHop() {
+        final var trace = TraceContext.sampled();
+
+        assertNull(trace.lastHop());
+        assertEquals(trace.traceId(), trace.withHop("gateway-received", 2_000).traceId());
+    }
+}
@@ -0,0 +1,87 @@
+package pl.orion.uart_mqtt_gateway.transcoding;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties.UartMqttMapping.Transcoding;
+import pl.orion.uart_mqtt_gateway.config.UartMqttGatewayProperties.UartMqttMapping.Transcoding.Field.Type;
+
+class BinaryTranscoderTest {
+
+    private final BinaryTranscoder transcoder = BinaryTranscoder.create("chassis", transcoding(
+        struct("pwm", 1, field("left", Type.INT16), field("right", Type.INT16), field("durationMs", Type.UINT16)),
+        struct("stop", 2, field("brake", Type.BOOL))));
+
+    @Test
+    void commandIsPackedWhateverTheMemberOrder() throws IOException {
+        final byte[] json = ("{\"payload\":{\"right\":-40,\"ignored\":[1,2],\"left\":120},"
+            + "\"eventType\":\"chassis\",\"mode\":\"pwm\"}").getBytes(StandardCharsets.UTF_8);
+        final byte[] out = new byte[transcoder.maxStructBytes()];
+
+        final int length = transcoder.toBinary(ByteBuffer.wrap(json), out, 0);
+
+        assertArrayEquals(new byte[] {1, 120, 0, (byte) 0xd8, (byte) 0xff, 0, 0}, Arrays.copyOf(out, length));
+    }
+
+    @Test
+    void structIsPublishedAsJson() throws IOException {
+        final byte[] frame = {1, 120, 0, (byte) 0xd8, (byte) 0xff, (byte) 0xe8, 0x03};
+
+        final String json = new String(transcoder.toJson(frame), StandardCharsets.UTF_8);
+
+        assertEquals("{\"eventType\":\"chassis\",\"mode\":\"pwm\",\"payload\":{\"left\":120,\"right\":-40,\"durationMs\":1000}}", json);
+    }
+
+    @Test
+    void jsonFramesPassThrough() throws IOException {
+        final byte[] hello = "{\"eventType\":\"chassis\"}".getBytes(StandardCharsets.UTF_8);
+        final byte[] unknownMode = "{\"eventType\":\"chassis\",\"mode\":\"calibrate\",\"payload\":{}}".getBytes(StandardCharsets.UTF_8);
+
+        assertSame(hello, transcoder.toJson(hello));
+        assertEquals(-1, transcoder.toBinary(ByteBuffer.wrap(unknownMode), new byte[transcoder.maxStructBytes()], 0));
+    }
+
+    @Test
+    void valuesOutsideTheFieldAreRejected() {
+        final byte[] json = "{\"mode\":\"pwm\",\"payload\":{\"durationMs\":70000}}".getBytes(StandardCharsets.UTF_8);
+
+        assertThrows(IOException.class, () -> transcoder.toBinary(ByteBuffer.wrap(json), new byte[transcoder.maxStructBytes()], 0));
+        assertThrows(IOException.class, () -> transcoder.toJson(new byte[] {1, 0}));
+    }
+
+    @Test
+    void structIdOfJsonFramesIsReserved() {
+        assertThrows(IllegalArgumentException.class, () -> BinaryTranscoder.create("chassis", transcoding(struct(null, '{'))));
+    }
+
+    private static Transcoding transcoding(Transcoding.Struct... structs) {
+        final var transcoding = new Transcoding();
+        transcoding.setStructs(List.of(structs));
+        return transcoding;
+    }
+
+    private static Transcoding.Struct struct(String mode, int id, Transcoding.Field... fields) {
+        final var struct = new Transcoding.Struct();
+        struct.setMode(mode);
+        struct.setId(id);
+        struct.setFields(List.of(fields));
+        return struct;
+    }
+
+    private static Transcoding.Field field(String name, Type type) {
+        final var field = new Transcoding.Field();
+        field.setName(name);
+        field.setType(type);
+        return field;
+    }
+}